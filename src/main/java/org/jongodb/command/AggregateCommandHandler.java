@@ -54,6 +54,19 @@ public final class AggregateCommandHandler implements CommandHandler {
             pipeline.add(stageValue.asDocument());
         }
 
+        final BsonValue explainValue = command.get("explain");
+        if (explainValue != null && !explainValue.isBoolean()) {
+            return CommandErrors.typeMismatch("explain must be a boolean");
+        }
+        if (explainValue != null && explainValue.asBoolean().getValue()) {
+            try {
+                return store.explainAggregate(database, collection, List.copyOf(pipeline), collation)
+                        .append("ok", new BsonDouble(1.0));
+            } catch (final IllegalArgumentException exception) {
+                return CommandExceptionMapper.fromIllegalArgument(exception);
+            }
+        }
+
         int batchSize = Integer.MAX_VALUE;
         final BsonValue cursorValue = command.get("cursor");
         if (cursorValue != null) {
@@ -3,6 +3,7 @@ package org.jongodb.command;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import org.bson.BsonArray;
 import org.bson.BsonBoolean;
@@ -13,7 +14,7 @@ import org.bson.BsonNumber;
 import org.bson.BsonString;
 import org.bson.BsonValue;
 
-public final class BulkWriteCommandHandler implements CommandHandler {
+public final class BulkWriteCommandHandler implements DocumentSequenceCommandHandler {
     private static final Set<String> SUPPORTED_OPERATIONS =
             Set.of("insertone", "updateone", "updatemany", "deleteone", "deletemany", "replaceone");
 
@@ -30,7 +31,7 @@ public final class BulkWriteCommandHandler implements CommandHandler {
     }
 
     @Override
-    public BsonDocument handle(final BsonDocument command) {
+    public BsonDocument handle(final BsonDocument command, final Map<String, List<BsonDocument>> documentSequences) {
         final String database = readDatabase(command);
         final String collection = readCollection(command);
         if (collection == null) {
@@ -56,7 +57,7 @@ public final class BulkWriteCommandHandler implements CommandHandler {
             return CommandErrors.badValue("bulkWrite currently supports ordered=true only");
         }
 
-        final ParsedOperations parsedOperations = parseOperations(command);
+        final ParsedOperations parsedOperations = parseOperations(command, documentSequences);
         if (parsedOperations.error() != null) {
             return parsedOperations.error();
         }
@@ -254,19 +255,25 @@ public final class BulkWriteCommandHandler implements CommandHandler {
         return new OperationCounts(0, matchedCount, nModified, 0, mappedUpserts.size(), List.copyOf(mappedUpserts));
     }
 
-    private static ParsedOperations parseOperations(final BsonDocument command) {
-        final BsonValue operationsValue = command.get("operations");
-        final BsonValue requestsValue = command.get("requests");
-        if (operationsValue != null && requestsValue != null) {
+    private static ParsedOperations parseOperations(
+            final BsonDocument command, final Map<String, List<BsonDocument>> documentSequences) {
+        final boolean hasOperations = command.containsKey("operations") || documentSequences.containsKey("operations");
+        final boolean hasRequests = command.containsKey("requests") || documentSequences.containsKey("requests");
+        if (hasOperations && hasRequests) {
             return ParsedOperations.error(CommandErrors.badValue("operations and requests cannot both be specified"));
         }
 
-        final BsonValue effectiveOperationsValue = operationsValue == null ? requestsValue : operationsValue;
-        if (effectiveOperationsValue == null || !effectiveOperationsValue.isArray()) {
-            return ParsedOperations.error(CommandErrors.typeMismatch("operations must be an array"));
+        final String operationsField = hasRequests ? "requests" : "operations";
+        final List<? extends BsonValue> operationsArray;
+        if (documentSequences.containsKey(operationsField)) {
+            operationsArray = documentSequences.get(operationsField);
+        } else {
+            final BsonValue effectiveOperationsValue = command.get(operationsField);
+            if (effectiveOperationsValue == null || !effectiveOperationsValue.isArray()) {
+                return ParsedOperations.error(CommandErrors.typeMismatch("operations must be an array"));
+            }
+            operationsArray = effectiveOperationsValue.asArray().getValues();
         }
-
-        final BsonArray operationsArray = effectiveOperationsValue.asArray();
         if (operationsArray.isEmpty()) {
             return ParsedOperations.error(CommandErrors.badValue("operations must not be empty"));
         }
@@ -1,11 +1,18 @@
 package org.jongodb.command;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Supplier;
+import org.bson.BsonArray;
 import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.jongodb.engine.CollationSupport;
 import org.jongodb.engine.WriteConflictException;
 import org.jongodb.txn.SessionTransactionPool;
@@ -30,8 +37,38 @@ public final class CommandDispatcher {
             final TopologyProfile topologyProfile,
             final String helloPrimaryAddress,
             final String replicaSetName) {
+        this(store, topologyProfile, helloPrimaryAddress, replicaSetName, List.of());
+    }
+
+    /**
+     * @param helloCompressors wire compressor names offered to clients during {@code hello} negotiation
+     */
+    public CommandDispatcher(
+            final CommandStore store,
+            final TopologyProfile topologyProfile,
+            final String helloPrimaryAddress,
+            final String replicaSetName,
+            final List<String> helloCompressors) {
+        this(
+                store,
+                topologyProfile,
+                helloPrimaryAddress,
+                replicaSetName,
+                helloCompressors,
+                Clock.systemUTC(),
+                SessionTransactionPool.DEFAULT_TRANSACTION_LIFETIME);
+    }
+
+    CommandDispatcher(
+            final CommandStore store,
+            final TopologyProfile topologyProfile,
+            final String helloPrimaryAddress,
+            final String replicaSetName,
+            final List<String> helloCompressors,
+            final Clock clock,
+            final Duration transactionLifetime) {
         this.globalStore = Objects.requireNonNull(store, "store");
-        this.sessionPool = new SessionTransactionPool();
+        this.sessionPool = new SessionTransactionPool(clock, transactionLifetime, globalStore::releaseTransactionSnapshot);
         this.transactionValidator = new TransactionCommandValidator(sessionPool);
         this.topologyProfile = Objects.requireNonNull(topologyProfile, "topologyProfile");
         final CursorRegistry cursorRegistry = new CursorRegistry();
@@ -41,8 +78,12 @@ public final class CommandDispatcher {
         });
 
         final Map<String, CommandHandler> configuredHandlers = new HashMap<>();
-        configuredHandlers.put("hello", new HelloCommandHandler(this.topologyProfile, helloPrimaryAddress, replicaSetName));
-        configuredHandlers.put("ismaster", new HelloCommandHandler(this.topologyProfile, helloPrimaryAddress, replicaSetName));
+        configuredHandlers.put(
+                "hello",
+                new HelloCommandHandler(this.topologyProfile, helloPrimaryAddress, replicaSetName, helloCompressors));
+        configuredHandlers.put(
+                "ismaster",
+                new HelloCommandHandler(this.topologyProfile, helloPrimaryAddress, replicaSetName, helloCompressors));
         configuredHandlers.put("ping", new PingCommandHandler());
         configuredHandlers.put("buildinfo", new BuildInfoCommandHandler());
         configuredHandlers.put("getparameter", new GetParameterCommandHandler());
@@ -72,6 +113,17 @@ public final class CommandDispatcher {
     }
 
     public BsonDocument dispatch(final BsonDocument command) {
+        return dispatch(command, Map.of());
+    }
+
+    /**
+     * Dispatches a command whose array arguments arrived as OP_MSG document sequences, keyed by field name. A
+     * {@link DocumentSequenceCommandHandler} receives them as given; for other handlers, or when a sequence shares its
+     * name with a command field, they are merged into the command as arrays first.
+     */
+    public BsonDocument dispatch(
+            final BsonDocument command, final Map<String, List<BsonDocument>> documentSequences) {
+        Objects.requireNonNull(documentSequences, "documentSequences");
         if (command == null || command.isEmpty()) {
             return CommandErrors.badValue("command document must not be empty");
         }
@@ -81,7 +133,36 @@ public final class CommandDispatcher {
         if (handler == null) {
             return CommandErrors.commandNotFound(commandName);
         }
+        if (documentSequences.isEmpty()) {
+            return dispatch(commandName, handler, command);
+        }
+        if (handler instanceof DocumentSequenceCommandHandler sequenceHandler
+                && Collections.disjoint(command.keySet(), documentSequences.keySet())) {
+            return dispatch(
+                    commandName,
+                    sequenceCommand -> sequenceHandler.handle(sequenceCommand, documentSequences),
+                    command);
+        }
 
+        final BsonDocument merged = new BsonDocument();
+        for (final Map.Entry<String, BsonValue> field : command.entrySet()) {
+            merged.put(field.getKey(), field.getValue());
+        }
+        for (final Map.Entry<String, List<BsonDocument>> sequence : documentSequences.entrySet()) {
+            final BsonValue existing = merged.get(sequence.getKey());
+            if (existing != null && !existing.isArray()) {
+                return CommandErrors.badValue(
+                        "document sequence '" + sequence.getKey() + "' conflicts with a non-array command field");
+            }
+            final BsonArray values = existing == null ? new BsonArray() : new BsonArray(existing.asArray().getValues());
+            values.addAll(sequence.getValue());
+            merged.put(sequence.getKey(), values);
+        }
+        return dispatch(commandName, handler, merged);
+    }
+
+    private BsonDocument dispatch(final String commandName, final CommandHandler handler, final BsonDocument command) {
+        sessionPool.reapExpiredTransactionsIfDue();
         final ValidationResult validation = transactionValidator.validate(commandName, command);
         if (validation.error() != null) {
             return validation.error();
@@ -101,22 +182,29 @@ public final class CommandDispatcher {
             final boolean started =
                     sessionPool.startTransaction(validation.sessionId(), validation.txnNumber(), transactionStore);
             if (!started) {
+                globalStore.releaseTransactionSnapshot(transactionStore);
                 return CommandErrors.badValue("transaction already in progress for this session");
             }
         }
 
         if (validation.commitTransaction()) {
             final SessionTransactionPool.ActiveTransaction activeTransaction =
-                    sessionPool.activeTransaction(validation.sessionId(), validation.txnNumber());
+                    sessionPool.acquireTransaction(validation.sessionId(), validation.txnNumber());
             if (activeTransaction != null) {
                 try {
-                    globalStore.publishTransactionSnapshot(activeTransaction.store());
-                } catch (final WriteConflictException conflict) {
-                    sessionPool.completeTransaction(validation.sessionId(), validation.txnNumber(), TerminalState.ABORTED);
-                    return CommandErrors.writeConflict(conflict.getMessage());
-                }
-                if (!sessionPool.completeTransaction(validation.sessionId(), validation.txnNumber(), TerminalState.COMMITTED)) {
-                    return noSuchTransactionError(commandName);
+                    try {
+                        globalStore.publishTransactionSnapshot(activeTransaction.store());
+                    } catch (final WriteConflictException conflict) {
+                        sessionPool.completeTransaction(
+                                validation.sessionId(), validation.txnNumber(), TerminalState.ABORTED);
+                        return CommandErrors.writeConflict(conflict.getMessage());
+                    }
+                    if (!sessionPool.completeTransaction(
+                            validation.sessionId(), validation.txnNumber(), TerminalState.COMMITTED)) {
+                        return noSuchTransactionError(commandName);
+                    }
+                } finally {
+                    sessionPool.releaseTransaction(activeTransaction);
                 }
                 return handler.handle(command);
             }
@@ -139,11 +227,16 @@ public final class CommandDispatcher {
             return noSuchTransactionError(commandName);
         }
 
-        final CommandStore transactionStore = sessionPool.transactionStore(validation.sessionId(), validation.txnNumber());
-        if (transactionStore == null) {
+        final SessionTransactionPool.ActiveTransaction activeTransaction =
+                sessionPool.acquireTransaction(validation.sessionId(), validation.txnNumber());
+        if (activeTransaction == null) {
             return noSuchTransactionError(commandName);
         }
-        return dispatchWithStore(transactionStore, handler, command);
+        try {
+            return dispatchWithStore(activeTransaction.store(), handler, command);
+        } finally {
+            sessionPool.releaseTransaction(activeTransaction);
+        }
     }
 
     private static BsonDocument noSuchTransactionError(final String commandName) {
@@ -174,12 +267,18 @@ public final class CommandDispatcher {
         }
 
         @Override
-        public int insert(final String database, final String collection, final java.util.List<BsonDocument> documents) {
+        public int insert(final String database, final String collection, final List<BsonDocument> documents) {
             return delegate().insert(database, collection, documents);
         }
 
         @Override
-        public java.util.List<CollectionMetadata> listCollections(final String database) {
+        public int bulkInsert(
+                final String database, final String collection, final List<BsonDocument> documents) {
+            return delegate().bulkInsert(database, collection, documents);
+        }
+
+        @Override
+        public List<CollectionMetadata> listCollections(final String database) {
             return delegate().listCollections(database);
         }
 
@@ -194,13 +293,13 @@ public final class CommandDispatcher {
         }
 
         @Override
-        public java.util.List<BsonDocument> find(
+        public List<BsonDocument> find(
                 final String database, final String collection, final BsonDocument filter) {
             return delegate().find(database, collection, filter);
         }
 
         @Override
-        public java.util.List<BsonDocument> find(
+        public List<BsonDocument> find(
                 final String database,
                 final String collection,
                 final BsonDocument filter,
@@ -209,20 +308,38 @@ public final class CommandDispatcher {
         }
 
         @Override
-        public java.util.List<BsonDocument> aggregate(
-                final String database, final String collection, final java.util.List<BsonDocument> pipeline) {
+        public Iterator<BsonDocument> findIterator(
+                final String database,
+                final String collection,
+                final BsonDocument filter,
+                final CollationSupport.Config collation) {
+            return delegate().findIterator(database, collection, filter, collation);
+        }
+
+        @Override
+        public List<BsonDocument> aggregate(
+                final String database, final String collection, final List<BsonDocument> pipeline) {
             return delegate().aggregate(database, collection, pipeline);
         }
 
         @Override
-        public java.util.List<BsonDocument> aggregate(
+        public List<BsonDocument> aggregate(
                 final String database,
                 final String collection,
-                final java.util.List<BsonDocument> pipeline,
+                final List<BsonDocument> pipeline,
                 final CollationSupport.Config collation) {
             return delegate().aggregate(database, collection, pipeline, collation);
         }
 
+        @Override
+        public BsonDocument explainAggregate(
+                final String database,
+                final String collection,
+                final List<BsonDocument> pipeline,
+                final CollationSupport.Config collation) {
+            return delegate().explainAggregate(database, collection, pipeline, collation);
+        }
+
         @Override
         public CommandStore snapshotForTransaction() {
             return delegate().snapshotForTransaction();
@@ -233,24 +350,29 @@ public final class CommandDispatcher {
             delegate().publishTransactionSnapshot(snapshot);
         }
 
+        @Override
+        public void releaseTransactionSnapshot(final CommandStore snapshot) {
+            delegate().releaseTransactionSnapshot(snapshot);
+        }
+
         @Override
         public CreateIndexesResult createIndexes(
-                final String database, final String collection, final java.util.List<IndexRequest> indexes) {
+                final String database, final String collection, final List<IndexRequest> indexes) {
             return delegate().createIndexes(database, collection, indexes);
         }
 
         @Override
-        public java.util.List<IndexMetadata> listIndexes(final String database, final String collection) {
+        public List<IndexMetadata> listIndexes(final String database, final String collection) {
             return delegate().listIndexes(database, collection);
         }
 
         @Override
-        public UpdateResult update(final String database, final String collection, final java.util.List<UpdateRequest> updates) {
+        public UpdateResult update(final String database, final String collection, final List<UpdateRequest> updates) {
             return delegate().update(database, collection, updates);
         }
 
         @Override
-        public int delete(final String database, final String collection, final java.util.List<DeleteRequest> deletes) {
+        public int delete(final String database, final String collection, final List<DeleteRequest> deletes) {
             return delegate().delete(database, collection, deletes);
         }
 
@@ -1,14 +1,24 @@
 package org.jongodb.command;
 
+import java.util.Iterator;
 import java.util.List;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
+import org.bson.BsonString;
 import org.bson.BsonValue;
 import org.jongodb.engine.CollationSupport;
 
 public interface CommandStore {
     int insert(String database, String collection, List<BsonDocument> documents);
 
+    /**
+     * Insert path for large batches, which stores may make visible progressively rather than atomically. Defaults to
+     * {@link #insert}.
+     */
+    default int bulkInsert(final String database, final String collection, final List<BsonDocument> documents) {
+        return insert(database, collection, documents);
+    }
+
     default List<CollectionMetadata> listCollections(final String database) {
         return List.of();
     }
@@ -31,6 +41,18 @@ public interface CommandStore {
         return find(database, collection, filter);
     }
 
+    /**
+     * Matching documents in natural order, produced as the caller consumes them. Stores that can page lazily
+     * override this so cursors do not materialize a whole collection up front.
+     */
+    default Iterator<BsonDocument> findIterator(
+            final String database,
+            final String collection,
+            final BsonDocument filter,
+            final CollationSupport.Config collation) {
+        return find(database, collection, filter, collation).iterator();
+    }
+
     /**
      * Default fallback for test doubles that do not yet model aggregation pipelines.
      */
@@ -46,6 +68,23 @@ public interface CommandStore {
         return aggregate(database, collection, pipeline);
     }
 
+    /**
+     * Describes how {@link #aggregate} would run the pipeline, as the body of an {@code explain} reply. The default
+     * reports every stage running over a collection scan.
+     */
+    default BsonDocument explainAggregate(
+            final String database,
+            final String collection,
+            final List<BsonDocument> pipeline,
+            final CollationSupport.Config collation) {
+        final BsonArray stages = new BsonArray();
+        stages.add(new BsonDocument("$cursor", new BsonDocument("queryPlanner", new BsonDocument(
+                "namespace", new BsonString(database + "." + collection))
+                .append("winningPlan", new BsonDocument("stage", new BsonString("COLLSCAN"))))));
+        stages.addAll(pipeline);
+        return new BsonDocument("explainVersion", new BsonString("1")).append("stages", stages);
+    }
+
     /**
      * Creates a transaction-local snapshot for command execution.
      *
@@ -63,6 +102,13 @@ public interface CommandStore {
      */
     default void publishTransactionSnapshot(CommandStore snapshot) {}
 
+    /**
+     * Releases a transaction snapshot once its transaction commits or aborts.
+     *
+     * <p>The default implementation is a no-op for stores whose snapshots hold no shared resources.
+     */
+    default void releaseTransactionSnapshot(CommandStore snapshot) {}
+
     /**
      * Clears store state for test-only fast reset flows.
      *
@@ -1,51 +1,135 @@
 package org.jongodb.command;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import org.bson.BsonDocument;
 
+/**
+ * Open cursors backed by document iterators. Batches are pulled from the source on demand, so a cursor only
+ * materializes what it returns; pulls run under the cursor's own lock rather than the registry lock.
+ *
+ * <p>Cursors are kept in least-recently-used order. Cursors idle for longer than the timeout are reaped whenever
+ * the registry is touched, and the least recently used cursors are evicted once the open-cursor or retained-document
+ * budget is exceeded, so clients that abandon cursors without killing them do not pin memory.
+ */
 final class CursorRegistry {
-    private final Map<Long, CursorState> cursors = new HashMap<>();
+    static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+    static final int DEFAULT_MAX_OPEN_CURSORS = 16_384;
+    static final long DEFAULT_MAX_RETAINED_DOCUMENTS = 1_000_000L;
+
+    private final Map<Long, CursorState> cursors = new LinkedHashMap<>(16, 0.75f, true);
+    private final Clock clock;
+    private final long idleTimeoutMillis;
+    private final int maxOpenCursors;
+    private final long maxRetainedDocuments;
+    private long retainedDocuments;
     private long nextCursorId = 1L;
 
-    synchronized FindRegistration openCursor(
+    CursorRegistry() {
+        this(Clock.systemUTC(), DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_OPEN_CURSORS, DEFAULT_MAX_RETAINED_DOCUMENTS);
+    }
+
+    CursorRegistry(
+            final Clock clock,
+            final Duration idleTimeout,
+            final int maxOpenCursors,
+            final long maxRetainedDocuments) {
+        this.clock = Objects.requireNonNull(clock, "clock");
+        Objects.requireNonNull(idleTimeout, "idleTimeout");
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+        if (maxOpenCursors < 1) {
+            throw new IllegalArgumentException("maxOpenCursors must be positive");
+        }
+        if (maxRetainedDocuments < 0) {
+            throw new IllegalArgumentException("maxRetainedDocuments must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.maxOpenCursors = maxOpenCursors;
+        this.maxRetainedDocuments = maxRetainedDocuments;
+    }
+
+    FindRegistration openCursor(
             final String namespace, final List<BsonDocument> documents, final int firstBatchSize) {
+        Objects.requireNonNull(documents, "documents");
+        return openCursor(namespace, documents.iterator(), documents.size(), firstBatchSize);
+    }
+
+    FindRegistration openCursor(
+            final String namespace, final Iterator<BsonDocument> documents, final int firstBatchSize) {
+        return openCursor(namespace, documents, 0, firstBatchSize);
+    }
+
+    private FindRegistration openCursor(
+            final String namespace,
+            final Iterator<BsonDocument> documents,
+            final int materializedDocuments,
+            final int firstBatchSize) {
         Objects.requireNonNull(namespace, "namespace");
         Objects.requireNonNull(documents, "documents");
 
-        final int safeBatchSize = Math.max(0, firstBatchSize);
-        final int firstBatchCount = Math.min(safeBatchSize, documents.size());
-        final List<BsonDocument> firstBatch = cloneDocuments(documents, 0, firstBatchCount);
-        final List<BsonDocument> remainingDocuments = cloneDocuments(documents, firstBatchCount, documents.size());
-        if (remainingDocuments.isEmpty()) {
+        final List<BsonDocument> firstBatch = nextBatch(documents, firstBatchSize);
+        if (!documents.hasNext()) {
             return new FindRegistration(0L, firstBatch);
         }
 
-        final long cursorId = allocateCursorId();
-        cursors.put(cursorId, new CursorState(namespace, remainingDocuments));
-        return new FindRegistration(cursorId, firstBatch);
+        final long retained = Math.max(0, materializedDocuments - firstBatch.size());
+        synchronized (this) {
+            final long now = clock.millis();
+            reapIdle(now);
+            final long cursorId = allocateCursorId();
+            cursors.put(cursorId, new CursorState(namespace, documents, retained, now));
+            retainedDocuments += retained;
+            enforceBudget(cursorId);
+            return new FindRegistration(cursorId, firstBatch);
+        }
     }
 
-    synchronized GetMoreResult getMore(final long cursorId, final String namespace, final int batchSize) {
+    GetMoreResult getMore(final long cursorId, final String namespace, final int batchSize) {
         Objects.requireNonNull(namespace, "namespace");
-        final CursorState cursorState = cursors.get(cursorId);
-        if (cursorState == null || !cursorState.namespace.equals(namespace)) {
-            return GetMoreResult.notFound();
+        final CursorState cursorState;
+        synchronized (this) {
+            final long now = clock.millis();
+            reapIdle(now);
+            cursorState = cursors.get(cursorId);
+            if (cursorState == null || !cursorState.namespace.equals(namespace)) {
+                return GetMoreResult.notFound();
+            }
+            cursorState.lastUsedMillis = now;
         }
 
-        final int safeBatchSize = Math.max(0, batchSize);
-        final int batchCount = Math.min(safeBatchSize, cursorState.remainingDocuments.size());
-        final List<BsonDocument> nextBatch = List.copyOf(cursorState.remainingDocuments.subList(0, batchCount));
-        if (batchCount >= cursorState.remainingDocuments.size()) {
-            cursors.remove(cursorId);
-            return new GetMoreResult(true, 0L, nextBatch);
+        final List<BsonDocument> nextBatch;
+        final boolean exhausted;
+        try {
+            synchronized (cursorState) {
+                nextBatch = nextBatch(cursorState.documents, batchSize);
+                exhausted = !cursorState.documents.hasNext();
+            }
+        } catch (final RuntimeException exception) {
+            synchronized (this) {
+                remove(cursorId, cursorState);
+            }
+            throw exception;
         }
 
-        cursorState.remainingDocuments = List.copyOf(
-                cursorState.remainingDocuments.subList(batchCount, cursorState.remainingDocuments.size()));
+        synchronized (this) {
+            if (exhausted) {
+                remove(cursorId, cursorState);
+                return new GetMoreResult(true, 0L, nextBatch);
+            }
+            if (cursors.get(cursorId) == cursorState) {
+                final long released = Math.min(cursorState.retainedDocuments, nextBatch.size());
+                cursorState.retainedDocuments -= released;
+                retainedDocuments -= released;
+            }
+        }
         return new GetMoreResult(true, cursorId, nextBatch);
     }
 
@@ -65,12 +149,47 @@ final class CursorRegistry {
                 notFound.add(cursorId);
                 continue;
             }
-            cursors.remove(cursorId);
+            remove(cursorId, cursorState);
             killed.add(cursorId);
         }
         return new KillResult(List.copyOf(killed), List.copyOf(notFound));
     }
 
+    synchronized int openCursorCount() {
+        return cursors.size();
+    }
+
+    private void reapIdle(final long nowMillis) {
+        final Iterator<CursorState> iterator = cursors.values().iterator();
+        while (iterator.hasNext()) {
+            final CursorState cursorState = iterator.next();
+            if (nowMillis - cursorState.lastUsedMillis < idleTimeoutMillis) {
+                // Access order keeps the least recently used cursors first.
+                return;
+            }
+            iterator.remove();
+            retainedDocuments -= cursorState.retainedDocuments;
+        }
+    }
+
+    private void enforceBudget(final long keepCursorId) {
+        final Iterator<Map.Entry<Long, CursorState>> iterator = cursors.entrySet().iterator();
+        while ((cursors.size() > maxOpenCursors || retainedDocuments > maxRetainedDocuments) && iterator.hasNext()) {
+            final Map.Entry<Long, CursorState> eldest = iterator.next();
+            if (eldest.getKey() == keepCursorId) {
+                continue;
+            }
+            iterator.remove();
+            retainedDocuments -= eldest.getValue().retainedDocuments;
+        }
+    }
+
+    private void remove(final long cursorId, final CursorState cursorState) {
+        if (cursors.remove(cursorId, cursorState)) {
+            retainedDocuments -= cursorState.retainedDocuments;
+        }
+    }
+
     private long allocateCursorId() {
         while (true) {
             final long candidate = nextCursorId;
@@ -81,13 +200,13 @@ final class CursorRegistry {
         }
     }
 
-    private static List<BsonDocument> cloneDocuments(
-            final List<BsonDocument> documents, final int fromInclusive, final int toExclusive) {
-        final List<BsonDocument> copies = new ArrayList<>(Math.max(0, toExclusive - fromInclusive));
-        for (int index = fromInclusive; index < toExclusive; index++) {
-            copies.add(documents.get(index).clone());
+    private static List<BsonDocument> nextBatch(final Iterator<BsonDocument> documents, final int batchSize) {
+        final int safeBatchSize = Math.max(0, batchSize);
+        final List<BsonDocument> batch = new ArrayList<>(Math.min(safeBatchSize, 128));
+        while (batch.size() < safeBatchSize && documents.hasNext()) {
+            batch.add(Objects.requireNonNull(documents.next(), "cursor documents must not contain null"));
         }
-        return List.copyOf(copies);
+        return List.copyOf(batch);
     }
 
     record FindRegistration(long cursorId, List<BsonDocument> firstBatch) {}
@@ -102,11 +221,19 @@ final class CursorRegistry {
 
     private static final class CursorState {
         private final String namespace;
-        private List<BsonDocument> remainingDocuments;
-
-        private CursorState(final String namespace, final List<BsonDocument> remainingDocuments) {
+        private final Iterator<BsonDocument> documents;
+        private long retainedDocuments;
+        private long lastUsedMillis;
+
+        private CursorState(
+                final String namespace,
+                final Iterator<BsonDocument> documents,
+                final long retainedDocuments,
+                final long lastUsedMillis) {
             this.namespace = namespace;
-            this.remainingDocuments = List.copyOf(remainingDocuments);
+            this.documents = documents;
+            this.retainedDocuments = retainedDocuments;
+            this.lastUsedMillis = lastUsedMillis;
         }
     }
 }
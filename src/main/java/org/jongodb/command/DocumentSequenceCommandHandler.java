@@ -0,0 +1,22 @@
+package org.jongodb.command;
+
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonDocument;
+
+/**
+ * Handler that takes OP_MSG document sequences as decoded, instead of having them merged into the command as array
+ * fields first. Bulk payloads then reach the store without being collected into an intermediate array.
+ */
+public interface DocumentSequenceCommandHandler extends CommandHandler {
+    /**
+     * @param documentSequences array arguments keyed by field name; none of the names is also a field of
+     *     {@code command}
+     */
+    BsonDocument handle(BsonDocument command, Map<String, List<BsonDocument>> documentSequences);
+
+    @Override
+    default BsonDocument handle(final BsonDocument command) {
+        return handle(command, Map.of());
+    }
+}
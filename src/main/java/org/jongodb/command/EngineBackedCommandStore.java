@@ -3,9 +3,11 @@ package org.jongodb.command;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import org.bson.BsonArray;
 import org.bson.BsonBoolean;
 import org.bson.BsonDateTime;
 import org.bson.BsonDecimal128;
@@ -19,6 +21,7 @@ import org.bson.BsonObjectId;
 import org.bson.BsonString;
 import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.DocumentCodec;
 import org.bson.codecs.configuration.CodecRegistries;
@@ -29,13 +32,17 @@ import org.jongodb.engine.AggregationPipeline;
 import org.jongodb.engine.CollectionStore;
 import org.jongodb.engine.CollationSupport;
 import org.jongodb.engine.DeleteManyResult;
+import org.jongodb.engine.DocumentStorage;
 import org.jongodb.engine.EngineStore;
 import org.jongodb.engine.InMemoryEngineStore;
+import org.jongodb.engine.PipelineOptimizer;
+import org.jongodb.engine.RawDocument;
 import org.jongodb.engine.UnsupportedFeatureException;
 import org.jongodb.engine.UpdateManyResult;
 
 /**
- * Bridges command handlers (BSON documents) with the engine store (Document API).
+ * Bridges command handlers (BSON documents) with the engine store (Document API). Read results are returned as
+ * {@link RawBsonDocument}s so replies pipe the encoded bytes instead of re-encoding a document tree.
  */
 public final class EngineBackedCommandStore implements CommandStore {
     private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
@@ -44,6 +51,7 @@ public final class EngineBackedCommandStore implements CommandStore {
 
     private final EngineStore engineStore;
     private final InMemoryEngineStore transactionBaselineSnapshot;
+    private final boolean storesRawBson;
 
     public EngineBackedCommandStore(final EngineStore engineStore) {
         this(engineStore, null);
@@ -53,6 +61,8 @@ public final class EngineBackedCommandStore implements CommandStore {
             final EngineStore engineStore, final InMemoryEngineStore transactionBaselineSnapshot) {
         this.engineStore = Objects.requireNonNull(engineStore, "engineStore");
         this.transactionBaselineSnapshot = transactionBaselineSnapshot;
+        this.storesRawBson = engineStore instanceof InMemoryEngineStore inMemoryEngineStore
+                && inMemoryEngineStore.documentStorage() == DocumentStorage.RAW_BSON;
     }
 
     @Override
@@ -87,26 +97,48 @@ public final class EngineBackedCommandStore implements CommandStore {
         inMemoryEngineStore.replaceWith(inMemorySnapshot);
     }
 
+    @Override
+    public void releaseTransactionSnapshot(final CommandStore snapshot) {
+        if (snapshot instanceof CopyOnWriteTransactionCommandStore copyOnWriteSnapshot) {
+            copyOnWriteSnapshot.release();
+        }
+    }
+
     @Override
     public void reset() {
         if (!(engineStore instanceof InMemoryEngineStore inMemoryEngineStore)) {
             throw new IllegalStateException("reset requires InMemoryEngineStore");
         }
-        inMemoryEngineStore.replaceWith(new InMemoryEngineStore());
+        inMemoryEngineStore.replaceWith(new InMemoryEngineStore(inMemoryEngineStore.documentStorage()));
     }
 
     @Override
     public int insert(final String database, final String collection, final List<BsonDocument> documents) {
-        Objects.requireNonNull(documents, "documents");
-        final CollectionStore collectionStore = engineStore.collection(database, collection);
+        final List<Document> converted = toDocuments(documents);
+        engineStore.collection(database, collection).insertMany(converted);
+        return converted.size();
+    }
 
+    @Override
+    public int bulkInsert(final String database, final String collection, final List<BsonDocument> documents) {
+        final List<Document> converted = toDocuments(documents);
+        engineStore.collection(database, collection).bulkInsert(converted);
+        return converted.size();
+    }
+
+    /** Documents to insert; raw BSON storage keeps raw payloads as they arrived instead of decoding them. */
+    private List<Document> toDocuments(final List<BsonDocument> documents) {
+        Objects.requireNonNull(documents, "documents");
         final List<Document> converted = new ArrayList<>(documents.size());
         for (final BsonDocument document : documents) {
-            converted.add(toDocument(Objects.requireNonNull(document, "documents entries must not be null")));
+            Objects.requireNonNull(document, "documents entries must not be null");
+            if (storesRawBson && document instanceof RawBsonDocument rawDocument) {
+                converted.add(RawDocument.of(rawDocument));
+            } else {
+                converted.add(toDocument(document));
+            }
         }
-
-        collectionStore.insertMany(converted);
-        return converted.size();
+        return converted;
     }
 
     @Override
@@ -145,13 +177,20 @@ public final class EngineBackedCommandStore implements CommandStore {
             final CollationSupport.Config collation) {
         final CollectionStore collectionStore = engineStore.collection(database, collection);
         final Document convertedFilter = toDocumentOrEmpty(filter);
-        final List<Document> foundDocuments = collectionStore.find(convertedFilter, collation);
+        return List.copyOf(collectionStore.findEncoded(convertedFilter, collation));
+    }
 
-        final List<BsonDocument> converted = new ArrayList<>(foundDocuments.size());
-        for (final Document document : foundDocuments) {
-            converted.add(toBsonDocument(document));
-        }
-        return List.copyOf(converted);
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<BsonDocument> findIterator(
+            final String database,
+            final String collection,
+            final BsonDocument filter,
+            final CollationSupport.Config collation) {
+        final CollectionStore collectionStore = engineStore.collection(database, collection);
+        final Iterator<? extends BsonDocument> encoded =
+                collectionStore.iterateEncoded(toDocumentOrEmpty(filter), collation);
+        return (Iterator<BsonDocument>) encoded;
     }
 
     @Override
@@ -174,12 +213,18 @@ public final class EngineBackedCommandStore implements CommandStore {
             convertedPipeline.add(toDocument(Objects.requireNonNull(stage, "pipeline entries must not be null")));
         }
         final TerminalWriteStagePlan writeStagePlan = resolveTerminalWriteStagePlan(List.copyOf(convertedPipeline));
+        final PipelineOptimizer.OptimizedPipeline optimized =
+                PipelineOptimizer.optimize(writeStagePlan.pipelineWithoutTerminalWrite());
 
-        final Iterable<Document> sourceDocuments = collectionStore.scanAll();
+        // Scans hand the pipeline the stores' own documents; the pipeline copies before changing one and copies its
+        // output, so neither the source nor a foreign collection is copied as a whole.
+        final CollectionStore.Scan scan = pushedDownScan(collectionStore, optimized, collation);
         final List<Document> aggregatedDocuments = AggregationPipeline.execute(
-                sourceDocuments,
-                writeStagePlan.pipelineWithoutTerminalWrite(),
-                foreignCollectionName -> engineStore.collection(database, foreignCollectionName).scanAll(),
+                scan.documents(),
+                optimized.stagesAfter(scan.sorted()),
+                foreignCollectionName -> engineStore.collection(database, foreignCollectionName)
+                        .scan(new Document(), null, collation)
+                        .documents(),
                 collation);
         if (writeStagePlan.outputCollection() != null) {
             final CollectionStore outputCollection = engineStore.collection(database, writeStagePlan.outputCollection());
@@ -188,11 +233,69 @@ public final class EngineBackedCommandStore implements CommandStore {
         }
         final List<BsonDocument> converted = new ArrayList<>(aggregatedDocuments.size());
         for (final Document document : aggregatedDocuments) {
-            converted.add(toBsonDocument(document));
+            converted.add(new RawBsonDocument(document, DOCUMENT_CODEC));
         }
         return List.copyOf(converted);
     }
 
+    /**
+     * Reports the rewritten pipeline the way a server does for a pushed-down query: a leading {@code $cursor} stage
+     * with the access path, followed by the stages that still run in the pipeline. The store plans the pushed-down
+     * scan without running it.
+     */
+    @Override
+    public BsonDocument explainAggregate(
+            final String database,
+            final String collection,
+            final List<BsonDocument> pipeline,
+            final CollationSupport.Config collation) {
+        Objects.requireNonNull(pipeline, "pipeline");
+        final CollectionStore collectionStore = engineStore.collection(database, collection);
+
+        final List<Document> convertedPipeline = new ArrayList<>(pipeline.size());
+        for (final BsonDocument stage : pipeline) {
+            convertedPipeline.add(toDocument(Objects.requireNonNull(stage, "pipeline entries must not be null")));
+        }
+        final TerminalWriteStagePlan writeStagePlan = resolveTerminalWriteStagePlan(List.copyOf(convertedPipeline));
+        final PipelineOptimizer.OptimizedPipeline optimized =
+                PipelineOptimizer.optimize(writeStagePlan.pipelineWithoutTerminalWrite());
+        final Document filter = optimized.filter() == null ? new Document() : optimized.filter();
+        final CollectionStore.ScanPlan scan = collectionStore.planScan(filter, optimized.sort(), collation);
+
+        final BsonDocument winningPlan;
+        if (scan.indexName() == null) {
+            winningPlan = new BsonDocument("stage", new BsonString("COLLSCAN"))
+                    .append("filter", toBsonDocument(filter))
+                    .append("direction", new BsonString("forward"));
+        } else {
+            winningPlan = new BsonDocument("stage", new BsonString("FETCH"))
+                    .append("filter", toBsonDocument(filter))
+                    .append("inputStage", new BsonDocument("stage", new BsonString("IXSCAN"))
+                            .append("indexName", new BsonString(scan.indexName())));
+        }
+        final BsonDocument queryPlanner = new BsonDocument("namespace", new BsonString(database + "." + collection))
+                .append("parsedQuery", toBsonDocument(filter))
+                .append("winningPlan", winningPlan);
+
+        final BsonArray stages = new BsonArray();
+        stages.add(new BsonDocument("$cursor", new BsonDocument("queryPlanner", queryPlanner)));
+        for (final Document stage : optimized.stagesAfter(scan.sorted())) {
+            stages.add(toBsonDocument(stage));
+        }
+        if (writeStagePlan.outputCollection() != null) {
+            stages.add(toBsonDocument(convertedPipeline.get(convertedPipeline.size() - 1)));
+        }
+        return new BsonDocument("explainVersion", new BsonString("1")).append("stages", stages);
+    }
+
+    private static CollectionStore.Scan pushedDownScan(
+            final CollectionStore collectionStore,
+            final PipelineOptimizer.OptimizedPipeline optimized,
+            final CollationSupport.Config collation) {
+        final Document filter = optimized.filter() == null ? new Document() : optimized.filter();
+        return collectionStore.scan(filter, optimized.sort(), collation);
+    }
+
     @Override
     public CreateIndexesResult createIndexes(
             final String database, final String collection, final List<IndexRequest> indexes) {
@@ -287,12 +390,7 @@ public final class EngineBackedCommandStore implements CommandStore {
                 continue;
             }
 
-            final Document firstMatch = firstMatch(collectionStore, query);
-            if (firstMatch == null) {
-                continue;
-            }
-            final Document oneFilter = oneDocumentFilter(firstMatch);
-            final DeleteManyResult oneResult = collectionStore.deleteMany(oneFilter);
+            final DeleteManyResult oneResult = collectionStore.deleteOne(query);
             deletedCount += Math.min(1, toBoundedInt(oneResult.deletedCount()));
         }
         return deletedCount;
@@ -303,6 +401,9 @@ public final class EngineBackedCommandStore implements CommandStore {
     }
 
     private static Document toDocument(final BsonDocument source) {
+        if (source instanceof RawBsonDocument rawSource) {
+            return rawSource.decode(DOCUMENT_CODEC);
+        }
         if (source.isEmpty()) {
             return new Document();
         }
@@ -357,21 +458,6 @@ public final class EngineBackedCommandStore implements CommandStore {
         return toBsonDocument(new Document("value", value)).get("value");
     }
 
-    private static Document firstMatch(final CollectionStore store, final Document filter) {
-        final List<Document> matches = store.find(filter);
-        if (matches.isEmpty()) {
-            return null;
-        }
-        return matches.get(0);
-    }
-
-    private static Document oneDocumentFilter(final Document document) {
-        if (document.containsKey("_id")) {
-            return new Document("_id", document.get("_id"));
-        }
-        return toDocument(toBsonDocument(document));
-    }
-
     private static void persistTerminalWrite(
             final CollectionStore outputCollection,
             final List<Document> aggregatedDocuments,
@@ -393,10 +479,9 @@ public final class EngineBackedCommandStore implements CommandStore {
         final Map<Object, Integer> indexById = new HashMap<>();
 
         for (final Document existingDocument : existingDocuments) {
-            final Document copied = deepCopyDocument(existingDocument);
-            mergedDocuments.add(copied);
-            if (copied.containsKey("_id")) {
-                indexById.putIfAbsent(copied.get("_id"), mergedDocuments.size() - 1);
+            mergedDocuments.add(existingDocument);
+            if (existingDocument.containsKey("_id")) {
+                indexById.putIfAbsent(existingDocument.get("_id"), mergedDocuments.size() - 1);
             }
         }
 
@@ -530,6 +615,7 @@ public final class EngineBackedCommandStore implements CommandStore {
         private final InMemoryEngineStore baselineSnapshot;
         private final EngineBackedCommandStore readDelegate;
         private volatile EngineBackedCommandStore writeDelegate;
+        private boolean released;
 
         private CopyOnWriteTransactionCommandStore(final InMemoryEngineStore baselineSnapshot) {
             this.baselineSnapshot = Objects.requireNonNull(baselineSnapshot, "baselineSnapshot");
@@ -551,6 +637,19 @@ public final class EngineBackedCommandStore implements CommandStore {
             return inMemoryWritableStore;
         }
 
+        /** Releases the snapshot pins; later calls do nothing. */
+        synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            baselineSnapshot.release();
+            final EngineBackedCommandStore writable = writeDelegate;
+            if (writable != null && writable.engineStore instanceof InMemoryEngineStore inMemoryWritableStore) {
+                inMemoryWritableStore.release();
+            }
+        }
+
         boolean materializedWriteSnapshot() {
             return writeDelegate != null;
         }
@@ -602,6 +701,15 @@ public final class EngineBackedCommandStore implements CommandStore {
             return activeReadDelegate().find(database, collection, filter, collation);
         }
 
+        @Override
+        public Iterator<BsonDocument> findIterator(
+                final String database,
+                final String collection,
+                final BsonDocument filter,
+                final CollationSupport.Config collation) {
+            return activeReadDelegate().findIterator(database, collection, filter, collation);
+        }
+
         @Override
         public List<BsonDocument> aggregate(
                 final String database, final String collection, final List<BsonDocument> pipeline) {
@@ -620,6 +728,15 @@ public final class EngineBackedCommandStore implements CommandStore {
             return activeReadDelegate().aggregate(database, collection, pipeline, collation);
         }
 
+        @Override
+        public BsonDocument explainAggregate(
+                final String database,
+                final String collection,
+                final List<BsonDocument> pipeline,
+                final CollationSupport.Config collation) {
+            return activeReadDelegate().explainAggregate(database, collection, pipeline, collation);
+        }
+
         @Override
         public void reset() {
             materializeWriteDelegate().reset();
@@ -635,6 +752,11 @@ public final class EngineBackedCommandStore implements CommandStore {
             activeReadDelegate().publishTransactionSnapshot(snapshot);
         }
 
+        @Override
+        public void releaseTransactionSnapshot(final CommandStore snapshot) {
+            activeReadDelegate().releaseTransactionSnapshot(snapshot);
+        }
+
         @Override
         public CreateIndexesResult createIndexes(
                 final String database, final String collection, final List<IndexRequest> indexes) {
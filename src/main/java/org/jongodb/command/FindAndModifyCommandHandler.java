@@ -13,6 +13,8 @@ import org.bson.BsonNull;
 import org.bson.BsonString;
 import org.bson.BsonType;
 import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
 import org.jongodb.engine.CollationSupport;
 import org.jongodb.engine.DuplicateKeyException;
 
@@ -512,16 +514,17 @@ public final class FindAndModifyCommandHandler implements CommandHandler {
             return value;
         }
 
+        final BsonDocument source = mutableCopy(value);
         if (projectionSpec.includeMode()) {
             final BsonDocument projected = new BsonDocument();
             if (projectionSpec.includeId()) {
-                final BsonValue id = value.get("_id");
+                final BsonValue id = source.get("_id");
                 if (id != null) {
                     projected.put("_id", id);
                 }
             }
             for (final String includePath : projectionSpec.paths()) {
-                final BsonValue projectedValue = resolveProjectionPath(value, includePath);
+                final BsonValue projectedValue = resolveProjectionPath(source, includePath);
                 if (projectedValue != null) {
                     setProjectionPath(projected, includePath, projectedValue);
                 }
@@ -532,7 +535,7 @@ public final class FindAndModifyCommandHandler implements CommandHandler {
             return projected;
         }
 
-        final BsonDocument projected = value.clone();
+        final BsonDocument projected = source;
         for (final String excludedPath : projectionSpec.paths()) {
             removeProjectionPath(projected, excludedPath);
         }
@@ -542,6 +545,16 @@ public final class FindAndModifyCommandHandler implements CommandHandler {
         return projected;
     }
 
+    /**
+     * Store reads return immutable {@link RawBsonDocument}s; projections work on a decoded, mutable tree.
+     */
+    private static BsonDocument mutableCopy(final BsonDocument value) {
+        if (value instanceof RawBsonDocument rawValue) {
+            return rawValue.decode(new BsonDocumentCodec());
+        }
+        return value.clone();
+    }
+
     private static BsonValue resolveProjectionPath(final BsonDocument source, final String path) {
         if (path == null || path.isEmpty()) {
             return null;
@@ -1,7 +1,9 @@
 package org.jongodb.command;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
 import org.bson.BsonDouble;
@@ -10,6 +12,7 @@ import org.bson.BsonString;
 import org.bson.BsonType;
 import org.bson.BsonValue;
 import org.jongodb.engine.CollationSupport;
+import org.jongodb.engine.TopKSelector;
 
 public final class FindCommandHandler implements CommandHandler {
     private final CommandStore store;
@@ -76,17 +79,8 @@ public final class FindCommandHandler implements CommandHandler {
             return CommandErrors.typeMismatch("limit must be an integer");
         }
 
-        final List<BsonDocument> foundDocuments;
-        try {
-            foundDocuments = store.find(database, collection, filter, collation);
-        } catch (final IllegalArgumentException exception) {
-            return CommandExceptionMapper.fromIllegalArgument(exception);
-        }
-
-        final List<BsonDocument> selectedDocuments = applySortSkipLimit(foundDocuments, sortKeys, skip, limit, collation);
-
         final BsonValue batchSizeValue = command.get("batchSize");
-        int batchSize = selectedDocuments.size();
+        int batchSize = Integer.MAX_VALUE;
         if (batchSizeValue != null) {
             final Long parsedBatchSize = readIntegralLong(batchSizeValue);
             if (parsedBatchSize == null) {
@@ -98,8 +92,26 @@ public final class FindCommandHandler implements CommandHandler {
             batchSize = parsedBatchSize.intValue();
         }
 
-        final CursorRegistry.FindRegistration registration =
-                cursorRegistry.openCursor(database + "." + collection, selectedDocuments, batchSize);
+        final CursorRegistry.FindRegistration registration;
+        try {
+            final Iterator<BsonDocument> selectedDocuments;
+            if (sortKeys.isEmpty()) {
+                selectedDocuments =
+                        new SkipLimitIterator(store.findIterator(database, collection, filter, collation), skip, limit);
+            } else if (limit != null && limit > 0 && (long) skip + limit <= Integer.MAX_VALUE) {
+                selectedDocuments = selectTopSorted(
+                        store.findIterator(database, collection, filter, collation), sortKeys, skip, limit, collation)
+                        .iterator();
+            } else {
+                selectedDocuments = applySortSkipLimit(
+                        store.find(database, collection, filter, collation), sortKeys, skip, limit, collation)
+                        .iterator();
+            }
+            registration = cursorRegistry.openCursor(database + "." + collection, selectedDocuments, batchSize);
+        } catch (final IllegalArgumentException exception) {
+            return CommandExceptionMapper.fromIllegalArgument(exception);
+        }
+
         final BsonArray firstBatch = new BsonArray();
         for (final BsonDocument foundDocument : registration.firstBatch()) {
             firstBatch.add(foundDocument);
@@ -202,10 +214,9 @@ public final class FindCommandHandler implements CommandHandler {
             final int skip,
             final Integer limit,
             final CollationSupport.Config collation) {
-        final List<BsonDocument> working = new ArrayList<>(source);
-        if (!sortKeys.isEmpty()) {
-            working.sort((left, right) -> compareBySortKeys(left, right, sortKeys, collation));
-        }
+        final List<BsonDocument> working = sortKeys.isEmpty()
+                ? new ArrayList<>(source)
+                : sortBySortKeys(source, sortKeys, collation);
 
         final int from = Math.min(skip, working.size());
         int to = working.size();
@@ -215,17 +226,76 @@ public final class FindCommandHandler implements CommandHandler {
         return List.copyOf(working.subList(from, to));
     }
 
+    /**
+     * Sort with a limit keeps only the first skip+limit documents in a bounded heap instead of sorting every match.
+     */
+    private static List<BsonDocument> selectTopSorted(
+            final Iterator<BsonDocument> source,
+            final List<SortKey> sortKeys,
+            final int skip,
+            final int limit,
+            final CollationSupport.Config collation) {
+        final Iterator<SortEntry> entries = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public SortEntry next() {
+                return sortEntry(source.next(), sortKeys);
+            }
+        };
+        final List<SortEntry> selected = TopKSelector.select(
+                entries,
+                skip + limit,
+                (left, right) -> compareBySortKeys(left.values(), right.values(), sortKeys, collation));
+
+        final List<BsonDocument> window = new ArrayList<>(Math.max(0, selected.size() - skip));
+        for (int index = skip; index < selected.size(); index++) {
+            window.add(selected.get(index).document());
+        }
+        return window;
+    }
+
+    /**
+     * Resolves each document's sort values once before sorting; store results are encoded documents where every
+     * path lookup walks the bytes.
+     */
+    private static List<BsonDocument> sortBySortKeys(
+            final List<BsonDocument> source,
+            final List<SortKey> sortKeys,
+            final CollationSupport.Config collation) {
+        final List<SortEntry> entries = new ArrayList<>(source.size());
+        for (final BsonDocument document : source) {
+            entries.add(sortEntry(document, sortKeys));
+        }
+        entries.sort((left, right) -> compareBySortKeys(left.values(), right.values(), sortKeys, collation));
+
+        final List<BsonDocument> sorted = new ArrayList<>(entries.size());
+        for (final SortEntry entry : entries) {
+            sorted.add(entry.document());
+        }
+        return sorted;
+    }
+
+    private static SortEntry sortEntry(final BsonDocument document, final List<SortKey> sortKeys) {
+        final BsonValue[] values = new BsonValue[sortKeys.size()];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = resolvePath(document, sortKeys.get(index).field());
+        }
+        return new SortEntry(document, values);
+    }
+
     private static int compareBySortKeys(
-            final BsonDocument left,
-            final BsonDocument right,
+            final BsonValue[] left,
+            final BsonValue[] right,
             final List<SortKey> sortKeys,
             final CollationSupport.Config collation) {
-        for (final SortKey sortKey : sortKeys) {
-            final BsonValue leftValue = resolvePath(left, sortKey.field());
-            final BsonValue rightValue = resolvePath(right, sortKey.field());
-            final int compared = compareSortValues(leftValue, rightValue, collation);
+        for (int index = 0; index < sortKeys.size(); index++) {
+            final int compared = compareSortValues(left[index], right[index], collation);
             if (compared != 0) {
-                return sortKey.direction() == 1 ? compared : -compared;
+                return sortKeys.get(index).direction() == 1 ? compared : -compared;
             }
         }
         return 0;
@@ -319,4 +389,40 @@ public final class FindCommandHandler implements CommandHandler {
     }
 
     private record SortKey(String field, int direction) {}
+
+    private record SortEntry(BsonDocument document, BsonValue[] values) {}
+
+    /**
+     * Applies skip and limit to an unsorted store iterator without materializing it, so a cursor only pulls the
+     * documents it actually returns.
+     */
+    private static final class SkipLimitIterator implements Iterator<BsonDocument> {
+        private final Iterator<BsonDocument> source;
+        private int toSkip;
+        private long remaining;
+
+        private SkipLimitIterator(final Iterator<BsonDocument> source, final int skip, final Integer limit) {
+            this.source = source;
+            this.toSkip = skip;
+            this.remaining = limit == null || limit <= 0 ? Long.MAX_VALUE : limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (toSkip > 0 && source.hasNext()) {
+                source.next();
+                toSkip--;
+            }
+            return remaining > 0 && source.hasNext();
+        }
+
+        @Override
+        public BsonDocument next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return source.next();
+        }
+    }
 }
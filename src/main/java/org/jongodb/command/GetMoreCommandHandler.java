@@ -45,7 +45,12 @@ public final class GetMoreCommandHandler implements CommandHandler {
         }
 
         final String namespace = database + "." + collection;
-        final CursorRegistry.GetMoreResult result = cursorRegistry.getMore(cursorId, namespace, batchSize);
+        final CursorRegistry.GetMoreResult result;
+        try {
+            result = cursorRegistry.getMore(cursorId, namespace, batchSize);
+        } catch (final IllegalArgumentException exception) {
+            return CommandExceptionMapper.fromIllegalArgument(exception);
+        }
         if (!result.found()) {
             return CommandErrors.cursorNotFound(cursorId);
         }
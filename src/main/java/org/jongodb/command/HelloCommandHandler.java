@@ -1,5 +1,6 @@
 package org.jongodb.command;
 
+import java.util.List;
 import java.util.Objects;
 import org.bson.BsonArray;
 import org.bson.BsonBoolean;
@@ -9,6 +10,7 @@ import org.bson.BsonInt32;
 import org.bson.BsonInt64;
 import org.bson.BsonObjectId;
 import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.types.ObjectId;
 
 public final class HelloCommandHandler implements CommandHandler {
@@ -16,6 +18,7 @@ public final class HelloCommandHandler implements CommandHandler {
     private final String primaryAddress;
     private final String replicaSetName;
     private final BsonDocument topologyVersion;
+    private final List<String> compressors;
 
     public HelloCommandHandler() {
         this(TopologyProfile.STANDALONE, "127.0.0.1:27017", "jongodb-rs0");
@@ -25,12 +28,25 @@ public final class HelloCommandHandler implements CommandHandler {
             final TopologyProfile topologyProfile,
             final String primaryAddress,
             final String replicaSetName) {
+        this(topologyProfile, primaryAddress, replicaSetName, List.of());
+    }
+
+    /**
+     * @param compressors wire compressor names the server accepts, in order of preference; a client listing any of
+     *     them in its {@code compression} field is answered with those it shares, in the server's order
+     */
+    public HelloCommandHandler(
+            final TopologyProfile topologyProfile,
+            final String primaryAddress,
+            final String replicaSetName,
+            final List<String> compressors) {
         this.topologyProfile = Objects.requireNonNull(topologyProfile, "topologyProfile");
         this.primaryAddress = requireText(primaryAddress, "primaryAddress");
         this.replicaSetName = requireText(replicaSetName, "replicaSetName");
         this.topologyVersion = new BsonDocument()
                 .append("processId", new BsonObjectId(new ObjectId()))
                 .append("counter", new BsonInt64(1L));
+        this.compressors = List.copyOf(Objects.requireNonNull(compressors, "compressors"));
     }
 
     @Override
@@ -51,14 +67,34 @@ public final class HelloCommandHandler implements CommandHandler {
             response.append("setName", new BsonString(replicaSetName));
             response.append("primary", new BsonString(primaryAddress));
             response.append("me", new BsonString(primaryAddress));
-            response.append("hosts", new BsonArray(java.util.List.of(new BsonString(primaryAddress))));
+            response.append("hosts", new BsonArray(List.of(new BsonString(primaryAddress))));
             response.append("secondary", BsonBoolean.FALSE);
             response.append("arbiterOnly", BsonBoolean.FALSE);
             response.append("topologyVersion", topologyVersion.clone());
         }
+        final BsonArray compression = negotiateCompression(command.get("compression"));
+        if (!compression.isEmpty()) {
+            response.append("compression", compression);
+        }
         return response;
     }
 
+    private BsonArray negotiateCompression(final BsonValue requested) {
+        final BsonArray negotiated = new BsonArray();
+        if (requested == null || !requested.isArray()) {
+            return negotiated;
+        }
+        for (final String compressor : compressors) {
+            for (final BsonValue candidate : requested.asArray()) {
+                if (candidate.isString() && compressor.equals(candidate.asString().getValue())) {
+                    negotiated.add(new BsonString(compressor));
+                    break;
+                }
+            }
+        }
+        return negotiated;
+    }
+
     private static String requireText(final String value, final String fieldName) {
         final String normalized = value == null ? null : value.trim();
         if (normalized == null || normalized.isEmpty()) {
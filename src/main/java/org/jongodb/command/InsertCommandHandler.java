@@ -1,8 +1,9 @@
 package org.jongodb.command;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import org.bson.BsonArray;
+import java.util.Map;
 import org.bson.BsonDocument;
 import org.bson.BsonDouble;
 import org.bson.BsonInt32;
@@ -10,7 +11,10 @@ import org.bson.BsonString;
 import org.bson.BsonValue;
 import org.jongodb.engine.DuplicateKeyException;
 
-public final class InsertCommandHandler implements CommandHandler {
+public final class InsertCommandHandler implements DocumentSequenceCommandHandler {
+    /** Batches at least this large take the store's bulk insert path. */
+    static final int BULK_INSERT_THRESHOLD = 1_000;
+
     private final CommandStore store;
 
     public InsertCommandHandler(final CommandStore store) {
@@ -18,7 +22,7 @@ public final class InsertCommandHandler implements CommandHandler {
     }
 
     @Override
-    public BsonDocument handle(final BsonDocument command) {
+    public BsonDocument handle(final BsonDocument command, final Map<String, List<BsonDocument>> documentSequences) {
         final String database = readDatabase(command);
         final String collection = readRequiredString(command, "insert");
         if (collection == null) {
@@ -38,14 +42,21 @@ public final class InsertCommandHandler implements CommandHandler {
             return optionError;
         }
 
-        final BsonValue documentsValue = command.get("documents");
-        if (documentsValue == null || !documentsValue.isArray()) {
-            return CommandErrors.typeMismatch("documents must be an array");
+        // A document sequence goes to the store as decoded; a documents array is read in place.
+        final List<? extends BsonValue> documentValues;
+        final List<BsonDocument> documentSequence = documentSequences.get("documents");
+        if (documentSequence != null) {
+            documentValues = documentSequence;
+        } else {
+            final BsonValue documentsValue = command.get("documents");
+            if (documentsValue == null || !documentsValue.isArray()) {
+                return CommandErrors.typeMismatch("documents must be an array");
+            }
+            documentValues = documentsValue.asArray().getValues();
         }
 
-        final BsonArray documentsArray = documentsValue.asArray();
-        final List<BsonDocument> documents = new ArrayList<>(documentsArray.size());
-        for (final BsonValue value : documentsArray) {
+        final List<BsonDocument> documents = new ArrayList<>(documentValues.size());
+        for (final BsonValue value : documentValues) {
             if (!value.isDocument()) {
                 return CommandErrors.typeMismatch("all entries in documents must be BSON documents");
             }
@@ -59,7 +70,10 @@ public final class InsertCommandHandler implements CommandHandler {
 
         final int insertedCount;
         try {
-            insertedCount = store.insert(database, collection, List.copyOf(documents));
+            final List<BsonDocument> batch = Collections.unmodifiableList(documents);
+            insertedCount = batch.size() >= BULK_INSERT_THRESHOLD
+                    ? store.bulkInsert(database, collection, batch)
+                    : store.insert(database, collection, batch);
         } catch (final DuplicateKeyException exception) {
             return CommandErrors.duplicateKey(exception.getMessage());
         }
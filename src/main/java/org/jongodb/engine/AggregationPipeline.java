@@ -2,14 +2,24 @@ package org.jongodb.engine;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
 import org.bson.Document;
 
 public final class AggregationPipeline {
@@ -31,7 +41,9 @@ public final class AggregationPipeline {
             "connectFromField",
             "connectToField",
             "as",
-            "maxDepth");
+            "maxDepth",
+            "depthField",
+            "restrictSearchWithMatch");
 
     private AggregationPipeline() {}
 
@@ -75,9 +87,10 @@ public final class AggregationPipeline {
         Objects.requireNonNull(collectionResolver, "collectionResolver");
         Objects.requireNonNull(collation, "collation");
 
-        List<Document> working = materializeDocuments(source, "source documents must not contain null");
+        Iterator<Document> working = sourceDocuments(source);
 
-        for (final Document stage : pipeline) {
+        for (int stageIndex = 0; stageIndex < pipeline.size(); stageIndex++) {
+            final Document stage = pipeline.get(stageIndex);
             if (stage == null) {
                 throw new IllegalArgumentException("pipeline stages must not contain null");
             }
@@ -87,67 +100,121 @@ public final class AggregationPipeline {
 
             final String stageName = stage.keySet().iterator().next();
             final Object stageDefinition = stage.get(stageName);
+            if ("$sort".equals(stageName)) {
+                final SortWindow window = sortWindow(pipeline, stageIndex);
+                if (window != null) {
+                    working = applySortWindow(drain(working), stageDefinition, window, collation).iterator();
+                    stageIndex += window.coalescedStages();
+                    continue;
+                }
+            }
             working = switch (stageName) {
-                case "$match" -> applyMatch(working, stageDefinition, collation);
-                case "$project" -> applyProject(working, stageDefinition);
-                case "$group" -> applyGroup(working, stageDefinition);
-                case "$sort" -> applySort(working, stageDefinition, collation);
-                case "$limit" -> applyLimit(working, stageDefinition);
-                case "$skip" -> applySkip(working, stageDefinition);
-                case "$unwind" -> applyUnwind(working, stageDefinition);
-                case "$count" -> applyCount(working, stageDefinition);
-                case "$addFields" -> applyAddFields(working, stageDefinition);
-                case "$set" -> applySet(working, stageDefinition);
-                case "$unset" -> applyUnset(working, stageDefinition);
-                case "$sortByCount" -> applySortByCount(working, stageDefinition, collation);
-                case "$replaceRoot" -> applyReplaceRoot(working, stageDefinition);
-                case "$replaceWith" -> applyReplaceWith(working, stageDefinition);
-                case "$facet" -> applyFacet(working, stageDefinition, collectionResolver, collation);
-                case "$lookup" -> applyLookup(working, stageDefinition, collectionResolver, collation);
-                case "$graphLookup" -> applyGraphLookup(working, stageDefinition, collectionResolver);
-                case "$unionWith" -> applyUnionWith(working, stageDefinition, collectionResolver, collation);
-                case "$setWindowFields" -> applySetWindowFields(working, stageDefinition, collation);
+                case "$match" -> streamMatch(working, stageDefinition, collation);
+                case "$project" -> streamProject(working, stageDefinition);
+                case "$group" -> applyGroup(working, stageDefinition).iterator();
+                case "$sort" -> applySort(drain(working), stageDefinition, collation).iterator();
+                case "$limit" -> streamLimit(working, stageDefinition);
+                case "$skip" -> streamSkip(working, stageDefinition);
+                case "$unwind" -> streamUnwind(working, stageDefinition);
+                case "$count" -> applyCount(drain(working), stageDefinition).iterator();
+                case "$addFields" -> streamFieldAssignments(working, stageDefinition, "$addFields");
+                case "$set" -> streamFieldAssignments(working, stageDefinition, "$set");
+                case "$unset" -> streamUnset(working, stageDefinition);
+                case "$sortByCount" -> applySortByCount(drain(working), stageDefinition, collation).iterator();
+                case "$replaceRoot" -> streamReplaceRoot(working, stageDefinition);
+                case "$replaceWith" -> streamReplaceRootExpression(
+                        working, stageDefinition, "$replaceWith expression must evaluate to a document");
+                case "$facet" -> applyFacet(drain(working), stageDefinition, collectionResolver, collation).iterator();
+                case "$lookup" -> applyLookup(drain(working), stageDefinition, collectionResolver, collation)
+                        .iterator();
+                case "$graphLookup" -> applyGraphLookup(
+                        drain(working), stageDefinition, collectionResolver, collation).iterator();
+                case "$unionWith" -> applyUnionWith(drain(working), stageDefinition, collectionResolver, collation)
+                        .iterator();
+                case "$setWindowFields" -> applySetWindowFields(drain(working), stageDefinition, collation)
+                        .iterator();
                 default -> throw new UnsupportedFeatureException(
                         "aggregation.stage." + stageName,
                         "unsupported aggregation stage: " + stageName);
             };
         }
 
-        final List<Document> output = new ArrayList<>(working.size());
-        for (final Document document : working) {
-            output.add(DocumentCopies.copy(document));
+        final List<Document> output = new ArrayList<>();
+        while (working.hasNext()) {
+            output.add(DocumentCopies.copy(working.next()));
         }
         return List.copyOf(output);
     }
 
-    private static List<Document> applyMatch(
-            final List<Document> input,
+    /**
+     * Source documents pulled one at a time, so a pipeline that stops early never reads the rest of the source.
+     */
+    private static Iterator<Document> sourceDocuments(final Iterable<Document> source) {
+        final Iterator<Document> documents = source.iterator();
+        return new StageIterator() {
+            @Override
+            protected Document advance() {
+                if (!documents.hasNext()) {
+                    return null;
+                }
+                final Document document = documents.next();
+                if (document == null) {
+                    throw new IllegalArgumentException("source documents must not contain null");
+                }
+                return document;
+            }
+        };
+    }
+
+    /** Buffers the output of the preceding stages for a blocking stage. */
+    private static List<Document> drain(final Iterator<Document> input) {
+        final List<Document> buffered = new ArrayList<>();
+        while (input.hasNext()) {
+            buffered.add(input.next());
+        }
+        return buffered;
+    }
+
+    private static Iterator<Document> streamMatch(
+            final Iterator<Document> input,
             final Object stageDefinition,
             final CollationSupport.Config collation) {
         final Document filter = requireDocument(stageDefinition, "$match stage requires a document");
-        final List<Document> output = new ArrayList<>();
-        for (final Document document : input) {
-            if (QueryMatcher.matches(document, filter, collation)) {
-                output.add(DocumentCopies.copy(document));
+        final QueryMatcher.CompiledFilter compiled = QueryMatcher.compile(filter, collation);
+        return new StageIterator() {
+            @Override
+            protected Document advance() {
+                while (input.hasNext()) {
+                    final Document document = input.next();
+                    if (compiled.matches(document)) {
+                        return document;
+                    }
+                }
+                return null;
             }
-        }
-        return output;
+        };
     }
 
-    private static List<Document> applyProject(final List<Document> input, final Object stageDefinition) {
+    private static Iterator<Document> mapDocuments(
+            final Iterator<Document> input, final Function<Document, Document> mapper) {
+        return new StageIterator() {
+            @Override
+            protected Document advance() {
+                return input.hasNext() ? mapper.apply(input.next()) : null;
+            }
+        };
+    }
+
+    private static Iterator<Document> streamProject(final Iterator<Document> input, final Object stageDefinition) {
         final Document projection = requireDocument(stageDefinition, "$project stage requires a document");
         if (projection.isEmpty()) {
             throw new IllegalArgumentException("$project stage must not be empty");
         }
 
         final ProjectionMode mode = projectionMode(projection);
-        final List<Document> output = new ArrayList<>(input.size());
-        for (final Document source : input) {
-            output.add(mode == ProjectionMode.EXCLUDE
-                    ? applyExclusionProjection(source, projection)
-                    : applyInclusionProjection(source, projection));
-        }
-        return output;
+        return mapDocuments(input, source -> mode == ProjectionMode.EXCLUDE
+                ? applyExclusionProjection(source, projection)
+                : applyInclusionProjection(source, projection));
     }
 
     private static ProjectionMode projectionMode(final Document projection) {
@@ -258,7 +325,11 @@ public final class AggregationPipeline {
         return ProjectionFlag.EXPRESSION;
     }
 
-    private static List<Document> applyGroup(final List<Document> input, final Object stageDefinition) {
+    /**
+     * Folds each input document into per-group accumulator state as it is pulled, so memory grows with the number of
+     * groups and accumulator output rather than with the input.
+     */
+    private static List<Document> applyGroup(final Iterator<Document> input, final Object stageDefinition) {
         final Document groupDefinition = requireDocument(stageDefinition, "$group stage requires a document");
         if (!groupDefinition.containsKey("_id")) {
             throw new IllegalArgumentException("$group requires an _id field");
@@ -267,17 +338,23 @@ public final class AggregationPipeline {
         final Object idExpression = groupDefinition.get("_id");
         final List<GroupAccumulator> accumulators = parseAccumulators(groupDefinition);
         final Map<GroupKey, GroupBucket> grouped = new LinkedHashMap<>();
-        for (final Document source : input) {
+        while (input.hasNext()) {
+            final Document source = input.next();
             final Object id = evaluateGroupId(source, idExpression);
             final GroupKey groupKey = new GroupKey(id);
-            grouped.computeIfAbsent(groupKey, ignored -> new GroupBucket(id)).sources().add(source);
+            GroupBucket bucket = grouped.get(groupKey);
+            if (bucket == null) {
+                bucket = new GroupBucket(id, accumulators, source);
+                grouped.put(groupKey, bucket);
+            }
+            bucket.accumulate(source);
         }
 
         final List<Document> output = new ArrayList<>(grouped.size());
         for (final GroupBucket bucket : grouped.values()) {
             final Document aggregate = new Document("_id", DocumentCopies.copyAny(bucket.id()));
-            for (final GroupAccumulator accumulator : accumulators) {
-                aggregate.put(accumulator.outputField(), evaluateAccumulator(accumulator, bucket.sources()));
+            for (int index = 0; index < accumulators.size(); index++) {
+                aggregate.put(accumulators.get(index).outputField(), bucket.result(index));
             }
             output.add(aggregate);
         }
@@ -355,114 +432,274 @@ public final class AggregationPipeline {
         return AggregationExpressions.nullIfMissing(evaluateExpression(source, expression));
     }
 
-    private static Number addNumbers(final Object currentValue, final Number increment) {
-        if (!(currentValue instanceof Number currentNumber)) {
-            return normalizeNumber(increment.doubleValue());
+    private static AccumulatorState newAccumulatorState(final GroupAccumulator accumulator, final Document first) {
+        final Object expression = accumulator.expression();
+        return switch (accumulator.operator()) {
+            case SUM -> new SumState(expression, false);
+            case AVG -> new SumState(expression, true);
+            case MIN -> new MinMaxState(expression, false);
+            case MAX -> new MinMaxState(expression, true);
+            case FIRST -> new FirstState(expression);
+            case LAST -> new LastState(expression);
+            case PUSH -> new PushState(expression, false);
+            case ADD_TO_SET -> new PushState(expression, true);
+            case MERGE_OBJECTS -> new MergeObjectsState(expression);
+            case PERCENTILE -> new PercentileState(expression, false);
+            case MEDIAN -> new PercentileState(expression, true);
+            case FIRST_N -> new FirstNState(expression, first);
+            case LAST_N -> new LastNState(expression, first);
+            case MIN_N -> new MinMaxNState(expression, first, false);
+            case MAX_N -> new MinMaxNState(expression, first, true);
+            case TOP_N -> new TopBottomNState(expression, first, false);
+            case BOTTOM_N -> new TopBottomNState(expression, first, true);
+        };
+    }
+
+    private static Document requireNDefinition(
+            final Object rawDefinition, final String operator, final Set<String> requiredFields) {
+        final Document definition = requireDocument(rawDefinition, operator + " requires a document");
+        if (!definition.keySet().equals(requiredFields)) {
+            throw new IllegalArgumentException(operator + " requires exactly " + requiredFields);
         }
-        return normalizeNumber(currentNumber.doubleValue() + increment.doubleValue());
+        return definition;
     }
 
-    private static boolean containsByMongoEquality(final List<Object> values, final Object candidate) {
-        for (final Object value : values) {
-            if (MongoValueComparator.equals(value, candidate)) {
-                return true;
-            }
+    /** Evaluates {@code n} against the first document of the group. */
+    private static int evaluateN(final Object expression, final Document context, final String operator) {
+        final Object value = evaluateGroupExpression(context, expression);
+        if (!(value instanceof Number number)
+                || !Double.isFinite(number.doubleValue())
+                || Math.rint(number.doubleValue()) != number.doubleValue()
+                || number.doubleValue() < 1d
+                || number.doubleValue() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(operator + ".n must evaluate to a positive integer");
         }
-        return false;
+        return number.intValue();
     }
 
-    private static Object evaluateAccumulator(
-            final GroupAccumulator accumulator, final List<Document> sources) {
-        return switch (accumulator.operator()) {
-            case SUM -> accumulatorSum(sources, accumulator.expression());
-            case AVG -> accumulatorAverage(sources, accumulator.expression());
-            case MIN -> accumulatorMinMax(sources, accumulator.expression(), false);
-            case MAX -> accumulatorMinMax(sources, accumulator.expression(), true);
-            case FIRST -> sources.isEmpty()
-                    ? null
-                    : evaluateGroupExpression(sources.get(0), accumulator.expression());
-            case LAST -> sources.isEmpty()
-                    ? null
-                    : evaluateGroupExpression(sources.get(sources.size() - 1), accumulator.expression());
-            case PUSH -> accumulatorPush(sources, accumulator.expression(), false);
-            case ADD_TO_SET -> accumulatorPush(sources, accumulator.expression(), true);
-            case MERGE_OBJECTS -> accumulatorMergeObjects(sources, accumulator.expression());
-            case PERCENTILE -> accumulatorPercentile(sources, accumulator.expression(), false);
-            case MEDIAN -> accumulatorPercentile(sources, accumulator.expression(), true);
-            case FIRST_N -> accumulatorPositionalN(sources, accumulator.expression(), false);
-            case LAST_N -> accumulatorPositionalN(sources, accumulator.expression(), true);
-            case MIN_N -> accumulatorMinMaxN(sources, accumulator.expression(), false);
-            case MAX_N -> accumulatorMinMaxN(sources, accumulator.expression(), true);
-            case TOP_N -> accumulatorTopBottomN(sources, accumulator.expression(), false);
-            case BOTTOM_N -> accumulatorTopBottomN(sources, accumulator.expression(), true);
-        };
+    private static Object exactPercentile(final double[] sorted, final int size, final double percentile) {
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return sorted[0];
+        }
+        final double rank = percentile * (size - 1d);
+        final int lower = (int) Math.floor(rank);
+        final int upper = (int) Math.ceil(rank);
+        if (lower == upper) {
+            return sorted[lower];
+        }
+        final double fraction = rank - lower;
+        return sorted[lower] + (sorted[upper] - sorted[lower]) * fraction;
     }
 
-    private static Object accumulatorSum(final List<Document> sources, final Object expression) {
-        Number sum = 0L;
-        for (final Document source : sources) {
-            final Object value = evaluateGroupExpression(source, expression);
-            if (value instanceof Number number) {
-                sum = addNumbers(sum, number);
+    private static final class GroupBucket {
+        private final Object id;
+        private final AccumulatorState[] states;
+
+        private GroupBucket(final Object id, final List<GroupAccumulator> accumulators, final Document first) {
+            this.id = DocumentCopies.copyAny(id);
+            this.states = new AccumulatorState[accumulators.size()];
+            for (int index = 0; index < states.length; index++) {
+                states[index] = newAccumulatorState(accumulators.get(index), first);
             }
         }
-        return sum;
+
+        private Object id() {
+            return id;
+        }
+
+        private void accumulate(final Document source) {
+            for (final AccumulatorState state : states) {
+                state.accumulate(source);
+            }
+        }
+
+        private Object result(final int index) {
+            return states[index].result();
+        }
     }
 
-    private static Object accumulatorAverage(final List<Document> sources, final Object expression) {
-        double sum = 0d;
-        long count = 0L;
-        for (final Document source : sources) {
-            final Object value = evaluateGroupExpression(source, expression);
-            if (value instanceof Number number) {
-                sum += number.doubleValue();
-                count++;
+    /** Running value of one accumulator within one group. */
+    private interface AccumulatorState {
+        void accumulate(Document source);
+
+        Object result();
+    }
+
+    /**
+     * {@code $sum}/{@code $avg}. Integral inputs are summed exactly while they fit in a long; any other number
+     * switches to compensated (Kahan-Babuska) double summation, so long runs of doubles do not drift.
+     */
+    private static final class SumState implements AccumulatorState {
+        private final Object expression;
+        private final boolean average;
+        private long integralSum;
+        private boolean integralOnly = true;
+        private double sum;
+        private double compensation;
+        private long count;
+
+        private SumState(final Object expression, final boolean average) {
+            this.expression = expression;
+            this.average = average;
+        }
+
+        @Override
+        public void accumulate(final Document source) {
+            if (!(evaluateGroupExpression(source, expression) instanceof Number number)) {
+                return;
+            }
+            count++;
+            if (integralOnly && !average && isIntegral(number)) {
+                try {
+                    integralSum = Math.addExact(integralSum, number.longValue());
+                } catch (final ArithmeticException overflow) {
+                    integralOnly = false;
+                }
+            } else {
+                integralOnly = false;
+            }
+            final double value = number.doubleValue();
+            final double total = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                compensation += (sum - total) + value;
+            } else {
+                compensation += (value - total) + sum;
+            }
+            sum = total;
+        }
+
+        @Override
+        public Object result() {
+            if (average) {
+                return count == 0 ? null : (sum + compensation) / count;
+            }
+            if (integralOnly) {
+                return integralSum;
             }
+            return normalizeNumber(Double.isFinite(sum) ? sum + compensation : sum);
+        }
+
+        private static boolean isIntegral(final Number number) {
+            return number instanceof Integer || number instanceof Long
+                    || number instanceof Short || number instanceof Byte;
         }
-        return count == 0 ? null : sum / count;
     }
 
-    private static Object accumulatorMinMax(
-            final List<Document> sources, final Object expression, final boolean maximum) {
-        Object selected = null;
-        boolean found = false;
-        for (final Document source : sources) {
+    private static final class MinMaxState implements AccumulatorState {
+        private final Object expression;
+        private final boolean maximum;
+        private Object selected;
+        private boolean found;
+
+        private MinMaxState(final Object expression, final boolean maximum) {
+            this.expression = expression;
+            this.maximum = maximum;
+        }
+
+        @Override
+        public void accumulate(final Document source) {
             final Object value = evaluateExpression(source, expression);
             if (value == null || AggregationExpressions.isMissing(value)) {
-                continue;
+                return;
             }
             if (!found) {
                 selected = value;
                 found = true;
-                continue;
+                return;
             }
             final int comparison = MongoValueComparator.compare(value, selected);
             if ((maximum && comparison > 0) || (!maximum && comparison < 0)) {
                 selected = value;
             }
         }
-        return found ? DocumentCopies.copyAny(selected) : null;
+
+        @Override
+        public Object result() {
+            return found ? DocumentCopies.copyAny(selected) : null;
+        }
     }
 
-    private static Object accumulatorPush(
-            final List<Document> sources, final Object expression, final boolean unique) {
-        final List<Object> output = new ArrayList<>();
-        for (final Document source : sources) {
+    private static final class FirstState implements AccumulatorState {
+        private final Object expression;
+        private Document first;
+
+        private FirstState(final Object expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public void accumulate(final Document source) {
+            if (first == null) {
+                first = source;
+            }
+        }
+
+        @Override
+        public Object result() {
+            return first == null ? null : evaluateGroupExpression(first, expression);
+        }
+    }
+
+    private static final class LastState implements AccumulatorState {
+        private final Object expression;
+        private Document last;
+
+        private LastState(final Object expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public void accumulate(final Document source) {
+            last = source;
+        }
+
+        @Override
+        public Object result() {
+            return last == null ? null : evaluateGroupExpression(last, expression);
+        }
+    }
+
+    /** {@code $push}/{@code $addToSet}; set membership is hashed with MongoDB equality. */
+    private static final class PushState implements AccumulatorState {
+        private final Object expression;
+        private final Set<GroupKey> seen;
+        private final List<Object> values = new ArrayList<>();
+
+        private PushState(final Object expression, final boolean unique) {
+            this.expression = expression;
+            this.seen = unique ? new HashSet<>() : null;
+        }
+
+        @Override
+        public void accumulate(final Document source) {
             final Object value = evaluateGroupExpression(source, expression);
-            if (!unique || !containsByMongoEquality(output, value)) {
-                output.add(DocumentCopies.copyAny(value));
+            if (seen == null || seen.add(new GroupKey(value))) {
+                values.add(DocumentCopies.copyAny(value));
             }
         }
-        return output;
+
+        @Override
+        public Object result() {
+            return new ArrayList<>(values);
+        }
     }
 
-    private static Object accumulatorMergeObjects(
-            final List<Document> sources, final Object expression) {
-        final Document merged = new Document();
-        for (final Document source : sources) {
+    private static final class MergeObjectsState implements AccumulatorState {
+        private final Object expression;
+        private final Document merged = new Document();
+
+        private MergeObjectsState(final Object expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public void accumulate(final Document source) {
             final Object value = evaluateGroupExpression(source, expression);
             if (value == null) {
-                continue;
+                return;
             }
             if (!(value instanceof Map<?, ?> map)) {
                 throw new IllegalArgumentException("$mergeObjects accumulator requires document values");
@@ -474,173 +711,228 @@ public final class AggregationPipeline {
                 merged.put(key, DocumentCopies.copyAny(entry.getValue()));
             }
         }
-        return merged;
-    }
 
-    private static Object accumulatorPercentile(
-            final List<Document> sources, final Object rawDefinition, final boolean median) {
-        final Document definition = requireDocument(
-                rawDefinition,
-                median ? "$median requires a document" : "$percentile requires a document");
-        final Set<String> supported = median ? Set.of("input", "method") : Set.of("input", "p", "method");
-        if (!supported.containsAll(definition.keySet())
-                || !definition.containsKey("input")
-                || !definition.containsKey("method")
-                || (!median && !definition.containsKey("p"))) {
-            throw new IllegalArgumentException(
-                    median
-                            ? "$median requires input and method"
-                            : "$percentile requires input, p, and method");
-        }
-        if (!"approximate".equals(definition.get("method"))) {
-            throw new IllegalArgumentException("percentile method must be 'approximate'");
+        @Override
+        public Object result() {
+            return merged;
+        }
+    }
+
+    /**
+     * {@code $percentile}/{@code $median}. Results stay exact, so finite samples are kept in a primitive buffer
+     * and sorted once; the group's documents themselves are not retained.
+     */
+    private static final class PercentileState implements AccumulatorState {
+        private final Object input;
+        private final boolean median;
+        private final double[] percentiles;
+        private double[] samples = new double[16];
+        private int size;
+
+        private PercentileState(final Object rawDefinition, final boolean median) {
+            final Document definition = requireDocument(
+                    rawDefinition,
+                    median ? "$median requires a document" : "$percentile requires a document");
+            final Set<String> supported = median ? Set.of("input", "method") : Set.of("input", "p", "method");
+            if (!supported.containsAll(definition.keySet())
+                    || !definition.containsKey("input")
+                    || !definition.containsKey("method")
+                    || (!median && !definition.containsKey("p"))) {
+                throw new IllegalArgumentException(
+                        median
+                                ? "$median requires input and method"
+                                : "$percentile requires input, p, and method");
+            }
+            if (!"approximate".equals(definition.get("method"))) {
+                throw new IllegalArgumentException("percentile method must be 'approximate'");
+            }
+            this.input = definition.get("input");
+            this.median = median;
+            this.percentiles = median ? new double[] {0.5d} : parsePercentiles(definition.get("p"));
         }
 
-        final List<Double> samples = new ArrayList<>();
-        for (final Document source : sources) {
-            final Object value = evaluateGroupExpression(source, definition.get("input"));
-            if (value instanceof Number number && Double.isFinite(number.doubleValue())) {
-                samples.add(number.doubleValue());
+        private static double[] parsePercentiles(final Object rawValue) {
+            if (!(rawValue instanceof List<?> rawPercentiles) || rawPercentiles.isEmpty()) {
+                throw new IllegalArgumentException("$percentile.p must be a non-empty array");
             }
-        }
-        samples.sort(Double::compare);
-        if (median) {
-            return exactPercentile(samples, 0.5d);
+            final double[] parsed = new double[rawPercentiles.size()];
+            for (int index = 0; index < parsed.length; index++) {
+                if (!(rawPercentiles.get(index) instanceof Number number)
+                        || !Double.isFinite(number.doubleValue())
+                        || number.doubleValue() < 0d
+                        || number.doubleValue() > 1d) {
+                    throw new IllegalArgumentException("$percentile.p entries must be numbers in [0, 1]");
+                }
+                parsed[index] = number.doubleValue();
+            }
+            return parsed;
         }
 
-        if (!(definition.get("p") instanceof List<?> rawPercentiles) || rawPercentiles.isEmpty()) {
-            throw new IllegalArgumentException("$percentile.p must be a non-empty array");
+        @Override
+        public void accumulate(final Document source) {
+            if (evaluateGroupExpression(source, input) instanceof Number number
+                    && Double.isFinite(number.doubleValue())) {
+                if (size == samples.length) {
+                    samples = Arrays.copyOf(samples, size * 2);
+                }
+                samples[size++] = number.doubleValue();
+            }
         }
-        final List<Object> percentiles = new ArrayList<>(rawPercentiles.size());
-        for (final Object rawPercentile : rawPercentiles) {
-            if (!(rawPercentile instanceof Number number)
-                    || !Double.isFinite(number.doubleValue())
-                    || number.doubleValue() < 0d
-                    || number.doubleValue() > 1d) {
-                throw new IllegalArgumentException("$percentile.p entries must be numbers in [0, 1]");
+
+        @Override
+        public Object result() {
+            final double[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            if (median) {
+                return exactPercentile(sorted, size, percentiles[0]);
+            }
+            final List<Object> output = new ArrayList<>(percentiles.length);
+            for (final double percentile : percentiles) {
+                output.add(exactPercentile(sorted, size, percentile));
             }
-            percentiles.add(exactPercentile(samples, number.doubleValue()));
+            return output;
         }
-        return percentiles;
     }
 
-    private static Object exactPercentile(final List<Double> sorted, final double percentile) {
-        if (sorted.isEmpty()) {
-            return null;
+    private static final class FirstNState implements AccumulatorState {
+        private final Object input;
+        private final int n;
+        private final List<Object> values = new ArrayList<>();
+
+        private FirstNState(final Object rawDefinition, final Document first) {
+            final Document definition = requireNDefinition(rawDefinition, "$firstN", Set.of("input", "n"));
+            this.input = definition.get("input");
+            this.n = evaluateN(definition.get("n"), first, "$firstN");
         }
-        if (sorted.size() == 1) {
-            return sorted.get(0);
+
+        @Override
+        public void accumulate(final Document source) {
+            if (values.size() < n) {
+                values.add(DocumentCopies.copyAny(evaluateGroupExpression(source, input)));
+            }
         }
-        final double rank = percentile * (sorted.size() - 1d);
-        final int lower = (int) Math.floor(rank);
-        final int upper = (int) Math.ceil(rank);
-        if (lower == upper) {
-            return sorted.get(lower);
+
+        @Override
+        public Object result() {
+            return new ArrayList<>(values);
         }
-        final double fraction = rank - lower;
-        return sorted.get(lower) + (sorted.get(upper) - sorted.get(lower)) * fraction;
     }
 
-    private static Object accumulatorPositionalN(
-            final List<Document> sources, final Object rawDefinition, final boolean fromEnd) {
-        final Document definition = requireNDefinition(rawDefinition, fromEnd ? "$lastN" : "$firstN", Set.of("input", "n"));
-        final int n = evaluateN(definition.get("n"), sources, fromEnd ? "$lastN" : "$firstN");
-        final int start = fromEnd ? Math.max(0, sources.size() - n) : 0;
-        final int end = fromEnd ? sources.size() : Math.min(sources.size(), n);
-        final List<Object> output = new ArrayList<>(Math.max(0, end - start));
-        for (int index = start; index < end; index++) {
-            output.add(DocumentCopies.copyAny(evaluateGroupExpression(sources.get(index), definition.get("input"))));
+    /** Keeps the last {@code n} documents and evaluates {@code input} on them only. */
+    private static final class LastNState implements AccumulatorState {
+        private final Object input;
+        private final int n;
+        private final Deque<Document> window = new ArrayDeque<>();
+
+        private LastNState(final Object rawDefinition, final Document first) {
+            final Document definition = requireNDefinition(rawDefinition, "$lastN", Set.of("input", "n"));
+            this.input = definition.get("input");
+            this.n = evaluateN(definition.get("n"), first, "$lastN");
         }
-        return output;
-    }
 
-    private static Object accumulatorMinMaxN(
-            final List<Document> sources, final Object rawDefinition, final boolean maximum) {
-        final String operator = maximum ? "$maxN" : "$minN";
-        final Document definition = requireNDefinition(rawDefinition, operator, Set.of("input", "n"));
-        final int n = evaluateN(definition.get("n"), sources, operator);
-        final List<Object> values = new ArrayList<>();
-        for (final Document source : sources) {
-            final Object value = evaluateGroupExpression(source, definition.get("input"));
-            if (value != null) {
-                values.add(value);
+        @Override
+        public void accumulate(final Document source) {
+            if (window.size() == n) {
+                window.removeFirst();
             }
+            window.addLast(source);
         }
-        values.sort((left, right) -> maximum
-                ? MongoValueComparator.compare(right, left)
-                : MongoValueComparator.compare(left, right));
-        return new ArrayList<>(values.subList(0, Math.min(n, values.size())));
-    }
 
-    private static Object accumulatorTopBottomN(
-            final List<Document> sources, final Object rawDefinition, final boolean bottom) {
-        final String operator = bottom ? "$bottomN" : "$topN";
-        final Document definition = requireNDefinition(rawDefinition, operator, Set.of("output", "sortBy", "n"));
-        final Document sortBy = requireDocument(definition.get("sortBy"), operator + ".sortBy must be a document");
-        if (sortBy.isEmpty()) {
-            throw new IllegalArgumentException(operator + ".sortBy must not be empty");
-        }
-        final List<SortKey> sortKeys = new ArrayList<>();
-        for (final Map.Entry<String, Object> entry : sortBy.entrySet()) {
-            final int direction = parseSortDirection(entry.getValue());
-            if (direction != 1 && direction != -1) {
-                throw new IllegalArgumentException(operator + ".sortBy directions must be 1 or -1");
+        @Override
+        public Object result() {
+            final List<Object> output = new ArrayList<>(window.size());
+            for (final Document source : window) {
+                output.add(DocumentCopies.copyAny(evaluateGroupExpression(source, input)));
             }
-            sortKeys.add(new SortKey(entry.getKey(), direction));
-        }
-        final int n = evaluateN(definition.get("n"), sources, operator);
-        final List<Document> sorted = new ArrayList<>(sources);
-        sorted.sort((left, right) -> compareSortDocuments(
-                left, right, sortKeys, CollationSupport.Config.simple()));
-        final List<Object> output = new ArrayList<>();
-        final int start = bottom ? Math.max(0, sorted.size() - n) : 0;
-        final int end = bottom ? sorted.size() : Math.min(n, sorted.size());
-        for (int index = start; index < end; index++) {
-            output.add(DocumentCopies.copyAny(evaluateGroupExpression(sorted.get(index), definition.get("output"))));
+            return output;
         }
-        return output;
     }
 
-    private static Document requireNDefinition(
-            final Object rawDefinition, final String operator, final Set<String> requiredFields) {
-        final Document definition = requireDocument(rawDefinition, operator + " requires a document");
-        if (!definition.keySet().equals(requiredFields)) {
-            throw new IllegalArgumentException(operator + " requires exactly " + requiredFields);
-        }
-        return definition;
-    }
+    private static final class MinMaxNState implements AccumulatorState {
+        private final Object input;
+        private final TopKSelector.Selection<Object> selection;
 
-    private static int evaluateN(
-            final Object expression, final List<Document> sources, final String operator) {
-        final Document context = sources.isEmpty() ? new Document() : sources.get(0);
-        final Object value = evaluateGroupExpression(context, expression);
-        if (!(value instanceof Number number)
-                || !Double.isFinite(number.doubleValue())
-                || Math.rint(number.doubleValue()) != number.doubleValue()
-                || number.doubleValue() < 1d
-                || number.doubleValue() > Integer.MAX_VALUE) {
-            throw new IllegalArgumentException(operator + ".n must evaluate to a positive integer");
+        private MinMaxNState(final Object rawDefinition, final Document first, final boolean maximum) {
+            final String operator = maximum ? "$maxN" : "$minN";
+            final Document definition = requireNDefinition(rawDefinition, operator, Set.of("input", "n"));
+            this.input = definition.get("input");
+            final int n = evaluateN(definition.get("n"), first, operator);
+            this.selection = new TopKSelector.Selection<>(n, (left, right) -> maximum
+                    ? MongoValueComparator.compare(right, left)
+                    : MongoValueComparator.compare(left, right));
         }
-        return number.intValue();
-    }
 
-    private static final class GroupBucket {
-        private final Object id;
-        private final List<Document> sources = new ArrayList<>();
+        @Override
+        public void accumulate(final Document source) {
+            final Object value = evaluateGroupExpression(source, input);
+            if (value != null) {
+                selection.offer(value);
+            }
+        }
 
-        private GroupBucket(final Object id) {
-            this.id = DocumentCopies.copyAny(id);
+        @Override
+        public Object result() {
+            return selection.selected();
+        }
+    }
+
+    /**
+     * {@code $topN}/{@code $bottomN}. Both keep a bounded heap of documents and evaluate {@code output} on the
+     * survivors only. The bottom {@code n} of a stable ascending sort are the first {@code n} in descending order
+     * with later arrivals first, which is how they are selected before being reversed back.
+     */
+    private static final class TopBottomNState implements AccumulatorState {
+        private final Object output;
+        private final boolean bottom;
+        private final TopKSelector.Selection<Arrival> selection;
+        private long arrivals;
+
+        private TopBottomNState(final Object rawDefinition, final Document first, final boolean bottom) {
+            final String operator = bottom ? "$bottomN" : "$topN";
+            final Document definition = requireNDefinition(rawDefinition, operator, Set.of("output", "sortBy", "n"));
+            final Document sortBy = requireDocument(definition.get("sortBy"), operator + ".sortBy must be a document");
+            if (sortBy.isEmpty()) {
+                throw new IllegalArgumentException(operator + ".sortBy must not be empty");
+            }
+            final List<SortKey> sortKeys = new ArrayList<>();
+            for (final Map.Entry<String, Object> entry : sortBy.entrySet()) {
+                final int direction = parseSortDirection(entry.getValue());
+                if (direction != 1 && direction != -1) {
+                    throw new IllegalArgumentException(operator + ".sortBy directions must be 1 or -1");
+                }
+                sortKeys.add(new SortKey(entry.getKey(), direction));
+            }
+            this.output = definition.get("output");
+            this.bottom = bottom;
+            final int n = evaluateN(definition.get("n"), first, operator);
+            final Comparator<Arrival> ascending = (left, right) -> compareSortDocuments(
+                    left.document(), right.document(), sortKeys, CollationSupport.Config.simple());
+            this.selection = new TopKSelector.Selection<>(n, bottom
+                    ? ascending.reversed().thenComparing(Comparator.comparingLong(Arrival::sequence).reversed())
+                    : ascending);
         }
 
-        private Object id() {
-            return id;
+        @Override
+        public void accumulate(final Document source) {
+            selection.offer(new Arrival(source, arrivals++));
         }
 
-        private List<Document> sources() {
-            return sources;
+        @Override
+        public Object result() {
+            final List<Arrival> selected = selection.selected();
+            if (bottom) {
+                Collections.reverse(selected);
+            }
+            final List<Object> values = new ArrayList<>(selected.size());
+            for (final Arrival arrival : selected) {
+                values.add(DocumentCopies.copyAny(evaluateGroupExpression(arrival.document(), output)));
+            }
+            return values;
         }
     }
 
+    private record Arrival(Document document, long sequence) {}
+
     private static Number normalizeNumber(final double value) {
         if (!Double.isFinite(value)) {
             return value;
@@ -657,6 +949,76 @@ public final class AggregationPipeline {
             final List<Document> input,
             final Object stageDefinition,
             final CollationSupport.Config collation) {
+        final List<SortKey> sortKeys = parseSortStage(stageDefinition);
+        final List<Document> sorted = new ArrayList<>(input);
+        sorted.sort((left, right) -> compareSortDocuments(left, right, sortKeys, collation));
+        return sorted;
+    }
+
+    /**
+     * Detects {@code $sort} directly followed by {@code $limit}, or by {@code $skip} then {@code $limit}, so the
+     * sort only has to keep the first skip+limit documents.
+     */
+    private static SortWindow sortWindow(final List<Document> pipeline, final int sortIndex) {
+        final Object next = singleStageDefinition(pipeline, sortIndex + 1, "$limit");
+        if (next != null) {
+            final int limit = windowBound(next);
+            return limit < 0 ? null : new SortWindow(0, limit, 1);
+        }
+        final Object skipDefinition = singleStageDefinition(pipeline, sortIndex + 1, "$skip");
+        final Object limitDefinition = singleStageDefinition(pipeline, sortIndex + 2, "$limit");
+        if (skipDefinition == null || limitDefinition == null) {
+            return null;
+        }
+        final int skip = windowBound(skipDefinition);
+        final int limit = windowBound(limitDefinition);
+        return skip < 0 || limit < 0 ? null : new SortWindow(skip, limit, 2);
+    }
+
+    /** Invalid bounds disable coalescing so the stages report their own errors in pipeline order. */
+    private static int windowBound(final Object definition) {
+        try {
+            return readNonNegativeInt(definition, "invalid bound");
+        } catch (final IllegalArgumentException exception) {
+            return -1;
+        }
+    }
+
+    private static Object singleStageDefinition(
+            final List<Document> pipeline, final int stageIndex, final String stageName) {
+        if (stageIndex >= pipeline.size()) {
+            return null;
+        }
+        final Document stage = pipeline.get(stageIndex);
+        if (stage == null || stage.size() != 1 || !stage.containsKey(stageName)) {
+            return null;
+        }
+        return stage.get(stageName);
+    }
+
+    private static List<Document> applySortWindow(
+            final List<Document> input,
+            final Object stageDefinition,
+            final SortWindow window,
+            final CollationSupport.Config collation) {
+        final List<SortKey> sortKeys = parseSortStage(stageDefinition);
+        final long keep = (long) window.skip() + window.limit();
+        final List<Document> selected;
+        if (keep >= input.size()) {
+            selected = new ArrayList<>(input);
+            selected.sort((left, right) -> compareSortDocuments(left, right, sortKeys, collation));
+        } else {
+            selected = TopKSelector.select(
+                    input.iterator(),
+                    (int) keep,
+                    (left, right) -> compareSortDocuments(left, right, sortKeys, collation));
+        }
+        final int from = Math.min(window.skip(), selected.size());
+        final int to = (int) Math.min(keep, selected.size());
+        return List.copyOf(selected.subList(from, to));
+    }
+
+    private static List<SortKey> parseSortStage(final Object stageDefinition) {
         final Document sortDefinition = requireDocument(stageDefinition, "$sort stage requires a document");
         if (sortDefinition.isEmpty()) {
             throw new IllegalArgumentException("$sort stage must not be empty");
@@ -670,10 +1032,7 @@ public final class AggregationPipeline {
             }
             sortKeys.add(new SortKey(entry.getKey(), direction));
         }
-
-        final List<Document> sorted = new ArrayList<>(input);
-        sorted.sort((left, right) -> compareSortDocuments(left, right, sortKeys, collation));
-        return sorted;
+        return sortKeys;
     }
 
     private static List<Document> applySetWindowFields(
@@ -923,26 +1282,37 @@ public final class AggregationPipeline {
         return value.getClass().getName() + ":" + String.valueOf(value);
     }
 
-    private static List<Document> applyLimit(final List<Document> input, final Object stageDefinition) {
+    /** Stops pulling from the preceding stages once the limit is reached. */
+    private static Iterator<Document> streamLimit(final Iterator<Document> input, final Object stageDefinition) {
         final int limit = readNonNegativeInt(stageDefinition, "$limit must be a non-negative integer");
-        if (limit == 0) {
-            return List.of();
-        }
-        if (limit >= input.size()) {
-            return List.copyOf(input);
-        }
-        return List.copyOf(new ArrayList<>(input.subList(0, limit)));
+        return new StageIterator() {
+            private int remaining = limit;
+
+            @Override
+            protected Document advance() {
+                if (remaining == 0 || !input.hasNext()) {
+                    return null;
+                }
+                remaining--;
+                return input.next();
+            }
+        };
     }
 
-    private static List<Document> applySkip(final List<Document> input, final Object stageDefinition) {
+    private static Iterator<Document> streamSkip(final Iterator<Document> input, final Object stageDefinition) {
         final int skip = readNonNegativeInt(stageDefinition, "$skip must be a non-negative integer");
-        if (skip <= 0) {
-            return List.copyOf(input);
-        }
-        if (skip >= input.size()) {
-            return List.of();
-        }
-        return List.copyOf(new ArrayList<>(input.subList(skip, input.size())));
+        return new StageIterator() {
+            private int toSkip = skip;
+
+            @Override
+            protected Document advance() {
+                while (toSkip > 0 && input.hasNext()) {
+                    input.next();
+                    toSkip--;
+                }
+                return input.hasNext() ? input.next() : null;
+            }
+        };
     }
 
     private static int readNonNegativeInt(final Object value, final String errorMessage) {
@@ -959,47 +1329,58 @@ public final class AggregationPipeline {
         return (int) numeric;
     }
 
-    private static List<Document> applyUnwind(final List<Document> input, final Object stageDefinition) {
+    private static Iterator<Document> streamUnwind(final Iterator<Document> input, final Object stageDefinition) {
         final UnwindSpec unwindSpec = parseUnwindSpec(stageDefinition);
-        final List<Document> output = new ArrayList<>();
-        for (final Document source : input) {
-            final PathValue pathValue = resolvePath(source, unwindSpec.path());
-            if (!pathValue.present() || pathValue.value() == null) {
+        return new StageIterator() {
+            private final Deque<Document> expanded = new ArrayDeque<>();
+
+            @Override
+            protected Document advance() {
+                while (expanded.isEmpty() && input.hasNext()) {
+                    unwindDocument(input.next(), unwindSpec, expanded);
+                }
+                return expanded.pollFirst();
+            }
+        };
+    }
+
+    private static void unwindDocument(
+            final Document source, final UnwindSpec unwindSpec, final Collection<Document> output) {
+        final PathValue pathValue = resolvePath(source, unwindSpec.path());
+        if (!pathValue.present() || pathValue.value() == null) {
+            if (unwindSpec.preserveNullAndEmptyArrays()) {
+                final Document preserved = DocumentCopies.copy(source);
+                setUnwindArrayIndex(preserved, unwindSpec, null);
+                output.add(preserved);
+            }
+            return;
+        }
+
+        if (pathValue.value() instanceof List<?> listValue) {
+            if (listValue.isEmpty()) {
                 if (unwindSpec.preserveNullAndEmptyArrays()) {
                     final Document preserved = DocumentCopies.copy(source);
+                    removePath(preserved, unwindSpec.path());
                     setUnwindArrayIndex(preserved, unwindSpec, null);
                     output.add(preserved);
                 }
-                continue;
+                return;
             }
 
-            if (pathValue.value() instanceof List<?> listValue) {
-                if (listValue.isEmpty()) {
-                    if (unwindSpec.preserveNullAndEmptyArrays()) {
-                        final Document preserved = DocumentCopies.copy(source);
-                        removePath(preserved, unwindSpec.path());
-                        setUnwindArrayIndex(preserved, unwindSpec, null);
-                        output.add(preserved);
-                    }
-                    continue;
-                }
-
-                for (int index = 0; index < listValue.size(); index++) {
-                    final Object item = listValue.get(index);
-                    final Document expanded = DocumentCopies.copy(source);
-                    setPath(expanded, unwindSpec.path(), item);
-                    setUnwindArrayIndex(expanded, unwindSpec, Long.valueOf(index));
-                    output.add(expanded);
-                }
-                continue;
+            for (int index = 0; index < listValue.size(); index++) {
+                final Object item = listValue.get(index);
+                final Document expanded = DocumentCopies.copy(source);
+                setPath(expanded, unwindSpec.path(), item);
+                setUnwindArrayIndex(expanded, unwindSpec, Long.valueOf(index));
+                output.add(expanded);
             }
-
-            final Document expanded = DocumentCopies.copy(source);
-            setPath(expanded, unwindSpec.path(), pathValue.value());
-            setUnwindArrayIndex(expanded, unwindSpec, null);
-            output.add(expanded);
+            return;
         }
-        return output;
+
+        final Document expanded = DocumentCopies.copy(source);
+        setPath(expanded, unwindSpec.path(), pathValue.value());
+        setUnwindArrayIndex(expanded, unwindSpec, null);
+        output.add(expanded);
     }
 
     private static void setUnwindArrayIndex(
@@ -1063,16 +1444,8 @@ public final class AggregationPipeline {
         return List.of(new Document(fieldName, input.size()));
     }
 
-    private static List<Document> applyAddFields(final List<Document> input, final Object stageDefinition) {
-        return applyFieldAssignmentStage(input, stageDefinition, "$addFields");
-    }
-
-    private static List<Document> applySet(final List<Document> input, final Object stageDefinition) {
-        return applyFieldAssignmentStage(input, stageDefinition, "$set");
-    }
-
-    private static List<Document> applyFieldAssignmentStage(
-            final List<Document> input,
+    private static Iterator<Document> streamFieldAssignments(
+            final Iterator<Document> input,
             final Object stageDefinition,
             final String stageName) {
         final Document assignments = requireDocument(stageDefinition, stageName + " stage requires a document");
@@ -1080,8 +1453,7 @@ public final class AggregationPipeline {
             throw new IllegalArgumentException(stageName + " stage must not be empty");
         }
 
-        final List<Document> output = new ArrayList<>(input.size());
-        for (final Document source : input) {
+        return mapDocuments(input, source -> {
             final Document expanded = DocumentCopies.copy(source);
             for (final Map.Entry<String, Object> entry : assignments.entrySet()) {
                 final String fieldName = requireText(entry.getKey(), stageName + " field");
@@ -1092,22 +1464,19 @@ public final class AggregationPipeline {
                     setPath(expanded, fieldName, value);
                 }
             }
-            output.add(expanded);
-        }
-        return List.copyOf(output);
+            return expanded;
+        });
     }
 
-    private static List<Document> applyUnset(final List<Document> input, final Object stageDefinition) {
+    private static Iterator<Document> streamUnset(final Iterator<Document> input, final Object stageDefinition) {
         final List<String> fieldPaths = parseUnsetFields(stageDefinition);
-        final List<Document> output = new ArrayList<>(input.size());
-        for (final Document source : input) {
+        return mapDocuments(input, source -> {
             final Document reduced = DocumentCopies.copy(source);
             for (final String fieldPath : fieldPaths) {
                 removePath(reduced, fieldPath);
             }
-            output.add(reduced);
-        }
-        return List.copyOf(output);
+            return reduced;
+        });
     }
 
     private static List<String> parseUnsetFields(final Object stageDefinition) {
@@ -1178,7 +1547,8 @@ public final class AggregationPipeline {
         return List.copyOf(output);
     }
 
-    private static List<Document> applyReplaceRoot(final List<Document> input, final Object stageDefinition) {
+    private static Iterator<Document> streamReplaceRoot(
+            final Iterator<Document> input, final Object stageDefinition) {
         final Object expression;
         if (stageDefinition instanceof String) {
             expression = stageDefinition;
@@ -1190,26 +1560,20 @@ public final class AggregationPipeline {
             }
             expression = replaceDefinition.get("newRoot");
         }
-        return applyReplaceRootExpression(input, expression, "$replaceRoot newRoot must evaluate to a document");
-    }
-
-    private static List<Document> applyReplaceWith(final List<Document> input, final Object stageDefinition) {
-        return applyReplaceRootExpression(input, stageDefinition, "$replaceWith expression must evaluate to a document");
+        return streamReplaceRootExpression(input, expression, "$replaceRoot newRoot must evaluate to a document");
     }
 
-    private static List<Document> applyReplaceRootExpression(
-            final List<Document> input,
+    private static Iterator<Document> streamReplaceRootExpression(
+            final Iterator<Document> input,
             final Object expression,
             final String nonDocumentMessage) {
-        final List<Document> output = new ArrayList<>(input.size());
-        for (final Document source : input) {
+        return mapDocuments(input, source -> {
             final Object evaluated = evaluateExpression(source, expression);
             if (!(evaluated instanceof Map<?, ?> mapValue)) {
                 throw new IllegalArgumentException(nonDocumentMessage);
             }
-            output.add(copyMapToDocument(mapValue));
-        }
-        return List.copyOf(output);
+            return copyMapToDocument(mapValue);
+        });
     }
 
     private static List<Document> applyFacet(
@@ -1261,29 +1625,33 @@ public final class AggregationPipeline {
             throw new IllegalArgumentException("$lookup requires localField/foreignField or pipeline");
         }
 
+        if (input.isEmpty()) {
+            return List.of();
+        }
+        final List<Document> foreignSource = materializeDocuments(
+                collectionResolver.resolve(from),
+                "$lookup resolver returned null documents");
+        final LookupIndex foreignIndex = hasLocalForeign ? LookupIndex.build(foreignSource, foreignField) : null;
+        final Map<List<Object>, List<Document>> pipelineResults = new HashMap<>();
+
         final List<Document> output = new ArrayList<>(input.size());
         for (final Document source : input) {
-            final List<Document> foreignSource = materializeDocuments(
-                    collectionResolver.resolve(from),
-                    "$lookup resolver returned null documents");
             List<Document> joined = foreignSource;
-
+            Object localValue = null;
             if (hasLocalForeign) {
-                final Object localValue = resolvePath(source, localField).valueOrNull();
-                final List<Document> matched = new ArrayList<>();
-                for (final Document foreignDocument : foreignSource) {
-                    final Object foreignValue = resolvePath(foreignDocument, foreignField).valueOrNull();
-                    if (lookupValueMatches(localValue, foreignValue)) {
-                        matched.add(DocumentCopies.copy(foreignDocument));
-                    }
-                }
-                joined = matched;
+                localValue = resolvePath(source, localField).valueOrNull();
+                joined = foreignIndex.probe(localValue);
             }
 
             if (!lookupPipeline.isEmpty()) {
                 final Map<String, Object> variables = evaluateLookupVariables(source, letDefinition);
-                final List<Document> substitutedPipeline = substitutePipelineVariables(lookupPipeline, variables);
-                joined = execute(joined, substitutedPipeline, collectionResolver, collation);
+                final List<Object> cacheKey = List.of(new LookupKey(localValue), new LookupKey(variables));
+                final List<Document> pipelineInput = joined;
+                joined = pipelineResults.computeIfAbsent(cacheKey, ignored -> execute(
+                        pipelineInput,
+                        substitutePipelineVariables(lookupPipeline, variables),
+                        collectionResolver,
+                        collation));
             }
 
             final Document expanded = DocumentCopies.copy(source);
@@ -1321,16 +1689,15 @@ public final class AggregationPipeline {
         if (!unionPipeline.isEmpty()) {
             unionSource = execute(unionSource, unionPipeline, collectionResolver, collation);
         }
-        for (final Document document : unionSource) {
-            combined.add(DocumentCopies.copy(document));
-        }
+        combined.addAll(unionSource);
         return List.copyOf(combined);
     }
 
     private static List<Document> applyGraphLookup(
             final List<Document> input,
             final Object stageDefinition,
-            final CollectionResolver collectionResolver) {
+            final CollectionResolver collectionResolver,
+            final CollationSupport.Config collation) {
         final Document graphLookupDefinition = requireDocument(stageDefinition, "$graphLookup stage requires a document");
         for (final String option : graphLookupDefinition.keySet()) {
             if (!GRAPH_LOOKUP_SUPPORTED_OPTIONS.contains(option)) {
@@ -1355,10 +1722,33 @@ public final class AggregationPipeline {
                 "$graphLookup.connectToField must be a string");
         final String as = requireStringField(graphLookupDefinition, "as", "$graphLookup.as must be a string");
         final int maxDepth = parseGraphLookupMaxDepth(graphLookupDefinition.get("maxDepth"));
+        final String depthField = optionalStringField(
+                graphLookupDefinition,
+                "depthField",
+                "$graphLookup.depthField must be a string");
+        final Document restrictSearchWithMatch = graphLookupDefinition.containsKey("restrictSearchWithMatch")
+                ? requireDocument(
+                        graphLookupDefinition.get("restrictSearchWithMatch"),
+                        "$graphLookup.restrictSearchWithMatch must be a document")
+                : null;
 
         final List<Document> foreignSource = materializeDocuments(
                 collectionResolver.resolve(from),
                 "$graphLookup resolver returned null documents");
+        final List<Document> searchable;
+        if (restrictSearchWithMatch == null || restrictSearchWithMatch.isEmpty()) {
+            searchable = foreignSource;
+        } else {
+            final QueryMatcher.CompiledFilter restriction = QueryMatcher.compile(restrictSearchWithMatch, collation);
+            searchable = new ArrayList<>();
+            for (final Document candidate : foreignSource) {
+                if (restriction.matches(candidate)) {
+                    searchable.add(candidate);
+                }
+            }
+        }
+        final LookupIndex connectToIndex = LookupIndex.build(searchable, connectToField);
+
         final List<Document> output = new ArrayList<>(input.size());
         for (final Document source : input) {
             final Deque<GraphLookupFrontier> frontier = new ArrayDeque<>();
@@ -1366,22 +1756,25 @@ public final class AggregationPipeline {
                 frontier.addLast(new GraphLookupFrontier(seed, 0));
             }
 
-            final Set<GroupKey> visited = new LinkedHashSet<>();
+            // Positions in the searchable list stand in for _id: each stored document appears exactly once.
+            final BitSet visited = new BitSet(searchable.size());
             final List<Document> graph = new ArrayList<>();
             while (!frontier.isEmpty()) {
                 final GraphLookupFrontier current = frontier.removeFirst();
-                for (final Document candidate : foreignSource) {
-                    final Object connectToValue = resolvePath(candidate, connectToField).valueOrNull();
-                    if (!lookupValueMatches(current.value(), connectToValue)) {
+                for (final int ordinal : connectToIndex.probeOrdinals(current.value())) {
+                    if (visited.get(ordinal)) {
                         continue;
                     }
-
-                    final GroupKey candidateKey = new GroupKey(candidate);
-                    if (!visited.add(candidateKey)) {
-                        continue;
+                    visited.set(ordinal);
+
+                    final Document candidate = searchable.get(ordinal);
+                    if (depthField == null) {
+                        graph.add(candidate);
+                    } else {
+                        final Document withDepth = DocumentCopies.copy(candidate);
+                        withDepth.put(depthField, (long) current.depth());
+                        graph.add(withDepth);
                     }
-
-                    graph.add(DocumentCopies.copy(candidate));
                     if (current.depth() >= maxDepth) {
                         continue;
                     }
@@ -1549,7 +1942,7 @@ public final class AggregationPipeline {
     private static boolean lookupValueMatches(final Object localValue, final Object foreignValue) {
         if (localValue instanceof List<?> localList) {
             for (final Object candidate : localList) {
-                if (Objects.deepEquals(candidate, foreignValue)) {
+                if (MongoValueComparator.equals(candidate, foreignValue)) {
                     return true;
                 }
             }
@@ -1557,13 +1950,13 @@ public final class AggregationPipeline {
         }
         if (foreignValue instanceof List<?> foreignList) {
             for (final Object candidate : foreignList) {
-                if (Objects.deepEquals(localValue, candidate)) {
+                if (MongoValueComparator.equals(localValue, candidate)) {
                     return true;
                 }
             }
             return false;
         }
-        return Objects.deepEquals(localValue, foreignValue);
+        return MongoValueComparator.equals(localValue, foreignValue);
     }
 
     private static Map<String, Object> evaluateLookupVariables(
@@ -1655,6 +2048,8 @@ public final class AggregationPipeline {
 
     private record SortKey(String field, int direction) {}
 
+    private record SortWindow(int skip, int limit, int coalescedStages) {}
+
     private record UnwindSpec(String path, boolean preserveNullAndEmptyArrays, String includeArrayIndex) {}
 
     private record PathValue(boolean present, Object value) {
@@ -1673,6 +2068,36 @@ public final class AggregationPipeline {
 
     private record GraphLookupFrontier(Object value, int depth) {}
 
+    /**
+     * Output of a streaming stage. {@link #advance()} pulls from the preceding stage only when the next document is
+     * requested and returns null once the stage is exhausted; pipeline documents are never null.
+     */
+    private abstract static class StageIterator implements Iterator<Document> {
+        private Document next;
+        private boolean exhausted;
+
+        protected abstract Document advance();
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !exhausted) {
+                next = advance();
+                exhausted = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("no more documents");
+            }
+            final Document document = next;
+            next = null;
+            return document;
+        }
+    }
+
     private static final class CountBucket {
         private final Object id;
         private long count;
@@ -1695,6 +2120,92 @@ public final class AggregationPipeline {
         }
     }
 
+    /**
+     * Hash index over one side of a {@code $lookup}, built once per stage. Probes return the same documents, in the
+     * same foreign order, as testing every foreign document with {@link #lookupValueMatches}.
+     */
+    private static final class LookupIndex {
+        /** Foreign documents keyed by their whole {@code foreignField} value, arrays included as one value. */
+        private final Map<LookupKey, List<Integer>> byWholeValue = new HashMap<>();
+        /** Foreign documents keyed by scalar values and by each distinct element of array values. */
+        private final Map<LookupKey, List<Integer>> byScalarOrElement = new HashMap<>();
+        private final List<Document> documents;
+
+        private LookupIndex(final List<Document> documents) {
+            this.documents = documents;
+        }
+
+        private static LookupIndex build(final List<Document> foreignDocuments, final String foreignField) {
+            final LookupIndex index = new LookupIndex(foreignDocuments);
+            for (int ordinal = 0; ordinal < foreignDocuments.size(); ordinal++) {
+                final Object foreignValue = resolvePath(foreignDocuments.get(ordinal), foreignField).valueOrNull();
+                index.byWholeValue.computeIfAbsent(new LookupKey(foreignValue), ignored -> new ArrayList<>()).add(ordinal);
+                if (foreignValue instanceof List<?> foreignList) {
+                    final Set<LookupKey> elements = new LinkedHashSet<>();
+                    for (final Object element : foreignList) {
+                        elements.add(new LookupKey(element));
+                    }
+                    for (final LookupKey element : elements) {
+                        index.byScalarOrElement.computeIfAbsent(element, ignored -> new ArrayList<>()).add(ordinal);
+                    }
+                } else {
+                    index.byScalarOrElement
+                            .computeIfAbsent(new LookupKey(foreignValue), ignored -> new ArrayList<>())
+                            .add(ordinal);
+                }
+            }
+            return index;
+        }
+
+        private List<Document> probe(final Object localValue) {
+            final Collection<Integer> ordinals = probeOrdinals(localValue);
+            final List<Document> matched = new ArrayList<>(ordinals.size());
+            for (final Integer ordinal : ordinals) {
+                matched.add(documents.get(ordinal));
+            }
+            return matched;
+        }
+
+        /** Positions of matching documents, ascending. */
+        private Collection<Integer> probeOrdinals(final Object localValue) {
+            if (!(localValue instanceof List<?> localList)) {
+                return byScalarOrElement.getOrDefault(new LookupKey(localValue), List.of());
+            }
+            final TreeSet<Integer> ordinals = new TreeSet<>();
+            for (final Object candidate : localList) {
+                ordinals.addAll(byWholeValue.getOrDefault(new LookupKey(candidate), List.of()));
+            }
+            return ordinals;
+        }
+    }
+
+    /** Hash key with MongoDB equality semantics, so numerically equal values of different types collide. */
+    private static final class LookupKey {
+        private final Object value;
+        private final int hashCode;
+
+        private LookupKey(final Object value) {
+            this.value = value;
+            this.hashCode = MongoValueComparator.hash(value);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof LookupKey that)) {
+                return false;
+            }
+            return MongoValueComparator.equals(value, that.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     private static final class GroupKey {
         private final Object value;
         private final int hashCode;
@@ -2,6 +2,7 @@ package org.jongodb.engine;
 
 import java.lang.reflect.Array;
 import java.text.Collator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -146,6 +147,43 @@ public final class CollationSupport {
             return Objects.deepEquals(left, right);
         }
 
+        /**
+         * Hash code consistent with {@link #valuesEqual(Object, Object)} under this collation.
+         */
+        public int valueHash(final Object value) {
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof String stringValue) {
+                return simpleBinary
+                        ? stringValue.hashCode()
+                        : Arrays.hashCode(collator.getCollationKey(stringValue).toByteArray());
+            }
+            if (value instanceof Map<?, ?> mapValue) {
+                int hash = 0;
+                for (final Map.Entry<?, ?> entry : mapValue.entrySet()) {
+                    hash += Objects.hashCode(entry.getKey()) ^ valueHash(entry.getValue());
+                }
+                return hash;
+            }
+            if (value instanceof List<?> listValue) {
+                int hash = 1;
+                for (final Object item : listValue) {
+                    hash = 31 * hash + valueHash(item);
+                }
+                return hash;
+            }
+            if (value.getClass().isArray()) {
+                int hash = 1;
+                final int length = Array.getLength(value);
+                for (int i = 0; i < length; i++) {
+                    hash = 31 * hash + valueHash(Array.get(value, i));
+                }
+                return hash;
+            }
+            return value.hashCode();
+        }
+
         private static Config create(final String locale, final int strength, final boolean caseLevel) {
             if ("simple".equalsIgnoreCase(locale)) {
                 return SIMPLE;
@@ -1,7 +1,11 @@
 package org.jongodb.engine;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 
 /**
  * Storage contract for a single namespace.
@@ -9,6 +13,14 @@ import org.bson.Document;
 public interface CollectionStore {
     void insertMany(List<Document> documents);
 
+    /**
+     * Insert path for large batches. Unlike {@link #insertMany}, implementations may make the batch visible
+     * progressively, so concurrent readers are not held off for the whole load.
+     */
+    default void bulkInsert(final List<Document> documents) {
+        insertMany(documents);
+    }
+
     CreateIndexesResult createIndexes(List<IndexDefinition> indexes);
 
     List<IndexDefinition> listIndexes();
@@ -29,6 +41,74 @@ public interface CollectionStore {
         return find(filter);
     }
 
+    /**
+     * Matching documents as canonical BSON, in natural order. Stores that keep documents immutable may cache the
+     * encoding per document version so repeated reads skip the codec entirely.
+     */
+    default List<RawBsonDocument> findEncoded(final Document filter, final CollationSupport.Config collation) {
+        final List<Document> matches = find(filter, collation);
+        final List<RawBsonDocument> encoded = new ArrayList<>(matches.size());
+        for (final Document match : matches) {
+            encoded.add(DocumentCopies.encode(match));
+        }
+        return encoded;
+    }
+
+    /**
+     * Matching documents as canonical BSON, produced on demand. Implementations may page lazily so a consumer that
+     * stops early does not pay for the rest of the collection.
+     */
+    default Iterator<RawBsonDocument> iterateEncoded(final Document filter, final CollationSupport.Config collation) {
+        return findEncoded(filter, collation).iterator();
+    }
+
+    /**
+     * Source scan for a pipeline whose leading {@code $match} and {@code $sort} were pushed down. Stores that can
+     * return matches in {@code sort} order from an index do so and report it; otherwise the caller still sorts.
+     * A null sort requests natural order. The default filters {@link #scanAll} lazily and never sorts.
+     *
+     * <p>The documents are pipeline input and may be the store's own; {@link AggregationPipeline} copies a document
+     * before changing it, and other callers must do the same.
+     */
+    default Scan scan(final Document filter, final Document sort, final CollationSupport.Config collation) {
+        final QueryMatcher.CompiledFilter compiled =
+                QueryMatcher.compile(filter == null ? new Document() : filter, collation);
+        final Iterable<Document> source = scanAll();
+        return new Scan(() -> new Iterator<>() {
+            private final Iterator<Document> documents = source.iterator();
+            private Document next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && documents.hasNext()) {
+                    final Document candidate = documents.next();
+                    if (candidate != null && compiled.matches(candidate)) {
+                        next = candidate;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Document next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("no more documents");
+                }
+                final Document current = next;
+                next = null;
+                return current;
+            }
+        }, null, false);
+    }
+
+    /**
+     * The index and ordering {@link #scan} would use for the same arguments, chosen without reading documents. The
+     * default matches the default scan: a collection scan that never sorts.
+     */
+    default ScanPlan planScan(final Document filter, final Document sort, final CollationSupport.Config collation) {
+        return new ScanPlan(null, false);
+    }
+
     default List<Document> aggregate(final List<Document> pipeline) {
         throw new UnsupportedOperationException("aggregate is not supported");
     }
@@ -61,6 +141,22 @@ public interface CollectionStore {
 
     DeleteManyResult deleteMany(Document filter);
 
+    /**
+     * Deletes the first document in natural order that matches the filter.
+     */
+    default DeleteManyResult deleteOne(final Document filter) {
+        final List<Document> matches = find(filter == null ? new Document() : filter);
+        if (matches.isEmpty()) {
+            return new DeleteManyResult(0, 0);
+        }
+        final Document firstMatch = matches.get(0);
+        final Document oneFilter = firstMatch.containsKey("_id")
+                ? new Document("_id", firstMatch.get("_id"))
+                : firstMatch;
+        final long deletedCount = Math.min(1, deleteMany(oneFilter).deletedCount());
+        return new DeleteManyResult(deletedCount, deletedCount);
+    }
+
     record IndexDefinition(
             String name,
             Document key,
@@ -92,4 +188,13 @@ public interface CollectionStore {
     }
 
     record CreateIndexesResult(int numIndexesBefore, int numIndexesAfter) {}
+
+    /** Access path of a pushed-down scan, as {@link Scan} would report it, without its documents. */
+    record ScanPlan(String indexName, boolean sorted) {}
+
+    /**
+     * Documents of a pushed-down scan. {@code indexName} names the index that produced the candidates, null for a
+     * collection scan; {@code sorted} reports whether the documents already follow the requested sort.
+     */
+    record Scan(Iterable<Document> documents, String indexName, boolean sorted) {}
 }
@@ -0,0 +1,73 @@
+package org.jongodb.engine;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bson.Document;
+
+/**
+ * Writes made to a transaction's private collection copy, keyed by {@code _id}. Each entry keeps the document the
+ * transaction first saw for that {@code _id} (its before-image, {@code null} when absent) and the document it left
+ * behind ({@code null} once deleted), so a commit replays only the written documents.
+ *
+ * <p>Index changes are flagged rather than recorded; the commit re-merges index definitions, which are small.
+ * Replacing the whole collection state cannot be expressed per document and marks the write set incomplete.
+ */
+final class CollectionWriteSet {
+    private final Map<InMemoryCollectionStore.IdKey, Entry> entries = new LinkedHashMap<>();
+    private boolean indexesChanged;
+    private boolean complete = true;
+
+    void record(final Document before, final Document after) {
+        final Object id = before != null ? before.get("_id") : after.get("_id");
+        final InMemoryCollectionStore.IdKey key = new InMemoryCollectionStore.IdKey(id);
+        final Entry entry = entries.computeIfAbsent(key, ignored -> new Entry(id, before));
+        entry.after = after;
+        if (entry.before == null && entry.after == null) {
+            entries.remove(key);
+        }
+    }
+
+    void indexesChanged() {
+        indexesChanged = true;
+    }
+
+    void invalidate() {
+        complete = false;
+    }
+
+    boolean hasIndexChanges() {
+        return indexesChanged;
+    }
+
+    boolean complete() {
+        return complete;
+    }
+
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    static final class Entry {
+        private final Object id;
+        private final Document before;
+        private Document after;
+
+        private Entry(final Object id, final Document before) {
+            this.id = id;
+            this.before = before;
+        }
+
+        Object id() {
+            return id;
+        }
+
+        Document before() {
+            return before;
+        }
+
+        Document after() {
+            return after;
+        }
+    }
+}
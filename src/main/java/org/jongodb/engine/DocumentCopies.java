@@ -7,12 +7,33 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
 
+/**
+ * Deep copies and canonical encodings of engine documents.
+ *
+ * <p>Stored documents are owned by the engine and never mutated in place: they are copied once on the way in, shared
+ * by readers, snapshots and transaction states inside the engine, and copied again only when they are handed to a
+ * caller that may mutate them. Writers work on a {@link #copy(Document)} that replaces the stored version.
+ */
 final class DocumentCopies {
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
     private DocumentCopies() {}
 
+    /**
+     * Encodes the document into canonical BSON bytes. The result is immutable and can be spliced into replies as-is.
+     */
+    static RawBsonDocument encode(final Document source) {
+        return new RawBsonDocument(Objects.requireNonNull(source, "source"), DOCUMENT_CODEC);
+    }
+
     static Document copy(Document source) {
         Objects.requireNonNull(source, "source");
+        if (source instanceof RawDocument raw) {
+            return raw.decode();
+        }
 
         Document copy = new Document();
         for (Map.Entry<String, Object> entry : source.entrySet()) {
@@ -0,0 +1,39 @@
+package org.jongodb.engine;
+
+import java.util.Locale;
+
+/** How {@link InMemoryCollectionStore} holds the documents it stores. */
+public enum DocumentStorage {
+    /**
+     * Decoded {@link org.bson.Document} trees. Reads that reply with BSON encode through a size-bounded cache of
+     * encodings.
+     */
+    DECODED("decoded"),
+    /**
+     * Canonical BSON bytes (see {@link RawDocument}). Filters read only the fields they test, so documents a query
+     * does not match are never decoded, and replies splice the stored bytes as-is. Each document is held once, at its
+     * encoded size. Documents written through the engine API must hold only values that
+     * {@link org.bson.codecs.DocumentCodec} can encode.
+     */
+    RAW_BSON("raw-bson");
+
+    private final String cliValue;
+
+    DocumentStorage(final String cliValue) {
+        this.cliValue = cliValue;
+    }
+
+    public String cliValue() {
+        return cliValue;
+    }
+
+    public static DocumentStorage parse(final String rawValue) {
+        final String normalized = rawValue == null ? "" : rawValue.trim().toLowerCase(Locale.ROOT);
+        for (final DocumentStorage storage : values()) {
+            if (storage.cliValue.equals(normalized)) {
+                return storage;
+            }
+        }
+        throw new IllegalArgumentException("unsupported document storage: " + rawValue);
+    }
+}
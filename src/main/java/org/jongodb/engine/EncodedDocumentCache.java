@@ -0,0 +1,119 @@
+package org.jongodb.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+/**
+ * Canonical BSON of one collection's stored documents, keyed by record id and bounded by total encoded size. The least
+ * recently served encodings are evicted first, so frequently read documents stay encoded without the cache growing
+ * into a second copy of the whole collection.
+ *
+ * <p>Entries are only valid for the record version they were encoded from; the store must {@link #remove} a record
+ * whenever it replaces or deletes it.
+ */
+final class EncodedDocumentCache {
+    static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final Map<Long, RawBsonDocument> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    EncodedDocumentCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    EncodedDocumentCache(final long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached encoding of the record, encoding {@code document} on a miss. An encoding larger than the
+     * whole budget is returned without being cached.
+     */
+    RawBsonDocument get(final long recordId, final Document document) {
+        synchronized (entries) {
+            final RawBsonDocument cached = entries.get(recordId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final RawBsonDocument encoded = DocumentCopies.encode(document);
+        final int size = sizeOf(encoded);
+        if (size > maxBytes) {
+            return encoded;
+        }
+        synchronized (entries) {
+            final RawBsonDocument previous = entries.put(recordId, encoded);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+            bytes += size;
+            evictOverBudget();
+        }
+        return encoded;
+    }
+
+    void remove(final long recordId) {
+        synchronized (entries) {
+            final RawBsonDocument removed = entries.remove(recordId);
+            if (removed != null) {
+                bytes -= sizeOf(removed);
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /** Copies the source's entries, oldest first, evicting as needed if this cache has the smaller budget. */
+    void putAll(final EncodedDocumentCache source) {
+        final Map<Long, RawBsonDocument> copied;
+        synchronized (source.entries) {
+            copied = new LinkedHashMap<>(source.entries);
+        }
+        synchronized (entries) {
+            for (final Map.Entry<Long, RawBsonDocument> entry : copied.entrySet()) {
+                final RawBsonDocument previous = entries.put(entry.getKey(), entry.getValue());
+                if (previous != null) {
+                    bytes -= sizeOf(previous);
+                }
+                bytes += sizeOf(entry.getValue());
+            }
+            evictOverBudget();
+        }
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    /** Total encoded size of the cached documents. */
+    long bytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private void evictOverBudget() {
+        final Iterator<RawBsonDocument> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static int sizeOf(final RawBsonDocument encoded) {
+        return encoded.getByteBuffer().remaining();
+    }
+}
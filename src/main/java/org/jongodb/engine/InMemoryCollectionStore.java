@@ -3,83 +3,320 @@ package org.jongodb.engine;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.types.ObjectId;
 
 /**
- * Basic synchronized in-memory collection store.
+ * In-memory collection store guarded by a per-collection read/write lock: reads run in parallel, writes are
+ * serialized per collection. Each TTL index keeps its documents ordered by expiry time, so expiring documents only
+ * pops the already-expired heads; a read takes the write lock for that only once the earliest expiry has passed.
+ *
+ * <p>Stored documents are owned by the store and never mutated in place: inserts store a copy, writes build a new
+ * version and swap it into the record slot, and snapshots, transaction states and the aggregation pipeline share them.
+ * Reads that hand documents to callers ({@link #find}, {@link #findAll}, {@link #scanAll}) return copies.
+ *
+ * <p>With {@link DocumentStorage#RAW_BSON} every stored version is a {@link RawDocument}: documents are encoded once
+ * on the way in, filters and index maintenance read single fields from the bytes, and encoded reads serve the stored
+ * bytes without the cache of encodings that {@link DocumentStorage#DECODED} keeps.
+ *
+ * <p>Records and every index structure live in {@link SharedTreeMap}s, so copying a store takes constant time: the
+ * copy shares all nodes with its source, and each side copies only the tree paths to the records it writes later.
+ * Every write advances the collection version. Transaction snapshots pin a version; the first write to a pinned
+ * version preserves it as such a copy, which pinned readers switch to, and a snapshot that writes takes one as its
+ * private store. Either way a write copies only the records and index entries it touches.
+ *
+ * <p>A transaction's private copy records a {@link CollectionWriteSet} of the documents it writes; committing applies
+ * that write set to the live store with per-{@code _id} conflict checks (see {@link #applyWriteSet}).
  */
 public final class InMemoryCollectionStore implements CollectionStore {
-    private final List<Document> documents = new ArrayList<>();
+    static final int BULK_INSERT_CHUNK_SIZE = 1_000;
+    /** Records returned by the first pull of a lazy scan; later pulls double up to {@link #MAX_PULL_SIZE}. */
+    static final int INITIAL_PULL_SIZE = 16;
+    static final int MAX_PULL_SIZE = 1024;
+
+    private final SharedTreeMap<Long, Document> documents;
+    /** Bulk-inserted documents not yet published; their unique keys are held in the unique key tables. */
+    private final NavigableMap<Long, Document> reservedDocuments = new TreeMap<>();
     private final Map<String, IndexMetadata> indexesByName = new LinkedHashMap<>();
+    private final Map<String, SecondaryIndex> secondaryIndexes = new LinkedHashMap<>();
+    private final Map<String, UniqueKeyTable> uniqueKeyTables = new LinkedHashMap<>();
+    private final IdLookup idLookup;
+    private final QueryPlanCache planCache = new QueryPlanCache();
+    private final EncodedDocumentCache encodedDocuments;
+    private final Map<Long, PinnedVersion> pinnedVersions = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private final Clock clock;
+    private final DocumentStorage storage;
+    private final List<TtlIndex> ttlIndexes = new ArrayList<>();
+    private volatile long nextExpiryMillis = Long.MAX_VALUE;
+    private long nextRecordId;
+    private long version;
+    private CollectionWriteSet writeSet;
 
     InMemoryCollectionStore() {
         this(Clock.systemUTC());
     }
 
     InMemoryCollectionStore(final Clock clock) {
+        this(clock, DocumentStorage.DECODED);
+    }
+
+    InMemoryCollectionStore(final Clock clock, final DocumentStorage storage) {
+        this(clock, storage, EncodedDocumentCache.DEFAULT_MAX_BYTES);
+    }
+
+    /** Store whose cache of encoded documents holds at most {@code encodedCacheBytes} of BSON. */
+    InMemoryCollectionStore(final Clock clock, final long encodedCacheBytes) {
+        this(clock, DocumentStorage.DECODED, encodedCacheBytes);
+    }
+
+    private InMemoryCollectionStore(final Clock clock, final DocumentStorage storage, final long encodedCacheBytes) {
         this.clock = Objects.requireNonNull(clock, "clock");
+        this.storage = Objects.requireNonNull(storage, "storage");
+        this.documents = new SharedTreeMap<>(Long::compare);
+        this.idLookup = new IdLookup();
+        this.encodedDocuments = new EncodedDocumentCache(encodedCacheBytes);
         final Document idIndexKey = new Document("_id", 1);
         indexesByName.put(
                 "_id_",
                 new IndexMetadata("_id_", idIndexKey, true, false, null, null, null, List.of("_id")));
+        uniqueKeyTables.putAll(buildUniqueKeyTables(indexesByName.values(), documents));
+        rebuildQueryIndexes();
     }
 
+    /**
+     * Copy of {@code source} that shares its records and index structures; either store copies only what it writes
+     * afterwards. Encodings are not carried over, and keys held for unpublished bulk inserts stay with the source.
+     */
     private InMemoryCollectionStore(final InMemoryCollectionStore source) {
         this.clock = source.clock;
-        for (final Document sourceDocument : source.documents) {
-            this.documents.add(DocumentCopies.copy(sourceDocument));
+        this.storage = source.storage;
+        this.nextRecordId = source.nextRecordId;
+        this.documents = source.documents.fork();
+        this.idLookup = source.idLookup.fork();
+        this.encodedDocuments = new EncodedDocumentCache(source.encodedDocuments.maxBytes());
+        this.indexesByName.putAll(source.indexesByName);
+        for (final Map.Entry<String, UniqueKeyTable> entry : source.uniqueKeyTables.entrySet()) {
+            final UniqueKeyTable table = entry.getValue().fork();
+            for (final Map.Entry<Long, Document> reserved : source.reservedDocuments.entrySet()) {
+                table.remove(reserved.getKey(), reserved.getValue());
+            }
+            this.uniqueKeyTables.put(entry.getKey(), table);
         }
-        for (final Map.Entry<String, IndexMetadata> entry : source.indexesByName.entrySet()) {
-            final IndexMetadata index = entry.getValue();
-            this.indexesByName.put(
-                    entry.getKey(),
-                    new IndexMetadata(
-                            index.name(),
-                            DocumentCopies.copy(index.key()),
-                            index.unique(),
-                            index.sparse(),
-                            index.partialFilterExpression() == null
-                                    ? null
-                                    : DocumentCopies.copy(index.partialFilterExpression()),
-                            index.collation() == null ? null : DocumentCopies.copy(index.collation()),
-                            index.expireAfterSeconds(),
-                            List.copyOf(index.uniqueFieldPaths())));
+        for (final Map.Entry<String, SecondaryIndex> entry : source.secondaryIndexes.entrySet()) {
+            this.secondaryIndexes.put(entry.getKey(), entry.getValue().fork());
+        }
+        for (final TtlIndex ttlIndex : source.ttlIndexes) {
+            this.ttlIndexes.add(ttlIndex.fork());
+        }
+        this.nextExpiryMillis = source.nextExpiryMillis;
+    }
+
+    InMemoryCollectionStore snapshot() {
+        return read(() -> new InMemoryCollectionStore(this));
+    }
+
+    /** Pins the current version so {@link #readVersion} keeps serving it until released. */
+    long pinVersion() {
+        return write(() -> {
+            pinnedVersions.computeIfAbsent(version, ignored -> new PinnedVersion()).pins++;
+            return version;
+        });
+    }
+
+    /** Adds another pin to a version that is already pinned. */
+    void pinVersion(final long pinned) {
+        write(() -> {
+            final PinnedVersion pinnedVersion = pinnedVersions.get(pinned);
+            if (pinnedVersion == null) {
+                throw new IllegalStateException("collection version " + pinned + " is not pinned");
+            }
+            pinnedVersion.pins++;
+        });
+    }
+
+    void releaseVersion(final long pinned) {
+        write(() -> {
+            final PinnedVersion pinnedVersion = pinnedVersions.get(pinned);
+            if (pinnedVersion != null && --pinnedVersion.pins == 0) {
+                pinnedVersions.remove(pinned);
+            }
+        });
+    }
+
+    /** Number of snapshot pins currently held on this collection's versions. */
+    int pinCount() {
+        return read(() -> {
+            int pins = 0;
+            for (final PinnedVersion pinnedVersion : pinnedVersions.values()) {
+                pins += pinnedVersion.pins;
+            }
+            return pins;
+        });
+    }
+
+    /**
+     * Runs a read against a pinned version: the live store while it is unchanged (under the read lock), otherwise the
+     * preserved copy, which only ever changes by expiring its own TTL documents.
+     */
+    <T> T readVersion(final long pinned, final Function<InMemoryCollectionStore, T> reader) {
+        final InMemoryCollectionStore preserved;
+        expireDocuments();
+        lock.readLock().lock();
+        try {
+            if (pinned == version) {
+                return reader.apply(this);
+            }
+            final PinnedVersion pinnedVersion = pinnedVersions.get(pinned);
+            if (pinnedVersion == null || pinnedVersion.preserved == null) {
+                throw new IllegalStateException("collection version " + pinned + " is no longer retained");
+            }
+            preserved = pinnedVersion.preserved;
+        } finally {
+            lock.readLock().unlock();
         }
+        return reader.apply(preserved);
+    }
+
+    /** Starts recording the documents written to this store from its current content on. */
+    void recordWriteSet() {
+        write(() -> writeSet = new CollectionWriteSet());
     }
 
-    synchronized InMemoryCollectionStore snapshot() {
-        pruneExpiredDocuments();
-        return new InMemoryCollectionStore(this);
+    /** The recorded write set, or {@code null} when none is recorded or it can no longer describe the changes. */
+    CollectionWriteSet writeSet() {
+        return read(() -> writeSet != null && writeSet.complete() ? writeSet : null);
+    }
+
+    /**
+     * Commits a transaction write set. An {@code _id} the transaction inserted must still be absent, otherwise nothing
+     * is applied and {@link WriteConflictException} is thrown; updates and deletes overwrite whatever is stored under
+     * their {@code _id} now. Without {@code indexes} the cost is proportional to the number of written documents;
+     * merged index definitions, when given, are validated and rebuilt over the whole collection.
+     */
+    void applyWriteSet(final CollectionWriteSet changes, final List<IndexDefinition> indexes) {
+        write(() -> {
+            Objects.requireNonNull(changes, "changes");
+            if (!changes.complete()) {
+                throw new IllegalArgumentException("write set does not describe all changes");
+            }
+            pruneExpiredDocuments();
+
+            final Map<Long, Document> replacements = new LinkedHashMap<>();
+            final Set<Long> removals = new LinkedHashSet<>();
+            final List<Document> additions = new ArrayList<>();
+            for (final CollectionWriteSet.Entry entry : changes.entries()) {
+                final Long recordId = findSlotById(documents, idLookup, entry.id());
+                if (entry.before() == null && recordId != null) {
+                    throw new WriteConflictException("commit transaction write conflict on _id=" + entry.id());
+                }
+                if (entry.after() == null) {
+                    if (recordId != null) {
+                        removals.add(recordId);
+                    }
+                } else if (recordId == null) {
+                    additions.add(entry.after());
+                } else {
+                    replacements.put(recordId, entry.after());
+                }
+            }
+
+            final Map<String, IndexMetadata> candidateIndexes = indexes == null ? null : toIndexMetadataMap(indexes);
+            Map<String, UniqueKeyTable> candidateUniqueKeyTables = null;
+            if (candidateIndexes == null) {
+                final Set<Long> releasedRecordIds = new HashSet<>(replacements.keySet());
+                releasedRecordIds.addAll(removals);
+                validateUniqueChanges(replacements, releasedRecordIds, additions);
+            } else {
+                final NavigableMap<Long, Document> committed = new TreeMap<>(documents);
+                committed.keySet().removeAll(removals);
+                committed.putAll(replacements);
+                long recordId = nextRecordId;
+                for (final Document addition : additions) {
+                    committed.put(recordId++, addition);
+                }
+                committed.putAll(reservedDocuments);
+                candidateUniqueKeyTables = buildUniqueKeyTables(candidateIndexes.values(), committed);
+            }
+
+            for (final Long recordId : removals) {
+                removeDocument(recordId);
+            }
+            for (final Map.Entry<Long, Document> replacement : replacements.entrySet()) {
+                replaceDocument(replacement.getKey(), replacement.getValue());
+            }
+            for (final Document addition : additions) {
+                appendDocument(addition);
+            }
+            if (candidateIndexes != null) {
+                beforeWrite();
+                indexesByName.clear();
+                indexesByName.putAll(candidateIndexes);
+                uniqueKeyTables.clear();
+                uniqueKeyTables.putAll(candidateUniqueKeyTables);
+                rebuildQueryIndexes();
+                if (writeSet != null) {
+                    writeSet.indexesChanged();
+                }
+            }
+        });
     }
 
-    synchronized CollectionState snapshotState() {
-        pruneExpiredDocuments();
-        return new CollectionState(copyDocuments(documents), listIndexes());
+    CollectionState snapshotState() {
+        return read(() -> new CollectionState(List.copyOf(documents.values()), listIndexes()));
     }
 
-    synchronized void replaceState(final CollectionState state) {
-        Objects.requireNonNull(state, "state");
+    void replaceState(final CollectionState state) {
+        write(() -> {
+            Objects.requireNonNull(state, "state");
 
-        final List<Document> copiedDocuments = copyDocuments(state.documents());
-        final Map<String, IndexMetadata> copiedIndexes = toIndexMetadataMap(state.indexes());
-        validateUniqueConstraints(copiedDocuments, copiedIndexes.values());
+            final Map<Long, Document> copiedDocuments = new LinkedHashMap<>();
+            long recordId = nextRecordId;
+            for (final Document document : state.documents()) {
+                copiedDocuments.put(recordId++, stored(document));
+            }
+            final Map<String, IndexMetadata> copiedIndexes = toIndexMetadataMap(state.indexes());
+            final Map<String, UniqueKeyTable> copiedUniqueKeyTables =
+                    buildUniqueKeyTables(copiedIndexes.values(), withReservedDocuments(copiedDocuments));
 
-        documents.clear();
-        documents.addAll(copiedDocuments);
-        indexesByName.clear();
-        indexesByName.putAll(copiedIndexes);
+            beforeWrite();
+            if (writeSet != null) {
+                writeSet.invalidate();
+            }
+            nextRecordId = recordId;
+            documents.clear();
+            documents.putAll(copiedDocuments);
+            encodedDocuments.clear();
+            indexesByName.clear();
+            indexesByName.putAll(copiedIndexes);
+            uniqueKeyTables.clear();
+            uniqueKeyTables.putAll(copiedUniqueKeyTables);
+            rebuildQueryIndexes();
+        });
     }
 
     static boolean statesEqual(final CollectionState left, final CollectionState right) {
@@ -97,28 +334,34 @@ public final class InMemoryCollectionStore implements CollectionStore {
         final CollectionState transaction = transactionState == null ? emptyState() : transactionState;
         final CollectionState current = currentState == null ? emptyState() : currentState;
 
-        final List<Document> mergedDocuments = new ArrayList<>(copyDocuments(current.documents()));
+        final Map<Long, Document> mergedDocuments = new LinkedHashMap<>();
+        final IdLookup mergedIds = new IdLookup();
+        long nextSlot = addSlots(current.documents(), mergedDocuments, mergedIds, 0);
+        final Map<Long, Document> baselineDocuments = new LinkedHashMap<>();
+        final IdLookup baselineIds = new IdLookup();
+        addSlots(baseline.documents(), baselineDocuments, baselineIds, 0);
+
         final List<Document> removedDocuments = diffDocuments(baseline.documents(), transaction.documents());
         for (final Document removedDocument : removedDocuments) {
             final Object removedId = removedDocument.get("_id");
-            if (removedId != null && removeFirstDocumentById(mergedDocuments, removedId)) {
+            if (removedId != null && removeFirstDocumentById(mergedDocuments, mergedIds, removedId)) {
                 continue;
             }
-            removeFirstDocumentByCanonical(mergedDocuments, removedDocument);
+            removeFirstDocumentByCanonical(mergedDocuments, mergedIds, removedDocument);
         }
 
         final List<Document> addedDocuments = diffDocuments(transaction.documents(), baseline.documents());
         for (final Document addedDocument : addedDocuments) {
             final Object addedId = addedDocument.get("_id");
             if (addedId != null) {
-                final boolean presentInBaseline = containsDocumentWithId(baseline.documents(), addedId);
-                final boolean presentInCurrent = containsDocumentWithId(mergedDocuments, addedId);
+                final boolean presentInBaseline = findSlotById(baselineDocuments, baselineIds, addedId) != null;
+                final boolean presentInCurrent = findSlotById(mergedDocuments, mergedIds, addedId) != null;
                 if (presentInCurrent && !presentInBaseline) {
                     throw new WriteConflictException("commit transaction write conflict on _id=" + addedId);
                 }
-                removeFirstDocumentById(mergedDocuments, addedId);
+                removeFirstDocumentById(mergedDocuments, mergedIds, addedId);
             }
-            mergedDocuments.add(DocumentCopies.copy(addedDocument));
+            nextSlot = addSlots(List.of(addedDocument), mergedDocuments, mergedIds, nextSlot);
         }
 
         final List<CollectionStore.IndexDefinition> mergedIndexes = mergeIndexes(
@@ -126,301 +369,426 @@ public final class InMemoryCollectionStore implements CollectionStore {
                 transaction.indexes(),
                 current.indexes());
 
-        return new CollectionState(mergedDocuments, mergedIndexes);
+        return new CollectionState(new ArrayList<>(mergedDocuments.values()), mergedIndexes);
     }
 
     @Override
-    public synchronized void insertMany(List<Document> documents) {
-        Objects.requireNonNull(documents, "documents");
-        pruneExpiredDocuments();
+    public void insertMany(List<Document> documents) {
+        final List<Document> prepared = prepareInserts(documents);
+        write(() -> {
+            pruneExpiredDocuments();
+            validateUniqueChanges(Map.of(), prepared);
+            for (final Document document : prepared) {
+                appendDocument(document);
+            }
+        });
+    }
 
-        List<Document> copiedDocuments = new ArrayList<>(documents.size());
-        for (Document document : documents) {
+    /**
+     * Appends in chunks of {@link #BULK_INSERT_CHUNK_SIZE}, taking the write lock once per chunk so readers can run
+     * between chunks and see the batch grow. Documents are copied before any lock is taken. Only the new documents are
+     * checked against the maintained unique indexes, once, in the same critical section that reserves the batch's
+     * record ids and unique keys; a write that would take one of those keys between chunks fails with
+     * {@link DuplicateKeyException} instead of the batch, so once validated every chunk publishes and the batch is
+     * never rolled back.
+     */
+    @Override
+    public void bulkInsert(final List<Document> documents) {
+        final List<Document> prepared = prepareInserts(documents);
+        final long firstRecordId = write(() -> {
+            pruneExpiredDocuments();
+            validateUniqueChanges(Map.of(), prepared);
+            final long first = nextRecordId;
+            nextRecordId += prepared.size();
+            long recordId = first;
+            for (final Document document : prepared) {
+                reservedDocuments.put(recordId, document);
+                for (final UniqueKeyTable table : uniqueKeyTables.values()) {
+                    table.put(recordId, document);
+                }
+                recordId++;
+            }
+            return first;
+        });
+        for (int from = 0; from < prepared.size(); from += BULK_INSERT_CHUNK_SIZE) {
+            final long chunkStart = firstRecordId + from;
+            final long chunkEnd = firstRecordId + Math.min(prepared.size(), from + BULK_INSERT_CHUNK_SIZE);
+            write(() -> {
+                for (long recordId = chunkStart; recordId < chunkEnd; recordId++) {
+                    publishReservedDocument(recordId);
+                }
+            });
+        }
+    }
+
+    private List<Document> prepareInserts(final List<Document> documents) {
+        Objects.requireNonNull(documents, "documents");
+        final List<Document> prepared = new ArrayList<>(documents.size());
+        for (final Document document : documents) {
             if (document == null) {
                 throw new IllegalArgumentException("documents must not contain null");
             }
+            if (storage == DocumentStorage.RAW_BSON && document.containsKey("_id")) {
+                prepared.add(RawDocument.encode(document));
+                continue;
+            }
             final Document copiedDocument = DocumentCopies.copy(document);
             if (!copiedDocument.containsKey("_id")) {
                 copiedDocument.put("_id", new ObjectId());
             }
-            copiedDocuments.add(copiedDocument);
+            prepared.add(stored(copiedDocument));
         }
-
-        List<Document> candidateDocuments = new ArrayList<>(this.documents.size() + copiedDocuments.size());
-        candidateDocuments.addAll(this.documents);
-        candidateDocuments.addAll(copiedDocuments);
-        validateUniqueConstraints(candidateDocuments, indexesByName.values());
-
-        this.documents.addAll(copiedDocuments);
+        return prepared;
     }
 
     @Override
-    public synchronized CreateIndexesResult createIndexes(List<IndexDefinition> indexes) {
-        Objects.requireNonNull(indexes, "indexes");
-        pruneExpiredDocuments();
+    public CreateIndexesResult createIndexes(List<IndexDefinition> indexes) {
+        return write(() -> {
+            Objects.requireNonNull(indexes, "indexes");
+            pruneExpiredDocuments();
+
+            final int numIndexesBefore = indexesByName.size();
+            final Map<String, IndexMetadata> candidateIndexes = new LinkedHashMap<>(indexesByName);
+            for (IndexDefinition index : indexes) {
+                if (index == null) {
+                    throw new IllegalArgumentException("indexes must not contain null");
+                }
 
-        final int numIndexesBefore = indexesByName.size();
-        final Map<String, IndexMetadata> candidateIndexes = new LinkedHashMap<>(indexesByName);
-        for (IndexDefinition index : indexes) {
-            if (index == null) {
-                throw new IllegalArgumentException("indexes must not contain null");
-            }
+                final String name = requireNonBlankIndexName(index.name());
+                if (candidateIndexes.containsKey(name)) {
+                    continue;
+                }
 
-            final String name = requireNonBlankIndexName(index.name());
-            if (candidateIndexes.containsKey(name)) {
-                continue;
+                final Document key = requireNonEmptyIndexKey(index.key());
+                final List<String> uniqueFieldPaths = index.unique() ? indexFieldPaths(key) : List.of();
+                final Document partialFilterExpression =
+                        index.partialFilterExpression() == null ? null : DocumentCopies.copy(index.partialFilterExpression());
+                final Document collation = index.collation() == null ? null : DocumentCopies.copy(index.collation());
+                candidateIndexes.put(
+                        name,
+                        new IndexMetadata(
+                                name,
+                                key,
+                                index.unique(),
+                                index.sparse(),
+                                partialFilterExpression,
+                                collation,
+                                index.expireAfterSeconds(),
+                                uniqueFieldPaths));
             }
 
-            final Document key = requireNonEmptyIndexKey(index.key());
-            final List<String> uniqueFieldPaths = index.unique() ? indexFieldPaths(key) : List.of();
-            final Document partialFilterExpression =
-                    index.partialFilterExpression() == null ? null : DocumentCopies.copy(index.partialFilterExpression());
-            final Document collation = index.collation() == null ? null : DocumentCopies.copy(index.collation());
-            candidateIndexes.put(
-                    name,
-                    new IndexMetadata(
-                            name,
-                            key,
-                            index.unique(),
-                            index.sparse(),
-                            partialFilterExpression,
-                            collation,
-                            index.expireAfterSeconds(),
-                            uniqueFieldPaths));
-        }
+            final Map<String, UniqueKeyTable> candidateUniqueKeyTables =
+                    buildUniqueKeyTables(candidateIndexes.values(), withReservedDocuments(documents));
 
-        validateUniqueConstraints(documents, candidateIndexes.values());
+            beforeWrite();
+            if (writeSet != null && candidateIndexes.size() != numIndexesBefore) {
+                writeSet.indexesChanged();
+            }
+            indexesByName.clear();
+            indexesByName.putAll(candidateIndexes);
+            uniqueKeyTables.clear();
+            uniqueKeyTables.putAll(candidateUniqueKeyTables);
+            rebuildQueryIndexes();
+            return new CreateIndexesResult(numIndexesBefore, indexesByName.size());
+        });
+    }
 
-        indexesByName.clear();
-        indexesByName.putAll(candidateIndexes);
-        return new CreateIndexesResult(numIndexesBefore, indexesByName.size());
+    @Override
+    public List<IndexDefinition> listIndexes() {
+        return read(() -> {
+            final List<IndexDefinition> listed = new ArrayList<>(indexesByName.size());
+            for (final IndexMetadata metadata : indexesByName.values()) {
+                listed.add(new IndexDefinition(
+                        metadata.name(),
+                        metadata.key(),
+                        metadata.unique(),
+                        metadata.sparse(),
+                        metadata.partialFilterExpression(),
+                        metadata.collation(),
+                        metadata.expireAfterSeconds()));
+            }
+            return List.copyOf(listed);
+        });
     }
 
     @Override
-    public synchronized List<IndexDefinition> listIndexes() {
-        pruneExpiredDocuments();
-        final List<IndexDefinition> listed = new ArrayList<>(indexesByName.size());
-        for (final IndexMetadata metadata : indexesByName.values()) {
-            listed.add(new IndexDefinition(
-                    metadata.name(),
-                    metadata.key(),
-                    metadata.unique(),
-                    metadata.sparse(),
-                    metadata.partialFilterExpression(),
-                    metadata.collation(),
-                    metadata.expireAfterSeconds()));
-        }
-        return List.copyOf(listed);
+    public List<Document> findAll() {
+        return read(() -> matchingDocuments(new Document(), CollationSupport.Config.simple()));
     }
 
+    /** Pages the collection lazily in natural order; see {@link MatchIterator}. */
     @Override
-    public synchronized List<Document> findAll() {
-        pruneExpiredDocuments();
-        return copyMatchingDocuments(new Document(), CollationSupport.Config.simple());
+    public Iterable<Document> scanAll() {
+        final QueryMatcher.CompiledFilter matchAll = QueryMatcher.compile(new Document(), CollationSupport.Config.simple());
+        return () -> new MatchIterator<>(matchAll, null, null, (recordId, document) -> DocumentCopies.copy(document));
     }
 
     @Override
-    public synchronized Iterable<Document> scanAll() {
-        pruneExpiredDocuments();
-        final List<Document> snapshot = List.copyOf(documents);
-        return () -> new Iterator<>() {
-            private int index = 0;
+    public List<Document> find(Document filter) {
+        return find(filter, CollationSupport.Config.simple());
+    }
 
-            @Override
-            public boolean hasNext() {
-                return index < snapshot.size();
-            }
+    @Override
+    public List<Document> find(final Document filter, final CollationSupport.Config collation) {
+        return read(() -> {
+            final Document effectiveFilter = filter == null ? new Document() : filter;
+            final CollationSupport.Config effectiveCollation =
+                    collation == null ? CollationSupport.Config.simple() : collation;
+            return matchingDocuments(effectiveFilter, effectiveCollation);
+        });
+    }
 
-            @Override
-            public Document next() {
-                if (!hasNext()) {
-                    throw new NoSuchElementException("no more documents");
-                }
-                return DocumentCopies.copy(snapshot.get(index++));
+    /**
+     * Returns the cached canonical BSON of each matching record, encoding records that are not cached. Stored
+     * documents never change in place, so a cache entry stays valid until the record is updated or removed; the cache
+     * is bounded by encoded size and evicts the least recently served records first.
+     */
+    @Override
+    public List<RawBsonDocument> findEncoded(
+            final Document filter, final CollationSupport.Config collation) {
+        return read(() -> {
+            final Document effectiveFilter = filter == null ? new Document() : filter;
+            final CollationSupport.Config effectiveCollation =
+                    collation == null ? CollationSupport.Config.simple() : collation;
+            final List<Long> recordIds = matchingRecordIds(effectiveFilter, effectiveCollation, -1);
+            final List<RawBsonDocument> encoded = new ArrayList<>(recordIds.size());
+            for (final Long recordId : recordIds) {
+                encoded.add(encodedDocument(recordId));
             }
-        };
+            return encoded;
+        });
     }
 
+    /**
+     * Lazily pages matching documents in natural order. Each pull resumes after the last examined record under the
+     * store lock, so records past the consumed prefix are neither matched nor encoded. Writes between pulls are
+     * visible to later pulls, like a non-snapshot server cursor.
+     */
     @Override
-    public synchronized List<Document> find(Document filter) {
-        return find(filter, CollationSupport.Config.simple());
+    public Iterator<RawBsonDocument> iterateEncoded(
+            final Document filter, final CollationSupport.Config collation) {
+        return read(() -> {
+            final Document effectiveFilter = filter == null ? new Document() : filter;
+            final CollationSupport.Config effectiveCollation =
+                    collation == null ? CollationSupport.Config.simple() : collation;
+            final QueryPlanCache.Plan plan = plan(effectiveFilter, effectiveCollation);
+            final SortedSet<Long> candidates = plan.access().candidateRecordIds(idLookup::recordIds);
+            return new MatchIterator<>(
+                    plan.filter(), candidates, null, (recordId, document) -> encodedDocument(recordId));
+        });
     }
 
+    /**
+     * Resolves matches through the cached plan. A requested sort is served from an ordered index walk when the
+     * filter's own index, or with no usable filter index any index, yields that order; an {@code _id} lookup is
+     * left to the caller to sort since it returns few documents. Candidates are fixed here, but documents are matched
+     * and returned page by page as the caller iterates, like {@link #iterateEncoded}.
+     */
     @Override
-    public synchronized List<Document> find(final Document filter, final CollationSupport.Config collation) {
-        pruneExpiredDocuments();
-        final Document effectiveFilter = filter == null ? new Document() : filter;
-        final CollationSupport.Config effectiveCollation =
-                collation == null ? CollationSupport.Config.simple() : collation;
-        return copyMatchingDocuments(effectiveFilter, effectiveCollation);
+    public Scan scan(final Document filter, final Document sort, final CollationSupport.Config collation) {
+        return read(() -> {
+            final CollationSupport.Config effectiveCollation =
+                    collation == null ? CollationSupport.Config.simple() : collation;
+            final QueryPlanCache.Plan plan = plan(filter == null ? new Document() : filter, effectiveCollation);
+            final QueryPlanner.IndexAccess access = plan.access();
+            final SecondaryIndex sortIndex = sortIndex(access, sort, effectiveCollation);
+            if (sortIndex != null) {
+                final List<Long> ordered = sortIndex.sortedRecordIds(access.boundsByPath(), sort);
+                return new Scan(lazyMatches(plan.filter(), null, ordered), sortIndex.name(), true);
+            }
+            final SortedSet<Long> candidates = access.candidateRecordIds(idLookup::recordIds);
+            return new Scan(lazyMatches(plan.filter(), candidates, null), indexName(access), false);
+        });
     }
 
+    /** Chooses the access path {@link #scan} takes through the same cached plan, without seeking or reading. */
     @Override
-    public synchronized List<Document> aggregate(final List<Document> pipeline) {
-        Objects.requireNonNull(pipeline, "pipeline");
-        pruneExpiredDocuments();
+    public ScanPlan planScan(final Document filter, final Document sort, final CollationSupport.Config collation) {
+        return read(() -> {
+            final CollationSupport.Config effectiveCollation =
+                    collation == null ? CollationSupport.Config.simple() : collation;
+            final QueryPlanner.IndexAccess access =
+                    plan(filter == null ? new Document() : filter, effectiveCollation).access();
+            final SecondaryIndex sortIndex = sortIndex(access, sort, effectiveCollation);
+            if (sortIndex != null) {
+                return new ScanPlan(sortIndex.name(), true);
+            }
+            return new ScanPlan(indexName(access), false);
+        });
+    }
 
-        final List<Document> copiedPipeline = new ArrayList<>(pipeline.size());
-        for (final Document stage : pipeline) {
-            if (stage == null) {
-                throw new IllegalArgumentException("pipeline stages must not contain null");
+    private SecondaryIndex sortIndex(
+            final QueryPlanner.IndexAccess access, final Document sort, final CollationSupport.Config collation) {
+        if (sort == null || sort.isEmpty()
+                || access.idBounds() != null
+                || collation != CollationSupport.Config.simple()) {
+            return null;
+        }
+        final Iterable<SecondaryIndex> sortCandidates =
+                access.index() != null ? List.of(access.index()) : secondaryIndexes.values();
+        for (final SecondaryIndex index : sortCandidates) {
+            if (index.providesSort(access.boundsByPath(), sort)) {
+                return index;
             }
-            copiedPipeline.add(DocumentCopies.copy(stage));
         }
+        return null;
+    }
 
-        final List<Document> source = new ArrayList<>(documents.size());
-        for (final Document document : documents) {
-            source.add(DocumentCopies.copy(document));
+    private static String indexName(final QueryPlanner.IndexAccess access) {
+        if (access.idBounds() != null) {
+            return "_id_";
         }
-        return AggregationPipeline.execute(source, copiedPipeline);
+        return access.index() == null ? null : access.index().name();
     }
 
     @Override
-    public synchronized UpdateManyResult update(
+    public List<Document> aggregate(final List<Document> pipeline) {
+        return read(() -> {
+            Objects.requireNonNull(pipeline, "pipeline");
+
+            final List<Document> copiedPipeline = new ArrayList<>(pipeline.size());
+            for (final Document stage : pipeline) {
+                if (stage == null) {
+                    throw new IllegalArgumentException("pipeline stages must not contain null");
+                }
+                copiedPipeline.add(DocumentCopies.copy(stage));
+            }
+
+            return AggregationPipeline.execute(List.copyOf(documents.values()), copiedPipeline);
+        });
+    }
+
+    @Override
+    public UpdateManyResult update(
             final Document filter, final Document update, final boolean multi, final boolean upsert) {
         return update(filter, update, multi, upsert, List.of());
     }
 
     @Override
-    public synchronized UpdateManyResult update(
+    public UpdateManyResult update(
             final Document filter,
             final Document update,
             final boolean multi,
             final boolean upsert,
             final List<Document> arrayFilters) {
-        pruneExpiredDocuments();
-        final Document effectiveFilter = filter == null ? new Document() : DocumentCopies.copy(filter);
-        final Document effectiveUpdate = update == null ? null : DocumentCopies.copy(update);
-        final List<Document> effectiveArrayFilters = copyArrayFilters(arrayFilters);
-        final UpdateApplier.ParsedUpdate parsedUpdate = UpdateApplier.parse(effectiveUpdate, effectiveArrayFilters);
-
-        final List<Document> matchedDocuments = new ArrayList<>();
-        for (final Document document : documents) {
-            if (QueryMatcher.matches(document, effectiveFilter)) {
-                matchedDocuments.add(document);
-                if (!multi) {
-                    break;
+        return write(() -> {
+            pruneExpiredDocuments();
+            final Document effectiveFilter = filter == null ? new Document() : DocumentCopies.copy(filter);
+            final Document effectiveUpdate = update == null ? null : DocumentCopies.copy(update);
+            final List<Document> effectiveArrayFilters = copyArrayFilters(arrayFilters);
+            final UpdateApplier.ParsedUpdate parsedUpdate = UpdateApplier.parse(effectiveUpdate, effectiveArrayFilters);
+
+            final List<Long> matchedRecordIds =
+                    matchingRecordIds(effectiveFilter, CollationSupport.Config.simple(), multi ? -1 : 1);
+            final List<Document> matchedDocuments = documentsFor(matchedRecordIds);
+
+            if (matchedDocuments.isEmpty()) {
+                if (!upsert) {
+                    return new UpdateManyResult(0, 0);
                 }
+                return applyUpsert(effectiveFilter, parsedUpdate);
             }
-        }
-
-        if (matchedDocuments.isEmpty()) {
-            if (!upsert) {
-                return new UpdateManyResult(0, 0);
-            }
-            return applyUpsert(effectiveFilter, parsedUpdate);
-        }
-
-        for (final Document document : matchedDocuments) {
-            UpdateApplier.validateApplicable(document, parsedUpdate);
-        }
 
-        final IdentityHashMap<Document, UpdatePreview> previewsByDocument = new IdentityHashMap<>(matchedDocuments.size());
-        long modifiedCount = 0;
-        for (final Document document : matchedDocuments) {
-            final Document previewDocument = DocumentCopies.copy(document);
-            final boolean modified = UpdateApplier.apply(previewDocument, parsedUpdate);
-            previewsByDocument.put(document, new UpdatePreview(previewDocument, modified));
-            if (modified) {
-                modifiedCount++;
+            for (final Document document : matchedDocuments) {
+                UpdateApplier.validateApplicable(document, parsedUpdate);
             }
-        }
 
-        if (modifiedCount > 0) {
-            final List<Document> candidateDocuments = new ArrayList<>(documents.size());
-            for (final Document document : documents) {
-                final UpdatePreview preview = previewsByDocument.get(document);
-                if (preview == null || !preview.modified()) {
-                    candidateDocuments.add(document);
-                } else {
-                    candidateDocuments.add(preview.updatedDocument());
+            final IdentityHashMap<Document, UpdatePreview> previewsByDocument = new IdentityHashMap<>(matchedDocuments.size());
+            long modifiedCount = 0;
+            for (final Document document : matchedDocuments) {
+                final Document previewDocument = DocumentCopies.copy(document);
+                final boolean modified = UpdateApplier.apply(previewDocument, parsedUpdate);
+                previewsByDocument.put(document, new UpdatePreview(previewDocument, modified));
+                if (modified) {
+                    modifiedCount++;
                 }
             }
-            validateUniqueConstraints(candidateDocuments, indexesByName.values());
-        }
 
-        for (final Document document : matchedDocuments) {
-            final UpdatePreview preview = previewsByDocument.get(document);
-            if (preview == null || !preview.modified()) {
-                continue;
+            if (modifiedCount > 0) {
+                validateUniqueChanges(modifiedPreviews(matchedRecordIds, previewsByDocument), List.of());
             }
-            document.clear();
-            document.putAll(preview.updatedDocument());
-        }
 
-        return new UpdateManyResult(matchedDocuments.size(), modifiedCount);
+            applyUpdatePreviews(matchedRecordIds, previewsByDocument);
+            return new UpdateManyResult(matchedDocuments.size(), modifiedCount);
+        });
     }
 
     @Override
-    public synchronized UpdateManyResult updatePipeline(
+    public UpdateManyResult updatePipeline(
             final Document filter,
             final List<Document> pipeline,
             final boolean multi,
             final boolean upsert) {
-        pruneExpiredDocuments();
-        final Document effectiveFilter = filter == null ? new Document() : DocumentCopies.copy(filter);
-        final List<Document> effectivePipeline = new ArrayList<>();
-        for (final Document stage : Objects.requireNonNull(pipeline, "pipeline")) {
-            effectivePipeline.add(DocumentCopies.copy(Objects.requireNonNull(stage, "pipeline stage")));
-        }
-        if (effectivePipeline.isEmpty()) {
-            throw new IllegalArgumentException("update pipeline must not be empty");
-        }
+        return write(() -> {
+            pruneExpiredDocuments();
+            final Document effectiveFilter = filter == null ? new Document() : DocumentCopies.copy(filter);
+            final List<Document> effectivePipeline = new ArrayList<>();
+            for (final Document stage : Objects.requireNonNull(pipeline, "pipeline")) {
+                effectivePipeline.add(DocumentCopies.copy(Objects.requireNonNull(stage, "pipeline stage")));
+            }
+            if (effectivePipeline.isEmpty()) {
+                throw new IllegalArgumentException("update pipeline must not be empty");
+            }
 
-        final List<Document> matchedDocuments = new ArrayList<>();
-        for (final Document document : documents) {
-            if (QueryMatcher.matches(document, effectiveFilter)) {
-                matchedDocuments.add(document);
-                if (!multi) {
-                    break;
+            final List<Long> matchedRecordIds =
+                    matchingRecordIds(effectiveFilter, CollationSupport.Config.simple(), multi ? -1 : 1);
+            final List<Document> matchedDocuments = documentsFor(matchedRecordIds);
+
+            if (matchedDocuments.isEmpty()) {
+                if (!upsert) {
+                    return new UpdateManyResult(0, 0);
                 }
+                return applyPipelineUpsert(effectiveFilter, effectivePipeline);
             }
-        }
 
-        if (matchedDocuments.isEmpty()) {
-            if (!upsert) {
-                return new UpdateManyResult(0, 0);
+            final IdentityHashMap<Document, UpdatePreview> previewsByDocument =
+                    new IdentityHashMap<>(matchedDocuments.size());
+            long modifiedCount = 0L;
+            for (final Document document : matchedDocuments) {
+                final Document updated = applyPipelineToDocument(document, effectivePipeline);
+                final boolean modified = !Objects.deepEquals(document, updated);
+                previewsByDocument.put(document, new UpdatePreview(updated, modified));
+                if (modified) {
+                    modifiedCount++;
+                }
             }
-            return applyPipelineUpsert(effectiveFilter, effectivePipeline);
-        }
 
-        final IdentityHashMap<Document, UpdatePreview> previewsByDocument =
-                new IdentityHashMap<>(matchedDocuments.size());
-        long modifiedCount = 0L;
-        for (final Document document : matchedDocuments) {
-            final Document updated = applyPipelineToDocument(document, effectivePipeline);
-            final boolean modified = !Objects.deepEquals(document, updated);
-            previewsByDocument.put(document, new UpdatePreview(updated, modified));
-            if (modified) {
-                modifiedCount++;
+            if (modifiedCount > 0) {
+                validateUniqueChanges(modifiedPreviews(matchedRecordIds, previewsByDocument), List.of());
             }
-        }
 
-        if (modifiedCount > 0) {
-            final List<Document> candidateDocuments = new ArrayList<>(documents.size());
-            for (final Document document : documents) {
-                final UpdatePreview preview = previewsByDocument.get(document);
-                candidateDocuments.add(preview == null || !preview.modified()
-                        ? document
-                        : preview.updatedDocument());
+            applyUpdatePreviews(matchedRecordIds, previewsByDocument);
+            return new UpdateManyResult(matchedDocuments.size(), modifiedCount);
+        });
+    }
+
+    private Map<Long, Document> modifiedPreviews(
+            final List<Long> recordIds, final IdentityHashMap<Document, UpdatePreview> previewsByDocument) {
+        final Map<Long, Document> modified = new LinkedHashMap<>();
+        for (final Long recordId : recordIds) {
+            final UpdatePreview preview = previewsByDocument.get(documents.get(recordId));
+            if (preview != null && preview.modified()) {
+                modified.put(recordId, preview.updatedDocument());
             }
-            validateUniqueConstraints(candidateDocuments, indexesByName.values());
         }
+        return modified;
+    }
 
-        for (final Document document : matchedDocuments) {
+    private void applyUpdatePreviews(
+            final List<Long> recordIds, final IdentityHashMap<Document, UpdatePreview> previewsByDocument) {
+        for (final Long recordId : recordIds) {
+            final Document document = documents.get(recordId);
             final UpdatePreview preview = previewsByDocument.get(document);
             if (preview == null || !preview.modified()) {
                 continue;
             }
-            document.clear();
-            document.putAll(preview.updatedDocument());
+            replaceDocument(recordId, preview.updatedDocument());
         }
-        return new UpdateManyResult(matchedDocuments.size(), modifiedCount);
     }
 
     private static Document applyPipelineToDocument(
             final Document source, final List<Document> pipeline) {
-        final List<Document> results = AggregationPipeline.execute(List.of(DocumentCopies.copy(source)), pipeline);
+        final List<Document> results = AggregationPipeline.execute(List.of(source), pipeline);
         if (results.size() != 1) {
             throw new IllegalArgumentException("update pipeline must produce exactly one document per input document");
         }
@@ -430,21 +798,19 @@ public final class InMemoryCollectionStore implements CollectionStore {
                         || !Objects.deepEquals(source.get("_id"), updated.get("_id")))) {
             throw new IllegalArgumentException("update pipeline cannot change immutable field '_id'");
         }
-        return DocumentCopies.copy(updated);
+        return updated;
     }
 
     private UpdateManyResult applyPipelineUpsert(
             final Document filter, final List<Document> pipeline) {
-        final Document upsertedDocument = applyPipelineToDocument(upsertSeed(filter), pipeline);
+        Document upsertedDocument = applyPipelineToDocument(upsertSeed(filter), pipeline);
         if (!upsertedDocument.containsKey("_id")) {
+            upsertedDocument = new Document(upsertedDocument);
             upsertedDocument.put("_id", new ObjectId());
         }
 
-        final List<Document> candidateDocuments = new ArrayList<>(documents.size() + 1);
-        candidateDocuments.addAll(documents);
-        candidateDocuments.add(upsertedDocument);
-        validateUniqueConstraints(candidateDocuments, indexesByName.values());
-        documents.add(upsertedDocument);
+        validateUniqueChanges(Map.of(), List.of(upsertedDocument));
+        appendDocument(upsertedDocument);
         return new UpdateManyResult(0, 0, DocumentCopies.copyAny(upsertedDocument.get("_id")));
     }
 
@@ -460,67 +826,353 @@ public final class InMemoryCollectionStore implements CollectionStore {
     }
 
     @Override
-    public synchronized DeleteManyResult deleteMany(Document filter) {
-        pruneExpiredDocuments();
-        Document effectiveFilter = filter == null ? new Document() : DocumentCopies.copy(filter);
-
-        long deletedCount = 0;
-        Iterator<Document> iterator = documents.iterator();
-        while (iterator.hasNext()) {
-            Document document = iterator.next();
-            if (QueryMatcher.matches(document, effectiveFilter)) {
-                iterator.remove();
+    public DeleteManyResult deleteMany(Document filter) {
+        return write(() -> {
+            pruneExpiredDocuments();
+            Document effectiveFilter = filter == null ? new Document() : DocumentCopies.copy(filter);
+
+            long deletedCount = 0;
+            for (final Long recordId : matchingRecordIds(effectiveFilter, CollationSupport.Config.simple(), -1)) {
+                removeDocument(recordId);
                 deletedCount++;
             }
-        }
 
-        return new DeleteManyResult(deletedCount, deletedCount);
+            return new DeleteManyResult(deletedCount, deletedCount);
+        });
     }
 
-    private List<Document> copyMatchingDocuments(final Document filter, final CollationSupport.Config collation) {
-        List<Document> matches = new ArrayList<>();
-        for (Document document : documents) {
-            if (QueryMatcher.matches(document, filter, collation)) {
-                matches.add(DocumentCopies.copy(document));
+    @Override
+    public DeleteManyResult deleteOne(final Document filter) {
+        return write(() -> {
+            pruneExpiredDocuments();
+            final Document effectiveFilter = filter == null ? new Document() : DocumentCopies.copy(filter);
+
+            final List<Long> matched = matchingRecordIds(effectiveFilter, CollationSupport.Config.simple(), 1);
+            if (matched.isEmpty()) {
+                return new DeleteManyResult(0, 0);
             }
+            removeDocument(matched.get(0));
+            return new DeleteManyResult(1, 1);
+        });
+    }
+
+    private List<Document> matchingDocuments(final Document filter, final CollationSupport.Config collation) {
+        final List<Document> matches = new ArrayList<>();
+        for (final Long recordId : matchingRecordIds(filter, collation, -1)) {
+            matches.add(DocumentCopies.copy(documents.get(recordId)));
         }
         return matches;
     }
 
-    private void pruneExpiredDocuments() {
-        final List<TtlRule> ttlRules = ttlRules();
-        if (ttlRules.isEmpty() || documents.isEmpty()) {
-            return;
-        }
+    private Iterable<Document> lazyMatches(
+            final QueryMatcher.CompiledFilter filter, final SortedSet<Long> candidates, final List<Long> ordered) {
+        return () -> new MatchIterator<>(filter, candidates, ordered, (recordId, document) -> document);
+    }
 
-        final long nowMillis = clock.millis();
-        final Iterator<Document> iterator = documents.iterator();
-        while (iterator.hasNext()) {
-            final Document document = iterator.next();
-            for (final TtlRule ttlRule : ttlRules) {
-                if (ttlRule.isExpired(document, nowMillis)) {
-                    iterator.remove();
+    /**
+     * Resolves matching record ids in natural order, seeking a secondary index when the filter allows it.
+     * A negative limit returns every match.
+     */
+    private List<Long> matchingRecordIds(
+            final Document filter, final CollationSupport.Config collation, final int limit) {
+        final QueryPlanCache.Plan plan = plan(filter, collation);
+        final SortedSet<Long> candidates = plan.access().candidateRecordIds(idLookup::recordIds);
+        final Iterable<Long> recordIds = candidates == null ? documents.keySet() : candidates;
+        final QueryMatcher.CompiledFilter compiled = plan.filter();
+        final List<Long> matched = new ArrayList<>();
+        for (final Long recordId : recordIds) {
+            if (compiled.matches(documents.get(recordId))) {
+                matched.add(recordId);
+                if (limit >= 0 && matched.size() >= limit) {
                     break;
                 }
             }
         }
+        return matched;
     }
 
-    private List<TtlRule> ttlRules() {
-        final List<TtlRule> rules = new ArrayList<>();
-        for (final IndexMetadata index : indexesByName.values()) {
-            if (index.expireAfterSeconds() == null
-                    || index.key().size() != 1
-                    || index.partialFilterExpression() != null) {
+    private QueryPlanCache.Plan plan(final Document filter, final CollationSupport.Config collation) {
+        return planCache.plan(filter, collation, secondaryIndexes.values(), true);
+    }
+
+    /** Total size of the encoded documents currently cached for this collection. */
+    long encodedCacheBytes() {
+        return encodedDocuments.bytes();
+    }
+
+    /** Number of query plans currently cached for this collection. */
+    int cachedPlanCount() {
+        return planCache.size();
+    }
+
+    private RawBsonDocument encodedDocument(final Long recordId) {
+        final Document document = documents.get(recordId);
+        if (document instanceof RawDocument raw) {
+            return raw.bytes();
+        }
+        return encodedDocuments.get(recordId, document);
+    }
+
+    /** The form this store keeps {@code document} in: itself when decoded, its encoding for raw BSON storage. */
+    private Document stored(final Document document) {
+        return storage == DocumentStorage.RAW_BSON ? RawDocument.encode(document) : document;
+    }
+
+    private List<Document> documentsFor(final List<Long> recordIds) {
+        final List<Document> resolved = new ArrayList<>(recordIds.size());
+        for (final Long recordId : recordIds) {
+            resolved.add(documents.get(recordId));
+        }
+        return resolved;
+    }
+
+    private void appendDocument(final Document version) {
+        final Document document = stored(version);
+        beforeWrite();
+        final long recordId = nextRecordId++;
+        documents.put(recordId, document);
+        indexDocument(recordId, document);
+        if (writeSet != null) {
+            writeSet.record(null, document);
+        }
+    }
+
+    /** Makes a document reserved by {@link #bulkInsert} visible; its unique keys are already held. */
+    private void publishReservedDocument(final long recordId) {
+        beforeWrite();
+        final Document document = reservedDocuments.remove(recordId);
+        documents.put(recordId, document);
+        indexDocument(recordId, document);
+        if (writeSet != null) {
+            writeSet.record(null, document);
+        }
+    }
+
+    private void replaceDocument(final Long recordId, final Document version) {
+        final Document document = stored(version);
+        beforeWrite();
+        final Document previous = documents.put(recordId, document);
+        unindexDocument(recordId, previous);
+        indexDocument(recordId, document);
+        if (writeSet != null) {
+            writeSet.record(previous, document);
+        }
+    }
+
+    private void removeDocument(final Long recordId) {
+        if (!documents.containsKey(recordId)) {
+            return;
+        }
+        beforeWrite();
+        final Document removed = documents.remove(recordId);
+        unindexDocument(recordId, removed);
+        if (writeSet != null) {
+            writeSet.record(removed, null);
+        }
+    }
+
+    /** Runs {@code reader} under the read lock, after removing expired TTL documents. */
+    private <T> T read(final Supplier<T> reader) {
+        expireDocuments();
+        lock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes expired TTL documents under the write lock once the earliest expiry has passed, unless this thread holds
+     * the read lock (no upgrades).
+     */
+    private void expireDocuments() {
+        if (clock.millis() >= nextExpiryMillis && lock.getReadHoldCount() == 0) {
+            write(this::pruneExpiredDocuments);
+        }
+    }
+
+    /** Removes expired TTL documents now; used by the background TTL monitor. Returns the number removed. */
+    int reapExpiredDocuments() {
+        if (clock.millis() < nextExpiryMillis) {
+            return 0;
+        }
+        return write(this::pruneExpiredDocuments);
+    }
+
+    private <T> T write(final Supplier<T> writer) {
+        lock.writeLock().lock();
+        try {
+            return writer.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(final Runnable writer) {
+        lock.writeLock().lock();
+        try {
+            writer.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Preserves the current version for pinned snapshots before it changes, then advances the version. */
+    private void beforeWrite() {
+        final PinnedVersion pinned = pinnedVersions.get(version);
+        if (pinned != null && pinned.preserved == null) {
+            pinned.preserved = new InMemoryCollectionStore(this);
+        }
+        version++;
+    }
+
+    private void indexDocument(final long recordId, final Document document) {
+        idLookup.add(document.get("_id"), recordId);
+        for (final UniqueKeyTable table : uniqueKeyTables.values()) {
+            table.put(recordId, document);
+        }
+        for (final SecondaryIndex index : secondaryIndexes.values()) {
+            index.add(recordId, document);
+        }
+        for (final TtlIndex ttlIndex : ttlIndexes) {
+            final long expiresAt = ttlIndex.add(recordId, document);
+            if (expiresAt < nextExpiryMillis) {
+                nextExpiryMillis = expiresAt;
+            }
+        }
+    }
+
+    private void unindexDocument(final long recordId, final Document document) {
+        encodedDocuments.remove(recordId);
+        idLookup.remove(document.get("_id"), recordId);
+        for (final UniqueKeyTable table : uniqueKeyTables.values()) {
+            table.remove(recordId, document);
+        }
+        for (final SecondaryIndex index : secondaryIndexes.values()) {
+            index.remove(recordId, document);
+        }
+        for (final TtlIndex ttlIndex : ttlIndexes) {
+            ttlIndex.remove(recordId, document);
+        }
+    }
+
+    /**
+     * Checks only the changed documents against the maintained unique key tables. Replacements keep their record id;
+     * additions are new documents.
+     */
+    private void validateUniqueChanges(final Map<Long, Document> replacements, final List<Document> additions) {
+        validateUniqueChanges(replacements, replacements.keySet(), additions);
+    }
+
+    /** Variant where {@code releasedRecordIds} also covers records about to be removed. */
+    private void validateUniqueChanges(
+            final Map<Long, Document> replacements,
+            final Set<Long> releasedRecordIds,
+            final List<Document> additions) {
+        for (final UniqueKeyTable table : uniqueKeyTables.values()) {
+            final Set<UniqueValueKey> stagedKeys = new HashSet<>();
+            for (final Map.Entry<Long, Document> replacement : replacements.entrySet()) {
+                table.checkChange(replacement.getValue(), releasedRecordIds, stagedKeys);
+            }
+            for (final Document addition : additions) {
+                table.checkChange(addition, releasedRecordIds, stagedKeys);
+            }
+        }
+    }
+
+    /** {@code documents} plus the documents reserved by bulk inserts in flight, whose unique keys stay held. */
+    private Map<Long, Document> withReservedDocuments(final Map<Long, Document> documents) {
+        if (reservedDocuments.isEmpty()) {
+            return documents;
+        }
+        final Map<Long, Document> withReserved = new LinkedHashMap<>(documents);
+        withReserved.putAll(reservedDocuments);
+        return withReserved;
+    }
+
+    private static Map<String, UniqueKeyTable> buildUniqueKeyTables(
+            final Iterable<IndexMetadata> indexes, final Map<Long, Document> documents) {
+        final Map<String, UniqueKeyTable> tables = new LinkedHashMap<>();
+        for (final IndexMetadata index : indexes) {
+            if (!index.unique() || index.uniqueFieldPaths().isEmpty()) {
                 continue;
             }
-            final String fieldPath = index.key().keySet().iterator().next();
-            if (fieldPath == null || fieldPath.isBlank()) {
+            final UniqueKeyTable table = new UniqueKeyTable(index);
+            final Set<UniqueValueKey> stagedKeys = new HashSet<>();
+            for (final Map.Entry<Long, Document> entry : documents.entrySet()) {
+                table.checkChange(entry.getValue(), Set.of(), stagedKeys);
+                table.put(entry.getKey(), entry.getValue());
+            }
+            tables.put(index.name(), table);
+        }
+        return tables;
+    }
+
+    /**
+     * Rebuilds the {@code _id} lookup and ordered index structures for plain key patterns. Sparse, partial and
+     * collation-aware indexes only enforce constraints; queries on them fall back to a collection scan.
+     */
+    private void rebuildQueryIndexes() {
+        idLookup.clear();
+        for (final Map.Entry<Long, Document> entry : documents.entrySet()) {
+            idLookup.add(entry.getValue().get("_id"), entry.getKey());
+        }
+        secondaryIndexes.clear();
+        planCache.clear();
+        for (final IndexMetadata metadata : indexesByName.values()) {
+            if (metadata.sparse() || metadata.partialFilterExpression() != null || metadata.collation() != null) {
+                continue;
+            }
+            final SecondaryIndex index = SecondaryIndex.create(metadata.name(), metadata.key());
+            if (index == null) {
                 continue;
             }
-            rules.add(new TtlRule(fieldPath, index.expireAfterSeconds() * 1000L));
+            for (final Map.Entry<Long, Document> entry : documents.entrySet()) {
+                index.add(entry.getKey(), entry.getValue());
+            }
+            secondaryIndexes.put(metadata.name(), index);
+        }
+        ttlIndexes.clear();
+        for (final IndexMetadata metadata : indexesByName.values()) {
+            final TtlIndex ttlIndex = TtlIndex.create(metadata);
+            if (ttlIndex == null) {
+                continue;
+            }
+            for (final Map.Entry<Long, Document> entry : documents.entrySet()) {
+                ttlIndex.add(entry.getKey(), entry.getValue());
+            }
+            ttlIndexes.add(ttlIndex);
+        }
+        nextExpiryMillis = earliestExpiryMillis();
+    }
+
+    /** Pops expired heads of the TTL indexes; never scans unexpired documents. */
+    private int pruneExpiredDocuments() {
+        if (ttlIndexes.isEmpty()) {
+            return 0;
+        }
+        final long nowMillis = clock.millis();
+        int removed = 0;
+        for (final TtlIndex ttlIndex : ttlIndexes) {
+            Long recordId;
+            while ((recordId = ttlIndex.firstExpiredRecordId(nowMillis)) != null) {
+                // Expiry stays out of the write set: the live store expires the same documents itself.
+                beforeWrite();
+                unindexDocument(recordId, documents.remove(recordId));
+                removed++;
+            }
         }
-        return rules;
+        nextExpiryMillis = earliestExpiryMillis();
+        return removed;
+    }
+
+    private long earliestExpiryMillis() {
+        long earliest = Long.MAX_VALUE;
+        for (final TtlIndex ttlIndex : ttlIndexes) {
+            earliest = Math.min(earliest, ttlIndex.earliestExpiryMillis());
+        }
+        return earliest;
     }
 
     private static Long dateLikeMillis(final Object value) {
@@ -544,12 +1196,9 @@ public final class InMemoryCollectionStore implements CollectionStore {
             upsertedDocument.put("_id", new ObjectId());
         }
 
-        final List<Document> candidateDocuments = new ArrayList<>(documents.size() + 1);
-        candidateDocuments.addAll(documents);
-        candidateDocuments.add(upsertedDocument);
-        validateUniqueConstraints(candidateDocuments, indexesByName.values());
+        validateUniqueChanges(Map.of(), List.of(upsertedDocument));
 
-        documents.add(upsertedDocument);
+        appendDocument(upsertedDocument);
         return new UpdateManyResult(0, 0, DocumentCopies.copyAny(upsertedDocument.get("_id")));
     }
 
@@ -705,36 +1354,6 @@ public final class InMemoryCollectionStore implements CollectionStore {
         return List.copyOf(fieldPaths);
     }
 
-    private static void validateUniqueConstraints(
-            final List<Document> candidateDocuments, final Iterable<IndexMetadata> indexes) {
-        for (IndexMetadata index : indexes) {
-            if (!index.unique() || index.uniqueFieldPaths().isEmpty()) {
-                continue;
-            }
-
-            final CollationSupport.Config indexCollation = index.collation() == null
-                    ? CollationSupport.Config.simple()
-                    : CollationSupport.Config.fromDocument(index.collation());
-            final List<UniqueValueKey> seenValues = new ArrayList<>();
-            for (Document document : candidateDocuments) {
-                if (index.partialFilterExpression() != null
-                        && !QueryMatcher.matches(document, index.partialFilterExpression(), indexCollation)) {
-                    continue;
-                }
-                if (index.sparse() && isSparseExcluded(document, index.uniqueFieldPaths())) {
-                    continue;
-                }
-
-                final Object[] values = resolvePathValues(document, index.uniqueFieldPaths());
-                final UniqueValueKey candidateKey = new UniqueValueKey(values, indexCollation);
-                if (seenValues.contains(candidateKey)) {
-                    throw new DuplicateKeyException(duplicateKeyMessage(index, values));
-                }
-                seenValues.add(candidateKey);
-            }
-        }
-    }
-
     private static String duplicateKeyMessage(final IndexMetadata index, final Object[] duplicateValues) {
         final StringBuilder duplicateKeyBuilder = new StringBuilder();
         for (int i = 0; i < index.uniqueFieldPaths().size(); i++) {
@@ -827,14 +1446,6 @@ public final class InMemoryCollectionStore implements CollectionStore {
         return new CollectionState(List.of(), List.of());
     }
 
-    private static List<Document> copyDocuments(final List<Document> source) {
-        final List<Document> copied = new ArrayList<>(source.size());
-        for (final Document document : source) {
-            copied.add(DocumentCopies.copy(Objects.requireNonNull(document, "document")));
-        }
-        return List.copyOf(copied);
-    }
-
     private static List<Document> diffDocuments(final List<Document> source, final List<Document> subtract) {
         final Map<String, Integer> subtractCounts = new HashMap<>();
         for (final Document document : subtract) {
@@ -846,7 +1457,7 @@ public final class InMemoryCollectionStore implements CollectionStore {
             final String key = canonicalDocumentKey(document);
             final Integer remaining = subtractCounts.get(key);
             if (remaining == null || remaining == 0) {
-                difference.add(DocumentCopies.copy(document));
+                difference.add(document);
                 continue;
             }
             if (remaining == 1) {
@@ -858,33 +1469,57 @@ public final class InMemoryCollectionStore implements CollectionStore {
         return difference;
     }
 
-    private static boolean removeFirstDocumentById(final List<Document> documents, final Object targetId) {
-        final Iterator<Document> iterator = documents.iterator();
-        while (iterator.hasNext()) {
-            final Document candidate = iterator.next();
-            if (Objects.deepEquals(candidate.get("_id"), targetId)) {
-                iterator.remove();
-                return true;
-            }
+    private static long addSlots(
+            final List<Document> source, final Map<Long, Document> documents, final IdLookup ids, final long firstSlot) {
+        long slot = firstSlot;
+        for (final Document document : source) {
+            documents.put(slot, document);
+            ids.add(document.get("_id"), slot);
+            slot++;
         }
-        return false;
+        return slot;
     }
 
-    private static boolean containsDocumentWithId(final List<Document> documents, final Object targetId) {
-        for (final Document candidate : documents) {
-            if (Objects.deepEquals(candidate.get("_id"), targetId)) {
-                return true;
+    private static boolean removeFirstDocumentById(
+            final Map<Long, Document> documents, final IdLookup ids, final Object targetId) {
+        final Long slot = findSlotById(documents, ids, targetId);
+        if (slot == null) {
+            return false;
+        }
+        ids.remove(targetId, slot);
+        documents.remove(slot);
+        return true;
+    }
+
+    /**
+     * Finds the first slot whose {@code _id} deep-equals the target. Embedded-document and array ids fall back to a
+     * scan because the hashed lookup is field-order sensitive where {@link Objects#deepEquals} is not.
+     */
+    private static Long findSlotById(final Map<Long, Document> documents, final IdLookup ids, final Object targetId) {
+        if (!(targetId instanceof Map<?, ?>) && !(targetId instanceof List<?>)) {
+            for (final long slot : ids.recordIds(targetId)) {
+                if (Objects.deepEquals(documents.get(slot).get("_id"), targetId)) {
+                    return slot;
+                }
             }
+            return null;
         }
-        return false;
+        for (final Map.Entry<Long, Document> candidate : documents.entrySet()) {
+            if (Objects.deepEquals(candidate.getValue().get("_id"), targetId)) {
+                return candidate.getKey();
+            }
+        }
+        return null;
     }
 
-    private static boolean removeFirstDocumentByCanonical(final List<Document> documents, final Document targetDocument) {
+    private static boolean removeFirstDocumentByCanonical(
+            final Map<Long, Document> documents, final IdLookup ids, final Document targetDocument) {
         final String targetKey = canonicalDocumentKey(targetDocument);
-        final Iterator<Document> iterator = documents.iterator();
+        final Iterator<Map.Entry<Long, Document>> iterator = documents.entrySet().iterator();
         while (iterator.hasNext()) {
-            final Document candidate = iterator.next();
-            if (targetKey.equals(canonicalDocumentKey(candidate))) {
+            final Map.Entry<Long, Document> candidate = iterator.next();
+            if (targetKey.equals(canonicalDocumentKey(candidate.getValue()))) {
+                ids.remove(candidate.getValue().get("_id"), candidate.getKey());
                 iterator.remove();
                 return true;
             }
@@ -896,7 +1531,7 @@ public final class InMemoryCollectionStore implements CollectionStore {
         return document.toJson();
     }
 
-    private static List<CollectionStore.IndexDefinition> mergeIndexes(
+    static List<CollectionStore.IndexDefinition> mergeIndexes(
             final List<CollectionStore.IndexDefinition> baselineIndexes,
             final List<CollectionStore.IndexDefinition> transactionIndexes,
             final List<CollectionStore.IndexDefinition> currentIndexes) {
@@ -960,16 +1595,173 @@ public final class InMemoryCollectionStore implements CollectionStore {
 
     private record UpdatePreview(Document updatedDocument, boolean modified) {}
 
-    private record TtlRule(String fieldPath, long expireAfterMillis) {
-        private boolean isExpired(final Document document, final long nowMillis) {
+    private static final class PinnedVersion {
+        private int pins;
+        private InMemoryCollectionStore preserved;
+    }
+
+    /**
+     * Resumable scan behind {@link #iterateEncoded}, {@link #scanAll} and {@link #scan}. Each pull takes the read lock,
+     * resumes after the last examined record and stops once a page of matches is buffered, so records past the
+     * consumed prefix are never matched or materialized. Candidates from an index seek or an ordered index walk are
+     * fixed when the iterator opens; a collection scan follows the live record map.
+     */
+    private final class MatchIterator<T> implements Iterator<T> {
+        private final QueryMatcher.CompiledFilter filter;
+        private final SortedSet<Long> candidates;
+        private final List<Long> ordered;
+        private final BiFunction<Long, Document, T> output;
+        private final ArrayDeque<T> buffered = new ArrayDeque<>();
+        private long lastRecordId = -1L;
+        private int orderedPosition;
+        private int pullSize = INITIAL_PULL_SIZE;
+        private boolean exhausted;
+
+        /**
+         * @param candidates ascending record ids to examine, or {@code null} for the whole collection
+         * @param ordered record ids in the order to return them; takes precedence over {@code candidates}
+         */
+        private MatchIterator(
+                final QueryMatcher.CompiledFilter filter,
+                final SortedSet<Long> candidates,
+                final List<Long> ordered,
+                final BiFunction<Long, Document, T> output) {
+            this.filter = filter;
+            this.candidates = candidates;
+            this.ordered = ordered;
+            this.output = output;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (buffered.isEmpty() && !exhausted) {
+                pull();
+            }
+            return !buffered.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("no more documents");
+            }
+            return buffered.removeFirst();
+        }
+
+        private void pull() {
+            read(() -> {
+                final Iterable<Long> remaining;
+                if (ordered != null) {
+                    remaining = ordered.subList(orderedPosition, ordered.size());
+                } else if (candidates != null) {
+                    remaining = candidates.tailSet(lastRecordId + 1);
+                } else {
+                    remaining = documents.keys(lastRecordId, false, null, false);
+                }
+                for (final Long recordId : remaining) {
+                    lastRecordId = recordId;
+                    orderedPosition++;
+                    final Document document = documents.get(recordId);
+                    if (document == null || !filter.matches(document)) {
+                        continue;
+                    }
+                    buffered.addLast(output.apply(recordId, document));
+                    if (buffered.size() >= pullSize) {
+                        pullSize = Math.min(MAX_PULL_SIZE, pullSize * 2);
+                        return null;
+                    }
+                }
+                exhausted = true;
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Documents of one TTL index ordered by expiry time. Only single-field, non-partial TTL indexes over date values
+     * expire documents; arrays and other value types never expire.
+     */
+    private static final class TtlIndex {
+        private final String fieldPath;
+        private final long expireAfterMillis;
+        private final SharedTreeMap<Expiry, Boolean> entries;
+
+        private TtlIndex(final String fieldPath, final long expireAfterMillis) {
+            this.fieldPath = fieldPath;
+            this.expireAfterMillis = expireAfterMillis;
+            this.entries = new SharedTreeMap<>(Comparator.naturalOrder());
+        }
+
+        private TtlIndex(final TtlIndex source) {
+            this.fieldPath = source.fieldPath;
+            this.expireAfterMillis = source.expireAfterMillis;
+            this.entries = source.entries.fork();
+        }
+
+        private TtlIndex fork() {
+            return new TtlIndex(this);
+        }
+
+        private static TtlIndex create(final IndexMetadata index) {
+            if (index.expireAfterSeconds() == null
+                    || index.key().size() != 1
+                    || index.partialFilterExpression() != null) {
+                return null;
+            }
+            final String fieldPath = index.key().keySet().iterator().next();
+            if (fieldPath == null || fieldPath.isBlank()) {
+                return null;
+            }
+            return new TtlIndex(fieldPath, index.expireAfterSeconds() * 1000L);
+        }
+
+        /** Indexes the document and returns its expiry time, or {@link Long#MAX_VALUE} if it never expires. */
+        private long add(final long recordId, final Document document) {
+            final Long expiresAt = expiresAtMillis(document);
+            if (expiresAt == null) {
+                return Long.MAX_VALUE;
+            }
+            entries.put(new Expiry(expiresAt, recordId), Boolean.TRUE);
+            return expiresAt;
+        }
+
+        private void remove(final long recordId, final Document document) {
+            final Long expiresAt = expiresAtMillis(document);
+            if (expiresAt != null) {
+                entries.remove(new Expiry(expiresAt, recordId));
+            }
+        }
+
+        private Long firstExpiredRecordId(final long nowMillis) {
+            final Expiry first = entries.firstKey();
+            if (first == null || first.expiresAtMillis() > nowMillis) {
+                return null;
+            }
+            return first.recordId();
+        }
+
+        private long earliestExpiryMillis() {
+            final Expiry first = entries.firstKey();
+            return first == null ? Long.MAX_VALUE : first.expiresAtMillis();
+        }
+
+        private Long expiresAtMillis(final Document document) {
             final Long fieldMillis = dateLikeMillis(resolvePathValue(document, fieldPath));
-            return fieldMillis != null && fieldMillis + expireAfterMillis <= nowMillis;
+            return fieldMillis == null ? null : fieldMillis + expireAfterMillis;
+        }
+    }
+
+    private record Expiry(long expiresAtMillis, long recordId) implements Comparable<Expiry> {
+        @Override
+        public int compareTo(final Expiry other) {
+            final int byTime = Long.compare(expiresAtMillis, other.expiresAtMillis);
+            return byTime != 0 ? byTime : Long.compare(recordId, other.recordId);
         }
     }
 
     record CollectionState(List<Document> documents, List<CollectionStore.IndexDefinition> indexes) {
         CollectionState {
-            documents = documents == null ? List.of() : copyDocuments(documents);
+            documents = documents == null ? List.of() : List.copyOf(documents);
             indexes = indexes == null ? List.of() : List.copyOf(indexes);
         }
     }
@@ -984,6 +1776,97 @@ public final class InMemoryCollectionStore implements CollectionStore {
             Long expireAfterSeconds,
             List<String> uniqueFieldPaths) {}
 
+    /**
+     * Hash lookup from {@code _id} values to record ids using BSON value equality, so numeric ids of different Java
+     * types share a bucket. Array ids are keyed by element, matching how equality filters resolve them.
+     */
+    private static final class IdLookup {
+        private static final long[] NONE = new long[0];
+
+        private final SharedHashMap<IdKey, long[]> recordIdsByKey;
+
+        IdLookup() {
+            this(new SharedHashMap<>());
+        }
+
+        private IdLookup(final SharedHashMap<IdKey, long[]> recordIdsByKey) {
+            this.recordIdsByKey = recordIdsByKey;
+        }
+
+        /** Returns a lookup with the same entries in constant time; the two are independent afterwards. */
+        IdLookup fork() {
+            return new IdLookup(recordIdsByKey.fork());
+        }
+
+        void add(final Object id, final long recordId) {
+            for (final Object keyValue : keyValues(id)) {
+                final IdKey key = new IdKey(keyValue);
+                final long[] existing = recordIdsByKey.get(key);
+                recordIdsByKey.put(key, existing == null ? new long[] {recordId} : append(existing, recordId));
+            }
+        }
+
+        void remove(final Object id, final long recordId) {
+            for (final Object keyValue : keyValues(id)) {
+                final IdKey key = new IdKey(keyValue);
+                final long[] existing = recordIdsByKey.get(key);
+                if (existing != null) {
+                    recordIdsByKey.put(key, without(existing, recordId));
+                }
+            }
+        }
+
+        long[] recordIds(final Object id) {
+            final long[] recordIds = recordIdsByKey.get(new IdKey(id));
+            return recordIds == null ? NONE : recordIds;
+        }
+
+        void clear() {
+            recordIdsByKey.clear();
+        }
+
+        private static List<?> keyValues(final Object id) {
+            if (id instanceof List<?> listValue && !listValue.isEmpty()) {
+                return listValue;
+            }
+            return Collections.singletonList(id);
+        }
+
+        private static long[] append(final long[] existing, final long recordId) {
+            final long[] merged = Arrays.copyOf(existing, existing.length + 1);
+            merged[existing.length] = recordId;
+            return merged;
+        }
+
+        private static long[] without(final long[] recordIds, final long recordId) {
+            for (int i = 0; i < recordIds.length; i++) {
+                if (recordIds[i] != recordId) {
+                    continue;
+                }
+                if (recordIds.length == 1) {
+                    return null;
+                }
+                final long[] remaining = new long[recordIds.length - 1];
+                System.arraycopy(recordIds, 0, remaining, 0, i);
+                System.arraycopy(recordIds, i + 1, remaining, i, remaining.length - i);
+                return remaining;
+            }
+            return recordIds;
+        }
+    }
+
+    record IdKey(Object value) {
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof IdKey otherKey && MongoValueComparator.equals(value, otherKey.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return MongoValueComparator.hash(value);
+        }
+    }
+
     private static final class UniqueValueKey {
         private final Object[] values;
         private final CollationSupport.Config collation;
@@ -1014,7 +1897,79 @@ public final class InMemoryCollectionStore implements CollectionStore {
 
         @Override
         public int hashCode() {
-            return 0;
+            int hash = 1;
+            for (final Object value : values) {
+                hash = 31 * hash + collation.valueHash(value);
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Unique key tuples of one unique index mapped to the owning record, honoring sparse, partial and collation
+     * options of the index.
+     */
+    private static final class UniqueKeyTable {
+        private final IndexMetadata index;
+        private final CollationSupport.Config collation;
+        private final SharedHashMap<UniqueValueKey, Long> recordIdsByKey;
+
+        private UniqueKeyTable(final IndexMetadata index) {
+            this.index = index;
+            this.collation = index.collation() == null
+                    ? CollationSupport.Config.simple()
+                    : CollationSupport.Config.fromDocument(index.collation());
+            this.recordIdsByKey = new SharedHashMap<>();
+        }
+
+        private UniqueKeyTable(final UniqueKeyTable source) {
+            this.index = source.index;
+            this.collation = source.collation;
+            this.recordIdsByKey = source.recordIdsByKey.fork();
+        }
+
+        private UniqueKeyTable fork() {
+            return new UniqueKeyTable(this);
+        }
+
+        private void checkChange(
+                final Document candidate,
+                final Set<Long> replacedRecordIds,
+                final Set<UniqueValueKey> stagedKeys) {
+            final UniqueValueKey key = keyOf(candidate);
+            if (key == null) {
+                return;
+            }
+            final Long owner = recordIdsByKey.get(key);
+            if (!stagedKeys.add(key)
+                    || (owner != null && !replacedRecordIds.contains(owner))) {
+                throw new DuplicateKeyException(duplicateKeyMessage(index, key.values));
+            }
+        }
+
+        private void put(final long recordId, final Document document) {
+            final UniqueValueKey key = keyOf(document);
+            if (key != null) {
+                recordIdsByKey.put(key, recordId);
+            }
+        }
+
+        private void remove(final long recordId, final Document document) {
+            final UniqueValueKey key = keyOf(document);
+            if (key != null) {
+                recordIdsByKey.remove(key, recordId);
+            }
+        }
+
+        private UniqueValueKey keyOf(final Document document) {
+            if (index.partialFilterExpression() != null
+                    && !QueryMatcher.matches(document, index.partialFilterExpression(), collation)) {
+                return null;
+            }
+            if (index.sparse() && isSparseExcluded(document, index.uniqueFieldPaths())) {
+                return null;
+            }
+            return new UniqueValueKey(resolvePathValues(document, index.uniqueFieldPaths()), collation);
         }
     }
 }
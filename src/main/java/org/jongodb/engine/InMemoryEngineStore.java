@@ -1,34 +1,70 @@
 package org.jongodb.engine;
 
 import java.time.Clock;
+import java.time.Duration;
 import java.util.HashSet;
 import java.util.List;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 /**
  * In-memory implementation of the engine store.
+ *
+ * <p>{@link #snapshot()} does not copy documents: each collection of the snapshot is a copy-on-write view pinned at
+ * the source collection's current version (see {@link SnapshotCollectionStore}), so taking a snapshot costs one pin
+ * per namespace. Snapshots should be {@linkplain #release() released} when discarded so pinned versions can be
+ * dropped.
+ *
+ * <p>Collections written or created in a snapshot record a {@link CollectionWriteSet}, and
+ * {@link #mergeTransactionSnapshot} commits by replaying those write sets, so commit cost follows the number of
+ * written documents. Namespaces dropped or recreated by the transaction fall back to merging collection states.
+ *
+ * <p>The catalog is a concurrent map, so creating, listing and using collections takes no engine-wide lock; each
+ * collection guards itself. Only transaction commits and whole-store replacement take the commit lock exclusively, so
+ * snapshots and drops, which share it, never observe a half-applied commit.
  */
 public final class InMemoryEngineStore implements EngineStore {
-    private final ConcurrentMap<Namespace, InMemoryCollectionStore> collections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Namespace, CollectionStore> collections = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
     private final Clock clock;
+    private final DocumentStorage storage;
+    private final boolean recordsWriteSets;
 
     public InMemoryEngineStore() {
         this(Clock.systemUTC());
     }
 
     public InMemoryEngineStore(final Clock clock) {
+        this(clock, DocumentStorage.DECODED);
+    }
+
+    public InMemoryEngineStore(final DocumentStorage storage) {
+        this(Clock.systemUTC(), storage);
+    }
+
+    public InMemoryEngineStore(final Clock clock, final DocumentStorage storage) {
+        this(clock, storage, false);
+    }
+
+    private InMemoryEngineStore(final Clock clock, final DocumentStorage storage, final boolean recordsWriteSets) {
         this.clock = Objects.requireNonNull(clock, "clock");
+        this.storage = Objects.requireNonNull(storage, "storage");
+        this.recordsWriteSets = recordsWriteSets;
+    }
+
+    /** How this store's collections hold their documents. */
+    public DocumentStorage documentStorage() {
+        return storage;
     }
 
     @Override
     public CollectionStore collection(Namespace namespace) {
         Objects.requireNonNull(namespace, "namespace");
-        return collections.computeIfAbsent(namespace, key -> new InMemoryCollectionStore(clock));
+        return collections.computeIfAbsent(namespace, key -> newCollection());
     }
 
     @Override
@@ -38,7 +74,7 @@ public final class InMemoryEngineStore implements EngineStore {
     }
 
     @Override
-    public synchronized List<String> listCollectionNames(final String database) {
+    public List<String> listCollectionNames(final String database) {
         Objects.requireNonNull(database, "database");
         return collections.keySet().stream()
                 .filter(namespace -> namespace.database().equals(database))
@@ -48,35 +84,88 @@ public final class InMemoryEngineStore implements EngineStore {
     }
 
     @Override
-    public synchronized boolean dropCollection(final String database, final String collection) {
-        return collections.remove(Namespace.of(database, collection)) != null;
+    public boolean dropCollection(final String database, final String collection) {
+        final CollectionStore removed = shared(() -> collections.remove(Namespace.of(database, collection)));
+        releaseIfSnapshot(removed);
+        return removed != null;
     }
 
     @Override
-    public synchronized int dropDatabase(final String database) {
+    public int dropDatabase(final String database) {
         Objects.requireNonNull(database, "database");
-        int dropped = 0;
-        for (final Namespace namespace : List.copyOf(collections.keySet())) {
-            if (namespace.database().equals(database) && collections.remove(namespace) != null) {
-                dropped++;
+        return shared(() -> {
+            int dropped = 0;
+            for (final Namespace namespace : List.copyOf(collections.keySet())) {
+                if (!namespace.database().equals(database)) {
+                    continue;
+                }
+                final CollectionStore removed = collections.remove(namespace);
+                if (removed != null) {
+                    releaseIfSnapshot(removed);
+                    dropped++;
+                }
+            }
+            return dropped;
+        });
+    }
+
+    public InMemoryEngineStore snapshot() {
+        return shared(() -> {
+            final InMemoryEngineStore snapshot = new InMemoryEngineStore(clock, storage, true);
+            for (final var entry : collections.entrySet()) {
+                snapshot.collections.put(entry.getKey(), pinned(entry.getValue()));
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Removes expired TTL documents from every collection whose earliest expiry has passed and returns how many were
+     * removed. Called by {@link TtlMonitor}; reads and writes also expire documents on their own.
+     */
+    public int reapExpiredDocuments() {
+        int removed = 0;
+        for (final CollectionStore collection : collections.values()) {
+            if (collection instanceof InMemoryCollectionStore store) {
+                removed += store.reapExpiredDocuments();
             }
         }
-        return dropped;
+        return removed;
     }
 
-    public synchronized InMemoryEngineStore snapshot() {
-        final InMemoryEngineStore snapshot = new InMemoryEngineStore(clock);
-        for (final var entry : collections.entrySet()) {
-            snapshot.collections.put(entry.getKey(), entry.getValue().snapshot());
+    /** Starts a background {@link TtlMonitor} over this store; close it to stop. */
+    public TtlMonitor startTtlMonitor(final Duration interval) {
+        return TtlMonitor.start(this, interval);
+    }
+
+    /** Number of snapshot pins currently held on this store's collections; zero once every snapshot is released. */
+    public int pinCount() {
+        int pins = 0;
+        for (final CollectionStore collection : collections.values()) {
+            if (collection instanceof InMemoryCollectionStore store) {
+                pins += store.pinCount();
+            }
+        }
+        return pins;
+    }
+
+    /** Releases the versions pinned by this snapshot's unwritten collections. */
+    public void release() {
+        for (final CollectionStore collection : collections.values()) {
+            releaseIfSnapshot(collection);
         }
-        return snapshot;
     }
 
-    public synchronized void replaceWith(final InMemoryEngineStore source) {
+    public void replaceWith(final InMemoryEngineStore source) {
         Objects.requireNonNull(source, "source");
-        collections.clear();
-        for (final var entry : source.collections.entrySet()) {
-            collections.put(entry.getKey(), entry.getValue().snapshot());
+        commitLock.writeLock().lock();
+        try {
+            collections.clear();
+            for (final var entry : source.collections.entrySet()) {
+                collections.put(entry.getKey(), copied(entry.getValue()));
+            }
+        } finally {
+            commitLock.writeLock().unlock();
         }
     }
 
@@ -85,38 +174,162 @@ public final class InMemoryEngineStore implements EngineStore {
         Objects.requireNonNull(baselineSnapshot, "baselineSnapshot");
         Objects.requireNonNull(transactionSnapshot, "transactionSnapshot");
 
-        final Map<Namespace, InMemoryCollectionStore.CollectionState> baselineStates =
-                baselineSnapshot.collectionStatesSnapshot();
-        final Map<Namespace, InMemoryCollectionStore.CollectionState> transactionStates =
-                transactionSnapshot.collectionStatesSnapshot();
-        final Map<Namespace, InMemoryCollectionStore.CollectionState> currentStates = collectionStatesSnapshot();
-
-        final Set<Namespace> touchedNamespaces = new HashSet<>();
-        touchedNamespaces.addAll(baselineStates.keySet());
-        touchedNamespaces.addAll(transactionStates.keySet());
+        final Set<Namespace> touchedNamespaces = transactionSnapshot.namespacesChangedFrom(baselineSnapshot);
 
-        synchronized (this) {
+        commitLock.writeLock().lock();
+        try {
             for (final Namespace namespace : touchedNamespaces) {
-                final InMemoryCollectionStore.CollectionState baselineState = baselineStates.get(namespace);
-                final InMemoryCollectionStore.CollectionState transactionState = transactionStates.get(namespace);
+                final CollectionWriteSet writeSet = transactionSnapshot.writeSet(namespace, baselineSnapshot);
+                final InMemoryCollectionStore writeSetTarget =
+                        writeSet == null ? null : writeSetTarget(namespace, baselineSnapshot);
+                if (writeSetTarget != null) {
+                    final List<CollectionStore.IndexDefinition> mergedIndexes = writeSet.hasIndexChanges()
+                            ? InMemoryCollectionStore.mergeIndexes(
+                                    indexesOf(baselineSnapshot.collections.get(namespace)),
+                                    transactionSnapshot.collections.get(namespace).listIndexes(),
+                                    writeSetTarget.listIndexes())
+                            : null;
+                    writeSetTarget.applyWriteSet(writeSet, mergedIndexes);
+                    continue;
+                }
+
+                final InMemoryCollectionStore.CollectionState baselineState = baselineSnapshot.collectionState(namespace);
+                final InMemoryCollectionStore.CollectionState transactionState =
+                        transactionSnapshot.collectionState(namespace);
                 if (InMemoryCollectionStore.statesEqual(baselineState, transactionState)) {
                     continue;
                 }
 
-                final InMemoryCollectionStore.CollectionState currentState = currentStates.get(namespace);
+                final InMemoryCollectionStore.CollectionState currentState = collectionState(namespace);
                 final InMemoryCollectionStore.CollectionState mergedState =
                         InMemoryCollectionStore.mergeTransactionState(baselineState, transactionState, currentState);
-                collections.computeIfAbsent(namespace, key -> new InMemoryCollectionStore(clock))
-                        .replaceState(mergedState);
+                final CollectionStore target = collections.computeIfAbsent(namespace, key -> newCollection());
+                if (target instanceof SnapshotCollectionStore snapshotTarget) {
+                    snapshotTarget.replaceState(mergedState);
+                } else {
+                    ((InMemoryCollectionStore) target).replaceState(mergedState);
+                }
             }
+        } finally {
+            commitLock.writeLock().unlock();
         }
     }
 
-    private synchronized Map<Namespace, InMemoryCollectionStore.CollectionState> collectionStatesSnapshot() {
-        final Map<Namespace, InMemoryCollectionStore.CollectionState> states = new LinkedHashMap<>();
+    /**
+     * Namespaces whose content may differ from {@code baseline}: collections written or created here, and baseline
+     * collections no longer present. Collections still pinned at their baseline version are skipped without being
+     * read.
+     */
+    private Set<Namespace> namespacesChangedFrom(final InMemoryEngineStore baseline) {
+        final Set<Namespace> changed = new HashSet<>();
         for (final var entry : collections.entrySet()) {
-            states.put(entry.getKey(), entry.getValue().snapshotState());
+            if (!(entry.getValue() instanceof SnapshotCollectionStore snapshotCollection)
+                    || snapshotCollection.materialized()
+                    || baseline.collections.get(entry.getKey()) == null) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (final Namespace namespace : baseline.collectionNamespaces()) {
+            if (!collections.containsKey(namespace)) {
+                changed.add(namespace);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The write set of a namespace this snapshot wrote, provided it was recorded against the same collection version
+     * as {@code baseline}'s view, or the collection was created here and is absent from {@code baseline}.
+     */
+    private CollectionWriteSet writeSet(final Namespace namespace, final InMemoryEngineStore baseline) {
+        final CollectionStore collection = collections.get(namespace);
+        final CollectionStore baselineCollection = baseline.collections.get(namespace);
+        if (collection instanceof SnapshotCollectionStore view) {
+            return baselineCollection instanceof SnapshotCollectionStore baselineView && view.sharesPinWith(baselineView)
+                    ? view.writeSet()
+                    : null;
+        }
+        if (collection instanceof InMemoryCollectionStore created && baselineCollection == null) {
+            return created.writeSet();
+        }
+        return null;
+    }
+
+    /**
+     * The live collection a write set can be replayed on: the store {@code baseline} pinned, if it is still the
+     * collection registered here, or for collections created by the transaction, the collection now present under
+     * that name (created on demand).
+     */
+    private InMemoryCollectionStore writeSetTarget(final Namespace namespace, final InMemoryEngineStore baseline) {
+        final CollectionStore baselineCollection = baseline.collections.get(namespace);
+        if (baselineCollection == null) {
+            return collections.computeIfAbsent(namespace, key -> newCollection())
+                            instanceof InMemoryCollectionStore created
+                    ? created
+                    : null;
+        }
+        final CollectionStore current = collections.get(namespace);
+        return baselineCollection instanceof SnapshotCollectionStore baselineView
+                        && baselineView.pinnedFrom(current)
+                        && current instanceof InMemoryCollectionStore live
+                ? live
+                : null;
+    }
+
+    /** Runs a catalog operation that may overlap other shared operations but never a commit. */
+    private <T> T shared(final Supplier<T> operation) {
+        commitLock.readLock().lock();
+        try {
+            return operation.get();
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    private static List<CollectionStore.IndexDefinition> indexesOf(final CollectionStore collection) {
+        return collection == null ? List.of() : collection.listIndexes();
+    }
+
+    private CollectionStore newCollection() {
+        final InMemoryCollectionStore collection = new InMemoryCollectionStore(clock, storage);
+        if (recordsWriteSets) {
+            collection.recordWriteSet();
+        }
+        return collection;
+    }
+
+    private Set<Namespace> collectionNamespaces() {
+        return Set.copyOf(collections.keySet());
+    }
+
+    private InMemoryCollectionStore.CollectionState collectionState(final Namespace namespace) {
+        final CollectionStore collection = collections.get(namespace);
+        if (collection == null) {
+            return null;
+        }
+        if (collection instanceof SnapshotCollectionStore snapshotCollection) {
+            return snapshotCollection.snapshotState();
+        }
+        return ((InMemoryCollectionStore) collection).snapshotState();
+    }
+
+    private static CollectionStore pinned(final CollectionStore collection) {
+        if (collection instanceof SnapshotCollectionStore snapshotCollection) {
+            return snapshotCollection.fork();
+        }
+        return SnapshotCollectionStore.pin((InMemoryCollectionStore) collection);
+    }
+
+    private static InMemoryCollectionStore copied(final CollectionStore collection) {
+        if (collection instanceof SnapshotCollectionStore snapshotCollection) {
+            return snapshotCollection.copy();
+        }
+        return ((InMemoryCollectionStore) collection).snapshot();
+    }
+
+    private static void releaseIfSnapshot(final CollectionStore collection) {
+        if (collection instanceof SnapshotCollectionStore snapshotCollection) {
+            snapshotCollection.release();
         }
-        return states;
     }
 }
@@ -256,7 +256,7 @@ final class MongoValueComparator {
         return expression.getPattern() + '\u0000' + expression.getOptions();
     }
 
-    private static int typeRank(final Object value) {
+    static int typeRank(final Object value) {
         if (value instanceof MinKey) {
             return 0;
         }
@@ -0,0 +1,191 @@
+package org.jongodb.engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.bson.Document;
+
+/**
+ * Rewrites an aggregation pipeline so its leading filter and sort can be answered by the collection scan.
+ *
+ * <p>Adjacent {@code $match} stages are combined with {@code $and}, a {@code $match} moves ahead of
+ * {@code $addFields}/{@code $set} when it reads none of the assigned fields, and adjacent exclusion {@code $project}
+ * stages merge. The leading {@code $match} and a {@code $sort} directly after it are then split off for
+ * {@link CollectionStore#scan}. Only well-formed stages are rewritten; anything else stays in place so the pipeline
+ * rejects it as before.
+ */
+public final class PipelineOptimizer {
+    private PipelineOptimizer() {}
+
+    public static OptimizedPipeline optimize(final List<Document> pipeline) {
+        Objects.requireNonNull(pipeline, "pipeline");
+        final List<Document> rewritten = new ArrayList<>(pipeline.size());
+        for (final Document stage : pipeline) {
+            if (stage == null || stage.size() != 1) {
+                rewritten.add(stage);
+                continue;
+            }
+            final String stageName = stage.keySet().iterator().next();
+            final Object definition = stage.get(stageName);
+            if ("$match".equals(stageName) && definition instanceof Document filter) {
+                placeMatch(rewritten, filter);
+            } else if ("$project".equals(stageName) && definition instanceof Document projection) {
+                placeProjection(rewritten, stage, projection);
+            } else {
+                rewritten.add(stage);
+            }
+        }
+
+        int start = 0;
+        Document filter = null;
+        Document sort = null;
+        if (start < rewritten.size() && stageDefinition(rewritten.get(start), "$match") instanceof Document match) {
+            filter = match;
+            start++;
+        }
+        if (start < rewritten.size() && stageDefinition(rewritten.get(start), "$sort") instanceof Document order) {
+            sort = order;
+            start++;
+        }
+        return new OptimizedPipeline(filter, sort, List.copyOf(rewritten.subList(start, rewritten.size())));
+    }
+
+    /** Sinks a filter below the field assignments it does not read, then merges it into a preceding filter. */
+    private static void placeMatch(final List<Document> rewritten, final Document filter) {
+        final Set<String> readPaths = filterPaths(filter);
+        int position = rewritten.size();
+        while (readPaths != null && position > 0 && independentOf(rewritten.get(position - 1), readPaths)) {
+            position--;
+        }
+        if (position > 0 && stageDefinition(rewritten.get(position - 1), "$match") instanceof Document previous) {
+            rewritten.set(position - 1, new Document("$match", conjunction(previous, filter)));
+            return;
+        }
+        rewritten.add(position, new Document("$match", filter));
+    }
+
+    private static Document conjunction(final Document first, final Document second) {
+        if (first.isEmpty()) {
+            return second;
+        }
+        if (second.isEmpty()) {
+            return first;
+        }
+        return new Document("$and", List.of(first, second));
+    }
+
+    private static void placeProjection(
+            final List<Document> rewritten, final Document stage, final Document projection) {
+        if (!rewritten.isEmpty()
+                && stageDefinition(rewritten.get(rewritten.size() - 1), "$project") instanceof Document previous
+                && isExclusion(previous)
+                && isExclusion(projection)
+                && !overlaps(previous.keySet(), projection.keySet())) {
+            final Document merged = new Document(previous);
+            merged.putAll(projection);
+            rewritten.set(rewritten.size() - 1, new Document("$project", merged));
+            return;
+        }
+        rewritten.add(stage);
+    }
+
+    private static boolean isExclusion(final Document projection) {
+        if (projection.isEmpty()) {
+            return false;
+        }
+        for (final Map.Entry<String, Object> field : projection.entrySet()) {
+            if (field.getKey().isEmpty() || field.getKey().startsWith("$")) {
+                return false;
+            }
+            final Object value = field.getValue();
+            if (!(Boolean.FALSE.equals(value) || value instanceof Number number && number.doubleValue() == 0d)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Top-level field paths a filter reads, or null when it may read the whole document. */
+    private static Set<String> filterPaths(final Map<?, ?> filter) {
+        final Set<String> paths = new HashSet<>();
+        return collectFilterPaths(filter, paths) ? paths : null;
+    }
+
+    private static boolean collectFilterPaths(final Map<?, ?> filter, final Set<String> paths) {
+        for (final Map.Entry<?, ?> criteria : filter.entrySet()) {
+            if (!(criteria.getKey() instanceof String key) || key.isEmpty()) {
+                return false;
+            }
+            if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+                if (!(criteria.getValue() instanceof List<?> clauses)) {
+                    return false;
+                }
+                for (final Object clause : clauses) {
+                    if (!(clause instanceof Map<?, ?> clauseMap) || !collectFilterPaths(clauseMap, paths)) {
+                        return false;
+                    }
+                }
+            } else if (key.startsWith("$")) {
+                if (!"$comment".equals(key)) {
+                    return false;
+                }
+            } else {
+                paths.add(key);
+            }
+        }
+        return true;
+    }
+
+    private static boolean independentOf(final Document stage, final Set<String> readPaths) {
+        final Object assignments = stageDefinition(stage, "$addFields") != null
+                ? stageDefinition(stage, "$addFields")
+                : stageDefinition(stage, "$set");
+        if (!(assignments instanceof Document fields) || fields.isEmpty()) {
+            return false;
+        }
+        for (final String field : fields.keySet()) {
+            if (field.isEmpty() || field.startsWith("$")) {
+                return false;
+            }
+        }
+        return !overlaps(fields.keySet(), readPaths);
+    }
+
+    /** Whether any path of one set equals, contains or lies inside a path of the other. */
+    private static boolean overlaps(final Set<String> left, final Set<String> right) {
+        for (final String leftPath : left) {
+            for (final String rightPath : right) {
+                if (leftPath.equals(rightPath)
+                        || leftPath.startsWith(rightPath + ".")
+                        || rightPath.startsWith(leftPath + ".")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Object stageDefinition(final Document stage, final String stageName) {
+        return stage != null && stage.size() == 1 ? stage.get(stageName) : null;
+    }
+
+    /**
+     * A pipeline split for pushdown: {@code filter} (null when there is no leading {@code $match}) and {@code sort}
+     * go to the scan, {@code stages} run over its output.
+     */
+    public record OptimizedPipeline(Document filter, Document sort, List<Document> stages) {
+        /** The stages to run over a scan, restoring the {@code $sort} when the scan could not provide its order. */
+        public List<Document> stagesAfter(final boolean scanSorted) {
+            if (sort == null || scanSorted) {
+                return stages;
+            }
+            final List<Document> restored = new ArrayList<>(stages.size() + 1);
+            restored.add(new Document("$sort", sort));
+            restored.addAll(stages);
+            return restored;
+        }
+    }
+}
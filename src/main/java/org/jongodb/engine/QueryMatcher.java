@@ -6,10 +6,14 @@ import java.math.BigInteger;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import org.bson.BsonRegularExpression;
 import org.bson.Document;
@@ -56,6 +60,434 @@ final class QueryMatcher {
         }
     }
 
+    /**
+     * Resolves a dotted path with the same traversal rules used by field predicates; empty when the path is missing.
+     */
+    static List<Object> pathValues(final Document document, final String path) {
+        return resolvePathValues(document, path).values();
+    }
+
+    /**
+     * Compiles a filter into an immutable predicate tree that can be evaluated against many documents. Field paths
+     * are split, regexes compiled, {@code $in} candidates hashed and {@code $type}, {@code $size}, {@code $mod} and
+     * bit-mask operands parsed once. Malformed operands are not rejected here: those parts fall back to the
+     * interpreter so that errors surface on the same documents, and in the same order, as with {@link #matches}.
+     */
+    static CompiledFilter compile(final Document filter, final CollationSupport.Config collation) {
+        Objects.requireNonNull(filter, "filter");
+        final CollationSupport.Config effective = collation == null ? CollationSupport.Config.simple() : collation;
+        final CollationSupport.Config previous = ACTIVE_COLLATION.get();
+        ACTIVE_COLLATION.set(effective);
+        try {
+            return new CompiledFilter(compileFilter(filter), effective);
+        } finally {
+            ACTIVE_COLLATION.set(previous);
+        }
+    }
+
+    /** Filter compiled by {@link #compile}; safe to share across threads. */
+    static final class CompiledFilter {
+        private final Predicate<Document> root;
+        private final CollationSupport.Config collation;
+
+        private CompiledFilter(final Predicate<Document> root, final CollationSupport.Config collation) {
+            this.root = root;
+            this.collation = collation;
+        }
+
+        boolean matches(final Document document) {
+            Objects.requireNonNull(document, "document");
+            final CollationSupport.Config previous = ACTIVE_COLLATION.get();
+            if (previous == collation) {
+                return root.test(document);
+            }
+            ACTIVE_COLLATION.set(collation);
+            try {
+                return root.test(document);
+            } finally {
+                ACTIVE_COLLATION.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Resolves the structure {@link #compile} would build for every filter of {@code filter}'s {@link QueryShape}:
+     * clause lists and their arity, which keys are field paths and how those are split. {@link FilterTemplate#bind}
+     * then compiles one query's operands into that structure, so the template can be cached per shape while each
+     * query still matches its own values.
+     */
+    static FilterTemplate template(final Document filter, final CollationSupport.Config collation) {
+        Objects.requireNonNull(filter, "filter");
+        return new FilterTemplate(
+                documentTemplate(filter), collation == null ? CollationSupport.Config.simple() : collation);
+    }
+
+    /** Filter structure resolved by {@link #template}; safe to share across threads. */
+    static final class FilterTemplate {
+        private final Function<Document, Predicate<Document>> root;
+        private final CollationSupport.Config collation;
+
+        private FilterTemplate(
+                final Function<Document, Predicate<Document>> root, final CollationSupport.Config collation) {
+            this.root = root;
+            this.collation = collation;
+        }
+
+        /** Compiles a filter of the shape this template was resolved from. */
+        CompiledFilter bind(final Document filter) {
+            Objects.requireNonNull(filter, "filter");
+            final CollationSupport.Config previous = ACTIVE_COLLATION.get();
+            ACTIVE_COLLATION.set(collation);
+            try {
+                return new CompiledFilter(root.apply(filter), collation);
+            } finally {
+                ACTIVE_COLLATION.set(previous);
+            }
+        }
+    }
+
+    private static Function<Document, Predicate<Document>> documentTemplate(final Document filter) {
+        final List<Function<Object, Predicate<Document>>> clauses = new ArrayList<>(filter.size());
+        for (Map.Entry<String, Object> criteria : filter.entrySet()) {
+            final String key = criteria.getKey();
+            clauses.add(isTopLevelOperator(key) ? topLevelTemplate(key, criteria.getValue()) : fieldTemplate(key));
+        }
+        return bound -> {
+            final List<Predicate<Document>> predicates = new ArrayList<>(clauses.size());
+            int index = 0;
+            for (Object expected : bound.values()) {
+                predicates.add(clauses.get(index++).apply(expected));
+            }
+            return allOf(predicates);
+        };
+    }
+
+    private static Function<Object, Predicate<Document>> topLevelTemplate(
+            final String operator, final Object definition) {
+        try {
+            switch (operator) {
+                case "$and":
+                    return clauseTemplate(operator, toDocumentList(operator, definition), QueryMatcher::allOf);
+                case "$or":
+                    return clauseTemplate(operator, toDocumentList(operator, definition), QueryMatcher::anyOf);
+                case "$nor":
+                    return clauseTemplate(
+                            operator, toDocumentList(operator, definition), clauses -> anyOf(clauses).negate());
+                case "$not": {
+                    final Function<Document, Predicate<Document>> negated =
+                            documentTemplate(toDocument(operator, definition));
+                    return bound -> negated.apply(toDocument(operator, bound)).negate();
+                }
+                default:
+                    break;
+            }
+        } catch (RuntimeException invalid) {
+            // Malformed for the whole shape; each bound filter compiles, or falls back, on its own.
+        }
+        return bound -> compileTopLevelOperator(operator, bound);
+    }
+
+    private static Function<Object, Predicate<Document>> clauseTemplate(
+            final String operator,
+            final List<Document> clauses,
+            final Function<List<Predicate<Document>>, Predicate<Document>> combine) {
+        final List<Function<Document, Predicate<Document>>> templates = new ArrayList<>(clauses.size());
+        for (Document clause : clauses) {
+            templates.add(documentTemplate(clause));
+        }
+        return bound -> {
+            final List<Document> boundClauses = toDocumentList(operator, bound);
+            final List<Predicate<Document>> predicates = new ArrayList<>(templates.size());
+            for (int i = 0; i < templates.size(); i++) {
+                predicates.add(templates.get(i).apply(boundClauses.get(i)));
+            }
+            return combine.apply(predicates);
+        };
+    }
+
+    private static Function<Object, Predicate<Document>> fieldTemplate(final String key) {
+        final String[] segments = key == null || key.isEmpty() ? null : key.split("\\.");
+        return expected -> {
+            final Predicate<PathResolution> predicate = compileExpected(expected);
+            return document -> predicate.test(resolvePathValues(document, segments));
+        };
+    }
+
+    private static Predicate<Document> compileFilter(final Document filter) {
+        final List<Predicate<Document>> clauses = new ArrayList<>(filter.size());
+        for (Map.Entry<String, Object> criteria : filter.entrySet()) {
+            final String key = criteria.getKey();
+            final Object expected = criteria.getValue();
+            clauses.add(isTopLevelOperator(key) ? compileTopLevelOperator(key, expected) : compileField(key, expected));
+        }
+        return allOf(clauses);
+    }
+
+    private static Predicate<Document> compileTopLevelOperator(final String operator, final Object definition) {
+        try {
+            switch (operator) {
+                case "$and":
+                    return allOf(compileClauses(toDocumentList(operator, definition)));
+                case "$or":
+                    return anyOf(compileClauses(toDocumentList(operator, definition)));
+                case "$nor":
+                    return anyOf(compileClauses(toDocumentList(operator, definition))).negate();
+                case "$not":
+                    return compileFilter(toDocument(operator, definition)).negate();
+                case "$expr":
+                    return document -> matchesExpression(document, definition);
+                default:
+                    break;
+            }
+        } catch (RuntimeException invalid) {
+            // Interpreted below so the error is raised when a document reaches this clause.
+        }
+        return document -> matchesTopLevelOperator(document, operator, definition);
+    }
+
+    private static List<Predicate<Document>> compileClauses(final List<Document> clauses) {
+        final List<Predicate<Document>> compiled = new ArrayList<>(clauses.size());
+        for (Document clause : clauses) {
+            compiled.add(compileFilter(clause));
+        }
+        return compiled;
+    }
+
+    private static Predicate<Document> compileField(final String key, final Object expected) {
+        final String[] segments = key == null || key.isEmpty() ? null : key.split("\\.");
+        final Predicate<PathResolution> predicate = compileExpected(expected);
+        return document -> predicate.test(resolvePathValues(document, segments));
+    }
+
+    private static Predicate<PathResolution> compileExpected(final Object expected) {
+        try {
+            if (isOperatorDocument(expected)) {
+                return compileOperatorDocument(toStringKeyedMap((Map<?, ?>) expected, "operator document"));
+            }
+            if (expected instanceof Pattern pattern) {
+                return path -> matchesRegex(path, pattern);
+            }
+            if (expected instanceof BsonRegularExpression bsonPattern) {
+                final Pattern pattern = compileRegex(bsonPattern, null);
+                return path -> matchesRegex(path, pattern);
+            }
+            return path -> matchesEq(path, expected);
+        } catch (RuntimeException invalid) {
+            return path -> matchesField(path, expected);
+        }
+    }
+
+    private static Predicate<PathResolution> compileOperatorDocument(final Map<String, Object> operators) {
+        if (operators.containsKey("$options") && !operators.containsKey("$regex")) {
+            throw new IllegalArgumentException("$options requires $regex");
+        }
+
+        final List<Predicate<PathResolution>> predicates = new ArrayList<>(operators.size());
+        if (operators.containsKey("$regex")) {
+            final Pattern pattern = compileRegex(operators.get("$regex"), operators.get("$options"));
+            predicates.add(path -> matchesRegex(path, pattern));
+        }
+        for (Map.Entry<String, Object> entry : operators.entrySet()) {
+            final String operator = entry.getKey();
+            if (!"$regex".equals(operator) && !"$options".equals(operator)) {
+                predicates.add(compileOperator(operator, entry.getValue()));
+            }
+        }
+        return allOf(predicates);
+    }
+
+    private static Predicate<PathResolution> compileOperator(final String operator, final Object operand) {
+        try {
+            switch (operator) {
+                case "$eq":
+                    return compileEq(operand);
+                case "$ne":
+                    return compileEq(operand).negate();
+                case "$gt":
+                    return path -> matchesComparison(path, operand, ComparisonOperator.GT);
+                case "$gte":
+                    return path -> matchesComparison(path, operand, ComparisonOperator.GTE);
+                case "$lt":
+                    return path -> matchesComparison(path, operand, ComparisonOperator.LT);
+                case "$lte":
+                    return path -> matchesComparison(path, operand, ComparisonOperator.LTE);
+                case "$in": {
+                    final CandidateSet candidates = CandidateSet.of(asOperandList(operator, operand));
+                    if (candidates.isEmpty()) {
+                        return path -> false;
+                    }
+                    final boolean containsNull = candidates.containsNull();
+                    return path -> path.exists() ? candidates.matchesAny(path) : containsNull;
+                }
+                case "$nin": {
+                    final CandidateSet candidates = CandidateSet.of(asOperandList(operator, operand));
+                    return path -> !path.exists() || !candidates.matchesAny(path);
+                }
+                case "$exists": {
+                    if (!(operand instanceof Boolean expected)) {
+                        break;
+                    }
+                    return path -> path.exists() == expected;
+                }
+                case "$type": {
+                    final TypePredicate predicate = parseTypePredicate(operand);
+                    return path -> matchesType(path, predicate);
+                }
+                case "$size": {
+                    final int expectedSize = parseNonNegativeInt(operator, operand);
+                    return path -> matchesSize(path, expectedSize);
+                }
+                case "$elemMatch": {
+                    if (!(operand instanceof Map<?, ?> rawCriteria)) {
+                        break;
+                    }
+                    final Predicate<Object> criteria = compileElemMatchCriteria(rawCriteria);
+                    return path -> matchesElemMatch(path, criteria);
+                }
+                case "$all": {
+                    final List<Object> requiredValues = asOperandList(operator, operand);
+                    final List<Predicate<List<?>>> required = new ArrayList<>(requiredValues.size());
+                    for (Object requiredValue : requiredValues) {
+                        required.add(compileAllRequirement(requiredValue));
+                    }
+                    final Predicate<List<?>> containsAll = allOf(required);
+                    return path -> matchesAll(path, containsAll);
+                }
+                case "$mod": {
+                    if (!(operand instanceof List<?> modValues) || modValues.size() != 2
+                            || !(modValues.get(0) instanceof Number divisorRaw)
+                            || !(modValues.get(1) instanceof Number remainderRaw)) {
+                        break;
+                    }
+                    final BigDecimal divisor = toBigDecimal(divisorRaw);
+                    if (divisor.compareTo(BigDecimal.ZERO) == 0) {
+                        break;
+                    }
+                    final BigDecimal expectedRemainder = toBigDecimal(remainderRaw);
+                    return path -> matchesMod(path, divisor, expectedRemainder);
+                }
+                case "$bitsAllSet": {
+                    final long mask = parseBitMask(operand, operator);
+                    return path -> matchesBitsAllSet(path, mask);
+                }
+                case "$not":
+                    return compileFieldNot(operand).negate();
+                default:
+                    break;
+            }
+        } catch (RuntimeException invalid) {
+            // Interpreted below so the error is raised when a document reaches this operator.
+        }
+        return path -> matchesOperator(path, operator, operand);
+    }
+
+    private static Predicate<PathResolution> compileEq(final Object expected) {
+        if (expected instanceof Pattern pattern) {
+            return path -> matchesRegex(path, pattern);
+        }
+        if (expected instanceof BsonRegularExpression bsonPattern) {
+            final Pattern pattern = compileRegex(bsonPattern, null);
+            return path -> matchesRegex(path, pattern);
+        }
+        return path -> matchesEq(path, expected);
+    }
+
+    private static Predicate<PathResolution> compileFieldNot(final Object operand) {
+        if (operand instanceof Map<?, ?> mapOperand && isOperatorDocument(mapOperand)) {
+            return compileOperatorDocument(toStringKeyedMap(mapOperand, "$not"));
+        }
+        final Pattern pattern;
+        if (operand instanceof Pattern rawPattern) {
+            pattern = rawPattern;
+        } else if (operand instanceof BsonRegularExpression bsonPattern) {
+            pattern = compileRegex(bsonPattern, null);
+        } else if (operand instanceof String stringPattern) {
+            pattern = Pattern.compile(stringPattern);
+        } else {
+            throw new IllegalArgumentException("$not requires an operator document or regex");
+        }
+        return path -> matchesRegex(path, pattern);
+    }
+
+    private static Predicate<Object> compileElemMatchCriteria(final Map<?, ?> rawCriteria) {
+        try {
+            if (isOperatorDocument(rawCriteria)) {
+                final Predicate<PathResolution> operators =
+                        compileOperatorDocument(toStringKeyedMap(rawCriteria, "$elemMatch criteria"));
+                return element -> operators.test(PathResolution.existing(Collections.singletonList(element)));
+            }
+            final Predicate<Document> criteria = compileFilter(toDocument("$elemMatch", rawCriteria));
+            return element -> element instanceof Map<?, ?> elementMap
+                    && criteria.test(elementMap instanceof Document document
+                            ? document
+                            : toDocument("$elemMatch element", elementMap));
+        } catch (RuntimeException invalid) {
+            return element -> matchesElemMatchElement(element, rawCriteria);
+        }
+    }
+
+    private static Predicate<List<?>> compileAllRequirement(final Object required) {
+        try {
+            if (required instanceof Map<?, ?> requiredMap
+                    && requiredMap.size() == 1
+                    && requiredMap.containsKey("$elemMatch")) {
+                if (!(requiredMap.get("$elemMatch") instanceof Map<?, ?> elemMatchCriteria)) {
+                    throw new IllegalArgumentException("$all $elemMatch requires a document");
+                }
+                final Predicate<Object> criteria = compileElemMatchCriteria(elemMatchCriteria);
+                return actualValues -> anyElement(actualValues, criteria);
+            }
+            if (required instanceof Pattern pattern) {
+                return actualValues -> anyElement(actualValues, actual -> matchesRegexCandidate(actual, pattern));
+            }
+            if (required instanceof BsonRegularExpression bsonPattern) {
+                final Pattern pattern = compileRegex(bsonPattern, null);
+                return actualValues -> anyElement(actualValues, actual -> matchesRegexCandidate(actual, pattern));
+            }
+            return actualValues -> anyElement(actualValues, actual -> valueEquals(actual, required));
+        } catch (RuntimeException invalid) {
+            return actualValues -> containsForAll(actualValues, required);
+        }
+    }
+
+    private static boolean anyElement(final List<?> values, final Predicate<Object> predicate) {
+        for (Object value : values) {
+            if (predicate.test(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> Predicate<T> allOf(final List<Predicate<T>> predicates) {
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+        @SuppressWarnings("unchecked")
+        final Predicate<T>[] all = predicates.toArray(Predicate[]::new);
+        return value -> {
+            for (Predicate<T> predicate : all) {
+                if (!predicate.test(value)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static <T> Predicate<T> anyOf(final List<Predicate<T>> predicates) {
+        @SuppressWarnings("unchecked")
+        final Predicate<T>[] any = predicates.toArray(Predicate[]::new);
+        return value -> {
+            for (Predicate<T> predicate : any) {
+                if (predicate.test(value)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
     private static boolean isTopLevelOperator(String key) {
         return "$and".equals(key)
                 || "$or".equals(key)
@@ -366,63 +798,7 @@ final class QueryMatcher {
                 continue;
             }
 
-            boolean matched;
-            switch (operator) {
-                case "$eq":
-                    matched = matchesEq(path, operand);
-                    break;
-                case "$ne":
-                    matched = matchesNe(path, operand);
-                    break;
-                case "$gt":
-                    matched = matchesComparison(path, operand, ComparisonOperator.GT);
-                    break;
-                case "$gte":
-                    matched = matchesComparison(path, operand, ComparisonOperator.GTE);
-                    break;
-                case "$lt":
-                    matched = matchesComparison(path, operand, ComparisonOperator.LT);
-                    break;
-                case "$lte":
-                    matched = matchesComparison(path, operand, ComparisonOperator.LTE);
-                    break;
-                case "$in":
-                    matched = matchesIn(path, operand);
-                    break;
-                case "$nin":
-                    matched = matchesNin(path, operand);
-                    break;
-                case "$exists":
-                    matched = matchesExists(path, operand);
-                    break;
-                case "$type":
-                    matched = matchesType(path, operand);
-                    break;
-                case "$size":
-                    matched = matchesSize(path, operand);
-                    break;
-                case "$elemMatch":
-                    matched = matchesElemMatch(path, operand);
-                    break;
-                case "$all":
-                    matched = matchesAll(path, operand);
-                    break;
-                case "$mod":
-                    matched = matchesMod(path, operand);
-                    break;
-                case "$bitsAllSet":
-                    matched = matchesBitsAllSet(path, operand);
-                    break;
-                case "$not":
-                    matched = matchesFieldNot(path, operand);
-                    break;
-                default:
-                    throw new UnsupportedFeatureException(
-                            "query.field_operator." + operator,
-                            "unsupported query operator: " + operator);
-            }
-
-            if (!matched) {
+            if (!matchesOperator(path, operator, operand)) {
                 return false;
             }
         }
@@ -430,12 +806,60 @@ final class QueryMatcher {
         return true;
     }
 
+    private static boolean matchesOperator(PathResolution path, String operator, Object operand) {
+        switch (operator) {
+            case "$eq":
+                return matchesEq(path, operand);
+            case "$ne":
+                return matchesNe(path, operand);
+            case "$gt":
+                return matchesComparison(path, operand, ComparisonOperator.GT);
+            case "$gte":
+                return matchesComparison(path, operand, ComparisonOperator.GTE);
+            case "$lt":
+                return matchesComparison(path, operand, ComparisonOperator.LT);
+            case "$lte":
+                return matchesComparison(path, operand, ComparisonOperator.LTE);
+            case "$in":
+                return matchesIn(path, operand);
+            case "$nin":
+                return matchesNin(path, operand);
+            case "$exists":
+                return matchesExists(path, operand);
+            case "$type":
+                return matchesType(path, operand);
+            case "$size":
+                return matchesSize(path, operand);
+            case "$elemMatch":
+                return matchesElemMatch(path, operand);
+            case "$all":
+                return matchesAll(path, operand);
+            case "$mod":
+                return matchesMod(path, operand);
+            case "$bitsAllSet":
+                return matchesBitsAllSet(path, operand);
+            case "$not":
+                return matchesFieldNot(path, operand);
+            default:
+                throw new UnsupportedFeatureException(
+                        "query.field_operator." + operator,
+                        "unsupported query operator: " + operator);
+        }
+    }
+
     private static PathResolution resolvePathValues(Document document, String key) {
         if (key == null || key.isEmpty()) {
             return PathResolution.missing();
         }
 
-        String[] segments = key.split("\\.");
+        return resolvePathValues(document, key.split("\\."));
+    }
+
+    private static PathResolution resolvePathValues(Document document, String[] segments) {
+        if (segments == null) {
+            return PathResolution.missing();
+        }
+
         List<Object> values = new ArrayList<>();
         collectPathValues(document, segments, 0, values);
         if (values.isEmpty()) {
@@ -695,7 +1119,10 @@ final class QueryMatcher {
     }
 
     private static boolean matchesType(PathResolution path, Object operand) {
-        TypePredicate predicate = parseTypePredicate(operand);
+        return matchesType(path, parseTypePredicate(operand));
+    }
+
+    private static boolean matchesType(PathResolution path, TypePredicate predicate) {
         if (!path.exists()) {
             return false;
         }
@@ -759,7 +1186,10 @@ final class QueryMatcher {
     }
 
     private static boolean matchesSize(PathResolution path, Object operand) {
-        int expectedSize = parseNonNegativeInt("$size", operand);
+        return matchesSize(path, parseNonNegativeInt("$size", operand));
+    }
+
+    private static boolean matchesSize(PathResolution path, int expectedSize) {
         if (!path.exists()) {
             return false;
         }
@@ -794,7 +1224,10 @@ final class QueryMatcher {
         if (!(operand instanceof Map<?, ?> rawCriteria)) {
             throw new IllegalArgumentException("$elemMatch requires a document");
         }
+        return matchesElemMatch(path, element -> matchesElemMatchElement(element, rawCriteria));
+    }
 
+    private static boolean matchesElemMatch(PathResolution path, Predicate<Object> criteria) {
         if (!path.exists()) {
             return false;
         }
@@ -805,7 +1238,7 @@ final class QueryMatcher {
             }
 
             for (Object element : list) {
-                if (matchesElemMatchElement(element, rawCriteria)) {
+                if (criteria.test(element)) {
                     return true;
                 }
             }
@@ -829,6 +1262,10 @@ final class QueryMatcher {
 
     private static boolean matchesAll(PathResolution path, Object operand) {
         List<Object> requiredValues = asOperandList("$all", operand);
+        return matchesAll(path, actualValues -> containsAllValues(actualValues, requiredValues));
+    }
+
+    private static boolean matchesAll(PathResolution path, Predicate<List<?>> containsAll) {
         if (!path.exists()) {
             return false;
         }
@@ -837,7 +1274,7 @@ final class QueryMatcher {
             if (!(actual instanceof List<?> list)) {
                 continue;
             }
-            if (containsAllValues(list, requiredValues)) {
+            if (containsAll.test(list)) {
                 return true;
             }
         }
@@ -906,8 +1343,11 @@ final class QueryMatcher {
         if (divisor.compareTo(BigDecimal.ZERO) == 0) {
             throw new IllegalArgumentException("$mod divisor must not be zero");
         }
-        final BigDecimal expectedRemainder = toBigDecimal(remainderRaw);
+        return matchesMod(path, divisor, toBigDecimal(remainderRaw));
+    }
 
+    private static boolean matchesMod(
+            final PathResolution path, final BigDecimal divisor, final BigDecimal expectedRemainder) {
         if (!path.exists()) {
             return false;
         }
@@ -937,7 +1377,10 @@ final class QueryMatcher {
     }
 
     private static boolean matchesBitsAllSet(final PathResolution path, final Object operand) {
-        final long mask = parseBitMask(operand, "$bitsAllSet");
+        return matchesBitsAllSet(path, parseBitMask(operand, "$bitsAllSet"));
+    }
+
+    private static boolean matchesBitsAllSet(final PathResolution path, final long mask) {
         if (!path.exists()) {
             return false;
         }
@@ -1137,6 +1580,84 @@ final class QueryMatcher {
         boolean matches(Object value);
     }
 
+    /**
+     * {@code $in}/{@code $nin} candidates with {@link #matchesEq} semantics: regexes are kept apart and the remaining
+     * values are hashed under the collation active at compile time.
+     */
+    private static final class CandidateSet {
+        private final boolean empty;
+        private final boolean containsNull;
+        private final Pattern[] patterns;
+        private final Set<CollatedValue> values = new HashSet<>();
+        private final Set<CollatedValue> scalars = new HashSet<>();
+        private final CollationSupport.Config collation;
+
+        private CandidateSet(final List<Object> candidates) {
+            collation = currentCollation();
+            empty = candidates.isEmpty();
+            containsNull = QueryMatcher.containsNull(candidates);
+            final List<Pattern> regexes = new ArrayList<>();
+            for (Object candidate : candidates) {
+                if (candidate instanceof Pattern pattern) {
+                    regexes.add(pattern);
+                } else if (candidate instanceof BsonRegularExpression bsonPattern) {
+                    regexes.add(compileRegex(bsonPattern, null));
+                } else {
+                    values.add(new CollatedValue(candidate, collation));
+                    if (isSimpleScalar(candidate)) {
+                        scalars.add(new CollatedValue(candidate, collation));
+                    }
+                }
+            }
+            patterns = regexes.toArray(Pattern[]::new);
+        }
+
+        private static CandidateSet of(final List<Object> candidates) {
+            return new CandidateSet(candidates);
+        }
+
+        private boolean isEmpty() {
+            return empty;
+        }
+
+        private boolean containsNull() {
+            return containsNull;
+        }
+
+        private boolean matchesAny(final PathResolution path) {
+            for (Object actual : path.values()) {
+                if (values.contains(new CollatedValue(actual, collation))) {
+                    return true;
+                }
+                if (actual instanceof List<?> list && !scalars.isEmpty()) {
+                    for (Object item : list) {
+                        if (scalars.contains(new CollatedValue(item, collation))) {
+                            return true;
+                        }
+                    }
+                }
+                for (Pattern pattern : patterns) {
+                    if (matchesRegexCandidate(actual, pattern)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private record CollatedValue(Object value, CollationSupport.Config collation) {
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof CollatedValue collated && collation.valuesEqual(value, collated.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return collation.valueHash(value);
+        }
+    }
+
     private record PathResolution(boolean exists, List<Object> values) {
         private static PathResolution missing() {
             return new PathResolution(false, List.of());
@@ -0,0 +1,85 @@
+package org.jongodb.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bson.Document;
+
+/**
+ * Bounded LRU of query plans for one collection, keyed by {@link QueryShape} and collation. An entry keeps what is
+ * common to every filter of the shape: the resolved filter structure and the chosen access path. Each query binds its
+ * own values into both, so {@code {_id: 1}} and {@code {_id: 2}} share one entry while still matching and seeking
+ * their own constants.
+ *
+ * <p>Access paths reference the collection's index structures, so entries must be dropped with {@link #clear()}
+ * whenever those are rebuilt.
+ */
+final class QueryPlanCache {
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final Map<PlanKey, ShapePlan> plans;
+
+    QueryPlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    QueryPlanCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<PlanKey, ShapePlan> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Returns the filter's plan, binding it to the entry cached for its shape and planning that entry on a miss. */
+    Plan plan(
+            final Document filter,
+            final CollationSupport.Config collation,
+            final Iterable<SecondaryIndex> indexes,
+            final boolean idLookupAvailable) {
+        final CollationSupport.Config effectiveCollation =
+                collation == null ? CollationSupport.Config.simple() : collation;
+        final PlanKey key = new PlanKey(
+                QueryShape.of(filter),
+                effectiveCollation.localeTag(),
+                effectiveCollation.strength(),
+                effectiveCollation.caseLevel());
+        ShapePlan shapePlan;
+        synchronized (plans) {
+            shapePlan = plans.get(key);
+        }
+        if (shapePlan == null) {
+            shapePlan = new ShapePlan(
+                    QueryMatcher.template(filter, effectiveCollation),
+                    QueryPlanner.selectPath(filter, effectiveCollation, indexes, idLookupAvailable));
+            synchronized (plans) {
+                plans.put(key, shapePlan);
+            }
+        }
+        return new Plan(shapePlan.filter().bind(filter), shapePlan.access().bind(filter));
+    }
+
+    void clear() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
+    int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    /** Plan bound to one filter. */
+    record Plan(QueryMatcher.CompiledFilter filter, QueryPlanner.IndexAccess access) {}
+
+    private record ShapePlan(QueryMatcher.FilterTemplate filter, QueryPlanner.AccessPath access) {}
+
+    private record PlanKey(QueryShape shape, String localeTag, int strength, boolean caseLevel) {}
+}
@@ -0,0 +1,326 @@
+package org.jongodb.engine;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Selects a secondary index for a filter and turns its equality, {@code $in} and range predicates into index seeks.
+ *
+ * <p>Index results are candidate supersets; callers still evaluate the full filter with {@link QueryMatcher}.
+ */
+final class QueryPlanner {
+    private QueryPlanner() {}
+
+    /**
+     * Returns candidate record ids in ascending order, or null when no index applies and a full scan is required.
+     * Equality and {@code $in} on {@code _id} resolve through the hashed id lookup before any ordered index.
+     */
+    static SortedSet<Long> candidateRecordIds(
+            final Document filter,
+            final CollationSupport.Config collation,
+            final Iterable<SecondaryIndex> indexes,
+            final Function<Object, long[]> idLookup) {
+        return selectAccess(filter, collation, indexes, idLookup != null).candidateRecordIds(idLookup);
+    }
+
+    /**
+     * Chooses how a filter reaches its candidates and computes its bounds. See {@link #selectPath} for what the choice
+     * depends on.
+     */
+    static IndexAccess selectAccess(
+            final Document filter,
+            final CollationSupport.Config collation,
+            final Iterable<SecondaryIndex> indexes,
+            final boolean idLookupAvailable) {
+        return selectPath(filter, collation, indexes, idLookupAvailable).bind(filter);
+    }
+
+    /**
+     * Chooses the access path for a filter without keeping its bounds. The choice depends only on the collation, the
+     * index set and which paths get point or range bounds, which in turn depend only on the filter's {@link QueryShape}.
+     * A path chosen for one filter can therefore be {@linkplain AccessPath#bind bound} to any filter of the same
+     * shape until the collection's indexes change.
+     */
+    static AccessPath selectPath(
+            final Document filter,
+            final CollationSupport.Config collation,
+            final Iterable<SecondaryIndex> indexes,
+            final boolean idLookupAvailable) {
+        if (filter == null || filter.isEmpty()) {
+            return AccessPath.COLLECTION_SCAN;
+        }
+        if (collation != null && collation != CollationSupport.Config.simple()) {
+            return AccessPath.COLLECTION_SCAN;
+        }
+
+        final Map<String, FieldBounds> boundsByPath = new LinkedHashMap<>();
+        collectBounds(filter, boundsByPath);
+        if (boundsByPath.isEmpty()) {
+            return AccessPath.COLLECTION_SCAN;
+        }
+
+        final FieldBounds idBounds = boundsByPath.get("_id");
+        if (idLookupAvailable && idBounds != null && idBounds.isPoints()) {
+            return AccessPath.ID_LOOKUP;
+        }
+
+        SecondaryIndex selected = null;
+        int selectedScore = 0;
+        for (final SecondaryIndex index : indexes) {
+            final int score = index.score(boundsByPath);
+            if (score > selectedScore) {
+                selected = index;
+                selectedScore = score;
+            }
+        }
+        if (selected == null) {
+            return AccessPath.COLLECTION_SCAN;
+        }
+        return new AccessPath(false, selected);
+    }
+
+    private static void collectBounds(final Map<?, ?> filter, final Map<String, FieldBounds> boundsByPath) {
+        for (final Map.Entry<?, ?> criteria : filter.entrySet()) {
+            if (!(criteria.getKey() instanceof String key) || key.isEmpty()) {
+                continue;
+            }
+            if ("$and".equals(key)) {
+                if (criteria.getValue() instanceof List<?> clauses) {
+                    for (final Object clause : clauses) {
+                        if (clause instanceof Map<?, ?> clauseMap) {
+                            collectBounds(clauseMap, boundsByPath);
+                        }
+                    }
+                }
+                continue;
+            }
+            if (key.startsWith("$")) {
+                continue;
+            }
+
+            final FieldBounds bounds = boundsFor(criteria.getValue());
+            if (bounds != null) {
+                boundsByPath.merge(key, bounds, FieldBounds::intersect);
+            }
+        }
+    }
+
+    private static FieldBounds boundsFor(final Object expected) {
+        if (!isOperatorDocument(expected)) {
+            return isIndexableScalar(expected) ? FieldBounds.point(expected) : null;
+        }
+
+        final Map<?, ?> operators = (Map<?, ?>) expected;
+        if (operators.containsKey("$eq") && isIndexableScalar(operators.get("$eq"))) {
+            return FieldBounds.point(operators.get("$eq"));
+        }
+        if (operators.get("$in") instanceof List<?> candidates && !candidates.isEmpty()) {
+            boolean indexable = true;
+            for (final Object candidate : candidates) {
+                if (!isIndexableScalar(candidate)) {
+                    indexable = false;
+                    break;
+                }
+            }
+            if (indexable) {
+                return new FieldBounds(new ArrayList<>(candidates), null, false, null, false, 0);
+            }
+        }
+
+        FieldBounds range = null;
+        for (final Map.Entry<?, ?> operator : operators.entrySet()) {
+            final Object operand = operator.getValue();
+            if (!isRangeable(operand)) {
+                continue;
+            }
+            final int typeRank = MongoValueComparator.typeRank(operand);
+            final FieldBounds bounds = switch (String.valueOf(operator.getKey())) {
+                case "$gt" -> new FieldBounds(null, operand, false, null, false, typeRank);
+                case "$gte" -> new FieldBounds(null, operand, true, null, false, typeRank);
+                case "$lt" -> new FieldBounds(null, null, false, operand, false, typeRank);
+                case "$lte" -> new FieldBounds(null, null, false, operand, true, typeRank);
+                default -> null;
+            };
+            if (bounds != null) {
+                range = range == null ? bounds : range.intersect(bounds);
+            }
+        }
+        return range;
+    }
+
+    private static boolean isOperatorDocument(final Object value) {
+        if (!(value instanceof Map<?, ?> mapValue) || mapValue.isEmpty()) {
+            return false;
+        }
+        for (final Object key : mapValue.keySet()) {
+            if (!(key instanceof String fieldName) || !fieldName.startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isIndexableScalar(final Object value) {
+        if (value == null) {
+            return true;
+        }
+        return !(value instanceof Map<?, ?>)
+                && !(value instanceof List<?>)
+                && !(value instanceof Pattern)
+                && !(value instanceof BsonRegularExpression)
+                && !value.getClass().isArray();
+    }
+
+    static boolean isRangeable(final Object value) {
+        return value instanceof Number
+                || value instanceof String
+                || value instanceof ObjectId
+                || value instanceof Boolean
+                || value instanceof Date
+                || value instanceof Instant;
+    }
+
+    /** Access path chosen for a query shape: {@code _id} lookup, a secondary index seek, or a collection scan. */
+    record AccessPath(boolean idLookup, SecondaryIndex index) {
+        static final AccessPath COLLECTION_SCAN = new AccessPath(false, null);
+        static final AccessPath ID_LOOKUP = new AccessPath(true, null);
+
+        /** Computes one filter's bounds for this path; the filter must have the shape the path was chosen for. */
+        IndexAccess bind(final Document filter) {
+            if (!idLookup && index == null) {
+                return IndexAccess.COLLECTION_SCAN;
+            }
+            final Map<String, FieldBounds> boundsByPath = new LinkedHashMap<>();
+            collectBounds(filter, boundsByPath);
+            return idLookup
+                    ? new IndexAccess(boundsByPath, boundsByPath.get("_id"), null)
+                    : new IndexAccess(boundsByPath, null, index);
+        }
+    }
+
+    /**
+     * Access path bound to one filter: {@code _id} lookup points, a secondary index seek, or a collection scan.
+     */
+    record IndexAccess(Map<String, FieldBounds> boundsByPath, FieldBounds idBounds, SecondaryIndex index) {
+        static final IndexAccess COLLECTION_SCAN = new IndexAccess(Map.of(), null, null);
+
+        /** Candidate record ids in ascending order, or null for a collection scan. */
+        SortedSet<Long> candidateRecordIds(final Function<Object, long[]> idLookup) {
+            if (idBounds != null) {
+                final SortedSet<Long> recordIds = new TreeSet<>();
+                for (final Object point : idBounds.points()) {
+                    for (final long recordId : idLookup.apply(point)) {
+                        recordIds.add(recordId);
+                    }
+                }
+                return recordIds;
+            }
+            if (index == null) {
+                return null;
+            }
+            final SortedSet<Long> recordIds = new TreeSet<>();
+            index.collect(boundsByPath, recordIds);
+            return recordIds;
+        }
+    }
+
+    /**
+     * Either a list of equality points or a range inside a single BSON type bracket.
+     *
+     * <p>A range intersected from several predicates keeps the first of them in {@code firstPredicate}. On a multikey
+     * path the predicates may be satisfied by different array elements ({@code {a: [1, 20]}} matches
+     * {@code {a: {$gt: 5, $lt: 10}}}), so only one predicate's bounds are a safe seek there.
+     */
+    record FieldBounds(
+            List<Object> points,
+            Object lower,
+            boolean lowerInclusive,
+            Object upper,
+            boolean upperInclusive,
+            int typeRank,
+            FieldBounds firstPredicate) {
+        FieldBounds(
+                final List<Object> points,
+                final Object lower,
+                final boolean lowerInclusive,
+                final Object upper,
+                final boolean upperInclusive,
+                final int typeRank) {
+            this(points, lower, lowerInclusive, upper, upperInclusive, typeRank, null);
+        }
+
+        static FieldBounds point(final Object value) {
+            final List<Object> points = new ArrayList<>(1);
+            points.add(value);
+            return new FieldBounds(points, null, false, null, false, 0);
+        }
+
+        boolean isPoints() {
+            return points != null;
+        }
+
+        /** Bounds that every matching document satisfies with a single array element. */
+        FieldBounds multikeySafe() {
+            return firstPredicate == null ? this : firstPredicate;
+        }
+
+        Object lowerValue() {
+            return lower == null ? new SecondaryIndex.TypeBound(typeRank, false) : lower;
+        }
+
+        Object upperValue() {
+            return upper == null ? new SecondaryIndex.TypeBound(typeRank, true) : upper;
+        }
+
+        FieldBounds intersect(final FieldBounds other) {
+            if (isPoints() || !other.isPoints() && typeRank != other.typeRank) {
+                return this;
+            }
+            if (other.isPoints()) {
+                return other;
+            }
+
+            Object mergedLower = lower;
+            boolean mergedLowerInclusive = lowerInclusive;
+            if (other.lower != null) {
+                final int comparison = lower == null ? -1 : MongoValueComparator.compare(lower, other.lower);
+                if (comparison < 0) {
+                    mergedLower = other.lower;
+                    mergedLowerInclusive = other.lowerInclusive;
+                } else if (comparison == 0) {
+                    mergedLowerInclusive = lowerInclusive && other.lowerInclusive;
+                }
+            }
+            Object mergedUpper = upper;
+            boolean mergedUpperInclusive = upperInclusive;
+            if (other.upper != null) {
+                final int comparison = upper == null ? 1 : MongoValueComparator.compare(upper, other.upper);
+                if (comparison > 0) {
+                    mergedUpper = other.upper;
+                    mergedUpperInclusive = other.upperInclusive;
+                } else if (comparison == 0) {
+                    mergedUpperInclusive = upperInclusive && other.upperInclusive;
+                }
+            }
+            return new FieldBounds(
+                    null,
+                    mergedLower,
+                    mergedLowerInclusive,
+                    mergedUpper,
+                    mergedUpperInclusive,
+                    typeRank,
+                    multikeySafe());
+        }
+    }
+}
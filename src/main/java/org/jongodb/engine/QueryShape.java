@@ -0,0 +1,101 @@
+package org.jongodb.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+
+/**
+ * Shape of a query filter: its clause structure, field paths and operators in order, with every operand replaced by
+ * a placeholder. {@code {_id: 1}} and {@code {_id: 2}} share a shape; {@code {_id: {$in: [1, 2]}}} does not.
+ *
+ * <p>A placeholder keeps only the operand's {@link Kind}, which is all {@link QueryPlanner} looks at when it decides
+ * whether a predicate yields index points, a range or nothing. Filters of one shape therefore get the same access
+ * path and the same compiled structure, and only differ in the values bound into them.
+ */
+record QueryShape(List<Object> structure) {
+    /** Operand placeholder, classified the way {@link QueryPlanner} classifies index bounds. */
+    enum Kind {
+        /** A scalar that can bound an index range. */
+        RANGEABLE,
+        /** Any other scalar an index can store as a point. */
+        SCALAR,
+        /** A non-empty array of index points, as taken by {@code $in}. */
+        INDEXABLE_LIST,
+        /** Anything else: documents, arrays, regular expressions and operands nothing is planned from. */
+        OTHER
+    }
+
+    static QueryShape of(final Document filter) {
+        return new QueryShape(document(filter));
+    }
+
+    private static List<Object> document(final Map<?, ?> filter) {
+        final List<Object> shape = new ArrayList<>(filter.size() * 2);
+        for (final Map.Entry<?, ?> criteria : filter.entrySet()) {
+            shape.add(criteria.getKey());
+            shape.add(clause(criteria.getKey(), criteria.getValue()));
+        }
+        return Collections.unmodifiableList(shape);
+    }
+
+    private static Object clause(final Object key, final Object value) {
+        if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+            if (!(value instanceof List<?> clauses)) {
+                return Kind.OTHER;
+            }
+            final List<Object> shapes = new ArrayList<>(clauses.size());
+            for (final Object clause : clauses) {
+                shapes.add(clause instanceof Map<?, ?> clauseMap ? document(clauseMap) : Kind.OTHER);
+            }
+            return Collections.unmodifiableList(shapes);
+        }
+        if ("$not".equals(key)) {
+            return value instanceof Map<?, ?> negated ? document(negated) : Kind.OTHER;
+        }
+        if (key instanceof String path && path.startsWith("$")) {
+            return Kind.OTHER;
+        }
+        if (!isOperatorDocument(value)) {
+            return kind(value);
+        }
+        final Map<?, ?> operators = (Map<?, ?>) value;
+        final List<Object> shape = new ArrayList<>(operators.size() * 2);
+        for (final Map.Entry<?, ?> operator : operators.entrySet()) {
+            shape.add(operator.getKey());
+            shape.add(kind(operator.getValue()));
+        }
+        return Collections.unmodifiableList(shape);
+    }
+
+    private static Kind kind(final Object value) {
+        if (value instanceof List<?> values) {
+            if (values.isEmpty()) {
+                return Kind.OTHER;
+            }
+            for (final Object element : values) {
+                if (!QueryPlanner.isIndexableScalar(element)) {
+                    return Kind.OTHER;
+                }
+            }
+            return Kind.INDEXABLE_LIST;
+        }
+        if (QueryPlanner.isRangeable(value)) {
+            return Kind.RANGEABLE;
+        }
+        return QueryPlanner.isIndexableScalar(value) ? Kind.SCALAR : Kind.OTHER;
+    }
+
+    private static boolean isOperatorDocument(final Object value) {
+        if (!(value instanceof Map<?, ?> mapValue) || mapValue.isEmpty()) {
+            return false;
+        }
+        for (final Object key : mapValue.keySet()) {
+            if (!(key instanceof String fieldName) || !fieldName.startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
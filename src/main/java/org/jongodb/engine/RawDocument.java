@@ -0,0 +1,217 @@
+package org.jongodb.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Binary;
+import org.bson.types.Code;
+import org.bson.types.CodeWithScope;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.Symbol;
+
+/**
+ * Read-only document backed by canonical BSON bytes, the stored form of {@link DocumentStorage#RAW_BSON}.
+ *
+ * <p>{@link #get} and {@link #containsKey} scan the bytes for the one field asked for and decode only its value, to
+ * the same Java types {@link DocumentCodec} produces; embedded documents come back as views over the same bytes, so
+ * resolving a dotted path decodes nothing along the way. Whole-document accessors such as {@link #entrySet}
+ * {@linkplain #decode() decode} the whole document on each call. Mutators throw {@link UnsupportedOperationException}.
+ *
+ * <p>Equality follows {@link Document}'s field-by-field map equality and accepts any {@link Map}. {@link Document}'s
+ * own {@code equals} requires the same class, so compare with a raw document on the left.
+ */
+public final class RawDocument extends Document {
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private final RawBsonDocument bytes;
+
+    private RawDocument(final RawBsonDocument bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Wraps a compact copy of {@code source}'s bytes, so the result does not keep alive a larger buffer the source may
+     * be a slice of, such as a whole wire message.
+     */
+    public static RawDocument of(final RawBsonDocument source) {
+        final ByteBuf buffer = Objects.requireNonNull(source, "source").getByteBuffer();
+        final byte[] compact = new byte[buffer.remaining()];
+        buffer.get(compact);
+        return new RawDocument(new RawBsonDocument(compact));
+    }
+
+    /** Encodes {@code source}, or returns it when it already is a raw document. */
+    static RawDocument encode(final Document source) {
+        if (source instanceof RawDocument raw) {
+            return raw;
+        }
+        return new RawDocument(DocumentCopies.encode(source));
+    }
+
+    /** The canonical BSON this document reads from; immutable, so it can be spliced into replies as-is. */
+    public RawBsonDocument bytes() {
+        return bytes;
+    }
+
+    /** Decodes the whole document into an ordinary, mutable {@link Document}. */
+    public Document decode() {
+        return bytes.decode(DOCUMENT_CODEC);
+    }
+
+    @Override
+    public Object get(final Object key) {
+        return toJava(bytes.get(key));
+    }
+
+    @Override
+    public <T> T get(final Object key, final Class<T> clazz) {
+        return Objects.requireNonNull(clazz, "clazz").cast(get(key));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(final Object key, final T defaultValue) {
+        final Object value = get(key);
+        return value == null ? defaultValue : (T) value;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return bytes.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(final Object value) {
+        return decode().containsValue(value);
+    }
+
+    @Override
+    public int size() {
+        return bytes.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bytes.isEmpty();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(bytes.keySet());
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return Collections.unmodifiableCollection(decode().values());
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableSet(decode().entrySet());
+    }
+
+    @Override
+    public Document append(final String key, final Object value) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+        throw readOnly();
+    }
+
+    @Override
+    public void putAll(final Map<? extends String, ?> map) {
+        throw readOnly();
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        throw readOnly();
+    }
+
+    @Override
+    public void clear() {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other instanceof RawDocument raw) {
+            return bytes.equals(raw.bytes);
+        }
+        return other instanceof Map<?, ?> map && decode().entrySet().equals(map.entrySet());
+    }
+
+    @Override
+    public int hashCode() {
+        return decode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return decode().toString();
+    }
+
+    private static Object toJava(final BsonValue value) {
+        if (value == null) {
+            return null;
+        }
+        return switch (value.getBsonType()) {
+            case DOCUMENT -> value instanceof RawBsonDocument raw ? new RawDocument(raw) : decode(value.asDocument());
+            case ARRAY -> toList(value.asArray().getValues());
+            case DOUBLE -> value.asDouble().getValue();
+            case STRING -> value.asString().getValue();
+            case BINARY -> new Binary(value.asBinary().getType(), value.asBinary().getData());
+            case OBJECT_ID -> value.asObjectId().getValue();
+            case BOOLEAN -> value.asBoolean().getValue();
+            case DATE_TIME -> new Date(value.asDateTime().getValue());
+            case NULL -> null;
+            case JAVASCRIPT -> new Code(value.asJavaScript().getCode());
+            case SYMBOL -> new Symbol(value.asSymbol().getSymbol());
+            case JAVASCRIPT_WITH_SCOPE -> new CodeWithScope(
+                    value.asJavaScriptWithScope().getCode(), decode(value.asJavaScriptWithScope().getScope()));
+            case INT32 -> value.asInt32().getValue();
+            case INT64 -> value.asInt64().getValue();
+            case DECIMAL128 -> value.asDecimal128().getValue();
+            case MIN_KEY -> new MinKey();
+            case MAX_KEY -> new MaxKey();
+            // Undefined, timestamps, regular expressions and DB pointers decode to their BSON value types.
+            default -> value;
+        };
+    }
+
+    private static List<Object> toList(final List<BsonValue> elements) {
+        final List<Object> list = new ArrayList<>(elements.size());
+        for (final BsonValue element : elements) {
+            list.add(toJava(element));
+        }
+        return list;
+    }
+
+    private static Document decode(final BsonDocument document) {
+        return DOCUMENT_CODEC.decode(new BsonDocumentReader(document), DECODER_CONTEXT);
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("stored documents are read-only");
+    }
+}
@@ -0,0 +1,346 @@
+package org.jongodb.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import org.bson.Document;
+
+/**
+ * Ordered multikey index over collection record ids.
+ *
+ * <p>Keys follow {@link MongoValueComparator} ordering per field direction. Array values contribute one entry per
+ * element, and missing paths are indexed as {@code null}, matching how {@link QueryMatcher} resolves field values.
+ */
+final class SecondaryIndex {
+    private static final Object LOWEST = new Object();
+    private static final Object HIGHEST = new Object();
+    private static final int MAX_SCAN_RANGES = 256;
+
+    private final String name;
+    private final List<String> fieldPaths;
+    private final int[] directions;
+    private final SharedTreeMap<Entry, Boolean> entries;
+    private int multikeyDocuments;
+
+    private SecondaryIndex(final String name, final List<String> fieldPaths, final int[] directions) {
+        this.name = name;
+        this.fieldPaths = fieldPaths;
+        this.directions = directions;
+        this.entries = new SharedTreeMap<>(this::compareEntries);
+    }
+
+    private SecondaryIndex(final SecondaryIndex source) {
+        this.name = source.name;
+        this.fieldPaths = source.fieldPaths;
+        this.directions = source.directions;
+        this.entries = source.entries.fork();
+        this.multikeyDocuments = source.multikeyDocuments;
+    }
+
+    /**
+     * Creates an ordered index for plain ascending/descending key patterns; returns null for special index types.
+     */
+    static SecondaryIndex create(final String name, final Document key) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(key, "key");
+        final List<String> fieldPaths = new ArrayList<>(key.size());
+        final int[] directions = new int[key.size()];
+        int position = 0;
+        for (final Map.Entry<String, Object> field : key.entrySet()) {
+            if (field.getKey() == null || field.getKey().isBlank()
+                    || !(field.getValue() instanceof Number direction)
+                    || direction.doubleValue() == 0d) {
+                return null;
+            }
+            fieldPaths.add(field.getKey());
+            directions[position++] = direction.doubleValue() > 0 ? 1 : -1;
+        }
+        if (fieldPaths.isEmpty()) {
+            return null;
+        }
+        return new SecondaryIndex(name, List.copyOf(fieldPaths), directions);
+    }
+
+    /** Returns an index with the same entries in constant time; the two are independent afterwards. */
+    SecondaryIndex fork() {
+        return new SecondaryIndex(this);
+    }
+
+    String name() {
+        return name;
+    }
+
+    List<String> fieldPaths() {
+        return fieldPaths;
+    }
+
+    void add(final long recordId, final Document document) {
+        if (isMultikey(document)) {
+            multikeyDocuments++;
+        }
+        for (final Object[] key : keysOf(document)) {
+            entries.put(new Entry(key, recordId), Boolean.TRUE);
+        }
+    }
+
+    void remove(final long recordId, final Document document) {
+        if (isMultikey(document)) {
+            multikeyDocuments--;
+        }
+        for (final Object[] key : keysOf(document)) {
+            entries.remove(new Entry(key, recordId));
+        }
+    }
+
+    /**
+     * Scores how many leading key fields the bounds constrain: two points per equality field, one for a range.
+     */
+    int score(final Map<String, QueryPlanner.FieldBounds> boundsByPath) {
+        int score = 0;
+        for (final String fieldPath : fieldPaths) {
+            final QueryPlanner.FieldBounds bounds = boundsByPath.get(fieldPath);
+            if (bounds == null) {
+                break;
+            }
+            if (!bounds.isPoints()) {
+                score++;
+                break;
+            }
+            score += 2;
+        }
+        return score;
+    }
+
+    /**
+     * Adds the record ids of every entry inside the bounds; callers must re-check candidates with the matcher. Once
+     * any document has an array on the key paths, a range combined from several predicates is narrowed back to one of
+     * them, since different elements may satisfy each.
+     */
+    void collect(final Map<String, QueryPlanner.FieldBounds> boundsByPath, final SortedSet<Long> recordIds) {
+        List<List<Object>> prefixes = List.of(List.of());
+        QueryPlanner.FieldBounds range = null;
+        int rangePosition = -1;
+        for (int i = 0; i < fieldPaths.size(); i++) {
+            final QueryPlanner.FieldBounds bounds = boundsByPath.get(fieldPaths.get(i));
+            if (bounds == null) {
+                break;
+            }
+            if (!bounds.isPoints()) {
+                range = multikeyDocuments > 0 ? bounds.multikeySafe() : bounds;
+                rangePosition = i;
+                break;
+            }
+            if ((long) prefixes.size() * bounds.points().size() > MAX_SCAN_RANGES) {
+                break;
+            }
+            final List<List<Object>> extended = new ArrayList<>(prefixes.size() * bounds.points().size());
+            for (final List<Object> prefix : prefixes) {
+                for (final Object point : bounds.points()) {
+                    final List<Object> next = new ArrayList<>(prefix.size() + 1);
+                    next.addAll(prefix);
+                    next.add(point);
+                    extended.add(next);
+                }
+            }
+            prefixes = extended;
+        }
+
+        for (final List<Object> prefix : prefixes) {
+            final Object[] start;
+            final Object[] end;
+            if (range == null) {
+                start = boundKey(prefix, null, LOWEST);
+                end = boundKey(prefix, null, HIGHEST);
+            } else if (directions[rangePosition] > 0) {
+                start = boundKey(prefix, range.lowerValue(), range.lowerInclusive() ? LOWEST : HIGHEST);
+                end = boundKey(prefix, range.upperValue(), range.upperInclusive() ? HIGHEST : LOWEST);
+            } else {
+                start = boundKey(prefix, range.upperValue(), range.upperInclusive() ? LOWEST : HIGHEST);
+                end = boundKey(prefix, range.lowerValue(), range.lowerInclusive() ? HIGHEST : LOWEST);
+            }
+            final Entry from = new Entry(start, Long.MIN_VALUE);
+            final Entry to = new Entry(end, Long.MAX_VALUE);
+            if (compareEntries(from, to) > 0) {
+                continue;
+            }
+            for (final Entry entry : entries.keys(from, true, to, true)) {
+                recordIds.add(entry.recordId());
+            }
+        }
+    }
+
+    /**
+     * Record ids inside the bounds in key order, when that is also the order of a stable {@code $sort}; null
+     * otherwise. This holds when no document has an array on the key paths, the bounds pin each leading field to
+     * one value, and the sort names every remaining field with this index's direction. Equal keys then follow record
+     * id order, which is the natural order a stable sort preserves.
+     */
+    List<Long> sortedRecordIds(final Map<String, QueryPlanner.FieldBounds> boundsByPath, final Document sort) {
+        final List<Object> prefix = sortPrefix(boundsByPath, sort);
+        if (prefix == null) {
+            return null;
+        }
+        final Entry from = new Entry(boundKey(prefix, null, LOWEST), Long.MIN_VALUE);
+        final Entry to = new Entry(boundKey(prefix, null, HIGHEST), Long.MAX_VALUE);
+        final List<Long> recordIds = new ArrayList<>();
+        for (final Entry entry : entries.keys(from, true, to, true)) {
+            recordIds.add(entry.recordId());
+        }
+        return recordIds;
+    }
+
+    /** Whether {@link #sortedRecordIds} would serve this sort, decided without walking the entries. */
+    boolean providesSort(final Map<String, QueryPlanner.FieldBounds> boundsByPath, final Document sort) {
+        return sortPrefix(boundsByPath, sort) != null;
+    }
+
+    /** Pinned leading key values for an index walk in {@code sort} order, or null when the index cannot serve it. */
+    private List<Object> sortPrefix(final Map<String, QueryPlanner.FieldBounds> boundsByPath, final Document sort) {
+        if (multikeyDocuments > 0) {
+            return null;
+        }
+        final List<Object> prefix = new ArrayList<>();
+        for (final String fieldPath : fieldPaths) {
+            final QueryPlanner.FieldBounds bounds = boundsByPath.get(fieldPath);
+            if (bounds == null || !bounds.isPoints() || bounds.points().size() != 1) {
+                break;
+            }
+            prefix.add(bounds.points().get(0));
+        }
+
+        int position = prefix.size();
+        for (final Map.Entry<String, Object> sortKey : sort.entrySet()) {
+            final int pinned = fieldPaths.subList(0, prefix.size()).indexOf(sortKey.getKey());
+            if (pinned >= 0) {
+                continue;
+            }
+            if (position >= fieldPaths.size()
+                    || !fieldPaths.get(position).equals(sortKey.getKey())
+                    || !(sortKey.getValue() instanceof Number direction)
+                    || direction.doubleValue() != directions[position]) {
+                return null;
+            }
+            position++;
+        }
+        return position == fieldPaths.size() ? prefix : null;
+    }
+
+    private static Object[] boundKey(final List<Object> prefix, final Object rangeValue, final Object marker) {
+        final int length = prefix.size() + (rangeValue == null ? 1 : 2);
+        final Object[] key = new Object[length];
+        for (int i = 0; i < prefix.size(); i++) {
+            key[i] = prefix.get(i);
+        }
+        if (rangeValue != null) {
+            key[prefix.size()] = rangeValue;
+        }
+        key[length - 1] = marker;
+        return key;
+    }
+
+    private List<Object[]> keysOf(final Document document) {
+        List<Object[]> keys = new ArrayList<>(1);
+        keys.add(new Object[0]);
+        for (final String fieldPath : fieldPaths) {
+            final List<Object> values = keyValues(document, fieldPath);
+            final List<Object[]> extended = new ArrayList<>(keys.size() * values.size());
+            for (final Object[] key : keys) {
+                for (final Object value : values) {
+                    final Object[] next = new Object[key.length + 1];
+                    System.arraycopy(key, 0, next, 0, key.length);
+                    next[key.length] = value;
+                    extended.add(next);
+                }
+            }
+            keys = extended;
+        }
+        return keys;
+    }
+
+    private boolean isMultikey(final Document document) {
+        for (final String fieldPath : fieldPaths) {
+            final List<Object> resolved = QueryMatcher.pathValues(document, fieldPath);
+            if (resolved.size() > 1 || resolved.size() == 1 && resolved.get(0) instanceof List<?>) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Object> keyValues(final Document document, final String fieldPath) {
+        final List<Object> resolved = QueryMatcher.pathValues(document, fieldPath);
+        if (resolved.isEmpty()) {
+            final List<Object> missing = new ArrayList<>(1);
+            missing.add(null);
+            return missing;
+        }
+        final List<Object> values = new ArrayList<>(resolved.size());
+        for (final Object value : resolved) {
+            if (value instanceof List<?> listValue && !listValue.isEmpty()) {
+                values.addAll(listValue);
+            } else {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private int compareEntries(final Entry left, final Entry right) {
+        final int keyComparison = compareKeys(left.key(), right.key());
+        return keyComparison != 0 ? keyComparison : Long.compare(left.recordId(), right.recordId());
+    }
+
+    private int compareKeys(final Object[] left, final Object[] right) {
+        final int length = Math.max(left.length, right.length);
+        for (int i = 0; i < length; i++) {
+            final int leftMarker = i < left.length ? markerSign(left[i]) : 0;
+            final int rightMarker = i < right.length ? markerSign(right[i]) : 0;
+            if (leftMarker != 0 || rightMarker != 0) {
+                return Integer.compare(leftMarker, rightMarker);
+            }
+            final int comparison = compareComponents(left[i], right[i]) * directions[i];
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static int markerSign(final Object value) {
+        if (value == LOWEST) {
+            return -1;
+        }
+        return value == HIGHEST ? 1 : 0;
+    }
+
+    private static int compareComponents(final Object left, final Object right) {
+        if (left instanceof TypeBound leftBound) {
+            return leftBound.compareTo(right);
+        }
+        if (right instanceof TypeBound rightBound) {
+            return -rightBound.compareTo(left);
+        }
+        return MongoValueComparator.compare(left, right);
+    }
+
+    /**
+     * Open range end that sorts before or after every value of one BSON type bracket.
+     */
+    record TypeBound(int typeRank, boolean upper) {
+        private int compareTo(final Object other) {
+            if (other instanceof TypeBound otherBound) {
+                final int rankComparison = Integer.compare(typeRank, otherBound.typeRank);
+                return rankComparison != 0 ? rankComparison : Boolean.compare(upper, otherBound.upper);
+            }
+            final int otherRank = MongoValueComparator.typeRank(other);
+            if (typeRank != otherRank) {
+                return Integer.compare(typeRank, otherRank);
+            }
+            return upper ? 1 : -1;
+        }
+    }
+
+    private record Entry(Object[] key, long recordId) {}
+}
@@ -0,0 +1,113 @@
+package org.jongodb.engine;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Hash map with constant-time {@linkplain #fork() forks}, built on a {@link SharedTreeMap} from hash codes to small
+ * immutable buckets. Keys follow their own {@code equals} and {@code hashCode}; a write replaces only the bucket it
+ * touches and the tree path leading to it.
+ */
+final class SharedHashMap<K, V> {
+    private final SharedTreeMap<Integer, Object[]> buckets;
+    private int size;
+
+    SharedHashMap() {
+        this(new SharedTreeMap<>(Integer::compare), 0);
+    }
+
+    private SharedHashMap(final SharedTreeMap<Integer, Object[]> buckets, final int size) {
+        this.buckets = buckets;
+        this.size = size;
+    }
+
+    /** Returns a map with the same entries in constant time; later writes to either map do not affect the other. */
+    SharedHashMap<K, V> fork() {
+        return new SharedHashMap<>(buckets.fork(), size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    V get(final K key) {
+        final Object[] bucket = buckets.get(key.hashCode());
+        if (bucket == null) {
+            return null;
+        }
+        final int position = indexOf(bucket, key);
+        return position < 0 ? null : value(bucket, position);
+    }
+
+    /** Maps the key to {@code value}, or removes it when {@code value} is {@code null}. Returns the previous value. */
+    V put(final K key, final V value) {
+        final int hash = key.hashCode();
+        final Object[] bucket = buckets.get(hash);
+        final int position = bucket == null ? -1 : indexOf(bucket, key);
+        final V previous = position < 0 ? null : value(bucket, position);
+        if (value == null) {
+            if (position < 0) {
+                return null;
+            }
+            size--;
+            if (bucket.length == 2) {
+                buckets.remove(hash);
+                return previous;
+            }
+            final Object[] shrunk = new Object[bucket.length - 2];
+            System.arraycopy(bucket, 0, shrunk, 0, position);
+            System.arraycopy(bucket, position + 2, shrunk, position, bucket.length - position - 2);
+            buckets.put(hash, shrunk);
+            return previous;
+        }
+        final Object[] updated;
+        if (position >= 0) {
+            updated = bucket.clone();
+            updated[position + 1] = value;
+        } else {
+            size++;
+            updated = bucket == null ? new Object[2] : Arrays.copyOf(bucket, bucket.length + 2);
+            updated[updated.length - 2] = key;
+            updated[updated.length - 1] = value;
+        }
+        buckets.put(hash, updated);
+        return previous;
+    }
+
+    V remove(final K key) {
+        return put(key, null);
+    }
+
+    /** Removes the key only while it maps to {@code value}. */
+    boolean remove(final K key, final V value) {
+        final V current = get(key);
+        if (current == null || !Objects.equals(current, value)) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    void clear() {
+        buckets.clear();
+        size = 0;
+    }
+
+    private static int indexOf(final Object[] bucket, final Object key) {
+        for (int i = 0; i < bucket.length; i += 2) {
+            if (bucket[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(final Object[] bucket, final int position) {
+        return (V) bucket[position + 1];
+    }
+}
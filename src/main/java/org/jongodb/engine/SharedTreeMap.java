@@ -0,0 +1,376 @@
+package org.jongodb.engine;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sorted map whose {@linkplain #fork() forks} share structure. A fork takes constant time: both maps keep pointing at
+ * the same nodes, and each copies only the nodes on the path to an entry it writes afterwards. Nodes a map created
+ * since its last fork are owned by it and updated in place, so a map that is never forked behaves like an ordinary
+ * balanced tree.
+ *
+ * <p>The tree is a treap ordered by key and heap-ordered by a random priority, which keeps it balanced in expectation
+ * whatever the insertion order, including the ascending record ids of a collection. Like {@link java.util.TreeMap} it
+ * is not thread-safe, and iterators must not outlive a write to the map.
+ */
+final class SharedTreeMap<K, V> extends AbstractMap<K, V> {
+    private final Comparator<? super K> comparator;
+    private Node<K, V> root;
+    private int size;
+    private Object owner = new Object();
+    private V removed;
+    private boolean found;
+
+    SharedTreeMap(final Comparator<? super K> comparator) {
+        this.comparator = Objects.requireNonNull(comparator, "comparator");
+    }
+
+    private SharedTreeMap(final SharedTreeMap<K, V> source) {
+        this.comparator = source.comparator;
+        this.root = source.root;
+        this.size = source.size;
+    }
+
+    /** Returns a map with the same entries in constant time; later writes to either map do not affect the other. */
+    SharedTreeMap<K, V> fork() {
+        owner = new Object();
+        return new SharedTreeMap<>(this);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(final Object key) {
+        final Node<K, V> node = find(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        Objects.requireNonNull(key, "key");
+        found = false;
+        removed = null;
+        root = insert(root, key, value);
+        if (!found) {
+            size++;
+        }
+        final V previous = removed;
+        removed = null;
+        return previous;
+    }
+
+    @Override
+    public V remove(final Object key) {
+        if (key == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        final K typedKey = (K) key;
+        found = false;
+        removed = null;
+        root = delete(root, typedKey);
+        if (found) {
+            size--;
+        }
+        final V previous = removed;
+        removed = null;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    /** Smallest key, or {@code null} when the map is empty. */
+    K firstKey() {
+        Node<K, V> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.key;
+    }
+
+    /** Entries in key order. */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<>(SharedTreeMap.this, null, false, null, false);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Entries between the bounds in key order; a {@code null} bound leaves that side open.
+     */
+    Iterable<Map.Entry<K, V>> entries(
+            final K from, final boolean fromInclusive, final K to, final boolean toInclusive) {
+        return () -> new EntryIterator<>(this, from, fromInclusive, to, toInclusive);
+    }
+
+    /** Keys between the bounds in key order; a {@code null} bound leaves that side open. */
+    Iterable<K> keys(final K from, final boolean fromInclusive, final K to, final boolean toInclusive) {
+        return () -> {
+            final Iterator<Map.Entry<K, V>> entries = new EntryIterator<>(this, from, fromInclusive, to, toInclusive);
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return entries.next().getKey();
+                }
+            };
+        };
+    }
+
+    private Node<K, V> find(final Object key) {
+        if (key == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        final K typedKey = (K) key;
+        Node<K, V> node = root;
+        while (node != null) {
+            final int comparison = comparator.compare(typedKey, node.key);
+            if (comparison == 0) {
+                return node;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private Node<K, V> insert(final Node<K, V> node, final K key, final V value) {
+        if (node == null) {
+            return new Node<>(key, value, ThreadLocalRandom.current().nextInt(), owner);
+        }
+        final int comparison = comparator.compare(key, node.key);
+        final Node<K, V> owned = owned(node);
+        if (comparison == 0) {
+            found = true;
+            removed = owned.value;
+            owned.value = value;
+            return owned;
+        }
+        if (comparison < 0) {
+            owned.left = insert(node.left, key, value);
+            return owned.left.priority > owned.priority ? rotateRight(owned) : owned;
+        }
+        owned.right = insert(node.right, key, value);
+        return owned.right.priority > owned.priority ? rotateLeft(owned) : owned;
+    }
+
+    private Node<K, V> delete(final Node<K, V> node, final K key) {
+        if (node == null) {
+            return null;
+        }
+        final int comparison = comparator.compare(key, node.key);
+        if (comparison == 0) {
+            found = true;
+            removed = node.value;
+            return merge(node.left, node.right);
+        }
+        if (comparison < 0) {
+            final Node<K, V> left = delete(node.left, key);
+            if (!found) {
+                return node;
+            }
+            final Node<K, V> owned = owned(node);
+            owned.left = left;
+            return owned;
+        }
+        final Node<K, V> right = delete(node.right, key);
+        if (!found) {
+            return node;
+        }
+        final Node<K, V> owned = owned(node);
+        owned.right = right;
+        return owned;
+    }
+
+    private Node<K, V> merge(final Node<K, V> left, final Node<K, V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            final Node<K, V> owned = owned(left);
+            owned.right = merge(left.right, right);
+            return owned;
+        }
+        final Node<K, V> owned = owned(right);
+        owned.left = merge(left, right.left);
+        return owned;
+    }
+
+    /** Rotates an owned node whose left child is owned too. */
+    private static <K, V> Node<K, V> rotateRight(final Node<K, V> node) {
+        final Node<K, V> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        return left;
+    }
+
+    /** Rotates an owned node whose right child is owned too. */
+    private static <K, V> Node<K, V> rotateLeft(final Node<K, V> node) {
+        final Node<K, V> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        return right;
+    }
+
+    private Node<K, V> owned(final Node<K, V> node) {
+        return node.owner == owner ? node : new Node<>(node, owner);
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        private final K key;
+        private final int priority;
+        private final Object owner;
+        private V value;
+        private Node<K, V> left;
+        private Node<K, V> right;
+
+        private Node(final K key, final V value, final int priority, final Object owner) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.owner = owner;
+        }
+
+        private Node(final Node<K, V> source, final Object owner) {
+            this(source.key, source.value, source.priority, owner);
+            this.left = source.left;
+            this.right = source.right;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(final V value) {
+            throw new UnsupportedOperationException("entries are read-only");
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Map.Entry<?, ?> entry
+                    && Objects.equals(key, entry.getKey())
+                    && Objects.equals(value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /** In-order walk between two bounds, keeping the pending ancestors on a stack. */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Comparator<? super K> comparator;
+        private final K to;
+        private final boolean toInclusive;
+        private final ArrayDeque<Node<K, V>> pending = new ArrayDeque<>();
+
+        private EntryIterator(
+                final SharedTreeMap<K, V> map,
+                final K from,
+                final boolean fromInclusive,
+                final K to,
+                final boolean toInclusive) {
+            this.comparator = map.comparator;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            Node<K, V> node = map.root;
+            while (node != null) {
+                if (from == null) {
+                    pending.push(node);
+                    node = node.left;
+                    continue;
+                }
+                final int comparison = comparator.compare(node.key, from);
+                if (comparison > 0 || comparison == 0 && fromInclusive) {
+                    pending.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pending.isEmpty()) {
+                return false;
+            }
+            if (to == null) {
+                return true;
+            }
+            final int comparison = comparator.compare(pending.peek().key, to);
+            return comparison < 0 || comparison == 0 && toInclusive;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("no more entries");
+            }
+            final Node<K, V> next = pending.pop();
+            Node<K, V> node = next.right;
+            while (node != null) {
+                pending.push(node);
+                node = node.left;
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.jongodb.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+/**
+ * Copy-on-write view of a collection pinned at one version of an {@link InMemoryCollectionStore}. Reads are served
+ * from the pinned version; the first write forks that version into a private store and releases the pin. The fork
+ * shares the pinned version's records and indexes until it writes them, and records a {@link CollectionWriteSet}
+ * against the pinned version.
+ */
+final class SnapshotCollectionStore implements CollectionStore {
+    private final InMemoryCollectionStore source;
+    private final long version;
+    private InMemoryCollectionStore own;
+    private boolean released;
+
+    private SnapshotCollectionStore(final InMemoryCollectionStore source, final long version) {
+        this.source = source;
+        this.version = version;
+    }
+
+    static SnapshotCollectionStore pin(final InMemoryCollectionStore source) {
+        Objects.requireNonNull(source, "source");
+        return new SnapshotCollectionStore(source, source.pinVersion());
+    }
+
+    /** Returns an independent view of this snapshot's current content. */
+    synchronized SnapshotCollectionStore fork() {
+        if (own != null) {
+            return pin(own);
+        }
+        requireRetained();
+        source.pinVersion(version);
+        return new SnapshotCollectionStore(source, version);
+    }
+
+    /** Whether this view has been written and now owns a private copy. */
+    synchronized boolean materialized() {
+        return own != null;
+    }
+
+    /** Whether both views are pinned at the same version of the same store. */
+    boolean sharesPinWith(final SnapshotCollectionStore other) {
+        return source == other.source && version == other.version;
+    }
+
+    boolean pinnedFrom(final CollectionStore store) {
+        return source == store;
+    }
+
+    /** Documents written through this view since it was pinned, or {@code null} when they cannot be replayed. */
+    synchronized CollectionWriteSet writeSet() {
+        return own == null ? null : own.writeSet();
+    }
+
+    synchronized void release() {
+        if (own == null && !released) {
+            released = true;
+            source.releaseVersion(version);
+        }
+    }
+
+    synchronized InMemoryCollectionStore copy() {
+        return read(InMemoryCollectionStore::snapshot);
+    }
+
+    synchronized InMemoryCollectionStore.CollectionState snapshotState() {
+        return read(InMemoryCollectionStore::snapshotState);
+    }
+
+    synchronized void replaceState(final InMemoryCollectionStore.CollectionState state) {
+        writable().replaceState(state);
+    }
+
+    @Override
+    public synchronized void insertMany(final List<Document> documents) {
+        writable().insertMany(documents);
+    }
+
+    @Override
+    public synchronized CreateIndexesResult createIndexes(final List<IndexDefinition> indexes) {
+        return writable().createIndexes(indexes);
+    }
+
+    @Override
+    public synchronized List<IndexDefinition> listIndexes() {
+        return read(InMemoryCollectionStore::listIndexes);
+    }
+
+    @Override
+    public synchronized List<Document> findAll() {
+        return read(InMemoryCollectionStore::findAll);
+    }
+
+    @Override
+    public synchronized Iterable<Document> scanAll() {
+        if (own != null) {
+            return own.scanAll();
+        }
+        return findAll();
+    }
+
+    @Override
+    public synchronized List<Document> find(final Document filter) {
+        return read(store -> store.find(filter));
+    }
+
+    @Override
+    public synchronized List<Document> find(final Document filter, final CollationSupport.Config collation) {
+        return read(store -> store.find(filter, collation));
+    }
+
+    @Override
+    public synchronized List<RawBsonDocument> findEncoded(
+            final Document filter, final CollationSupport.Config collation) {
+        return read(store -> store.findEncoded(filter, collation));
+    }
+
+    /** Pinned reads are materialized up front; a lazy cursor over the live store would observe later writes. */
+    @Override
+    public synchronized Iterator<RawBsonDocument> iterateEncoded(
+            final Document filter, final CollationSupport.Config collation) {
+        if (own != null) {
+            return own.iterateEncoded(filter, collation);
+        }
+        return findEncoded(filter, collation).iterator();
+    }
+
+    @Override
+    public synchronized Scan scan(
+            final Document filter, final Document sort, final CollationSupport.Config collation) {
+        if (own != null) {
+            return own.scan(filter, sort, collation);
+        }
+        return read(store -> {
+            final Scan scan = store.scan(filter, sort, collation);
+            final List<Document> documents = new ArrayList<>();
+            scan.documents().forEach(documents::add);
+            return new Scan(documents, scan.indexName(), scan.sorted());
+        });
+    }
+
+    @Override
+    public synchronized ScanPlan planScan(
+            final Document filter, final Document sort, final CollationSupport.Config collation) {
+        return read(store -> store.planScan(filter, sort, collation));
+    }
+
+    @Override
+    public synchronized List<Document> aggregate(final List<Document> pipeline) {
+        return read(store -> store.aggregate(pipeline));
+    }
+
+    @Override
+    public synchronized UpdateManyResult update(
+            final Document filter, final Document update, final boolean multi, final boolean upsert) {
+        return writable().update(filter, update, multi, upsert);
+    }
+
+    @Override
+    public synchronized UpdateManyResult update(
+            final Document filter,
+            final Document update,
+            final boolean multi,
+            final boolean upsert,
+            final List<Document> arrayFilters) {
+        return writable().update(filter, update, multi, upsert, arrayFilters);
+    }
+
+    @Override
+    public synchronized UpdateManyResult updatePipeline(
+            final Document filter,
+            final List<Document> pipeline,
+            final boolean multi,
+            final boolean upsert) {
+        return writable().updatePipeline(filter, pipeline, multi, upsert);
+    }
+
+    @Override
+    public synchronized DeleteManyResult deleteMany(final Document filter) {
+        return writable().deleteMany(filter);
+    }
+
+    @Override
+    public synchronized DeleteManyResult deleteOne(final Document filter) {
+        return writable().deleteOne(filter);
+    }
+
+    private <T> T read(final Function<InMemoryCollectionStore, T> reader) {
+        if (own != null) {
+            return reader.apply(own);
+        }
+        requireRetained();
+        return source.readVersion(version, reader);
+    }
+
+    private InMemoryCollectionStore writable() {
+        if (own == null) {
+            requireRetained();
+            own = source.readVersion(version, InMemoryCollectionStore::snapshot);
+            own.recordWriteSet();
+            released = true;
+            source.releaseVersion(version);
+        }
+        return own;
+    }
+
+    private void requireRetained() {
+        if (released) {
+            throw new IllegalStateException("collection snapshot has been released");
+        }
+    }
+}
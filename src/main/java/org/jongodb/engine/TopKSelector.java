@@ -0,0 +1,77 @@
+package org.jongodb.engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded-heap selection of the first {@code k} elements in sort order. Runs in O(n log k) time and O(k) space and
+ * is stable: elements that compare equal keep their source order, matching a full stable sort followed by a limit.
+ */
+public final class TopKSelector {
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+
+    private TopKSelector() {}
+
+    public static <T> List<T> select(
+            final Iterator<? extends T> source, final int k, final Comparator<? super T> comparator) {
+        Objects.requireNonNull(source, "source");
+        Objects.requireNonNull(comparator, "comparator");
+        if (k <= 0) {
+            return List.of();
+        }
+
+        final Selection<T> selection = new Selection<>(k, comparator);
+        while (source.hasNext()) {
+            selection.offer(source.next());
+        }
+        return selection.selected();
+    }
+
+    /** Incremental form of {@link #select}, for callers that receive elements one at a time. */
+    static final class Selection<T> {
+        private final int k;
+        private final Comparator<Ranked<T>> order;
+        private final PriorityQueue<Ranked<T>> heap;
+        private long sequence;
+
+        Selection(final int k, final Comparator<? super T> comparator) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("k must be positive");
+            }
+            Objects.requireNonNull(comparator, "comparator");
+            this.k = k;
+            this.order = (left, right) -> {
+                final int compared = comparator.compare(left.value(), right.value());
+                return compared != 0 ? compared : Long.compare(left.sequence(), right.sequence());
+            };
+            this.heap = new PriorityQueue<>(Math.min(k, MAX_INITIAL_CAPACITY), order.reversed());
+        }
+
+        void offer(final T value) {
+            final Ranked<T> candidate = new Ranked<>(value, sequence++);
+            if (heap.size() < k) {
+                heap.add(candidate);
+            } else if (order.compare(candidate, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+
+        /** The retained elements in sort order. */
+        List<T> selected() {
+            final List<Ranked<T>> ranked = new ArrayList<>(heap);
+            ranked.sort(order);
+            final List<T> selected = new ArrayList<>(ranked.size());
+            for (final Ranked<T> entry : ranked) {
+                selected.add(entry.value());
+            }
+            return selected;
+        }
+    }
+
+    private record Ranked<T>(T value, long sequence) {}
+}
@@ -0,0 +1,68 @@
+package org.jongodb.engine;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background TTL reaper, the counterpart of mongod's TTL monitor. A single daemon thread periodically removes expired
+ * documents from an {@link InMemoryEngineStore}, so collections that are rarely read do not keep expired documents
+ * around. Expiry is decided by the store's injected clock; the interval only controls how often it is checked.
+ */
+public final class TtlMonitor implements AutoCloseable {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(60);
+    /** Shortest accepted interval; the schedule runs at millisecond granularity. */
+    public static final Duration MIN_INTERVAL = Duration.ofMillis(1);
+
+    private final InMemoryEngineStore engineStore;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong removedDocuments = new AtomicLong();
+
+    private TtlMonitor(final InMemoryEngineStore engineStore, final ScheduledExecutorService executor) {
+        this.engineStore = engineStore;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts reaping every {@code interval}, first after one interval has passed.
+     *
+     * @throws IllegalArgumentException if the interval is shorter than {@link #MIN_INTERVAL}
+     */
+    public static TtlMonitor start(final InMemoryEngineStore engineStore, final Duration interval) {
+        Objects.requireNonNull(engineStore, "engineStore");
+        Objects.requireNonNull(interval, "interval");
+        if (interval.compareTo(MIN_INTERVAL) < 0) {
+            throw new IllegalArgumentException("interval must be at least 1 ms: " + interval);
+        }
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "jongodb-ttl-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final TtlMonitor monitor = new TtlMonitor(engineStore, executor);
+        final long intervalMillis = interval.toMillis();
+        executor.scheduleWithFixedDelay(monitor::reap, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return monitor;
+    }
+
+    /** Total number of documents this monitor has removed. */
+    public long removedDocuments() {
+        return removedDocuments.get();
+    }
+
+    private void reap() {
+        try {
+            removedDocuments.addAndGet(engineStore.reapExpiredDocuments());
+        } catch (final RuntimeException ignored) {
+            // A failed pass must not cancel the schedule; the next pass retries.
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,52 @@
+package org.jongodb.server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size little-endian direct buffers shared by connections. Direct buffers are costly to allocate and are only
+ * reclaimed by the garbage collector, so released buffers are kept for reuse up to {@code maxPooled}.
+ */
+final class ByteBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    ByteBufferPool(final int bufferSize, final int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be > 0");
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = Math.max(0, maxPooled);
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /** Returns a cleared buffer of {@link #bufferSize()} bytes. */
+    ByteBuffer acquire() {
+        final ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
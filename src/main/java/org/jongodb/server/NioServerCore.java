@@ -0,0 +1,478 @@
+package org.jongodb.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.io.BsonOutput;
+
+/**
+ * Non-blocking server core: one selector thread accepts connections and frames wire messages in pooled direct
+ * buffers, and a fixed worker pool runs the requests.
+ *
+ * <p>A connection executes one request at a time, so responses leave in request order. Pipelined requests keep being
+ * read and dispatched while earlier responses are still being written, until 4 MiB of responses are waiting for the
+ * peer. The same limit holds back a request that keeps responding, such as an exhaust {@code getMore}: once the queue
+ * is over it, the request stops after its current response and hands back a {@link ResponseChannel.Continuation}. The
+ * worker returns to the pool, and the selector reschedules the continuation once the peer has taken enough of the
+ * queue, so a slow reader never ties up a worker.
+ */
+final class NioServerCore implements AutoCloseable {
+    private static final int HEADER_LENGTH = 16;
+    private static final int MAX_MESSAGE_LENGTH = 48 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    static final long MAX_PENDING_WRITE_BYTES = 4L * 1024 * 1024;
+    /** Most queued responses handed to one gathering write; the rest go out on the next writable event. */
+    private static final int MAX_GATHERED_WRITES = 64;
+    private static final int MIN_RESPONSE_BUFFER_SIZE = 1024;
+    private static final int MAX_PRESIZED_RESPONSE_BUFFER_SIZE = 1024 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final RequestHandler requestHandler;
+    private final int maxConnections;
+    private final ExecutorService workers;
+    private final ByteBufferPool bufferPool = new ByteBufferPool(READ_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread selectorThread;
+    private volatile boolean running;
+
+    NioServerCore(
+            final ServerSocketChannel serverChannel,
+            final RequestHandler requestHandler,
+            final int maxConnections,
+            final int workerThreads) {
+        this.serverChannel = Objects.requireNonNull(serverChannel, "serverChannel");
+        this.requestHandler = Objects.requireNonNull(requestHandler, "requestHandler");
+        this.maxConnections = maxConnections;
+        try {
+            this.selector = Selector.open();
+        } catch (final IOException ioException) {
+            throw new IllegalStateException("failed to open selector", ioException);
+        }
+        final AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, task -> {
+            final Thread worker = new Thread(task, "jongodb-tcp-worker-" + workerIds.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        this.selectorThread = new Thread(this::selectLoop, "jongodb-tcp-selector");
+        this.selectorThread.setDaemon(true);
+    }
+
+    void start() {
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (final IOException ioException) {
+            throw new IllegalStateException("failed to register server channel", ioException);
+        }
+        running = true;
+        selectorThread.start();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int connectionCount() {
+        return connections.size();
+    }
+
+    /** Largest number of response bytes any connection currently has queued for its peer. */
+    long maxPendingWriteBytes() {
+        long max = 0L;
+        for (final Connection connection : connections) {
+            max = Math.max(max, connection.pendingWriteBytes());
+        }
+        return max;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(1000L);
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+        for (final Connection connection : connections) {
+            connection.close();
+        }
+        closeQuietly(selector);
+    }
+
+    /**
+     * Handles one wire message, sending each response it produces, in order, to {@code responses}. Returns
+     * {@code null} once the request is complete, or the rest of it when it stopped on a congested channel.
+     */
+    @FunctionalInterface
+    interface RequestHandler {
+        ResponseChannel.Continuation handle(byte[] request, ResponseChannel responses);
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    final Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                }
+            }
+        } catch (final IOException | ClosedSelectorException exception) {
+            if (running) {
+                System.err.println("jongodb tcp selector failure: " + exception.getMessage());
+            }
+        } finally {
+            running = false;
+        }
+    }
+
+    private void accept() {
+        final SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+        } catch (final IOException ioException) {
+            if (running) {
+                System.err.println("jongodb tcp accept failure: " + ioException.getMessage());
+            }
+            return;
+        }
+        if (channel == null) {
+            return;
+        }
+        if (connections.size() >= maxConnections) {
+            closeQuietly(channel);
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            final Connection connection = new Connection(channel, bufferPool.acquire());
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        } catch (final IOException ioException) {
+            closeQuietly(channel);
+        }
+    }
+
+    private void runOnSelector(final Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private static void closeQuietly(final AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (final Exception ignore) {
+            // no-op: connection teardown is best-effort.
+        }
+    }
+
+    private final class Connection implements ResponseChannel {
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        private final ByteBuffer[] gatheredWrites = new ByteBuffer[MAX_GATHERED_WRITES];
+        /** Response bytes encoded but not yet taken by the peer; workers add, the selector subtracts. */
+        private final AtomicLong pendingWriteBytes = new AtomicLong();
+        private ByteBuffer readBuffer;
+        private SelectionKey key;
+        private byte[] oversized;
+        private int oversizedFilled;
+        private boolean executing;
+        /** Rest of the executing request, parked until the write queue drops below the limit. */
+        private Continuation suspended;
+        private boolean endOfInput;
+        private volatile boolean closed;
+        /** Presize for the next response buffer, from the last response; only the executing worker writes it. */
+        private volatile int lastResponseSize = MIN_RESPONSE_BUFFER_SIZE;
+
+        private Connection(final SocketChannel channel, final ByteBuffer readBuffer) {
+            this.channel = channel;
+            this.readBuffer = readBuffer;
+        }
+
+        private void onReadable() {
+            try {
+                final int read;
+                if (oversized != null) {
+                    read = channel.read(ByteBuffer.wrap(oversized, oversizedFilled, oversized.length - oversizedFilled));
+                    if (read > 0) {
+                        oversizedFilled += read;
+                    }
+                } else {
+                    read = channel.read(readBuffer);
+                }
+                if (read < 0) {
+                    // Requests that arrived before the peer shut down its output still run, as with blocking reads.
+                    endOfInput = true;
+                }
+                frame();
+                if (!closed) {
+                    updateInterest();
+                }
+            } catch (final IOException ioException) {
+                if (running) {
+                    System.err.println("jongodb tcp client io failure: " + ioException.getMessage());
+                }
+                close();
+            }
+        }
+
+        /**
+         * Dispatches the next complete message when none is executing. Earlier responses may still be queued for
+         * writing; only when too many bytes are waiting does the connection stop taking new requests.
+         */
+        private void frame() {
+            if (executing || closed) {
+                return;
+            }
+            if (congested()) {
+                return;
+            }
+            if (oversized != null) {
+                if (oversizedFilled == oversized.length) {
+                    final byte[] message = oversized;
+                    oversized = null;
+                    dispatch(message);
+                } else {
+                    closeIfDrained();
+                }
+                return;
+            }
+            readBuffer.flip();
+            try {
+                if (readBuffer.remaining() < Integer.BYTES) {
+                    return;
+                }
+                final int messageLength = readBuffer.order(ByteOrder.LITTLE_ENDIAN).getInt(readBuffer.position());
+                if (messageLength < HEADER_LENGTH || messageLength > MAX_MESSAGE_LENGTH) {
+                    System.err.println("jongodb tcp invalid message length: " + messageLength);
+                    close();
+                    return;
+                }
+                if (readBuffer.remaining() >= messageLength) {
+                    final byte[] message = new byte[messageLength];
+                    readBuffer.get(message);
+                    dispatch(message);
+                } else if (messageLength > readBuffer.capacity()) {
+                    oversized = new byte[messageLength];
+                    oversizedFilled = readBuffer.remaining();
+                    readBuffer.get(oversized, 0, oversizedFilled);
+                }
+            } finally {
+                if (readBuffer != null) {
+                    readBuffer.compact();
+                }
+                closeIfDrained();
+            }
+        }
+
+        private void dispatch(final byte[] message) {
+            executing = true;
+            execute(() -> requestHandler.handle(message, this));
+        }
+
+        /** Runs one step of the executing request on a worker, then completes it or parks the rest on the selector. */
+        private void execute(final Supplier<Continuation> step) {
+            try {
+                workers.execute(() -> {
+                    final Continuation rest;
+                    try {
+                        rest = step.get();
+                    } catch (final UncheckedIOException closedWhileSending) {
+                        runOnSelector(this::close);
+                        return;
+                    } catch (final RuntimeException runtimeException) {
+                        System.err.println("jongodb tcp request failed: " + runtimeException.getMessage());
+                        runtimeException.printStackTrace();
+                        runOnSelector(this::close);
+                        return;
+                    }
+                    runOnSelector(rest == null ? this::completed : () -> suspend(rest));
+                });
+            } catch (final RejectedExecutionException rejected) {
+                close();
+            }
+        }
+
+        /** Parks the rest of the request until the queue has room; its responses were queued before this runs. */
+        private void suspend(final Continuation rest) {
+            if (closed) {
+                return;
+            }
+            suspended = rest;
+            resumeIfDrained();
+        }
+
+        private void resumeIfDrained() {
+            if (suspended == null || congested()) {
+                return;
+            }
+            final Continuation rest = suspended;
+            suspended = null;
+            execute(() -> rest.resume(this));
+        }
+
+        /**
+         * Encodes a response on the worker into a buffer of its own and queues a view of it, so the selector writes the
+         * encoder's bytes as they are. The buffer cannot be reused while its view is queued, so it is instead presized
+         * to the connection's previous response: batches of one cursor rarely need to grow it. The response is queued
+         * even over {@link #MAX_PENDING_WRITE_BYTES}; requests that keep responding check {@link #congested()} and
+         * stop, so the queue overshoots the limit by at most one response.
+         */
+        @Override
+        public void send(final Consumer<BsonOutput> encoder) {
+            if (closed) {
+                throw new UncheckedIOException(new ClosedChannelException());
+            }
+            final BasicOutputBuffer output = new BasicOutputBuffer(lastResponseSize);
+            encoder.accept(output);
+            lastResponseSize = Math.max(
+                    MIN_RESPONSE_BUFFER_SIZE, Math.min(MAX_PRESIZED_RESPONSE_BUFFER_SIZE, output.getPosition()));
+            final ByteBuffer response = ByteBuffer.wrap(output.getInternalBuffer(), 0, output.getPosition());
+            pendingWriteBytes.addAndGet(response.remaining());
+            runOnSelector(() -> enqueue(response));
+        }
+
+        @Override
+        public boolean congested() {
+            return pendingWriteBytes() >= MAX_PENDING_WRITE_BYTES;
+        }
+
+        private long pendingWriteBytes() {
+            return pendingWriteBytes.get();
+        }
+
+        private void enqueue(final ByteBuffer response) {
+            if (closed) {
+                return;
+            }
+            pendingWrites.add(response);
+            onWritable();
+        }
+
+        private void completed() {
+            if (closed) {
+                return;
+            }
+            executing = false;
+            frame();
+            if (!closed) {
+                updateInterest();
+            }
+        }
+
+        private void onWritable() {
+            try {
+                if (!pendingWrites.isEmpty()) {
+                    // Gathering write of the queue's head, as far as the socket accepts it.
+                    int gathered = 0;
+                    for (final ByteBuffer pending : pendingWrites) {
+                        gatheredWrites[gathered++] = pending;
+                        if (gathered == MAX_GATHERED_WRITES) {
+                            break;
+                        }
+                    }
+                    final long written;
+                    try {
+                        written = channel.write(gatheredWrites, 0, gathered);
+                    } finally {
+                        Arrays.fill(gatheredWrites, 0, gathered, null);
+                    }
+                    pendingWriteBytes.addAndGet(-written);
+                    while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining()) {
+                        pendingWrites.poll();
+                    }
+                }
+            } catch (final IOException ioException) {
+                if (running) {
+                    System.err.println("jongodb tcp client io failure: " + ioException.getMessage());
+                }
+                close();
+                return;
+            }
+            resumeIfDrained();
+            frame();
+            if (!closed) {
+                updateInterest();
+            }
+        }
+
+        private void updateInterest() {
+            int interest = pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+            final boolean bufferSpace = oversized != null ? oversizedFilled < oversized.length : readBuffer.hasRemaining();
+            if (!endOfInput && bufferSpace) {
+                interest |= SelectionKey.OP_READ;
+            }
+            key.interestOps(interest);
+        }
+
+        private void closeIfDrained() {
+            if (endOfInput && !executing && pendingWrites.isEmpty()) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            suspended = null;
+            connections.remove(this);
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+}
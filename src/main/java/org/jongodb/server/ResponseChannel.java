@@ -0,0 +1,29 @@
+package org.jongodb.server;
+
+import java.util.function.Consumer;
+import org.bson.io.BsonOutput;
+
+/**
+ * Receives the responses of one request, in order. Each response is encoded by the caller straight into the output the
+ * channel provides, so a reply reaches the socket without being copied through intermediate arrays.
+ */
+@FunctionalInterface
+interface ResponseChannel {
+    /** Runs {@code encoder} against the channel's output; it must write exactly one complete wire message. */
+    void send(Consumer<BsonOutput> encoder);
+
+    /**
+     * Whether the peer is behind on the responses sent so far. A request that keeps responding should stop at the next
+     * response boundary and hand back a {@link Continuation} instead of producing more.
+     */
+    default boolean congested() {
+        return false;
+    }
+
+    /** Rest of a request that stopped on a {@linkplain #congested() congested} channel. */
+    @FunctionalInterface
+    interface Continuation {
+        /** Continues sending to {@code responses}; returns {@code null} once done, or the rest if it stopped again. */
+        Continuation resume(ResponseChannel responses);
+    }
+}
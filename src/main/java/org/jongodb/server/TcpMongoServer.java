@@ -1,32 +1,39 @@
 package org.jongodb.server;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import org.bson.BsonBinaryWriter;
 import org.bson.BsonDocument;
 import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.RawBsonDocument;
 import org.bson.codecs.BsonDocumentCodec;
 import org.bson.codecs.EncoderContext;
 import org.bson.io.BasicOutputBuffer;
+import org.bson.io.BsonOutput;
 import org.jongodb.command.CommandDispatcher;
 import org.jongodb.command.CommandStore;
 import org.jongodb.command.EngineBackedCommandStore;
 import org.jongodb.command.TopologyProfile;
 import org.jongodb.engine.InMemoryEngineStore;
+import org.jongodb.wire.MessageCompressor;
+import org.jongodb.wire.OpCompressedCodec;
 import org.jongodb.wire.OpMsg;
 import org.jongodb.wire.OpMsgCodec;
 
@@ -35,15 +42,18 @@ import org.jongodb.wire.OpMsgCodec;
  *
  * <p>This class is intended for integration-test bootstrap, so Spring test contexts can connect
  * using regular {@code mongodb://} URIs while requests are handled by {@link CommandDispatcher}.
+ *
+ * <p>Connections are served by the core selected in {@link TcpServerOptions}: a thread per connection (platform or
+ * virtual), or a single NIO selector with a worker pool for many mostly idle connections.
  */
 public final class TcpMongoServer implements AutoCloseable {
     private static final String DEFAULT_HOST = "127.0.0.1";
     private static final int DEFAULT_PORT = 0;
     private static final int HEADER_LENGTH = 16;
-    private static final int OP_REPLY_FIELDS_LENGTH = 20;
     private static final int OP_REPLY = 1;
     private static final int OP_QUERY = 2004;
     private static final int OP_MSG = 2013;
+    private static final int OP_COMPRESSED = OpCompressedCodec.OP_CODE;
     private static final int DEFAULT_MAX_ACCEPT_FAILURES = 8;
     private static final long DEFAULT_ACCEPT_BACKOFF_BASE_MILLIS = 10L;
     private static final long DEFAULT_ACCEPT_BACKOFF_MAX_MILLIS = 500L;
@@ -53,10 +63,14 @@ public final class TcpMongoServer implements AutoCloseable {
     private final CommandDispatcher dispatcher;
     private final CommandStore commandStore;
     private final OpMsgCodec opMsgCodec = new OpMsgCodec();
+    private final OpCompressedCodec opCompressedCodec = new OpCompressedCodec();
     private final AtomicInteger responseRequestId = new AtomicInteger(1);
     private final AtomicBoolean running = new AtomicBoolean(false);
     private final ServerSocket serverSocket;
     private final List<Socket> clientSockets = new CopyOnWriteArrayList<>();
+    private final TcpServerOptions options;
+    private final ThreadFactory connectionThreads;
+    private final NioServerCore nioCore;
     private final Thread acceptThread;
     private final String host;
     private final TopologyProfile topologyProfile;
@@ -121,15 +135,26 @@ public final class TcpMongoServer implements AutoCloseable {
             final int port,
             final TopologyProfile topologyProfile,
             final String replicaSetName) {
+        this(commandStore, host, port, topologyProfile, replicaSetName, TcpServerOptions.defaults());
+    }
+
+    public TcpMongoServer(
+            final CommandStore commandStore,
+            final String host,
+            final int port,
+            final TopologyProfile topologyProfile,
+            final String replicaSetName,
+            final TcpServerOptions options) {
         this(
                 Objects.requireNonNull(commandStore, "commandStore"),
                 normalizeHost(host),
-                newServerSocket(normalizeHost(host), normalizePort(port)),
+                newServerSocket(normalizeHost(host), normalizePort(port), Objects.requireNonNull(options, "options")),
                 Objects.requireNonNull(topologyProfile, "topologyProfile"),
                 normalizeReplicaSetName(replicaSetName),
                 DEFAULT_MAX_ACCEPT_FAILURES,
                 DEFAULT_ACCEPT_BACKOFF_BASE_MILLIS,
-                DEFAULT_ACCEPT_BACKOFF_MAX_MILLIS);
+                DEFAULT_ACCEPT_BACKOFF_MAX_MILLIS,
+                options);
     }
 
     TcpMongoServer(
@@ -141,8 +166,31 @@ public final class TcpMongoServer implements AutoCloseable {
             final int maxConsecutiveAcceptFailures,
             final long acceptBackoffBaseMillis,
             final long acceptBackoffMaxMillis) {
+        this(
+                commandStore,
+                host,
+                serverSocket,
+                topologyProfile,
+                replicaSetName,
+                maxConsecutiveAcceptFailures,
+                acceptBackoffBaseMillis,
+                acceptBackoffMaxMillis,
+                TcpServerOptions.defaults());
+    }
+
+    TcpMongoServer(
+            final CommandStore commandStore,
+            final String host,
+            final ServerSocket serverSocket,
+            final TopologyProfile topologyProfile,
+            final String replicaSetName,
+            final int maxConsecutiveAcceptFailures,
+            final long acceptBackoffBaseMillis,
+            final long acceptBackoffMaxMillis,
+            final TcpServerOptions options) {
         this.host = normalizeHost(host);
         this.serverSocket = Objects.requireNonNull(serverSocket, "serverSocket");
+        this.options = Objects.requireNonNull(options, "options");
         this.topologyProfile = Objects.requireNonNull(topologyProfile, "topologyProfile");
         this.replicaSetName = normalizeReplicaSetName(replicaSetName);
         this.commandStore = Objects.requireNonNull(commandStore, "commandStore");
@@ -150,7 +198,8 @@ public final class TcpMongoServer implements AutoCloseable {
                 this.commandStore,
                 this.topologyProfile,
                 this.host + ":" + this.serverSocket.getLocalPort(),
-                this.replicaSetName);
+                this.replicaSetName,
+                MessageCompressor.negotiableNames());
         this.maxConsecutiveAcceptFailures = normalizeMaxAcceptFailures(maxConsecutiveAcceptFailures);
         this.acceptBackoffBaseMillis = normalizeBackoff(acceptBackoffBaseMillis, "acceptBackoffBaseMillis");
         this.acceptBackoffMaxMillis = normalizeBackoff(acceptBackoffMaxMillis, "acceptBackoffMaxMillis");
@@ -159,16 +208,47 @@ public final class TcpMongoServer implements AutoCloseable {
         }
         this.acceptThread = new Thread(this::acceptLoop, "jongodb-tcp-accept");
         this.acceptThread.setDaemon(true);
+        if (options.core() == TcpServerOptions.Core.NIO) {
+            final ServerSocketChannel channel = serverSocket.getChannel();
+            if (channel == null) {
+                throw new IllegalArgumentException("the NIO server core requires a channel-backed server socket");
+            }
+            this.nioCore = new NioServerCore(channel, this::handleRequest, options.maxConnections(), options.workerThreads());
+            this.connectionThreads = null;
+        } else {
+            this.nioCore = null;
+            this.connectionThreads = options.core() == TcpServerOptions.Core.VIRTUAL_THREADS
+                    ? virtualThreadFactory()
+                    : TcpMongoServer::newPlatformConnectionThread;
+        }
     }
 
     public void start() {
         if (running.compareAndSet(false, true)) {
-            acceptThread.start();
+            if (nioCore != null) {
+                nioCore.start();
+            } else {
+                acceptThread.start();
+            }
         }
     }
 
     public boolean isRunning() {
-        return running.get();
+        return running.get() && (nioCore == null || nioCore.isRunning());
+    }
+
+    public TcpServerOptions options() {
+        return options;
+    }
+
+    /** Number of client connections currently open. */
+    public int connectionCount() {
+        return nioCore != null ? nioCore.connectionCount() : clientSockets.size();
+    }
+
+    /** Response bytes the busiest NIO connection has queued for its peer; blocking cores write through and report 0. */
+    long maxPendingResponseBytes() {
+        return nioCore != null ? nioCore.maxPendingWriteBytes() : 0L;
     }
 
     public String host() {
@@ -206,26 +286,63 @@ public final class TcpMongoServer implements AutoCloseable {
     @Override
     public void close() {
         running.set(false);
+        if (nioCore != null) {
+            nioCore.close();
+        }
         closeQuietly(serverSocket);
         for (final Socket socket : clientSockets) {
             closeQuietly(socket);
         }
-        try {
-            acceptThread.join(1000L);
-        } catch (final InterruptedException interrupted) {
-            Thread.currentThread().interrupt();
+        if (acceptThread.isAlive()) {
+            try {
+                acceptThread.join(1000L);
+            } catch (final InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    private static ServerSocket newServerSocket(final String host, final int port) {
+    private static ServerSocket newServerSocket(final String host, final int port, final TcpServerOptions options) {
         try {
-            return new ServerSocket(port, 50, InetAddress.getByName(host));
+            if (options.core() == TcpServerOptions.Core.NIO) {
+                final ServerSocketChannel channel = ServerSocketChannel.open();
+                try {
+                    channel.bind(new InetSocketAddress(InetAddress.getByName(host), port), options.backlog());
+                } catch (final IOException ioException) {
+                    closeQuietly(channel);
+                    throw ioException;
+                }
+                return channel.socket();
+            }
+            return new ServerSocket(port, options.backlog(), InetAddress.getByName(host));
         } catch (final IOException ioException) {
             throw new IllegalStateException(
                     "failed to allocate TCP server socket host=" + host + " port=" + port, ioException);
         }
     }
 
+    private static Thread newPlatformConnectionThread(final Runnable task) {
+        final Thread worker = new Thread(task);
+        worker.setDaemon(true);
+        return worker;
+    }
+
+    /**
+     * Resolves {@code Thread.ofVirtual().factory()} reflectively, since the library still targets Java 17 and only
+     * gains virtual threads when it runs on Java 21 or newer.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (final ReflectiveOperationException | ClassCastException exception) {
+            throw new IllegalStateException(
+                    "the virtual-thread server core requires Java 21 or newer; running on "
+                            + Runtime.version(),
+                    exception);
+        }
+    }
+
     private static void closeQuietly(final AutoCloseable closeable) {
         try {
             closeable.close();
@@ -277,11 +394,13 @@ public final class TcpMongoServer implements AutoCloseable {
                 continue;
             }
 
+            if (clientSockets.size() >= options.maxConnections()) {
+                closeQuietly(socket);
+                continue;
+            }
             clientSockets.add(socket);
-            final Thread worker = new Thread(
-                    () -> handleClient(socket),
-                    "jongodb-tcp-client-" + socket.getPort());
-            worker.setDaemon(true);
+            final Thread worker = connectionThreads.newThread(() -> handleClient(socket));
+            worker.setName("jongodb-tcp-client-" + socket.getPort());
             worker.start();
         }
     }
@@ -314,8 +433,9 @@ public final class TcpMongoServer implements AutoCloseable {
     private void handleClient(final Socket socket) {
         try (Socket client = socket;
                 BufferedInputStream input = new BufferedInputStream(client.getInputStream());
-                BufferedOutputStream output = new BufferedOutputStream(client.getOutputStream())) {
+                OutputStream output = client.getOutputStream()) {
             client.setTcpNoDelay(true);
+            final SocketResponseChannel responses = new SocketResponseChannel(output);
 
             while (running.get()) {
                 final byte[] request = readMessage(input);
@@ -323,17 +443,24 @@ public final class TcpMongoServer implements AutoCloseable {
                     break;
                 }
 
-                final byte[] response;
                 try {
-                    response = handleRequest(request);
+                    ResponseChannel.Continuation rest = handleRequest(request, responses);
+                    while (rest != null) {
+                        rest = rest.resume(responses);
+                    }
+                } catch (final UncheckedIOException ioException) {
+                    throw ioException.getCause();
                 } catch (final RuntimeException runtimeException) {
                     System.err.println("jongodb tcp request failed: " + runtimeException.getMessage());
                     runtimeException.printStackTrace();
                     break;
                 }
-                output.write(response);
-                output.flush();
+                // Pipelined requests already buffered are answered before flushing, so their responses share writes.
+                if (input.available() == 0) {
+                    responses.flush();
+                }
             }
+            responses.flush();
         } catch (final IOException ioException) {
             if (running.get()) {
                 System.err.println("jongodb tcp client io failure: " + ioException.getMessage());
@@ -343,25 +470,120 @@ public final class TcpMongoServer implements AutoCloseable {
         }
     }
 
-    private byte[] handleRequest(final byte[] request) {
+    /** Returns {@code null} once the request is answered, or the rest of it when {@code responses} got congested. */
+    private ResponseChannel.Continuation handleRequest(final byte[] request, final ResponseChannel responses) {
         final int opcode = readIntLE(request, 12);
         if (opcode == OP_MSG) {
-            return handleOpMsg(request);
+            return handleOpMsg(request, responses);
         }
         if (opcode == OP_QUERY) {
-            return handleOpQuery(request);
+            handleOpQuery(request, responses);
+            return null;
+        }
+        if (opcode == OP_COMPRESSED) {
+            return handleOpCompressed(request, responses);
         }
         throw new IllegalArgumentException("unsupported opcode: " + opcode);
     }
 
-    private byte[] handleOpMsg(final byte[] request) {
-        final OpMsg opMsg = opMsgCodec.decode(request);
-        final BsonDocument responseBody = dispatcher.dispatch(opMsg.body());
-        final OpMsg response = new OpMsg(responseRequestId.getAndIncrement(), opMsg.requestId(), 0, responseBody);
-        return opMsgCodec.encode(response);
+    /** Runs the wrapped message, compressing every response with the compressor the request used. */
+    private ResponseChannel.Continuation handleOpCompressed(final byte[] request, final ResponseChannel responses) {
+        final MessageCompressor compressor = opCompressedCodec.compressor(request);
+        final byte[] original = opCompressedCodec.decompress(request);
+        final BasicOutputBuffer uncompressed = new BasicOutputBuffer();
+        final ResponseChannel.Continuation rest =
+                handleRequest(original, compressing(responses, compressor, uncompressed));
+        return compressing(rest, compressor, uncompressed);
     }
 
-    private byte[] handleOpQuery(final byte[] request) {
+    private ResponseChannel.Continuation compressing(
+            final ResponseChannel.Continuation rest,
+            final MessageCompressor compressor,
+            final BasicOutputBuffer uncompressed) {
+        if (rest == null) {
+            return null;
+        }
+        return responses -> compressing(
+                rest.resume(compressing(responses, compressor, uncompressed)), compressor, uncompressed);
+    }
+
+    private ResponseChannel compressing(
+            final ResponseChannel responses, final MessageCompressor compressor, final BasicOutputBuffer uncompressed) {
+        return new ResponseChannel() {
+            @Override
+            public void send(final Consumer<BsonOutput> encoder) {
+                uncompressed.truncateToPosition(0);
+                encoder.accept(uncompressed);
+                responses.send(output -> opCompressedCodec.compress(
+                        uncompressed.getInternalBuffer(), 0, uncompressed.getPosition(), compressor, output));
+            }
+
+            @Override
+            public boolean congested() {
+                return responses.congested();
+            }
+        };
+    }
+
+    /**
+     * Runs an OP_MSG command. A request flagged {@code moreToCome} is unacknowledged and gets no response. A
+     * {@code getMore} flagged {@code exhaustAllowed} keeps streaming batches, each flagged {@code moreToCome} and
+     * answering the previous one, until the cursor is exhausted or a batch fails. When {@code responses} gets congested
+     * the stream stops between batches and the rest is returned for the caller to resume.
+     */
+    private ResponseChannel.Continuation handleOpMsg(final byte[] request, final ResponseChannel responses) {
+        // Lazy decode: document sequences reach the handlers as views of the request bytes, never merged into an array.
+        final OpMsg opMsg = opMsgCodec.decodeLazy(request);
+        final BsonDocument responseBody = dispatcher.dispatch(opMsg.body(), opMsg.documentSequences());
+        if (opMsg.moreToCome()) {
+            return null;
+        }
+        final boolean exhaust = opMsg.exhaustAllowed()
+                && !opMsg.body().isEmpty()
+                && "getMore".equals(opMsg.body().getFirstKey());
+        return streamResponses(opMsg, exhaust, opMsg.requestId(), responseBody, responses);
+    }
+
+    private ResponseChannel.Continuation streamResponses(
+            final OpMsg request,
+            final boolean exhaust,
+            final int firstResponseTo,
+            final BsonDocument firstResponseBody,
+            final ResponseChannel responses) {
+        int responseTo = firstResponseTo;
+        BsonDocument responseBody = firstResponseBody;
+        while (true) {
+            final boolean moreToCome = exhaust && running.get() && hasOpenCursor(responseBody);
+            final int requestId = responseRequestId.getAndIncrement();
+            final OpMsg response = new OpMsg(requestId, responseTo, moreToCome ? OpMsg.MORE_TO_COME : 0, responseBody);
+            responses.send(output -> opMsgCodec.encode(response, output));
+            if (!moreToCome) {
+                return null;
+            }
+            responseTo = requestId;
+            if (responses.congested()) {
+                final int nextResponseTo = responseTo;
+                return resumed -> streamResponses(
+                        request, true, nextResponseTo, dispatcher.dispatch(request.body()), resumed);
+            }
+            responseBody = dispatcher.dispatch(request.body());
+        }
+    }
+
+    private static boolean hasOpenCursor(final BsonDocument response) {
+        final BsonValue ok = response.get("ok");
+        if (ok == null || !ok.isNumber() || ok.asNumber().doubleValue() != 1.0) {
+            return false;
+        }
+        final BsonValue cursor = response.get("cursor");
+        if (cursor == null || !cursor.isDocument()) {
+            return false;
+        }
+        final BsonValue cursorId = cursor.asDocument().get("id");
+        return cursorId != null && cursorId.isNumber() && cursorId.asNumber().longValue() != 0L;
+    }
+
+    private void handleOpQuery(final byte[] request, final ResponseChannel responses) {
         final int requestId = readIntLE(request, 4);
         int cursor = HEADER_LENGTH;
         cursor += 4; // flags
@@ -380,35 +602,25 @@ public final class TcpMongoServer implements AutoCloseable {
         final BsonDocument queryDocument = new RawBsonDocument(queryBytes);
         final BsonDocument dispatchDocument = withNamespaceDatabase(queryDocument, namespaceDatabase);
         final BsonDocument responseBody = dispatcher.dispatch(dispatchDocument);
-        return encodeOpReply(requestId, responseBody);
-    }
-
-    private byte[] encodeOpReply(final int responseTo, final BsonDocument document) {
-        final byte[] bodyBytes = encodeBson(document);
-        final int totalLength = HEADER_LENGTH + OP_REPLY_FIELDS_LENGTH + bodyBytes.length;
-        return ByteBuffer.allocate(totalLength)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putInt(totalLength)
-                .putInt(responseRequestId.getAndIncrement())
-                .putInt(responseTo)
-                .putInt(OP_REPLY)
-                .putInt(0) // responseFlags
-                .putLong(0L) // cursorId
-                .putInt(0) // startingFrom
-                .putInt(1) // numberReturned
-                .put(bodyBytes)
-                .array();
-    }
-
-    private static byte[] encodeBson(final BsonDocument document) {
-        final BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
-        try (BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer)) {
-            new BsonDocumentCodec().encode(
-                    writer,
-                    document,
-                    EncoderContext.builder().isEncodingCollectibleDocument(true).build());
-        }
-        return outputBuffer.toByteArray();
+        responses.send(output -> encodeOpReply(requestId, responseBody, output));
+    }
+
+    /** Writes an OP_REPLY at the output's position, patching its length in once the document is written. */
+    private void encodeOpReply(final int responseTo, final BsonDocument document, final BsonOutput output) {
+        final int messageStart = output.getPosition();
+        output.writeInt32(0); // messageLength, patched below
+        output.writeInt32(responseRequestId.getAndIncrement());
+        output.writeInt32(responseTo);
+        output.writeInt32(OP_REPLY);
+        output.writeInt32(0); // responseFlags
+        output.writeInt64(0L); // cursorId
+        output.writeInt32(0); // startingFrom
+        output.writeInt32(1); // numberReturned
+        new BsonDocumentCodec().encode(
+                new BsonBinaryWriter(output),
+                document,
+                EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+        output.writeInt32(messageStart, output.getPosition() - messageStart);
     }
 
     private static byte[] readMessage(final BufferedInputStream input) throws IOException {
@@ -552,4 +764,51 @@ public final class TcpMongoServer implements AutoCloseable {
         }
         return backoffMillis;
     }
+
+    /**
+     * Response buffer of a thread-per-connection client. Responses are encoded into one reusable buffer and written to
+     * the socket straight from it, once no pipelined request is waiting or the buffer passes {@code FLUSH_THRESHOLD}.
+     */
+    private static final class SocketResponseChannel implements ResponseChannel {
+        private static final int INITIAL_CAPACITY = 8 * 1024;
+        private static final int FLUSH_THRESHOLD = 64 * 1024;
+        // A buffer grown past this by one large reply is dropped after flushing rather than kept per connection.
+        private static final int RETAINED_CAPACITY = 1024 * 1024;
+
+        private final OutputStream output;
+        private BasicOutputBuffer buffer = new BasicOutputBuffer(INITIAL_CAPACITY);
+
+        private SocketResponseChannel(final OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void send(final Consumer<BsonOutput> encoder) {
+            final int responseStart = buffer.getPosition();
+            try {
+                encoder.accept(buffer);
+            } catch (final RuntimeException runtimeException) {
+                buffer.truncateToPosition(responseStart);
+                throw runtimeException;
+            }
+            if (buffer.getPosition() >= FLUSH_THRESHOLD) {
+                try {
+                    flush();
+                } catch (final IOException ioException) {
+                    throw new UncheckedIOException(ioException);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            if (buffer.getPosition() > 0) {
+                output.write(buffer.getInternalBuffer(), 0, buffer.getPosition());
+            }
+            if (buffer.getInternalBuffer().length > RETAINED_CAPACITY) {
+                buffer = new BasicOutputBuffer(INITIAL_CAPACITY);
+            } else {
+                buffer.truncateToPosition(0);
+            }
+        }
+    }
 }
@@ -2,7 +2,10 @@ package org.jongodb.server;
 
 import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
+import org.jongodb.command.EngineBackedCommandStore;
 import org.jongodb.command.TopologyProfile;
+import org.jongodb.engine.DocumentStorage;
+import org.jongodb.engine.InMemoryEngineStore;
 
 /**
  * Command-line launcher for starting a {@link TcpMongoServer} in a dedicated JVM process.
@@ -21,10 +24,12 @@ public final class TcpMongoServerLauncher {
         final TcpMongoServer server;
         try {
             server = new TcpMongoServer(
+                    new EngineBackedCommandStore(new InMemoryEngineStore(config.documentStorage())),
                     config.host(),
                     config.port(),
                     config.topologyProfile(),
-                    config.replicaSetName());
+                    config.replicaSetName(),
+                    config.serverOptions());
             server.start();
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
@@ -55,13 +60,17 @@ public final class TcpMongoServerLauncher {
             int port,
             String database,
             TopologyProfile topologyProfile,
-            String replicaSetName) {
+            String replicaSetName,
+            TcpServerOptions serverOptions,
+            DocumentStorage documentStorage) {
         private static LaunchConfig parse(final String[] args) {
             String host = "127.0.0.1";
             int port = 0;
             String database = "test";
             TopologyProfile topologyProfile = TopologyProfile.STANDALONE;
             String replicaSetName = "jongodb-rs0";
+            TcpServerOptions serverOptions = TcpServerOptions.defaults();
+            DocumentStorage documentStorage = DocumentStorage.DECODED;
 
             for (final String arg : args) {
                 if (arg == null || arg.isBlank()) {
@@ -87,10 +96,46 @@ public final class TcpMongoServerLauncher {
                     replicaSetName = requireValue(arg, "--replica-set-name=");
                     continue;
                 }
+                if (arg.startsWith("--server-core=")) {
+                    serverOptions = serverOptions.withCore(
+                            TcpServerOptions.Core.parse(requireValue(arg, "--server-core=")));
+                    continue;
+                }
+                if (arg.startsWith("--backlog=")) {
+                    serverOptions = serverOptions.withBacklog(parsePositive(requireValue(arg, "--backlog="), "backlog"));
+                    continue;
+                }
+                if (arg.startsWith("--max-connections=")) {
+                    serverOptions = serverOptions.withMaxConnections(
+                            parsePositive(requireValue(arg, "--max-connections="), "max-connections"));
+                    continue;
+                }
+                if (arg.startsWith("--worker-threads=")) {
+                    serverOptions = serverOptions.withWorkerThreads(
+                            parsePositive(requireValue(arg, "--worker-threads="), "worker-threads"));
+                    continue;
+                }
+                if (arg.startsWith("--document-storage=")) {
+                    documentStorage = DocumentStorage.parse(requireValue(arg, "--document-storage="));
+                    continue;
+                }
                 throw new IllegalArgumentException("unsupported argument: " + arg);
             }
 
-            return new LaunchConfig(host, port, database, topologyProfile, replicaSetName);
+            return new LaunchConfig(
+                    host, port, database, topologyProfile, replicaSetName, serverOptions, documentStorage);
+        }
+
+        private static int parsePositive(final String value, final String name) {
+            try {
+                final int parsed = Integer.parseInt(value);
+                if (parsed <= 0) {
+                    throw new IllegalArgumentException(name + " must be > 0: " + parsed);
+                }
+                return parsed;
+            } catch (final NumberFormatException numberFormatException) {
+                throw new IllegalArgumentException("invalid " + name + ": " + value, numberFormatException);
+            }
         }
 
         private static String requireValue(final String arg, final String prefix) {
@@ -0,0 +1,83 @@
+package org.jongodb.server;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Connection handling settings for {@link TcpMongoServer}.
+ *
+ * @param core how accepted connections are served
+ * @param backlog listen queue length requested from the operating system
+ * @param maxConnections connections served at once; connections accepted beyond it are closed immediately
+ * @param workerThreads request workers of the {@link Core#NIO} core; ignored by the thread-per-connection cores
+ */
+public record TcpServerOptions(Core core, int backlog, int maxConnections, int workerThreads) {
+    public static final int DEFAULT_BACKLOG = 50;
+
+    public TcpServerOptions {
+        Objects.requireNonNull(core, "core");
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("backlog must be > 0");
+        }
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be > 0");
+        }
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("workerThreads must be > 0");
+        }
+    }
+
+    /** One platform thread per connection, a backlog of {@value #DEFAULT_BACKLOG} and no connection limit. */
+    public static TcpServerOptions defaults() {
+        return new TcpServerOptions(
+                Core.PLATFORM_THREADS,
+                DEFAULT_BACKLOG,
+                Integer.MAX_VALUE,
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public TcpServerOptions withCore(final Core value) {
+        return new TcpServerOptions(value, backlog, maxConnections, workerThreads);
+    }
+
+    public TcpServerOptions withBacklog(final int value) {
+        return new TcpServerOptions(core, value, maxConnections, workerThreads);
+    }
+
+    public TcpServerOptions withMaxConnections(final int value) {
+        return new TcpServerOptions(core, backlog, value, workerThreads);
+    }
+
+    public TcpServerOptions withWorkerThreads(final int value) {
+        return new TcpServerOptions(core, backlog, maxConnections, value);
+    }
+
+    public enum Core {
+        /** Blocking socket I/O on a dedicated platform thread per connection. */
+        PLATFORM_THREADS("platform"),
+        /** Blocking socket I/O on a virtual thread per connection; requires a Java 21 or newer runtime. */
+        VIRTUAL_THREADS("virtual"),
+        /** One selector thread multiplexing non-blocking connections, with requests run on a worker pool. */
+        NIO("nio");
+
+        private final String cliValue;
+
+        Core(final String cliValue) {
+            this.cliValue = cliValue;
+        }
+
+        public String cliValue() {
+            return cliValue;
+        }
+
+        public static Core parse(final String rawValue) {
+            final String normalized = rawValue == null ? "" : rawValue.trim().toLowerCase(Locale.ROOT);
+            for (final Core core : values()) {
+                if (core.cliValue.equals(normalized)) {
+                    return core;
+                }
+            }
+            throw new IllegalArgumentException("unsupported server core: " + rawValue);
+        }
+    }
+}
@@ -1,17 +1,61 @@
 package org.jongodb.txn;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import org.jongodb.command.CommandStore;
 
 /**
  * Tracks active transaction number per logical session.
+ *
+ * <p>Commands run against a transaction's store between {@link #acquireTransaction} and {@link #releaseTransaction};
+ * while any command holds it, the transaction is never reaped. Every transaction store handed to the pool is passed to
+ * the release callback exactly once: when its transaction is committed, aborted or
+ * {@linkplain #reapExpiredTransactions() reaped}, or, if a command still holds it then, when the last command releases
+ * it.
  */
 public final class SessionTransactionPool {
-    private final Map<String, ActiveTransaction> activeTransactions = new ConcurrentHashMap<>();
+    /** Mirrors mongod's {@code transactionLifetimeLimitSeconds} default. */
+    public static final Duration DEFAULT_TRANSACTION_LIFETIME = Duration.ofSeconds(60);
+    /** Longest time between two passes of {@link #reapExpiredTransactionsIfDue()}. */
+    static final Duration REAP_INTERVAL = Duration.ofSeconds(1);
+
+    private final Map<String, PooledTransaction> activeTransactions = new ConcurrentHashMap<>();
+    /** Transactions some command holds, by identity; guarded by {@code this}. */
+    private final Map<ActiveTransaction, PooledTransaction> heldTransactions = new IdentityHashMap<>();
     private final Map<String, Long> lastSeenTxnNumbers = new ConcurrentHashMap<>();
     private final Map<String, TerminalTransaction> terminalTransactions = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private final Duration transactionLifetime;
+    private final Duration reapInterval;
+    private final Consumer<CommandStore> releaseStore;
+    private volatile Instant nextReapAt;
+
+    public SessionTransactionPool() {
+        this(Clock.systemUTC(), DEFAULT_TRANSACTION_LIFETIME, store -> {});
+    }
+
+    /**
+     * @param releaseStore called with the store of each transaction once it has ended and no command holds it
+     */
+    public SessionTransactionPool(
+            final Clock clock, final Duration transactionLifetime, final Consumer<CommandStore> releaseStore) {
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.transactionLifetime = Objects.requireNonNull(transactionLifetime, "transactionLifetime");
+        if (transactionLifetime.isNegative() || transactionLifetime.isZero()) {
+            throw new IllegalArgumentException("transactionLifetime must be positive");
+        }
+        this.releaseStore = Objects.requireNonNull(releaseStore, "releaseStore");
+        this.reapInterval = transactionLifetime.compareTo(REAP_INTERVAL) < 0 ? transactionLifetime : REAP_INTERVAL;
+        this.nextReapAt = clock.instant().plus(reapInterval);
+    }
 
     public boolean hasActiveTransaction(final String sessionId) {
         Objects.requireNonNull(sessionId, "sessionId");
@@ -20,10 +64,15 @@ public final class SessionTransactionPool {
 
     public boolean hasActiveTransaction(final String sessionId, final long txnNumber) {
         Objects.requireNonNull(sessionId, "sessionId");
-        final ActiveTransaction activeTransaction = activeTransactions.get(sessionId);
-        return activeTransaction != null && activeTransaction.txnNumber() == txnNumber;
+        final PooledTransaction pooled = activeTransactions.get(sessionId);
+        return pooled != null && pooled.transaction.txnNumber() == txnNumber;
     }
 
+    /**
+     * Starts {@code txnNumber} on the session. Returns {@code false} when the session already has an active
+     * transaction or the number is not newer than the last one seen; the caller keeps ownership of
+     * {@code transactionStore} in that case.
+     */
     public synchronized boolean startTransaction(
             final String sessionId, final long txnNumber, final CommandStore transactionStore) {
         Objects.requireNonNull(sessionId, "sessionId");
@@ -35,42 +84,137 @@ public final class SessionTransactionPool {
         if (lastSeenTxnNumber != null && txnNumber <= lastSeenTxnNumber) {
             return false;
         }
-        activeTransactions.put(sessionId, new ActiveTransaction(txnNumber, transactionStore));
+        activeTransactions.put(
+                sessionId, new PooledTransaction(new ActiveTransaction(txnNumber, transactionStore), clock.instant()));
         lastSeenTxnNumbers.put(sessionId, txnNumber);
         terminalTransactions.put(sessionId, new TerminalTransaction(txnNumber, null));
         return true;
     }
 
+    /**
+     * Runs {@link #reapExpiredTransactions()} if at least the reap interval (one second, or the transaction lifetime
+     * when shorter) has passed since the last pass, so callers can invoke it on every command.
+     */
+    public int reapExpiredTransactionsIfDue() {
+        final Instant now = clock.instant();
+        if (now.isBefore(nextReapAt)) {
+            return 0;
+        }
+        synchronized (this) {
+            if (now.isBefore(nextReapAt)) {
+                return 0;
+            }
+            nextReapAt = now.plus(reapInterval);
+        }
+        return reapExpiredTransactions();
+    }
+
+    /**
+     * Aborts and releases every active transaction started longer ago than the transaction lifetime that no command
+     * holds, and returns how many were reaped.
+     */
+    public int reapExpiredTransactions() {
+        if (activeTransactions.isEmpty()) {
+            return 0;
+        }
+        final Instant deadline = clock.instant().minus(transactionLifetime);
+        final List<ActiveTransaction> reaped = new ArrayList<>();
+        synchronized (this) {
+            for (final Map.Entry<String, PooledTransaction> entry : activeTransactions.entrySet()) {
+                final PooledTransaction pooled = entry.getValue();
+                if (pooled.users > 0 || pooled.startedAt.isAfter(deadline)) {
+                    continue;
+                }
+                if (activeTransactions.remove(entry.getKey(), pooled)) {
+                    pooled.ended = true;
+                    terminalTransactions.put(
+                            entry.getKey(),
+                            new TerminalTransaction(pooled.transaction.txnNumber(), TerminalState.ABORTED));
+                    reaped.add(pooled.transaction);
+                }
+            }
+        }
+        for (final ActiveTransaction transaction : reaped) {
+            releaseStore.accept(transaction.store());
+        }
+        return reaped.size();
+    }
+
+    /**
+     * Ends the transaction. Its store is released now, or by the last {@link #releaseTransaction} if a command still
+     * holds it.
+     */
     public boolean completeTransaction(final String sessionId, final long txnNumber, final TerminalState terminalState) {
         Objects.requireNonNull(sessionId, "sessionId");
         Objects.requireNonNull(terminalState, "terminalState");
-        final ActiveTransaction activeTransaction = activeTransactions.get(sessionId);
-        if (activeTransaction == null || activeTransaction.txnNumber() != txnNumber) {
-            return false;
-        }
-        final boolean removed = activeTransactions.remove(sessionId, activeTransaction);
-        if (removed) {
+        final PooledTransaction pooled;
+        synchronized (this) {
+            pooled = activeTransactions.get(sessionId);
+            if (pooled == null || pooled.transaction.txnNumber() != txnNumber) {
+                return false;
+            }
+            activeTransactions.remove(sessionId);
+            pooled.ended = true;
             terminalTransactions.put(sessionId, new TerminalTransaction(txnNumber, terminalState));
+            if (pooled.users > 0) {
+                return true;
+            }
+        }
+        releaseStore.accept(pooled.transaction.store());
+        return true;
+    }
+
+    /**
+     * Returns the active transaction and marks it in use, or {@code null} when {@code txnNumber} is not active on the
+     * session. Every non-null result must be handed back to {@link #releaseTransaction}.
+     */
+    public synchronized ActiveTransaction acquireTransaction(final String sessionId, final long txnNumber) {
+        Objects.requireNonNull(sessionId, "sessionId");
+        final PooledTransaction pooled = activeTransactions.get(sessionId);
+        if (pooled == null || pooled.transaction.txnNumber() != txnNumber) {
+            return null;
+        }
+        if (pooled.users++ == 0) {
+            heldTransactions.put(pooled.transaction, pooled);
         }
-        return removed;
+        return pooled.transaction;
+    }
+
+    /** Ends one use started by {@link #acquireTransaction}, releasing the store if the transaction ended meanwhile. */
+    public void releaseTransaction(final ActiveTransaction transaction) {
+        Objects.requireNonNull(transaction, "transaction");
+        synchronized (this) {
+            final PooledTransaction pooled = heldTransactions.get(transaction);
+            if (pooled == null) {
+                throw new IllegalStateException("transaction is not held");
+            }
+            if (--pooled.users > 0) {
+                return;
+            }
+            heldTransactions.remove(transaction);
+            if (!pooled.ended) {
+                return;
+            }
+        }
+        releaseStore.accept(transaction.store());
     }
 
     public CommandStore transactionStore(final String sessionId, final long txnNumber) {
         Objects.requireNonNull(sessionId, "sessionId");
-        final ActiveTransaction activeTransaction = activeTransactions.get(sessionId);
-        if (activeTransaction == null || activeTransaction.txnNumber() != txnNumber) {
+        final PooledTransaction pooled = activeTransactions.get(sessionId);
+        if (pooled == null || pooled.transaction.txnNumber() != txnNumber) {
             return null;
         }
-        return activeTransaction.store();
+        return pooled.transaction.store();
     }
 
     public ActiveTransaction activeTransaction(final String sessionId, final long txnNumber) {
         Objects.requireNonNull(sessionId, "sessionId");
-        final ActiveTransaction activeTransaction = activeTransactions.get(sessionId);
-        if (activeTransaction == null || activeTransaction.txnNumber() != txnNumber) {
+        final PooledTransaction pooled = activeTransactions.get(sessionId);
+        if (pooled == null || pooled.transaction.txnNumber() != txnNumber) {
             return null;
         }
-        return activeTransaction;
+        return pooled.transaction;
     }
 
     public boolean isTxnNumberReused(final String sessionId, final long txnNumber) {
@@ -90,6 +234,19 @@ public final class SessionTransactionPool {
 
     public record ActiveTransaction(long txnNumber, CommandStore store) {}
 
+    /** Pool entry of an active transaction; {@code users} and {@code ended} are guarded by the pool. */
+    private static final class PooledTransaction {
+        private final ActiveTransaction transaction;
+        private final Instant startedAt;
+        private int users;
+        private boolean ended;
+
+        private PooledTransaction(final ActiveTransaction transaction, final Instant startedAt) {
+            this.transaction = transaction;
+            this.startedAt = startedAt;
+        }
+    }
+
     public record TerminalTransaction(long txnNumber, TerminalState state) {}
 
     public enum TerminalState {
@@ -0,0 +1,115 @@
+package org.jongodb.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressors an {@code OP_COMPRESSED} message may use. Only codecs shipped with the JDK are implemented; snappy (id 1)
+ * and zstd (id 3) would need native or third-party libraries, so they are neither accepted nor advertised.
+ */
+public enum MessageCompressor {
+    NOOP((byte) 0, "noop") {
+        @Override
+        public byte[] compress(final byte[] input, final int offset, final int length) {
+            return Arrays.copyOfRange(input, offset, offset + length);
+        }
+
+        @Override
+        public byte[] decompress(final byte[] input, final int offset, final int length, final int uncompressedSize) {
+            if (length != uncompressedSize) {
+                throw new IllegalArgumentException("noop payload length does not match uncompressedSize");
+            }
+            return Arrays.copyOfRange(input, offset, offset + length);
+        }
+    },
+    ZLIB((byte) 2, "zlib") {
+        @Override
+        public byte[] compress(final byte[] input, final int offset, final int length) {
+            final Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(input, offset, length);
+                deflater.finish();
+                final ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, length / 2));
+                final byte[] chunk = new byte[Math.min(64 * 1024, Math.max(64, length))];
+                while (!deflater.finished()) {
+                    final int written = deflater.deflate(chunk);
+                    output.write(chunk, 0, written);
+                }
+                return output.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(final byte[] input, final int offset, final int length, final int uncompressedSize) {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(input, offset, length);
+                final byte[] output = new byte[uncompressedSize];
+                int filled = 0;
+                while (filled < uncompressedSize && !inflater.finished()) {
+                    final int inflated = inflater.inflate(output, filled, uncompressedSize - filled);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    filled += inflated;
+                }
+                if (filled != uncompressedSize || !inflater.finished()) {
+                    throw new IllegalArgumentException("zlib payload does not inflate to uncompressedSize");
+                }
+                return output;
+            } catch (final DataFormatException dataFormatException) {
+                throw new IllegalArgumentException("invalid zlib payload", dataFormatException);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private final byte id;
+    private final String compressorName;
+
+    MessageCompressor(final byte id, final String compressorName) {
+        this.id = id;
+        this.compressorName = compressorName;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    /** Name used in the {@code compression} field of {@code hello} and in connection strings. */
+    public String compressorName() {
+        return compressorName;
+    }
+
+    public abstract byte[] compress(byte[] input, int offset, int length);
+
+    public abstract byte[] decompress(byte[] input, int offset, int length, int uncompressedSize);
+
+    public static MessageCompressor fromId(final byte id) {
+        for (final MessageCompressor compressor : values()) {
+            if (compressor.id == id) {
+                return compressor;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported OP_COMPRESSED compressor id: " + id);
+    }
+
+    /** Compressor names a server may offer during {@code hello} negotiation, in order of preference. */
+    public static List<String> negotiableNames() {
+        final List<String> names = new ArrayList<>();
+        for (final MessageCompressor compressor : values()) {
+            if (compressor != NOOP) {
+                names.add(compressor.compressorName);
+            }
+        }
+        return List.copyOf(names);
+    }
+}
@@ -0,0 +1,99 @@
+package org.jongodb.wire;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.io.BsonOutput;
+
+/**
+ * Wraps and unwraps {@code OP_COMPRESSED} messages. The compressed payload is a complete message without its header;
+ * request id and responseTo carry over between the wrapper and the original message.
+ */
+public final class OpCompressedCodec {
+    public static final int OP_CODE = 2012;
+
+    private static final int HEADER_LENGTH = 16;
+    // originalOpcode (int32), uncompressedSize (int32), compressorId (uint8)
+    private static final int COMPRESSION_FIELDS_LENGTH = 9;
+    private static final int MAX_UNCOMPRESSED_SIZE = 48 * 1024 * 1024;
+
+    public byte[] compress(final byte[] message, final MessageCompressor compressor) {
+        final BasicOutputBuffer output = new BasicOutputBuffer();
+        compress(message, 0, message == null ? 0 : message.length, compressor, output);
+        return output.toByteArray();
+    }
+
+    /** Wraps the message held in {@code message[offset, offset + length)}, writing the result to {@code output}. */
+    public void compress(
+            final byte[] message,
+            final int offset,
+            final int length,
+            final MessageCompressor compressor,
+            final BsonOutput output) {
+        if (message == null || length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("wire message bytes are too short.");
+        }
+        final ByteBuffer header = ByteBuffer.wrap(message, offset, HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        final int originalOpCode = header.getInt(offset + 12);
+        if (originalOpCode == OP_CODE) {
+            throw new IllegalArgumentException("OP_COMPRESSED messages cannot be compressed again.");
+        }
+
+        final int uncompressedSize = length - HEADER_LENGTH;
+        final byte[] compressed = compressor.compress(message, offset + HEADER_LENGTH, uncompressedSize);
+        output.writeInt32(HEADER_LENGTH + COMPRESSION_FIELDS_LENGTH + compressed.length);
+        output.writeInt32(header.getInt(offset + 4));
+        output.writeInt32(header.getInt(offset + 8));
+        output.writeInt32(OP_CODE);
+        output.writeInt32(originalOpCode);
+        output.writeInt32(uncompressedSize);
+        output.writeByte(compressor.id());
+        output.writeBytes(compressed);
+    }
+
+    public MessageCompressor compressor(final byte[] message) {
+        requireCompressedMessage(message);
+        return MessageCompressor.fromId(message[HEADER_LENGTH + 8]);
+    }
+
+    /** Returns the original message, header included. */
+    public byte[] decompress(final byte[] message) {
+        requireCompressedMessage(message);
+        final ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+        final int originalOpCode = buffer.getInt(HEADER_LENGTH);
+        if (originalOpCode == OP_CODE) {
+            throw new IllegalArgumentException("Nested OP_COMPRESSED messages are not supported.");
+        }
+        final int uncompressedSize = buffer.getInt(HEADER_LENGTH + 4);
+        if (uncompressedSize < 0 || uncompressedSize > MAX_UNCOMPRESSED_SIZE - HEADER_LENGTH) {
+            throw new IllegalArgumentException("Invalid OP_COMPRESSED uncompressedSize: " + uncompressedSize);
+        }
+        final MessageCompressor compressor = MessageCompressor.fromId(message[HEADER_LENGTH + 8]);
+        final int payloadOffset = HEADER_LENGTH + COMPRESSION_FIELDS_LENGTH;
+        final byte[] payload =
+                compressor.decompress(message, payloadOffset, message.length - payloadOffset, uncompressedSize);
+
+        final int originalLength = HEADER_LENGTH + uncompressedSize;
+        return ByteBuffer.allocate(originalLength)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(originalLength)
+                .putInt(buffer.getInt(4))
+                .putInt(buffer.getInt(8))
+                .putInt(originalOpCode)
+                .put(payload)
+                .array();
+    }
+
+    private static void requireCompressedMessage(final byte[] message) {
+        if (message == null || message.length < HEADER_LENGTH + COMPRESSION_FIELDS_LENGTH) {
+            throw new IllegalArgumentException("OP_COMPRESSED bytes are too short.");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != message.length) {
+            throw new IllegalArgumentException("messageLength does not match the provided byte array length.");
+        }
+        if (buffer.getInt(12) != OP_CODE) {
+            throw new IllegalArgumentException("Unsupported opCode: " + buffer.getInt(12));
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package org.jongodb.wire;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.bson.BsonDocument;
 
 public final class OpMsg {
     public static final int OP_CODE = 2013;
+    public static final int CHECKSUM_PRESENT = 1;
+    /** The sender will not wait for a reply: unacknowledged requests, or further exhaust replies on the way. */
+    public static final int MORE_TO_COME = 1 << 1;
+    /** The client accepts replies flagged {@link #MORE_TO_COME} to this request. */
+    public static final int EXHAUST_ALLOWED = 1 << 16;
 
     private final int requestId;
     private final int responseTo;
@@ -44,6 +52,14 @@ public final class OpMsg {
         return flagBits;
     }
 
+    public boolean moreToCome() {
+        return (flagBits & MORE_TO_COME) != 0;
+    }
+
+    public boolean exhaustAllowed() {
+        return (flagBits & EXHAUST_ALLOWED) != 0;
+    }
+
     public BsonDocument body() {
         return body;
     }
@@ -51,4 +67,23 @@ public final class OpMsg {
     public List<OpMsgSection> sections() {
         return sections;
     }
+
+    /** Documents of each kind 1 section keyed by identifier, in section order; sections sharing one are concatenated. */
+    public Map<String, List<BsonDocument>> documentSequences() {
+        if (sections.isEmpty()) {
+            return Map.of();
+        }
+        final Map<String, List<BsonDocument>> sequences = new LinkedHashMap<>();
+        for (final OpMsgSection section : sections) {
+            if (section instanceof OpMsgDocumentSequenceSection sequence) {
+                sequences.merge(sequence.identifier(), sequence.documents(), (first, second) -> {
+                    final List<BsonDocument> combined = new ArrayList<>(first.size() + second.size());
+                    combined.addAll(first);
+                    combined.addAll(second);
+                    return combined;
+                });
+            }
+        }
+        return sequences;
+    }
 }
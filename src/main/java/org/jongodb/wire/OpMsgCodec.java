@@ -5,6 +5,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.bson.BsonBinaryWriter;
 import org.bson.BsonArray;
@@ -14,6 +15,7 @@ import org.bson.RawBsonDocument;
 import org.bson.codecs.BsonDocumentCodec;
 import org.bson.codecs.EncoderContext;
 import org.bson.io.BasicOutputBuffer;
+import org.bson.io.BsonOutput;
 
 public final class OpMsgCodec {
     private static final int HEADER_LENGTH = 16;
@@ -21,28 +23,69 @@ public final class OpMsgCodec {
     private static final int CHECKSUM_LENGTH = 4;
     private static final byte BODY_SECTION_KIND = 0;
     private static final byte DOCUMENT_SEQUENCE_SECTION_KIND = 1;
-    private static final int CHECKSUM_PRESENT_FLAG = 1;
+    private static final int CHECKSUM_PRESENT_FLAG = OpMsg.CHECKSUM_PRESENT;
+    private static final BsonDocumentCodec DOCUMENT_CODEC = new BsonDocumentCodec();
+    private static final EncoderContext ENCODER_CONTEXT =
+            EncoderContext.builder().isEncodingCollectibleDocument(true).build();
 
+    /**
+     * Encodes the body followed by the message's document sequence sections. Flag bits are written as given, except
+     * {@code checksumPresent}: no checksum is appended, so the flag is cleared.
+     */
     public byte[] encode(final OpMsg message) {
-        if (!message.sections().isEmpty()) {
-            throw new UnsupportedOperationException("Non-body OP_MSG sections are not encoded by this skeleton codec.");
-        }
-
-        final byte[] bodyBytes = encodeDocument(message.body());
-        final int messageLength = HEADER_LENGTH + FLAG_BITS_LENGTH + 1 + bodyBytes.length;
-
-        final ByteBuffer buffer = ByteBuffer.allocate(messageLength).order(ByteOrder.LITTLE_ENDIAN);
-        buffer.putInt(messageLength);
-        buffer.putInt(message.requestId());
-        buffer.putInt(message.responseTo());
-        buffer.putInt(OpMsg.OP_CODE);
-        buffer.putInt(message.flagBits());
-        buffer.put(BODY_SECTION_KIND);
-        buffer.put(bodyBytes);
-        return buffer.array();
+        final BasicOutputBuffer output = new BasicOutputBuffer();
+        encode(message, output);
+        return output.toByteArray();
     }
 
+    /**
+     * Encodes the message at the output's current position. Documents are written straight into the output and the
+     * message and section lengths are patched in afterwards, so no intermediate copies are made.
+     */
+    public void encode(final OpMsg message, final BsonOutput output) {
+        final int messageStart = output.getPosition();
+        output.writeInt32(0); // messageLength, patched below
+        output.writeInt32(message.requestId());
+        output.writeInt32(message.responseTo());
+        output.writeInt32(OpMsg.OP_CODE);
+        output.writeInt32(message.flagBits() & ~CHECKSUM_PRESENT_FLAG);
+        output.writeByte(BODY_SECTION_KIND);
+        final BsonBinaryWriter writer = new BsonBinaryWriter(output);
+        encodeDocument(writer, message.body());
+        for (final OpMsgSection section : message.sections()) {
+            if (!(section instanceof OpMsgDocumentSequenceSection sequence)) {
+                throw new UnsupportedOperationException("Unsupported OP_MSG section kind: " + section.kind());
+            }
+            output.writeByte(DOCUMENT_SEQUENCE_SECTION_KIND);
+            final int sectionStart = output.getPosition();
+            output.writeInt32(0); // size, patched below
+            output.writeCString(sequence.identifier());
+            for (final BsonDocument document : sequence.documents()) {
+                encodeDocument(writer, document);
+            }
+            output.writeInt32(sectionStart, output.getPosition() - sectionStart);
+        }
+        output.writeInt32(messageStart, output.getPosition() - messageStart);
+    }
+
+    /**
+     * Decodes a message into a mutable body with every document sequence merged in as an array field. The sections are
+     * kept as well, holding copies of their documents.
+     */
     public OpMsg decode(final byte[] messageBytes) {
+        return decode(messageBytes, false);
+    }
+
+    /**
+     * Decodes a message without copying it: the body is a read-only {@link RawBsonDocument} view of the message bytes
+     * and does not contain the document sequences, whose documents are views created as they are read. Callers that
+     * want the sequences as command arguments use {@link OpMsg#documentSequences()}.
+     */
+    public OpMsg decodeLazy(final byte[] messageBytes) {
+        return decode(messageBytes, true);
+    }
+
+    private OpMsg decode(final byte[] messageBytes, final boolean lazy) {
         if (messageBytes == null || messageBytes.length < HEADER_LENGTH + FLAG_BITS_LENGTH + 1 + 5) {
             throw new IllegalArgumentException("OP_MSG bytes are too short.");
         }
@@ -76,12 +119,14 @@ public final class OpMsgCodec {
                 if (body != null) {
                     throw new UnsupportedOperationException("Multiple OP_MSG body sections are not supported.");
                 }
-                body = new RawBsonDocument(readCurrentDocumentBytes(buffer, payloadLimit));
+                body = lazy
+                        ? readCurrentDocumentSlice(buffer, messageBytes, payloadLimit)
+                        : new RawBsonDocument(readCurrentDocumentBytes(buffer, payloadLimit));
                 continue;
             }
 
             if (sectionKind == DOCUMENT_SEQUENCE_SECTION_KIND) {
-                sections.add(readDocumentSequenceSection(buffer, payloadLimit));
+                sections.add(readDocumentSequenceSection(buffer, payloadLimit, lazy ? messageBytes : null));
                 continue;
             }
             throw new UnsupportedOperationException("Unsupported OP_MSG section kind: " + sectionKind);
@@ -91,14 +136,19 @@ public final class OpMsgCodec {
             throw new UnsupportedOperationException("OP_MSG body section (kind 0) is required.");
         }
 
-        final BsonDocument mergedBody = new BsonDocument();
-        for (final String key : body.keySet()) {
-            mergedBody.put(key, body.get(key));
-        }
-        for (final OpMsgSection section : sections) {
-            final OpMsgDocumentSequenceSection documentSequenceSection = (OpMsgDocumentSequenceSection) section;
-            mergeDocumentSequenceField(
-                    mergedBody, documentSequenceSection.identifier(), documentSequenceSection.documents());
+        final BsonDocument mergedBody;
+        if (lazy) {
+            mergedBody = body;
+        } else {
+            mergedBody = new BsonDocument();
+            for (final String key : body.keySet()) {
+                mergedBody.put(key, body.get(key));
+            }
+            for (final OpMsgSection section : sections) {
+                final OpMsgDocumentSequenceSection documentSequenceSection = (OpMsgDocumentSequenceSection) section;
+                mergeDocumentSequenceField(
+                        mergedBody, documentSequenceSection.identifier(), documentSequenceSection.documents());
+            }
         }
 
         // Touch checksum bytes for structural validation when checksumPresent is set.
@@ -116,8 +166,9 @@ public final class OpMsgCodec {
         return new OpMsg(requestId, responseTo, flagBits, mergedBody, sections);
     }
 
+    /** Reads a kind 1 section; with {@code messageBytes} given, its documents are views of them instead of copies. */
     private static OpMsgDocumentSequenceSection readDocumentSequenceSection(
-            final ByteBuffer buffer, final int payloadLimit) {
+            final ByteBuffer buffer, final int payloadLimit, final byte[] messageBytes) {
         if (buffer.position() + Integer.BYTES > payloadLimit) {
             throw new IllegalArgumentException("Missing OP_MSG document sequence size.");
         }
@@ -134,6 +185,18 @@ public final class OpMsgCodec {
         }
 
         final String identifier = readCString(buffer, sectionEnd);
+        if (messageBytes != null) {
+            int[] offsets = new int[8];
+            int count = 0;
+            while (buffer.position() < sectionEnd) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = buffer.position();
+                skipCurrentDocument(buffer, sectionEnd);
+            }
+            return OpMsgDocumentSequenceSection.slicesOf(identifier, messageBytes, Arrays.copyOf(offsets, count));
+        }
         final List<BsonDocument> documents = new ArrayList<>();
         while (buffer.position() < sectionEnd) {
             documents.add(new RawBsonDocument(readCurrentDocumentBytes(buffer, sectionEnd)));
@@ -180,6 +243,26 @@ public final class OpMsgCodec {
     }
 
     private static byte[] readCurrentDocumentBytes(final ByteBuffer buffer, final int limitExclusive) {
+        final int documentLength = currentDocumentLength(buffer, limitExclusive);
+        final byte[] documentBytes = new byte[documentLength];
+        buffer.get(documentBytes);
+        return documentBytes;
+    }
+
+    private static RawBsonDocument readCurrentDocumentSlice(
+            final ByteBuffer buffer, final byte[] messageBytes, final int limitExclusive) {
+        final int start = buffer.position();
+        final int documentLength = skipCurrentDocument(buffer, limitExclusive);
+        return new RawBsonDocument(messageBytes, start, documentLength);
+    }
+
+    private static int skipCurrentDocument(final ByteBuffer buffer, final int limitExclusive) {
+        final int documentLength = currentDocumentLength(buffer, limitExclusive);
+        buffer.position(buffer.position() + documentLength);
+        return documentLength;
+    }
+
+    private static int currentDocumentLength(final ByteBuffer buffer, final int limitExclusive) {
         if (buffer.position() + Integer.BYTES > limitExclusive) {
             throw new IllegalArgumentException("Missing BSON body length.");
         }
@@ -192,18 +275,10 @@ public final class OpMsgCodec {
         if (start + documentLength > limitExclusive) {
             throw new IllegalArgumentException("Declared BSON body length exceeds available bytes.");
         }
-
-        final byte[] documentBytes = new byte[documentLength];
-        buffer.get(documentBytes);
-        return documentBytes;
+        return documentLength;
     }
 
-    private static byte[] encodeDocument(final BsonDocument document) {
-        final BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
-        try (BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer)) {
-            new BsonDocumentCodec()
-                    .encode(writer, document, EncoderContext.builder().isEncodingCollectibleDocument(true).build());
-            return outputBuffer.toByteArray();
-        }
+    private static void encodeDocument(final BsonBinaryWriter writer, final BsonDocument document) {
+        DOCUMENT_CODEC.encode(writer, document, ENCODER_CONTEXT);
     }
 }
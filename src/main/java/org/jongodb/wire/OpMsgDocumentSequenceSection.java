@@ -1,9 +1,12 @@
 package org.jongodb.wire;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.RandomAccess;
 import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
 
 /**
  * OP_MSG payload type 1 section (document sequence).
@@ -31,6 +34,22 @@ public final class OpMsgDocumentSequenceSection implements OpMsgSection {
         this.documents = List.copyOf(copies);
     }
 
+    private OpMsgDocumentSequenceSection(final String identifier, final byte[] messageBytes, final int[] offsets) {
+        this.identifier = identifier;
+        this.documents = new RawDocumentSlices(messageBytes, offsets);
+    }
+
+    /**
+     * A section whose documents are read-only {@link RawBsonDocument} views over {@code messageBytes}, created on access.
+     * Nothing is copied, so the views keep the whole message reachable for as long as they are referenced.
+     *
+     * @param offsets start of each document in {@code messageBytes}; each is already checked to lie in the section
+     */
+    static OpMsgDocumentSequenceSection slicesOf(
+            final String identifier, final byte[] messageBytes, final int[] offsets) {
+        return new OpMsgDocumentSequenceSection(identifier, messageBytes, offsets);
+    }
+
     @Override
     public byte kind() {
         return KIND;
@@ -43,4 +62,29 @@ public final class OpMsgDocumentSequenceSection implements OpMsgSection {
     public List<BsonDocument> documents() {
         return documents;
     }
+
+    private static final class RawDocumentSlices extends AbstractList<BsonDocument> implements RandomAccess {
+        private final byte[] messageBytes;
+        private final int[] offsets;
+
+        private RawDocumentSlices(final byte[] messageBytes, final int[] offsets) {
+            this.messageBytes = messageBytes;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public BsonDocument get(final int index) {
+            final int offset = offsets[index];
+            final int length = (messageBytes[offset] & 0xFF)
+                    | (messageBytes[offset + 1] & 0xFF) << 8
+                    | (messageBytes[offset + 2] & 0xFF) << 16
+                    | (messageBytes[offset + 3] & 0xFF) << 24;
+            return new RawBsonDocument(messageBytes, offset, length);
+        }
+
+        @Override
+        public int size() {
+            return offsets.length;
+        }
+    }
 }
@@ -434,11 +434,32 @@ class AggregateCommandE2ETest {
                 "{\"insert\":\"nodes\",\"$db\":\"app\",\"documents\":[{\"_id\":\"A\",\"parent\":null}]}"));
 
         final BsonDocument response = dispatcher.dispatch(BsonDocument.parse(
-                "{\"aggregate\":\"nodes\",\"$db\":\"app\",\"pipeline\":[{\"$graphLookup\":{\"from\":\"nodes\",\"startWith\":\"$parent\",\"connectFromField\":\"parent\",\"connectToField\":\"_id\",\"as\":\"graph\",\"depthField\":\"depth\"}}],\"cursor\":{}}"));
+                "{\"aggregate\":\"nodes\",\"$db\":\"app\",\"pipeline\":[{\"$graphLookup\":{\"from\":\"nodes\",\"startWith\":\"$parent\",\"connectFromField\":\"parent\",\"connectToField\":\"_id\",\"as\":\"graph\",\"maxBreadth\":2}}],\"cursor\":{}}"));
 
         assertCommandError(response, 238, "NotImplemented");
     }
 
+    @Test
+    void aggregateCommandSupportsGraphLookupDepthFieldAndRestrictSearchWithMatch() {
+        final CommandDispatcher dispatcher = new CommandDispatcher(new EngineBackedCommandStore(new InMemoryEngineStore()));
+
+        dispatcher.dispatch(BsonDocument.parse(
+                "{\"insert\":\"nodes\",\"$db\":\"app\",\"documents\":[{\"_id\":\"A\",\"parent\":null,\"active\":true},{\"_id\":\"B\",\"parent\":\"A\",\"active\":false},{\"_id\":\"C\",\"parent\":\"B\",\"active\":true},{\"_id\":\"D\",\"parent\":\"C\",\"active\":true}]}"));
+
+        final BsonDocument response = dispatcher.dispatch(BsonDocument.parse(
+                "{\"aggregate\":\"nodes\",\"$db\":\"app\",\"pipeline\":[{\"$match\":{\"_id\":\"D\"}},{\"$graphLookup\":{\"from\":\"nodes\",\"startWith\":\"$parent\",\"connectFromField\":\"parent\",\"connectToField\":\"_id\",\"as\":\"ancestors\",\"depthField\":\"depth\",\"restrictSearchWithMatch\":{\"active\":true}}}],\"cursor\":{}}"));
+
+        assertEquals(1.0, response.get("ok").asNumber().doubleValue());
+        final BsonArray ancestors = response.getDocument("cursor")
+                .getArray("firstBatch")
+                .get(0)
+                .asDocument()
+                .getArray("ancestors");
+        assertEquals(1, ancestors.size());
+        assertEquals("C", ancestors.get(0).asDocument().getString("_id").getValue());
+        assertEquals(0L, ancestors.get(0).asDocument().getInt64("depth").getValue());
+    }
+
     @Test
     void aggregateCommandSupportsUnionWithPipeline() {
         final CommandDispatcher dispatcher = new CommandDispatcher(new EngineBackedCommandStore(new InMemoryEngineStore()));
@@ -486,6 +507,39 @@ class AggregateCommandE2ETest {
         assertEquals("green", secondGroup.getArray("colors").get(0).asString().getValue());
     }
 
+    @Test
+    void aggregateExplainReportsPushedDownMatchAndIndexProvidedSort() {
+        final CommandDispatcher dispatcher = new CommandDispatcher(new EngineBackedCommandStore(new InMemoryEngineStore()));
+        dispatcher.dispatch(BsonDocument.parse(
+                "{\"insert\":\"events\",\"$db\":\"app\",\"documents\":[{\"_id\":1,\"tenant\":\"a\",\"at\":3},{\"_id\":2,\"tenant\":\"b\",\"at\":1},{\"_id\":3,\"tenant\":\"a\",\"at\":1},{\"_id\":4,\"tenant\":\"a\",\"at\":2}]}"));
+        dispatcher.dispatch(BsonDocument.parse(
+                "{\"createIndexes\":\"events\",\"$db\":\"app\",\"indexes\":[{\"name\":\"tenant_1_at_1\",\"key\":{\"tenant\":1,\"at\":1}}]}"));
+        final String pipeline =
+                "[{\"$match\":{\"tenant\":\"a\"}},{\"$sort\":{\"at\":1}},{\"$set\":{\"seen\":true}},{\"$project\":{\"seen\":0}}]";
+
+        final BsonDocument explain = dispatcher.dispatch(BsonDocument.parse(
+                "{\"aggregate\":\"events\",\"$db\":\"app\",\"pipeline\":" + pipeline + ",\"explain\":true}"));
+
+        assertEquals(1.0, explain.get("ok").asNumber().doubleValue());
+        final BsonArray stages = explain.getArray("stages");
+        final BsonDocument winningPlan = stages.get(0).asDocument()
+                .getDocument("$cursor").getDocument("queryPlanner").getDocument("winningPlan");
+        assertEquals("IXSCAN", winningPlan.getDocument("inputStage").getString("stage").getValue());
+        assertEquals("tenant_1_at_1", winningPlan.getDocument("inputStage").getString("indexName").getValue());
+        assertEquals(Set.of("$set"), stages.get(1).asDocument().keySet());
+        assertEquals(Set.of("$project"), stages.get(2).asDocument().keySet());
+        assertEquals(3, stages.size());
+
+        final BsonDocument response = dispatcher.dispatch(BsonDocument.parse(
+                "{\"aggregate\":\"events\",\"$db\":\"app\",\"pipeline\":" + pipeline + ",\"cursor\":{}}"));
+        final BsonArray firstBatch = response.getDocument("cursor").getArray("firstBatch");
+        final List<Integer> ids = new ArrayList<>();
+        for (final var document : firstBatch) {
+            ids.add(document.asDocument().getInt32("_id").getValue());
+        }
+        assertEquals(List.of(3, 4, 1), ids);
+    }
+
     private static void assertCommandError(final BsonDocument response, final String codeName) {
         assertCommandError(response, 14, codeName);
     }
@@ -2,10 +2,16 @@ package org.jongodb.command;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.bson.BsonArray;
 import org.bson.BsonBoolean;
@@ -14,6 +20,8 @@ import org.bson.BsonDocument;
 import org.bson.BsonInt32;
 import org.bson.BsonInt64;
 import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
 import org.jongodb.engine.InMemoryEngineStore;
 import org.junit.jupiter.api.Test;
 
@@ -157,6 +165,35 @@ class CommandDispatcherE2ETest {
         assertEquals("a", store.lastInsertedDocuments.get(0).getString("name").getValue());
     }
 
+    @Test
+    void documentSequencesReachSequenceAwareHandlersAsGivenAndAreMergedForOthers() {
+        final RecordingStore store = new RecordingStore();
+        final CommandDispatcher dispatcher = new CommandDispatcher(store);
+        final List<BsonDocument> documents = List.of(
+                new RawBsonDocument(BsonDocument.parse("{\"_id\":1,\"name\":\"a\"}"), new BsonDocumentCodec()),
+                new RawBsonDocument(BsonDocument.parse("{\"_id\":2,\"name\":\"b\"}"), new BsonDocumentCodec()));
+
+        final BsonDocument insertResponse = dispatcher.dispatch(
+                BsonDocument.parse("{\"insert\":\"users\",\"$db\":\"app\"}"), Map.of("documents", documents));
+
+        assertEquals(2, insertResponse.getInt32("n").getValue());
+        assertEquals(2, store.lastInsertedDocuments.size());
+        assertSame(documents.get(0), store.lastInsertedDocuments.get(0));
+        assertSame(documents.get(1), store.lastInsertedDocuments.get(1));
+
+        final BsonDocument updateResponse = dispatcher.dispatch(
+                BsonDocument.parse("{\"update\":\"users\",\"$db\":\"app\"}"),
+                Map.of("updates", List.of(BsonDocument.parse("{\"q\":{\"_id\":1},\"u\":{\"$set\":{\"name\":\"c\"}}}"))));
+
+        assertEquals(1.0, updateResponse.get("ok").asNumber().doubleValue());
+        assertEquals(1, store.lastUpdateRequests.size());
+
+        final BsonDocument conflicting = dispatcher.dispatch(
+                BsonDocument.parse("{\"update\":\"users\",\"$db\":\"app\",\"updates\":1}"),
+                Map.of("updates", List.of(BsonDocument.parse("{\"q\":{},\"u\":{}}"))));
+        assertCommandError(conflicting, "BadValue");
+    }
+
     @Test
     void findCommandCallsStoreAndReturnsCursorBatch() {
         final RecordingStore store = new RecordingStore();
@@ -800,6 +837,34 @@ class CommandDispatcherE2ETest {
         assertEquals(1, findResponse.getDocument("cursor").getArray("firstBatch").size());
     }
 
+    @Test
+    void largeInsertBatchTakesBulkPathAndStaysAllOrNothingOnDuplicateKeys() {
+        final CommandDispatcher dispatcher = new CommandDispatcher(new EngineBackedCommandStore(new InMemoryEngineStore()));
+        final BsonArray documents = new BsonArray();
+        for (int id = 0; id < 2_500; id++) {
+            documents.add(new BsonDocument("_id", new BsonInt32(id)));
+        }
+
+        final BsonDocument insertResponse = dispatcher.dispatch(new BsonDocument("insert", new BsonString("users"))
+                .append("$db", new BsonString("app"))
+                .append("documents", documents));
+        assertEquals(2_500, insertResponse.getInt32("n").getValue());
+
+        final BsonArray overlapping = new BsonArray();
+        for (int id = 2_500; id < 4_000; id++) {
+            overlapping.add(new BsonDocument("_id", new BsonInt32(id)));
+        }
+        overlapping.add(new BsonDocument("_id", new BsonInt32(7)));
+        final BsonDocument duplicateResponse = dispatcher.dispatch(new BsonDocument("insert", new BsonString("users"))
+                .append("$db", new BsonString("app"))
+                .append("documents", overlapping));
+        assertDuplicateKeyError(duplicateResponse);
+
+        final BsonDocument countResponse =
+                dispatcher.dispatch(BsonDocument.parse("{\"countDocuments\":\"users\",\"$db\":\"app\",\"filter\":{}}"));
+        assertEquals(2_500L, countResponse.getInt64("count").getValue());
+    }
+
     @Test
     void updateCommandRejectsDuplicateKeyAfterUniqueIndex() {
         final CommandDispatcher dispatcher = new CommandDispatcher(new EngineBackedCommandStore(new InMemoryEngineStore()));
@@ -1704,6 +1769,68 @@ class CommandDispatcherE2ETest {
         assertNoSuchTransactionError(secondAbort);
     }
 
+    @Test
+    void bulkInsertWithLateDuplicateOfExistingDocumentInsertsNothing() {
+        final CommandDispatcher dispatcher = new CommandDispatcher(new EngineBackedCommandStore(new InMemoryEngineStore()));
+        final int count = InsertCommandHandler.BULK_INSERT_THRESHOLD * 3;
+        dispatcher.dispatch(BsonDocument.parse(
+                "{\"insert\":\"users\",\"$db\":\"app\",\"documents\":[{\"_id\":" + (count - 1) + "}]}"));
+
+        final BsonArray documents = new BsonArray();
+        for (int id = 0; id < count; id++) {
+            documents.add(new BsonDocument("_id", new BsonInt32(id)));
+        }
+        final BsonDocument response = dispatcher.dispatch(new BsonDocument("insert", new BsonString("users"))
+                .append("$db", new BsonString("app"))
+                .append("documents", documents));
+        assertCommandError(response, 11000, "DuplicateKey");
+
+        final BsonDocument countResponse =
+                dispatcher.dispatch(BsonDocument.parse("{\"count\":\"users\",\"$db\":\"app\",\"query\":{}}"));
+        assertEquals(1, countResponse.getNumber("n").intValue());
+    }
+
+    @Test
+    void transactionSnapshotPinsAreReleasedWhenTransactionsAreReaped() {
+        final InMemoryEngineStore engine = new InMemoryEngineStore();
+        final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+        final CommandDispatcher dispatcher = new CommandDispatcher(
+                new EngineBackedCommandStore(engine),
+                TopologyProfile.STANDALONE,
+                "127.0.0.1:27017",
+                "jongodb-rs0",
+                List.of(),
+                clock,
+                Duration.ofSeconds(60));
+        dispatcher.dispatch(BsonDocument.parse("{\"insert\":\"users\",\"$db\":\"app\",\"documents\":[{\"_id\":0}]}"));
+
+        final BsonDocument first = dispatcher.dispatch(BsonDocument.parse(
+                "{\"find\":\"users\",\"$db\":\"app\",\"filter\":{},\"lsid\":{\"id\":\"session-pins\"},\"txnNumber\":1,\"autocommit\":false,\"startTransaction\":true}"));
+        assertEquals(1.0, first.get("ok").asNumber().doubleValue());
+        assertEquals(1, engine.pinCount());
+
+        final BsonDocument concurrentStart = dispatcher.dispatch(BsonDocument.parse(
+                "{\"find\":\"users\",\"$db\":\"app\",\"filter\":{},\"lsid\":{\"id\":\"session-pins\"},\"txnNumber\":2,\"autocommit\":false,\"startTransaction\":true}"));
+        assertCommandError(concurrentStart, "BadValue");
+        assertEquals(1, engine.pinCount());
+
+        clock.setInstant(clock.instant().plusSeconds(61));
+        dispatcher.dispatch(BsonDocument.parse("{\"ping\":1,\"$db\":\"admin\"}"));
+        assertEquals(0, engine.pinCount());
+
+        final BsonDocument commitAfterReap = dispatcher.dispatch(BsonDocument.parse(
+                "{\"commitTransaction\":1,\"$db\":\"app\",\"lsid\":{\"id\":\"session-pins\"},\"txnNumber\":2,\"autocommit\":false}"));
+        assertNoSuchTransactionError(commitAfterReap, "UnknownTransactionCommitResult");
+
+        final BsonDocument next = dispatcher.dispatch(BsonDocument.parse(
+                "{\"find\":\"users\",\"$db\":\"app\",\"filter\":{},\"lsid\":{\"id\":\"session-pins\"},\"txnNumber\":3,\"autocommit\":false,\"startTransaction\":true}"));
+        assertEquals(1.0, next.get("ok").asNumber().doubleValue());
+        final BsonDocument abort = dispatcher.dispatch(BsonDocument.parse(
+                "{\"abortTransaction\":1,\"$db\":\"app\",\"lsid\":{\"id\":\"session-pins\"},\"txnNumber\":3,\"autocommit\":false}"));
+        assertEquals(1.0, abort.get("ok").asNumber().doubleValue());
+        assertEquals(0, engine.pinCount());
+    }
+
     @Test
     void commitReturnsWriteConflictWhenConcurrentTransactionsInsertSameId() {
         final CommandDispatcher dispatcher = new CommandDispatcher(new EngineBackedCommandStore(new InMemoryEngineStore()));
@@ -2299,4 +2426,31 @@ class CommandDispatcherE2ETest {
             return deleteResult;
         }
     }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        private MutableClock(final Instant instant) {
+            this.instant = instant;
+        }
+
+        private void setInstant(final Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
 }
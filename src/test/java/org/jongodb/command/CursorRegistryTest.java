@@ -0,0 +1,108 @@
+package org.jongodb.command;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.junit.jupiter.api.Test;
+
+class CursorRegistryTest {
+    @Test
+    void getMoreDrainsLargeCursorInOrder() {
+        final CursorRegistry registry = new CursorRegistry();
+        final CursorRegistry.FindRegistration registration = registry.openCursor("app.users", documents(100_000), 101);
+        assertEquals(101, registration.firstBatch().size());
+
+        final List<BsonDocument> drained = new ArrayList<>(registration.firstBatch());
+        long cursorId = registration.cursorId();
+        while (cursorId != 0L) {
+            final CursorRegistry.GetMoreResult result = registry.getMore(cursorId, "app.users", 1_000);
+            assertTrue(result.found());
+            drained.addAll(result.nextBatch());
+            cursorId = result.cursorId();
+        }
+
+        assertEquals(100_000, drained.size());
+        assertEquals(99_999, drained.get(99_999).getInt32("_id").getValue());
+        assertEquals(0, registry.openCursorCount());
+    }
+
+    @Test
+    void idleCursorsAreReapedAfterTimeout() {
+        final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        final CursorRegistry registry = new CursorRegistry(clock, Duration.ofMinutes(10), 100, 1_000);
+        final long idle = registry.openCursor("app.users", documents(10), 2).cursorId();
+        final long active = registry.openCursor("app.users", documents(10), 2).cursorId();
+
+        clock.advance(Duration.ofMinutes(6));
+        assertTrue(registry.getMore(active, "app.users", 1).found());
+        clock.advance(Duration.ofMinutes(6));
+
+        assertFalse(registry.getMore(idle, "app.users", 1).found());
+        assertTrue(registry.getMore(active, "app.users", 1).found());
+        assertEquals(1, registry.openCursorCount());
+    }
+
+    @Test
+    void leastRecentlyUsedCursorsAreEvictedWhenBudgetIsExceeded() {
+        final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        final CursorRegistry registry = new CursorRegistry(clock, Duration.ofMinutes(10), 2, 25);
+        final long first = registry.openCursor("app.users", documents(12), 2).cursorId();
+        final long second = registry.openCursor("app.users", documents(12), 2).cursorId();
+        assertTrue(registry.getMore(first, "app.users", 1).found());
+
+        final long third = registry.openCursor("app.users", documents(12), 2).cursorId();
+
+        assertEquals(2, registry.openCursorCount());
+        assertFalse(registry.getMore(second, "app.users", 1).found());
+        assertTrue(registry.getMore(first, "app.users", 1).found());
+        assertTrue(registry.getMore(third, "app.users", 1).found());
+
+        final long large = registry.openCursor("app.users", documents(30), 2).cursorId();
+        assertEquals(1, registry.openCursorCount());
+        assertTrue(registry.getMore(large, "app.users", 1).found());
+    }
+
+    private static List<BsonDocument> documents(final int count) {
+        final List<BsonDocument> documents = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            documents.add(new BsonDocument("_id", new BsonInt32(index)));
+        }
+        return documents;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(final Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(final Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -67,4 +67,21 @@ class EngineBackedCommandStoreTransactionSnapshotTest {
         assertEquals(1, users.size());
         assertEquals("committed", users.get(0).getString("name").getValue());
     }
+
+    @Test
+    void transactionReadsIgnoreWritesCommittedOutsideAfterStart() {
+        final EngineBackedCommandStore globalStore = new EngineBackedCommandStore(new InMemoryEngineStore());
+        globalStore.insert("app", "users", List.of(BsonDocument.parse("{\"_id\":1,\"name\":\"before\"}")));
+
+        final CommandStore transactionStore = globalStore.snapshotForTransaction();
+        globalStore.insert("app", "users", List.of(BsonDocument.parse("{\"_id\":2,\"name\":\"outside\"}")));
+
+        assertEquals(1, transactionStore.find("app", "users", new BsonDocument()).size());
+
+        transactionStore.insert("app", "users", List.of(BsonDocument.parse("{\"_id\":3,\"name\":\"tx\"}")));
+        globalStore.publishTransactionSnapshot(transactionStore);
+        globalStore.releaseTransactionSnapshot(transactionStore);
+
+        assertEquals(3, globalStore.find("app", "users", new BsonDocument()).size());
+    }
 }
@@ -10,6 +10,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.time.Instant;
 import org.bson.Document;
@@ -38,6 +39,66 @@ class AggregationPipelineTest {
         assertFalse(result.get(0).containsKey("legacy"));
     }
 
+    @Test
+    void sortFollowedBySkipAndLimitMatchesFullSortAndKeepsTiesInSourceOrder() {
+        final List<Document> source = new ArrayList<>();
+        for (int id = 0; id < 200; id++) {
+            source.add(new Document("_id", id).append("score", (id * 37) % 11));
+        }
+
+        final List<Document> windowed = AggregationPipeline.execute(
+                source,
+                List.of(
+                        new Document("$sort", new Document("score", -1)),
+                        new Document("$skip", 5),
+                        new Document("$limit", 10)));
+        final List<Document> fullySorted =
+                AggregationPipeline.execute(source, List.of(new Document("$sort", new Document("score", -1))));
+
+        assertEquals(fullySorted.subList(5, 15), windowed);
+        final List<Document> limited = AggregationPipeline.execute(
+                source,
+                List.of(new Document("$sort", new Document("score", 1)), new Document("$limit", 3)));
+        assertEquals(List.of(0, 11, 22), limited.stream().map(document -> document.getInteger("_id")).toList());
+    }
+
+    @Test
+    void lookupResolvesForeignCollectionOnceAndMatchesArraysAndNumericTypes() {
+        final List<Document> orders = List.of(
+                new Document("_id", 1).append("customerId", 10),
+                new Document("_id", 2).append("customerId", List.of(20L, 30)),
+                new Document("_id", 3));
+        final List<Document> customers = List.of(
+                new Document("_id", "a").append("customerId", 10L),
+                new Document("_id", "b").append("customerId", List.of(10, 20)),
+                new Document("_id", "c").append("customerId", 30),
+                new Document("_id", "d"));
+        final int[] resolveCalls = {0};
+
+        final List<Document> result = AggregationPipeline.execute(
+                orders,
+                List.of(new Document(
+                        "$lookup",
+                        new Document("from", "customers")
+                                .append("localField", "customerId")
+                                .append("foreignField", "customerId")
+                                .append("as", "customers"))),
+                collectionName -> {
+                    resolveCalls[0]++;
+                    return customers;
+                },
+                CollationSupport.Config.simple());
+
+        assertEquals(1, resolveCalls[0]);
+        assertEquals(List.of("a", "b"), joinedIds(result.get(0)));
+        assertEquals(List.of("c"), joinedIds(result.get(1)));
+        assertEquals(List.of("d"), joinedIds(result.get(2)));
+    }
+
+    private static List<Object> joinedIds(final Document document) {
+        return document.getList("customers", Document.class).stream().map(joined -> joined.get("_id")).toList();
+    }
+
     @Test
     void executeDoesNotMutateSourceDocumentsForUnwind() {
         final Document sourceDocument = new Document("_id", 1).append("tags", List.of("a", "b"));
@@ -210,4 +271,82 @@ class AggregationPipelineTest {
         assertEquals("only", result.get(2).getString("event"));
         assertEquals(1L, result.get(2).get("denseRank"));
     }
+
+    @Test
+    void streamingStagesStopPullingSourceOnceLimitIsReached() {
+        final int[] pulled = {0};
+        final Iterable<Document> source = () -> new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < 500_000;
+            }
+
+            @Override
+            public Document next() {
+                pulled[0]++;
+                return new Document("_id", next).append("even", next++ % 2 == 0);
+            }
+        };
+
+        final List<Document> result = AggregationPipeline.execute(
+                source,
+                List.of(
+                        new Document("$match", new Document("even", true)),
+                        new Document("$set", new Document("tag", "x")),
+                        new Document("$skip", 2),
+                        new Document("$limit", 10)));
+
+        assertEquals(10, result.size());
+        assertEquals(4, result.get(0).getInteger("_id"));
+        assertEquals("x", result.get(9).getString("tag"));
+        assertEquals(23, pulled[0]);
+    }
+
+    @Test
+    void groupFoldsEachDocumentIntoBoundedAccumulatorState() {
+        final Iterable<Document> source = () -> new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < 200_000;
+            }
+
+            @Override
+            public Document next() {
+                final Document document = new Document("_id", next)
+                        .append("bucket", next % 2)
+                        .append("score", next % 5)
+                        .append("tenth", 0.1d);
+                next++;
+                return document;
+            }
+        };
+
+        final List<Document> result = AggregationPipeline.execute(
+                source,
+                List.of(
+                        new Document("$group", new Document("_id", "$bucket")
+                                .append("count", new Document("$sum", 1))
+                                .append("tenths", new Document("$sum", "$tenth"))
+                                .append("top", new Document("$topN", new Document("n", 2)
+                                        .append("sortBy", new Document("score", -1))
+                                        .append("output", "$_id")))
+                                .append("bottom", new Document("$bottomN", new Document("n", 2)
+                                        .append("sortBy", new Document("score", -1))
+                                        .append("output", "$_id")))
+                                .append("smallest", new Document("$minN", new Document("n", 3)
+                                        .append("input", "$score")))),
+                        new Document("$sort", new Document("_id", 1))));
+
+        assertEquals(2, result.size());
+        final Document even = result.get(0);
+        assertEquals(100_000L, even.get("count"));
+        assertEquals(10_000L, even.get("tenths"));
+        assertEquals(List.of(4, 14), even.get("top"));
+        assertEquals(List.of(199_980, 199_990), even.get("bottom"));
+        assertEquals(List.of(0, 0, 0), even.get("smallest"));
+    }
 }
@@ -4,14 +4,24 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Test;
 
@@ -195,15 +205,18 @@ class InMemoryCollectionStoreTest {
                 Arrays.asList(
                         new Document("_id", 1)
                                 .append("name", "immutable")
-                                .append("nested", new Document("city", "Seoul"))));
+                                .append("nested", new Document("city", "Seoul"))
+                                .append("tags", Arrays.asList("a", null))));
 
         List<Document> firstRead = store.findAll();
         firstRead.get(0).put("name", "changed");
         firstRead.get(0).get("nested", Document.class).put("city", "Busan");
+        firstRead.get(0).getList("tags", String.class).set(0, "b");
 
         List<Document> secondRead = store.findAll();
         assertEquals("immutable", secondRead.get(0).getString("name"));
         assertEquals("Seoul", secondRead.get(0).get("nested", Document.class).getString("city"));
+        assertEquals(Arrays.asList("a", null), secondRead.get(0).getList("tags", String.class));
         assertNotSame(firstRead.get(0), secondRead.get(0));
     }
 
@@ -228,6 +241,179 @@ class InMemoryCollectionStoreTest {
         assertEquals("Seoul", secondRead.get(0).get("nested", Document.class).getString("city"));
     }
 
+    @Test
+    void scanSharesStoredDocumentsWithThePipelineWhileScanAllCopies() {
+        InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(List.of(new Document("_id", 1).append("nested", new Document("city", "Seoul"))));
+        Document stored = store.snapshotState().documents().get(0);
+
+        assertSame(stored, drain(store.scan(new Document(), null, null).documents()).get(0));
+        assertNotSame(stored, store.scanAll().iterator().next());
+
+        List<Document> matched = store.aggregate(List.of(new Document("$match", new Document("_id", 1))));
+        matched.get(0).get("nested", Document.class).put("city", "Busan");
+        assertEquals("Seoul", store.findAll().get(0).get("nested", Document.class).getString("city"));
+    }
+
+    @Test
+    void updatesSwapInNewVersionWithoutChangingEarlierReads() {
+        InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(List.of(
+                new Document("_id", 1).append("name", "before").append("nested", new Document("city", "Seoul")),
+                new Document("_id", 2).append("name", "other")));
+
+        Document beforeUpdate = store.findAll().get(0);
+        Document untouched = store.findAll().get(1);
+        InMemoryCollectionStore snapshot = store.snapshot();
+        store.update(new Document("_id", 1), new Document("$set", new Document("name", "after")), false, false);
+
+        assertEquals("before", beforeUpdate.getString("name"));
+        assertEquals("after", store.findAll().get(0).getString("name"));
+        assertEquals("before", snapshot.findAll().get(0).getString("name"));
+        assertEquals(untouched, store.findAll().get(1));
+        assertSame(store.snapshotState().documents().get(1), snapshot.snapshotState().documents().get(1));
+    }
+
+    @Test
+    void snapshotsKeepServingTheirVersionThroughSharedIndexes() {
+        InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(
+                new CollectionStore.IndexDefinition("code_1", new Document("code", 1), true, false, null, null, null),
+                new CollectionStore.IndexDefinition("city_1", new Document("city", 1), false, false, null, null, null)));
+        final List<Document> seeded = new ArrayList<>();
+        for (int id = 0; id < 100; id++) {
+            seeded.add(new Document("_id", id).append("code", "c" + id).append("city", id % 2 == 0 ? "Seoul" : "Busan"));
+        }
+        store.insertMany(seeded);
+
+        InMemoryCollectionStore snapshot = store.snapshot();
+        store.update(new Document("_id", 0), new Document("$set", new Document("city", "Busan")), false, false);
+        store.deleteMany(new Document("_id", 2));
+        store.insertMany(List.of(new Document("_id", 100).append("code", "c100").append("city", "Seoul")));
+
+        assertEquals(50, snapshot.find(new Document("city", "Seoul")).size());
+        assertEquals(49, store.find(new Document("city", "Seoul")).size());
+        assertEquals(List.of(2), ids(snapshot.find(new Document("code", "c2"))));
+        assertEquals(List.of(), ids(store.find(new Document("code", "c2"))));
+
+        snapshot.insertMany(List.of(new Document("_id", 100).append("code", "c100")));
+        assertThrows(DuplicateKeyException.class,
+                () -> snapshot.insertMany(List.of(new Document("_id", 101).append("code", "c3"))));
+        store.insertMany(List.of(new Document("_id", 102).append("code", "c2")));
+        assertEquals(101, snapshot.findAll().size());
+        assertEquals(101, store.findAll().size());
+    }
+
+    @Test
+    void findEncodedCachesCanonicalBytesPerDocumentVersion() {
+        InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(List.of(
+                new Document("_id", 1).append("name", "before"),
+                new Document("_id", 2).append("name", "other")));
+
+        List<RawBsonDocument> firstRead = store.findEncoded(new Document(), CollationSupport.Config.simple());
+        List<RawBsonDocument> secondRead = store.findEncoded(new Document("_id", 1), CollationSupport.Config.simple());
+        assertEquals(2, firstRead.size());
+        assertSame(firstRead.get(0), secondRead.get(0));
+        assertEquals("before", firstRead.get(0).getString("name").getValue());
+
+        store.update(new Document("_id", 1), new Document("$set", new Document("name", "after")), false, false);
+
+        List<RawBsonDocument> afterUpdate = store.findEncoded(new Document(), CollationSupport.Config.simple());
+        assertEquals("after", afterUpdate.get(0).getString("name").getValue());
+        assertEquals("before", firstRead.get(0).getString("name").getValue());
+        assertSame(firstRead.get(1), afterUpdate.get(1));
+    }
+
+    @Test
+    void encodedDocumentCacheStaysWithinItsByteBudget() {
+        InMemoryCollectionStore store = new InMemoryCollectionStore(Clock.systemUTC(), 8 * 1024);
+        List<Document> seed = new ArrayList<>();
+        for (int id = 0; id < 200; id++) {
+            seed.add(new Document("_id", id).append("payload", "x".repeat(200)));
+        }
+        store.insertMany(seed);
+
+        List<RawBsonDocument> firstRead = store.findEncoded(new Document(), CollationSupport.Config.simple());
+        assertEquals(200, firstRead.size());
+        assertTrue(store.encodedCacheBytes() <= 8 * 1024);
+        assertTrue(store.encodedCacheBytes() > 0);
+
+        List<RawBsonDocument> recent = store.findEncoded(new Document("_id", 199), CollationSupport.Config.simple());
+        assertSame(firstRead.get(199), recent.get(0));
+        List<RawBsonDocument> evicted = store.findEncoded(new Document("_id", 0), CollationSupport.Config.simple());
+        assertNotSame(firstRead.get(0), evicted.get(0));
+        assertEquals(firstRead.get(0), evicted.get(0));
+        assertTrue(store.encodedCacheBytes() <= 8 * 1024);
+
+        store.deleteMany(new Document());
+        assertEquals(0, store.encodedCacheBytes());
+    }
+
+    @Test
+    void rawBsonStorageServesTheStoredBytesAndHandsOutDecodedCopies() {
+        InMemoryCollectionStore store = new InMemoryCollectionStore(Clock.systemUTC(), DocumentStorage.RAW_BSON);
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition(
+                "profile.city_1", new Document("profile.city", 1), true, false, null, null, null)));
+        store.insertMany(List.of(
+                new Document("_id", 1)
+                        .append("profile", new Document("city", "Oslo").append("tags", List.of("a", "b"))),
+                new Document("_id", 2).append("profile", new Document("city", "Rome")),
+                new Document("profile", new Document("city", "Lima"))));
+
+        List<RawBsonDocument> firstRead =
+                store.findEncoded(new Document("profile.city", "Oslo"), CollationSupport.Config.simple());
+        List<RawBsonDocument> secondRead =
+                store.findEncoded(new Document("profile.tags", "b"), CollationSupport.Config.simple());
+        assertEquals(1, firstRead.size());
+        assertSame(firstRead.get(0), secondRead.get(0));
+        assertEquals(0, store.encodedCacheBytes());
+        assertEquals(3, store.find(new Document("profile.city", new Document("$exists", true))).size());
+
+        Document copy = store.find(new Document("_id", 1)).get(0);
+        assertEquals(Document.class, copy.getClass());
+        assertEquals(Document.class, copy.get("profile").getClass());
+        copy.put("mutated", true);
+
+        assertThrows(DuplicateKeyException.class,
+                () -> store.insertMany(
+                        List.of(new Document("_id", 4).append("profile", new Document("city", "Rome")))));
+        store.update(
+                new Document("_id", 1), new Document("$set", new Document("profile.city", "Bergen")), false, false);
+
+        assertEquals("Oslo", firstRead.get(0).getDocument("profile").getString("city").getValue());
+        List<RawBsonDocument> afterUpdate =
+                store.findEncoded(new Document("profile.city", "Bergen"), CollationSupport.Config.simple());
+        assertEquals(1, afterUpdate.size());
+        assertFalse(afterUpdate.get(0).containsKey("mutated"));
+        assertEquals(List.of("a", "b"), store.find(new Document("_id", 1)).get(0).get("profile", Document.class)
+                .getList("tags", String.class));
+        assertEquals(0, store.encodedCacheBytes());
+    }
+
+    @Test
+    void iterateEncodedPagesLazilyAndSkipsDocumentsDeletedBeforeTheyArePulled() {
+        InMemoryCollectionStore store = new InMemoryCollectionStore();
+        List<Document> seed = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) {
+            seed.add(new Document("_id", id).append("even", id % 2 == 0));
+        }
+        store.insertMany(seed);
+
+        Iterator<RawBsonDocument> iterator =
+                store.iterateEncoded(new Document("even", true), CollationSupport.Config.simple());
+        assertTrue(iterator.hasNext());
+        assertEquals(2, iterator.next().getInt32("_id").getValue());
+
+        store.deleteMany(new Document("_id", new Document("$gte", 60)));
+
+        List<Integer> remaining = new ArrayList<>();
+        iterator.forEachRemaining(document -> remaining.add(document.getInt32("_id").getValue()));
+        assertEquals(28, remaining.size());
+        assertEquals(4, remaining.get(0));
+        assertEquals(58, remaining.get(remaining.size() - 1));
+    }
+
     @Test
     void namespaceIsolationIsHandledByEngineStore() {
         EngineStore engineStore = new InMemoryEngineStore();
@@ -583,6 +769,57 @@ class InMemoryCollectionStoreTest {
         assertEquals(3, store.findAll().size());
     }
 
+    @Test
+    void uniqueKeyTablesTrackDeletesUpdatesAndSparsePartialOptions() {
+        CollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(
+                new CollectionStore.IndexDefinition("email_1", new Document("email", 1), true, true, null, null),
+                new CollectionStore.IndexDefinition(
+                        "sku_1",
+                        new Document("sku", 1),
+                        true,
+                        false,
+                        new Document("active", true),
+                        null)));
+
+        store.insertMany(
+                List.of(
+                        new Document("_id", 1).append("email", "a@example.com").append("sku", "A").append("active", true),
+                        new Document("_id", 2).append("sku", "A").append("active", false),
+                        new Document("_id", 3).append("sku", "B").append("active", true)));
+
+        store.deleteMany(new Document("_id", 1));
+        store.insertMany(List.of(new Document("_id", 4).append("email", "a@example.com")));
+
+        assertThrows(
+                DuplicateKeyException.class,
+                () -> store.update(
+                        new Document("_id", 3),
+                        new Document("$set", new Document("email", "a@example.com")),
+                        false,
+                        false));
+        assertThrows(
+                DuplicateKeyException.class,
+                () -> store.update(
+                        new Document("_id", 2),
+                        new Document("$set", new Document("sku", "B").append("active", true)),
+                        false,
+                        false));
+
+        store.update(new Document("_id", 3), new Document("$set", new Document("sku", "C")), false, false);
+        store.update(new Document("_id", 2), new Document("$set", new Document("active", true)), false, false);
+        assertThrows(
+                DuplicateKeyException.class,
+                () -> store.update(
+                        new Document("_id", new Document("$in", List.of(2, 3))),
+                        new Document("$set", new Document("sku", "D")),
+                        true,
+                        false));
+
+        assertEquals("A", byId(store.findAll(), 2).getString("sku"));
+        assertEquals("C", byId(store.findAll(), 3).getString("sku"));
+    }
+
     @Test
     void listIndexesReturnsCollationMetadataAsDefensiveCopies() {
         CollectionStore store = new InMemoryCollectionStore();
@@ -663,6 +900,366 @@ class InMemoryCollectionStoreTest {
         assertEquals(2, store.findAll().get(0).getInteger("_id"));
     }
 
+    @Test
+    void secondaryIndexSeeksMatchCollectionScanResults() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(
+                List.of(
+                        new Document("_id", 1).append("score", 10).append("tags", List.of("a", "b")),
+                        new Document("_id", 2).append("score", 25L).append("tags", List.of("b")),
+                        new Document("_id", 3).append("score", 7.5).append("tags", List.of()),
+                        new Document("_id", 4).append("score", "high"),
+                        new Document("_id", 5).append("score", 40).append("tags", "c")));
+        store.createIndexes(
+                List.of(
+                        new CollectionStore.IndexDefinition("score_-1", new Document("score", -1), false),
+                        new CollectionStore.IndexDefinition(
+                                "tags_1_score_1", new Document("tags", 1).append("score", 1), false)));
+
+        assertEquals(List.of(1, 2), ids(store.find(new Document("score", new Document("$gte", 10).append("$lt", 40)))));
+        assertEquals(List.of(3, 5), ids(store.find(new Document("score", new Document("$in", List.of(7.5, 40))))));
+        assertEquals(List.of(4), ids(store.find(new Document("score", new Document("$gt", "a")))));
+        assertEquals(List.of(1, 2), ids(store.find(new Document("tags", "b"))));
+        assertEquals(List.of(2), ids(store.find(new Document("tags", "b").append("score", new Document("$gt", 10)))));
+        assertEquals(List.of(4), ids(store.find(new Document("tags", null))));
+        assertEquals(List.of(), ids(store.find(new Document("score", new Document("$gt", 50).append("$lt", 5)))));
+    }
+
+    @Test
+    void rangePredicatesOnMultikeyPathsAreNotIntersectedIntoOneSeek() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition("a_1", new Document("a", 1), false)));
+        store.insertMany(
+                List.of(
+                        new Document("_id", 1).append("a", 7),
+                        new Document("_id", 2).append("a", 30)));
+        final Document range = new Document("a", new Document("$gt", 5).append("$lt", 10));
+        assertEquals(List.of(1), ids(store.find(range)));
+
+        // 20 satisfies $gt and 1 satisfies $lt, so the document matches although no element lies in (5, 10).
+        store.insertMany(List.of(new Document("_id", 3).append("a", List.of(1, 20))));
+
+        assertEquals(List.of(1, 3), ids(store.find(range)));
+        assertEquals(
+                List.of(1, 3),
+                ids(store.find(new Document(
+                        "$and",
+                        List.of(
+                                new Document("a", new Document("$gt", 5)),
+                                new Document("a", new Document("$lt", 10)))))));
+        final List<Integer> scanned = new ArrayList<>();
+        for (final Document document : store.scan(range, null, null).documents()) {
+            scanned.add(document.getInteger("_id"));
+        }
+        assertEquals(List.of(1, 3), scanned);
+    }
+
+    @Test
+    void secondaryIndexesTrackUpdatesDeletesAndUpserts() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition("city_1", new Document("city", 1), false)));
+        store.insertMany(
+                List.of(
+                        new Document("_id", 1).append("city", "Seoul"),
+                        new Document("_id", 2).append("city", "Busan"),
+                        new Document("_id", 3).append("city", "Seoul")));
+
+        store.update(new Document("_id", 1), new Document("$set", new Document("city", "Incheon")), false, false);
+        store.deleteMany(new Document("city", "Busan"));
+        store.update(new Document("city", "Daegu"), new Document("$set", new Document("rank", 1)), false, true);
+
+        assertEquals(List.of(3), ids(store.find(new Document("city", "Seoul"))));
+        assertEquals(List.of(1), ids(store.find(new Document("city", "Incheon"))));
+        assertEquals(List.of(), ids(store.find(new Document("city", "Busan"))));
+        assertEquals(1, store.find(new Document("city", "Daegu")).size());
+        assertEquals(List.of(3), ids(store.snapshot().find(new Document("city", "Seoul"))));
+    }
+
+    @Test
+    void queryPlannerSeeksOnlyKeysWithinBounds() {
+        final SecondaryIndex index = SecondaryIndex.create("a_1_b_-1", new Document("a", 1).append("b", -1));
+        for (int i = 0; i < 20; i++) {
+            index.add(i, new Document("a", i % 4).append("b", i));
+        }
+
+        final SortedSet<Long> candidates = QueryPlanner.candidateRecordIds(
+                new Document("a", 1).append("b", new Document("$gt", 4).append("$lte", 13)),
+                CollationSupport.Config.simple(),
+                List.of(index),
+                null);
+
+        assertEquals(List.of(5L, 9L, 13L), new ArrayList<>(candidates));
+        assertNull(
+                QueryPlanner.candidateRecordIds(
+                        new Document("b", 3), CollationSupport.Config.simple(), List.of(index), null));
+    }
+
+    @Test
+    void queryPlansAreReusedPerShapeAndDroppedWhenIndexesChange() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(
+                List.of(
+                        new Document("_id", 1).append("city", "Seoul").append("rank", 2),
+                        new Document("_id", 2).append("city", "Busan").append("rank", 1)));
+
+        assertEquals(List.of(1), ids(store.find(new Document("city", "Seoul").append("rank", 2))));
+        assertEquals(List.of(1), ids(store.find(new Document("city", "Seoul").append("rank", 2))));
+        assertEquals(1, store.cachedPlanCount());
+
+        assertEquals(List.of(1), ids(store.find(new Document("rank", 2).append("city", "Seoul"))));
+        assertEquals(List.of(), ids(store.find(new Document("city", "Busan").append("rank", 2L))));
+        assertEquals(2, store.cachedPlanCount());
+
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition("city_1", new Document("city", 1), false)));
+        assertEquals(0, store.cachedPlanCount());
+        store.insertMany(List.of(new Document("_id", 3).append("city", "Seoul").append("rank", 2)));
+        assertEquals(List.of(1, 3), ids(store.find(new Document("city", "Seoul").append("rank", 2))));
+    }
+
+    @Test
+    void filtersOfOneShapeShareAPlanButMatchTheirOwnValues() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition("rank_1", new Document("rank", 1), false)));
+        final List<Document> documents = new ArrayList<>();
+        for (int id = 0; id < 500; id++) {
+            documents.add(new Document("_id", id).append("name", "user" + id).append("rank", id % 10));
+        }
+        store.insertMany(documents);
+
+        for (int id = 0; id < 500; id++) {
+            assertEquals(List.of(id), ids(store.find(new Document("_id", id))));
+        }
+        assertEquals(1, store.cachedPlanCount());
+
+        assertEquals(List.of(7, 17), ids(store.find(new Document("name", Pattern.compile("^user1?7$")))));
+        assertEquals(List.of(3), ids(store.find(new Document("name", Pattern.compile("^user3$")))));
+        assertEquals(2, store.cachedPlanCount());
+
+        assertEquals(50, store.find(new Document("rank", new Document("$gte", 9))).size());
+        assertEquals(450, store.find(new Document("rank", new Document("$gte", 1))).size());
+        assertEquals(
+                List.of(4, 14),
+                ids(store.find(new Document("$or", List.of(new Document("_id", 4), new Document("_id", 14))))));
+        assertEquals(
+                List.of(5, 15),
+                ids(store.find(new Document("$or", List.of(new Document("_id", 5), new Document("_id", 15))))));
+        assertEquals(4, store.cachedPlanCount());
+    }
+
+    @Test
+    void scanServesSortFromIndexUntilTheIndexBecomesMultikey() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition("rank_1", new Document("rank", 1), false)));
+        store.insertMany(
+                List.of(
+                        new Document("_id", 1).append("rank", 3),
+                        new Document("_id", 2).append("rank", 1),
+                        new Document("_id", 3),
+                        new Document("_id", 4).append("rank", 1)));
+
+        final CollectionStore.Scan sorted = store.scan(new Document(), new Document("rank", 1), null);
+        assertTrue(sorted.sorted());
+        assertEquals("rank_1", sorted.indexName());
+        assertEquals(List.of(3, 2, 4, 1), ids(drain(sorted.documents())));
+        assertFalse(store.scan(new Document(), new Document("rank", -1), null).sorted());
+
+        store.insertMany(List.of(new Document("_id", 5).append("rank", List.of(0, 9))));
+        final CollectionStore.Scan multikey = store.scan(new Document(), new Document("rank", 1), null);
+        assertFalse(multikey.sorted());
+        assertNull(multikey.indexName());
+    }
+
+    @Test
+    void planScanReportsTheAccessPathScanTakes() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition("rank_1", new Document("rank", 1), false)));
+        store.insertMany(List.of(new Document("_id", 1).append("rank", 3), new Document("_id", 2).append("rank", 1)));
+
+        final List<Document[]> cases = List.of(
+                new Document[] {new Document(), null},
+                new Document[] {new Document("_id", 1), null},
+                new Document[] {new Document("rank", new Document("$gt", 1)), null},
+                new Document[] {new Document(), new Document("rank", 1)},
+                new Document[] {new Document(), new Document("rank", -1)});
+        for (final Document[] query : cases) {
+            final CollectionStore.Scan scan = store.scan(query[0], query[1], null);
+            assertEquals(
+                    new CollectionStore.ScanPlan(scan.indexName(), scan.sorted()),
+                    store.planScan(query[0], query[1], null));
+        }
+        assertEquals(
+                new CollectionStore.ScanPlan("rank_1", true),
+                store.planScan(new Document(), new Document("rank", 1), null));
+    }
+
+    @Test
+    void idLookupMatchesCollectionScanForPointQueries() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(
+                List.of(
+                        new Document("_id", 1).append("v", "a"),
+                        new Document("_id", 2L).append("v", "b"),
+                        new Document("_id", "3").append("v", "c"),
+                        new Document("v", "d")));
+
+        for (final Object id : Arrays.asList(1, 1L, 1.0d, 2, 2L, "3", 3, null)) {
+            final Document scanFilter = new Document("$or", List.of(new Document("_id", id)));
+            assertEquals(store.find(scanFilter), store.find(new Document("_id", id)), "_id=" + id);
+        }
+        assertEquals(2, store.find(new Document("_id", new Document("$in", List.of(1, "3")))).size());
+        assertEquals(List.of(), store.find(new Document("_id", 1).append("v", "b")));
+
+        assertEquals(new DeleteManyResult(1, 1), store.deleteOne(new Document("_id", 2L)));
+        assertEquals(new DeleteManyResult(0, 0), store.deleteOne(new Document("_id", 2L)));
+        store.update(new Document("_id", 9), new Document("$set", new Document("v", "e")), false, true);
+        assertEquals("e", store.find(new Document("_id", 9)).get(0).getString("v"));
+        assertEquals(4, store.findAll().size());
+    }
+
+    @Test
+    void deleteOneRemovesFirstMatchInNaturalOrder() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(
+                List.of(
+                        new Document("_id", 3).append("group", "x"),
+                        new Document("_id", 1).append("group", "x"),
+                        new Document("_id", 2).append("group", "y")));
+
+        assertEquals(new DeleteManyResult(1, 1), store.deleteOne(new Document("group", "x")));
+        assertEquals(List.of(1, 2), ids(store.findAll()));
+        assertEquals(new DeleteManyResult(0, 0), store.deleteOne(new Document("group", "z")));
+    }
+
+    @Test
+    void readersProceedWhileAnotherReadIsInProgress() throws Exception {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.insertMany(List.of(new Document("_id", 1), new Document("_id", 2)));
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        final CompletableFuture<Integer> slowRead = CompletableFuture.supplyAsync(() -> store.readVersion(
+                store.pinVersion(),
+                pinned -> {
+                    reading.countDown();
+                    try {
+                        finish.await(10, TimeUnit.SECONDS);
+                    } catch (final InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return pinned.findAll().size();
+                }));
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        final CompletableFuture<Integer> concurrentRead =
+                CompletableFuture.supplyAsync(() -> store.find(new Document("_id", 2)).size());
+        assertEquals(1, concurrentRead.get(10, TimeUnit.SECONDS));
+
+        finish.countDown();
+        assertEquals(2, slowRead.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void bulkInsertAppendsAcrossChunksAndRejectsDuplicatesBeforeAppending() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition(
+                "code_1", new Document("code", 1), true, false, null, null, null)));
+        final int count = InMemoryCollectionStore.BULK_INSERT_CHUNK_SIZE * 2 + 10;
+        final List<Document> batch = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            batch.add(new Document("_id", id).append("code", "c" + id));
+        }
+
+        store.bulkInsert(batch);
+        assertEquals(count, store.findAll().size());
+        assertEquals(List.of(count - 1), ids(store.find(new Document("code", "c" + (count - 1)))));
+
+        final List<Document> conflicting = new ArrayList<>();
+        for (int id = count; id < count * 2; id++) {
+            conflicting.add(new Document("_id", id).append("code", "n" + id));
+        }
+        conflicting.add(new Document("_id", -1).append("code", "c5"));
+        assertThrows(DuplicateKeyException.class, () -> store.bulkInsert(conflicting));
+        assertEquals(count, store.findAll().size());
+    }
+
+    @Test
+    void bulkInsertHoldsItsKeysSoAConflictingWriteBetweenChunksFailsInstead() throws Exception {
+        final int count = InMemoryCollectionStore.BULK_INSERT_CHUNK_SIZE * 3;
+        final int lateId = count - 1;
+        for (int attempt = 0; attempt < 10; attempt++) {
+            final InMemoryCollectionStore store = new InMemoryCollectionStore();
+            final List<Document> batch = new ArrayList<>(count);
+            for (int id = 0; id < count; id++) {
+                batch.add(new Document("_id", id));
+            }
+            final CompletableFuture<Boolean> concurrentInsert = CompletableFuture.supplyAsync(() -> {
+                while (store.find(new Document("_id", 0)).isEmpty()) {
+                    Thread.onSpinWait();
+                }
+                try {
+                    store.insertMany(List.of(new Document("_id", lateId).append("concurrent", true)));
+                    return true;
+                } catch (final DuplicateKeyException duplicate) {
+                    return false;
+                }
+            });
+
+            store.bulkInsert(batch);
+
+            assertFalse(concurrentInsert.get(10, TimeUnit.SECONDS));
+            assertEquals(count, store.findAll().size());
+            assertFalse(store.find(new Document("_id", lateId)).get(0).containsKey("concurrent"));
+        }
+    }
+
+    @Test
+    void scansPageDocumentsFromTheStoreOnlyAsTheyAreConsumed() {
+        final InMemoryCollectionStore store = new InMemoryCollectionStore();
+        store.createIndexes(List.of(new CollectionStore.IndexDefinition("rank_1", new Document("rank", 1), false)));
+        final int count = InMemoryCollectionStore.INITIAL_PULL_SIZE * 8;
+        final List<Iterable<Document>> sources = new ArrayList<>();
+        final List<Document> batch = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            batch.add(new Document("_id", id).append("rank", count - id));
+        }
+        store.insertMany(batch);
+        sources.add(store.scanAll());
+        sources.add(store.scan(new Document("rank", new Document("$gt", 0)), null, null).documents());
+        sources.add(store.scan(new Document(), new Document("rank", 1), null).documents());
+
+        final List<Iterator<Document>> started = new ArrayList<>();
+        for (final Iterable<Document> source : sources) {
+            final Iterator<Document> iterator = source.iterator();
+            assertTrue(iterator.hasNext());
+            iterator.next();
+            started.add(iterator);
+        }
+        store.deleteMany(new Document());
+
+        for (final Iterator<Document> iterator : started) {
+            int pulled = 1;
+            while (iterator.hasNext()) {
+                iterator.next();
+                pulled++;
+            }
+            assertEquals(InMemoryCollectionStore.INITIAL_PULL_SIZE, pulled);
+        }
+    }
+
+    private static List<Document> drain(final Iterable<Document> documents) {
+        final List<Document> drained = new ArrayList<>();
+        documents.forEach(drained::add);
+        return drained;
+    }
+
+    private static List<Integer> ids(final List<Document> documents) {
+        final List<Integer> ids = new ArrayList<>(documents.size());
+        for (final Document document : documents) {
+            ids.add(document.getInteger("_id"));
+        }
+        return ids;
+    }
+
     private static Document byId(List<Document> documents, int id) {
         for (Document document : documents) {
             if (document.getInteger("_id") == id) {
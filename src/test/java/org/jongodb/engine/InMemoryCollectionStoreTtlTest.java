@@ -1,12 +1,16 @@
 package org.jongodb.engine;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.bson.Document;
 import org.junit.jupiter.api.Test;
 
@@ -103,6 +107,77 @@ class InMemoryCollectionStoreTtlTest {
         assertEquals(0, snapshot.collection("app", "sessions").findAll().size());
     }
 
+    @Test
+    void updatedExpiryMovesDocumentWithinTtlOrder() {
+        final MutableClock clock = new MutableClock(Instant.parse("2026-05-09T00:00:00Z"));
+        final InMemoryCollectionStore store = new InMemoryCollectionStore(clock);
+        store.createIndexes(List.of(ttlIndex("expiresAt_1", new Document("expiresAt", 1), 10L)));
+        store.insertMany(List.of(
+                new Document("_id", 1).append("expiresAt", Date.from(Instant.parse("2026-05-09T00:00:00Z"))),
+                new Document("_id", 2).append("expiresAt", Date.from(Instant.parse("2026-05-09T00:00:05Z")))));
+        store.update(
+                new Document("_id", 1),
+                new Document("$set", new Document("expiresAt", Date.from(Instant.parse("2026-05-09T00:01:00Z")))),
+                false,
+                false);
+
+        clock.setInstant(Instant.parse("2026-05-09T00:00:30Z"));
+        assertEquals(List.of(1), ids(store.findAll()));
+
+        clock.setInstant(Instant.parse("2026-05-09T00:01:10Z"));
+        assertEquals(List.of(), ids(store.findAll()));
+    }
+
+    @Test
+    void engineReapRemovesExpiredDocumentsWithoutReads() {
+        final MutableClock clock = new MutableClock(Instant.parse("2026-05-09T00:00:00Z"));
+        final InMemoryEngineStore engine = new InMemoryEngineStore(clock);
+        for (final String name : List.of("sessions", "tokens")) {
+            final CollectionStore collection = engine.collection("app", name);
+            collection.createIndexes(List.of(ttlIndex("expiresAt_1", new Document("expiresAt", 1), 0L)));
+            collection.insertMany(List.of(
+                    new Document("_id", 1).append("expiresAt", Date.from(Instant.parse("2026-05-09T00:00:01Z"))),
+                    new Document("_id", 2).append("expiresAt", Date.from(Instant.parse("2026-05-09T00:01:00Z")))));
+        }
+
+        assertEquals(0, engine.reapExpiredDocuments());
+        clock.setInstant(Instant.parse("2026-05-09T00:00:02Z"));
+        assertEquals(2, engine.reapExpiredDocuments());
+        assertEquals(0, engine.reapExpiredDocuments());
+        assertEquals(List.of(2), ids(engine.collection("app", "tokens").findAll()));
+    }
+
+    @Test
+    void ttlMonitorReapsInBackground() throws InterruptedException {
+        final MutableClock clock = new MutableClock(Instant.parse("2026-05-09T00:00:00Z"));
+        final InMemoryEngineStore engine = new InMemoryEngineStore(clock);
+        final CollectionStore collection = engine.collection("app", "sessions");
+        collection.createIndexes(List.of(ttlIndex("expiresAt_1", new Document("expiresAt", 1), 0L)));
+        collection.insertMany(List.of(
+                new Document("_id", 1).append("expiresAt", Date.from(Instant.parse("2026-05-09T00:00:01Z")))));
+
+        try (TtlMonitor monitor = engine.startTtlMonitor(Duration.ofMillis(5))) {
+            clock.setInstant(Instant.parse("2026-05-09T00:00:02Z"));
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (monitor.removedDocuments() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, monitor.removedDocuments());
+        }
+        assertEquals(0, collection.findAll().size());
+    }
+
+    @Test
+    void ttlMonitorRejectsIntervalsShorterThanOneMillisecond() {
+        final InMemoryEngineStore engine = new InMemoryEngineStore();
+        for (final Duration interval : List.of(Duration.ofNanos(999_999), Duration.ZERO, Duration.ofMillis(-5))) {
+            final IllegalArgumentException rejected =
+                    assertThrows(IllegalArgumentException.class, () -> engine.startTtlMonitor(interval));
+            assertTrue(rejected.getMessage().startsWith("interval must be at least 1 ms"), rejected.getMessage());
+        }
+        engine.startTtlMonitor(Duration.ofMillis(1)).close();
+    }
+
     private static CollectionStore.IndexDefinition ttlIndex(
             final String name, final Document key, final Long expireAfterSeconds) {
         return new CollectionStore.IndexDefinition(name, key, false, false, null, expireAfterSeconds);
@@ -113,7 +188,7 @@ class InMemoryCollectionStoreTtlTest {
     }
 
     private static final class MutableClock extends Clock {
-        private Instant instant;
+        private volatile Instant instant;
 
         private MutableClock(final Instant instant) {
             this.instant = instant;
@@ -0,0 +1,100 @@
+package org.jongodb.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class InMemoryEngineStoreSnapshotTest {
+    @Test
+    void snapshotKeepsReadingPinnedVersionAfterLiveWrites() {
+        final InMemoryEngineStore engine = new InMemoryEngineStore();
+        final CollectionStore users = engine.collection("app", "users");
+        users.insertMany(List.of(new Document("_id", 1).append("name", "before")));
+
+        final InMemoryEngineStore snapshot = engine.snapshot();
+        users.update(new Document("_id", 1), new Document("$set", new Document("name", "after")), false, false);
+        users.insertMany(List.of(new Document("_id", 2)));
+
+        final List<Document> pinned = snapshot.collection("app", "users").findAll();
+        assertEquals(1, pinned.size());
+        assertEquals("before", pinned.get(0).getString("name"));
+        assertEquals(2, engine.collection("app", "users").findAll().size());
+    }
+
+    @Test
+    void snapshotWritesStayPrivateAndForksSeeThem() {
+        final InMemoryEngineStore engine = new InMemoryEngineStore();
+        engine.collection("app", "users").insertMany(List.of(new Document("_id", 1)));
+
+        final InMemoryEngineStore snapshot = engine.snapshot();
+        snapshot.collection("app", "users").insertMany(List.of(new Document("_id", 2)));
+        final InMemoryEngineStore fork = snapshot.snapshot();
+        snapshot.collection("app", "users").deleteMany(new Document());
+
+        assertEquals(1, engine.collection("app", "users").findAll().size());
+        assertEquals(0, snapshot.collection("app", "users").findAll().size());
+        assertEquals(2, fork.collection("app", "users").findAll().size());
+    }
+
+    @Test
+    void releasedSnapshotNoLongerServesReads() {
+        final InMemoryEngineStore engine = new InMemoryEngineStore();
+        engine.collection("app", "users").insertMany(List.of(new Document("_id", 1)));
+
+        final InMemoryEngineStore snapshot = engine.snapshot();
+        snapshot.release();
+        engine.collection("app", "users").insertMany(List.of(new Document("_id", 2)));
+
+        assertThrows(IllegalStateException.class, () -> snapshot.collection("app", "users").findAll());
+    }
+
+    @Test
+    void commitReplaysTransactionWriteSetOverConcurrentWrites() {
+        final InMemoryEngineStore engine = new InMemoryEngineStore();
+        engine.collection("app", "users").insertMany(List.of(
+                new Document("_id", 1), new Document("_id", 2), new Document("_id", 3)));
+        final InMemoryEngineStore baseline = engine.snapshot();
+        final InMemoryEngineStore transaction = baseline.snapshot();
+
+        final CollectionStore transactionUsers = transaction.collection("app", "users");
+        transactionUsers.update(new Document("_id", 2), new Document("$set", new Document("v", "txn")), false, false);
+        transactionUsers.deleteOne(new Document("_id", 3));
+        transactionUsers.insertMany(List.of(new Document("_id", 4)));
+        transactionUsers.createIndexes(List.of(new CollectionStore.IndexDefinition(
+                "v_1", new Document("v", 1), false, false, null, null, null)));
+        transaction.collection("app", "events").insertMany(List.of(new Document("_id", "e1")));
+        engine.collection("app", "users").insertMany(List.of(new Document("_id", 5)));
+
+        engine.mergeTransactionSnapshot(baseline, transaction);
+
+        final CollectionStore users = engine.collection("app", "users");
+        assertEquals(Set.of(1, 2, 4, 5), ids(users.findAll()));
+        assertEquals("txn", users.find(new Document("_id", 2)).get(0).getString("v"));
+        assertEquals(2, users.listIndexes().size());
+        assertEquals(1, engine.collection("app", "events").findAll().size());
+    }
+
+    @Test
+    void commitRejectsInsertOfIdCreatedOutsideTransactionWithoutApplyingAnyWrite() {
+        final InMemoryEngineStore engine = new InMemoryEngineStore();
+        engine.collection("app", "users").insertMany(List.of(new Document("_id", 1)));
+        final InMemoryEngineStore baseline = engine.snapshot();
+        final InMemoryEngineStore transaction = baseline.snapshot();
+
+        transaction.collection("app", "users").deleteOne(new Document("_id", 1));
+        transaction.collection("app", "users").insertMany(List.of(new Document("_id", 2)));
+        engine.collection("app", "users").insertMany(List.of(new Document("_id", 2).append("origin", "outside")));
+
+        assertThrows(WriteConflictException.class, () -> engine.mergeTransactionSnapshot(baseline, transaction));
+        assertEquals(Set.of(1, 2), ids(engine.collection("app", "users").findAll()));
+    }
+
+    private static Set<Object> ids(final List<Document> documents) {
+        return documents.stream().map(document -> document.get("_id")).collect(Collectors.toSet());
+    }
+}
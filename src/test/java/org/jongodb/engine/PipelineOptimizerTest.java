@@ -0,0 +1,47 @@
+package org.jongodb.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class PipelineOptimizerTest {
+    @Test
+    void independentMatchesSinkBelowFieldAssignmentsAndCoalesce() {
+        final PipelineOptimizer.OptimizedPipeline optimized = PipelineOptimizer.optimize(List.of(
+                new Document("$match", new Document("tenant", "a")),
+                new Document("$addFields", new Document("total", new Document("$add", List.of("$x", "$y")))),
+                new Document("$match", new Document("status", "open")),
+                new Document("$match", new Document("total", new Document("$gt", 5))),
+                new Document("$sort", new Document("total", -1))));
+
+        assertEquals(
+                new Document("$and", List.of(new Document("tenant", "a"), new Document("status", "open"))),
+                optimized.filter());
+        assertNull(optimized.sort());
+        assertEquals(3, optimized.stages().size());
+        assertEquals("$addFields", optimized.stages().get(0).keySet().iterator().next());
+        assertEquals(new Document("$match", new Document("total", new Document("$gt", 5))), optimized.stages().get(1));
+    }
+
+    @Test
+    void leadingSortIsRestoredWhenScanCannotProvideItAndExclusionsMerge() {
+        final PipelineOptimizer.OptimizedPipeline optimized = PipelineOptimizer.optimize(List.of(
+                new Document("$sort", new Document("at", 1)),
+                new Document("$project", new Document("a", 0)),
+                new Document("$project", new Document("b", 0).append("_id", 0)),
+                new Document("$project", new Document("b.c", 0))));
+
+        assertNull(optimized.filter());
+        assertEquals(new Document("at", 1), optimized.sort());
+        assertEquals(
+                List.of(
+                        new Document("$project", new Document("a", 0).append("b", 0).append("_id", 0)),
+                        new Document("$project", new Document("b.c", 0))),
+                optimized.stages());
+        assertEquals(new Document("$sort", new Document("at", 1)), optimized.stagesAfter(false).get(0));
+        assertEquals(optimized.stages(), optimized.stagesAfter(true));
+    }
+}
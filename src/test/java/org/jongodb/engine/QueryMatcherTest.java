@@ -1,5 +1,6 @@
 package org.jongodb.engine;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -484,4 +485,52 @@ class QueryMatcherTest {
                                 document,
                                 new Document("$expr", new Document("$unknown", List.of(1, 1)))));
     }
+
+    @Test
+    void compiledFilterAgreesWithInterpreterAcrossDocuments() {
+        final List<Document> documents = List.of(
+                new Document("_id", 1).append("name", "Alpha").append("tags", List.of("a", "b")).append("n", 4),
+                new Document("_id", 2).append("name", "beta").append("tags", List.of("c")).append("n", 5L),
+                new Document("_id", 3).append("name", null).append("items", List.of(new Document("q", 2))),
+                new Document("_id", 4));
+        final List<Document> filters = List.of(
+                new Document("name", new Document("$regex", "^a").append("$options", "i")),
+                new Document("tags", new Document("$in", List.of("b", "z", Pattern.compile("^c")))),
+                new Document("name", new Document("$in", Arrays.asList("beta", null))),
+                new Document("tags", new Document("$nin", List.of("a"))),
+                new Document("n", new Document("$type", "long")),
+                new Document("n", new Document("$mod", List.of(2, 0)).append("$gte", 4)),
+                new Document("items", new Document("$elemMatch", new Document("q", new Document("$gt", 1)))),
+                new Document("tags", new Document("$all", List.of("a", Pattern.compile("b")))),
+                new Document("$or", List.of(new Document("n", 5L), new Document("name", new Document("$exists", false)))),
+                new Document("$nor", List.of(new Document("tags", new Document("$size", 1)))),
+                new Document("name", new Document("$not", Pattern.compile("^A"))));
+
+        for (final Document filter : filters) {
+            final QueryMatcher.CompiledFilter compiled = QueryMatcher.compile(filter, null);
+            for (final Document document : documents) {
+                assertEquals(QueryMatcher.matches(document, filter), compiled.matches(document), filter.toJson());
+            }
+        }
+    }
+
+    @Test
+    void compiledFilterReportsInvalidOperandsOnlyWhenEvaluated() {
+        final QueryMatcher.CompiledFilter compiled = QueryMatcher.compile(
+                new Document("role", "admin").append("score", new Document("$in", 1)), null);
+
+        assertFalse(compiled.matches(new Document("role", "user")));
+        assertThrows(IllegalArgumentException.class, () -> compiled.matches(new Document("role", "admin")));
+    }
+
+    @Test
+    void compiledInMatchesUnderCollation() {
+        final QueryMatcher.CompiledFilter compiled = QueryMatcher.compile(
+                new Document("name", new Document("$in", List.of("ALPHA", "gamma"))),
+                CollationSupport.Config.fromDocument(new Document("locale", "en").append("strength", 2)));
+
+        assertTrue(compiled.matches(new Document("name", "alpha")));
+        assertTrue(compiled.matches(new Document("name", List.of("x", "Gamma"))));
+        assertFalse(compiled.matches(new Document("name", "beta")));
+    }
 }
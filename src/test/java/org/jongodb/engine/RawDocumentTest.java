@@ -0,0 +1,96 @@
+package org.jongodb.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.Binary;
+import org.bson.types.Code;
+import org.bson.types.Decimal128;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+class RawDocumentTest {
+    @Test
+    void fieldsReadAsTheDocumentCodecDecodesThem() {
+        Document source = new Document("_id", new ObjectId())
+                .append("int", 1)
+                .append("long", 2L)
+                .append("double", 1.5)
+                .append("decimal", Decimal128.parse("2.50"))
+                .append("string", "text")
+                .append("bool", true)
+                .append("date", new Date(1_700_000_000_000L))
+                .append("null", null)
+                .append("binary", new Binary((byte) 0, new byte[] {1, 2}))
+                .append("regex", new BsonRegularExpression("^a", "i"))
+                .append("timestamp", new BsonTimestamp(5, 1))
+                .append("code", new Code("return 1"))
+                .append("min", new MinKey())
+                .append("max", new MaxKey())
+                .append("nested", new Document("inner", new Document("value", 3)))
+                .append("array", List.of(1, new Document("x", "y"), List.of("z")));
+        RawDocument raw = RawDocument.encode(source);
+        Document decoded = raw.decode();
+
+        for (String key : decoded.keySet()) {
+            Object value = raw.get(key);
+            if (value instanceof Document || value instanceof List<?>) {
+                assertEquals(value, decoded.get(key), key);
+            } else {
+                assertEquals(decoded.get(key), value, key);
+            }
+        }
+        assertInstanceOf(RawDocument.class, raw.get("nested"));
+        assertEquals(3, raw.get("nested", Document.class).get("inner", Document.class).getInteger("value"));
+        assertInstanceOf(RawDocument.class, raw.getList("array", Object.class).get(1));
+        assertTrue(raw.containsKey("null"));
+        assertNull(raw.get("missing"));
+        assertFalse(raw.containsKey("missing"));
+        assertEquals(decoded.size(), raw.size());
+        assertEquals(List.copyOf(decoded.keySet()), List.copyOf(raw.keySet()));
+    }
+
+    @Test
+    void equalsDecodedDocumentsAndRejectsWrites() {
+        RawDocument raw = RawDocument.encode(new Document("_id", 1).append("nested", new Document("a", List.of(1, 2))));
+        Document decoded = raw.decode();
+
+        assertEquals(raw, decoded);
+        assertEquals(decoded.hashCode(), raw.hashCode());
+        assertEquals(
+                raw, RawDocument.encode(new Document("nested", new Document("a", List.of(1, 2))).append("_id", 1)));
+        assertFalse(raw.equals(new Document("_id", 1L).append("nested", new Document("a", List.of(1, 2)))));
+        assertEquals(decoded, DocumentCopies.copy(raw));
+
+        assertThrows(UnsupportedOperationException.class, () -> raw.put("_id", 2));
+        assertThrows(UnsupportedOperationException.class, () -> raw.append("x", 1));
+        assertThrows(UnsupportedOperationException.class, () -> raw.remove("_id"));
+        assertThrows(UnsupportedOperationException.class, () -> raw.entrySet().clear());
+        decoded.put("_id", 2);
+        assertEquals(1, raw.getInteger("_id"));
+    }
+
+    @Test
+    void ofKeepsOnlyTheDocumentsOwnBytes() {
+        byte[] encoded = RawDocument.encode(new Document("_id", 7)).bytes().getByteBuffer().array();
+        byte[] message = new byte[encoded.length + 64];
+        System.arraycopy(encoded, 0, message, 32, encoded.length);
+
+        RawDocument raw = RawDocument.of(new RawBsonDocument(message, 32, encoded.length));
+
+        assertEquals(encoded.length, raw.bytes().getByteBuffer().array().length);
+        assertEquals(7, raw.getInteger("_id"));
+    }
+}
@@ -0,0 +1,61 @@
+package org.jongodb.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class SharedTreeMapTest {
+    @Test
+    void forksStayIndependentUnderRandomWrites() {
+        final Random random = new Random(42);
+        final List<SharedTreeMap<Integer, Integer>> maps = new ArrayList<>();
+        final List<TreeMap<Integer, Integer>> expected = new ArrayList<>();
+        maps.add(new SharedTreeMap<>(Integer::compare));
+        expected.add(new TreeMap<>());
+
+        for (int step = 0; step < 20_000; step++) {
+            final int target = random.nextInt(maps.size());
+            final int key = random.nextInt(500);
+            final int operation = random.nextInt(100);
+            if (operation < 55) {
+                assertEquals(expected.get(target).put(key, step), maps.get(target).put(key, step));
+            } else if (operation < 95) {
+                assertEquals(expected.get(target).remove(key), maps.get(target).remove(key));
+            } else if (maps.size() < 8) {
+                maps.add(maps.get(target).fork());
+                expected.add(new TreeMap<>(expected.get(target)));
+            }
+        }
+
+        for (int i = 0; i < maps.size(); i++) {
+            assertEquals(expected.get(i), maps.get(i));
+            assertEquals(expected.get(i).size(), maps.get(i).size());
+            assertEquals(expected.get(i).isEmpty() ? null : expected.get(i).firstKey(), maps.get(i).firstKey());
+        }
+    }
+
+    @Test
+    void boundedWalksFollowKeyOrder() {
+        final SharedTreeMap<Integer, String> map = new SharedTreeMap<>(Integer::compare);
+        for (int key = 9; key >= 0; key--) {
+            map.put(key, "v" + key);
+        }
+        final SharedTreeMap<Integer, String> fork = map.fork();
+        fork.remove(5);
+
+        final List<Integer> keys = new ArrayList<>();
+        map.keys(3, false, 6, true).forEach(keys::add);
+        assertEquals(List.of(4, 5, 6), keys);
+
+        final List<Integer> forkKeys = new ArrayList<>();
+        for (final Map.Entry<Integer, String> entry : fork.entries(3, true, null, false)) {
+            forkKeys.add(entry.getKey());
+        }
+        assertEquals(List.of(3, 4, 6, 7, 8, 9), forkKeys);
+    }
+}
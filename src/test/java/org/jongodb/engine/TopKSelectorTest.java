@@ -0,0 +1,27 @@
+package org.jongodb.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TopKSelectorTest {
+    @Test
+    void selectsSmallestElementsInOrderAndKeepsTiesStable() {
+        final List<String> source = List.of("b1", "a1", "c1", "a2", "b2", "a3");
+
+        final List<String> selected =
+                TopKSelector.select(source.iterator(), 4, Comparator.comparing(value -> value.charAt(0)));
+
+        assertEquals(List.of("a1", "a2", "a3", "b1"), selected);
+    }
+
+    @Test
+    void returnsEverythingSortedWhenKExceedsSourceSize() {
+        final List<Integer> selected = TopKSelector.select(List.of(3, 1, 2).iterator(), 10, Comparator.naturalOrder());
+
+        assertEquals(List.of(1, 2, 3), selected);
+        assertEquals(List.of(), TopKSelector.select(List.of(3, 1, 2).iterator(), 0, Comparator.<Integer>naturalOrder()));
+    }
+}
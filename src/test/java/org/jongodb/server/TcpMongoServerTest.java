@@ -1,7 +1,9 @@
 package org.jongodb.server;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.mongodb.client.MongoClient;
@@ -9,18 +11,32 @@ import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonArray;
 import org.bson.BsonBinaryWriter;
 import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.RawBsonDocument;
 import org.bson.codecs.BsonDocumentCodec;
 import org.bson.codecs.EncoderContext;
 import org.bson.io.BasicOutputBuffer;
+import org.jongodb.command.EngineBackedCommandStore;
 import org.jongodb.command.TopologyProfile;
+import org.jongodb.engine.InMemoryEngineStore;
+import org.jongodb.wire.MessageCompressor;
+import org.jongodb.wire.OpCompressedCodec;
+import org.jongodb.wire.OpMsg;
+import org.jongodb.wire.OpMsgCodec;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Test;
 
@@ -167,6 +183,397 @@ final class TcpMongoServerTest {
         }
     }
 
+    @Test
+    void nioCoreServesDriverTrafficIncludingMessagesLargerThanItsReadBuffer() {
+        final TcpServerOptions options = TcpServerOptions.defaults()
+                .withCore(TcpServerOptions.Core.NIO)
+                .withWorkerThreads(2);
+        try (TcpMongoServer server = new TcpMongoServer(
+                new EngineBackedCommandStore(new InMemoryEngineStore()),
+                "127.0.0.1",
+                0,
+                TopologyProfile.STANDALONE,
+                "jongodb-rs0",
+                options)) {
+            server.start();
+
+            try (MongoClient client = MongoClients.create(server.connectionString("app"))) {
+                final MongoCollection<org.bson.Document> users = client.getDatabase("app").getCollection("users");
+                final String payload = "x".repeat(200_000);
+                users.insertOne(new org.bson.Document("_id", 1).append("payload", payload));
+                users.insertOne(new org.bson.Document("_id", 2).append("payload", "small"));
+
+                assertEquals(2L, users.countDocuments());
+                final org.bson.Document found = users.find(new org.bson.Document("_id", 1)).first();
+                assertNotNull(found);
+                assertEquals(payload, found.getString("payload"));
+            }
+        }
+    }
+
+    @Test
+    void connectionsBeyondTheLimitAreClosedOnAccept() throws IOException {
+        for (final TcpServerOptions.Core core :
+                new TcpServerOptions.Core[] {TcpServerOptions.Core.PLATFORM_THREADS, TcpServerOptions.Core.NIO}) {
+            try (TcpMongoServer server = new TcpMongoServer(
+                    new EngineBackedCommandStore(new InMemoryEngineStore()),
+                    "127.0.0.1",
+                    0,
+                    TopologyProfile.STANDALONE,
+                    "jongodb-rs0",
+                    TcpServerOptions.defaults().withCore(core).withMaxConnections(1))) {
+                server.start();
+
+                try (Socket first = new Socket(server.host(), server.port());
+                        Socket second = new Socket(server.host(), server.port())) {
+                    final byte[] ping = encodeOpQueryCommand(7, "admin.$cmd", BsonDocument.parse("{\"ping\":1}"));
+                    first.getOutputStream().write(ping);
+                    final byte[] response = readMessage(new BufferedInputStream(first.getInputStream()));
+                    assertNotNull(response, core.name());
+                    assertEquals(1.0, decodeReplyDocument(response).getNumber("ok").doubleValue(), 0.0);
+
+                    second.setSoTimeout(2_000);
+                    assertEquals(-1, second.getInputStream().read(), core.name());
+                    assertEquals(1, server.connectionCount(), core.name());
+                }
+            }
+        }
+    }
+
+    @Test
+    void virtualThreadCoreRequiresJava21() {
+        final TcpServerOptions options = TcpServerOptions.defaults().withCore(TcpServerOptions.Core.VIRTUAL_THREADS);
+        if (Runtime.version().feature() < 21) {
+            assertThrows(IllegalStateException.class, () -> new TcpMongoServer(
+                    new EngineBackedCommandStore(new InMemoryEngineStore()),
+                    "127.0.0.1",
+                    0,
+                    TopologyProfile.STANDALONE,
+                    "jongodb-rs0",
+                    options));
+            return;
+        }
+        try (TcpMongoServer server = new TcpMongoServer(
+                new EngineBackedCommandStore(new InMemoryEngineStore()),
+                "127.0.0.1",
+                0,
+                TopologyProfile.STANDALONE,
+                "jongodb-rs0",
+                options)) {
+            server.start();
+            try (MongoClient client = MongoClients.create(server.connectionString("app"))) {
+                final BsonDocument ping = BsonDocument.parse(
+                        client.getDatabase("app").runCommand(BsonDocument.parse("{\"ping\":1}")).toJson());
+                assertEquals(1.0, ping.getNumber("ok").doubleValue(), 0.0);
+            }
+        }
+    }
+
+    @Test
+    void pipelinedRequestsHonorMoreToComeAndExhaustAllowed() throws IOException {
+        final OpMsgCodec codec = new OpMsgCodec();
+        for (final TcpServerOptions.Core core :
+                new TcpServerOptions.Core[] {TcpServerOptions.Core.PLATFORM_THREADS, TcpServerOptions.Core.NIO}) {
+            try (TcpMongoServer server = new TcpMongoServer(
+                    new EngineBackedCommandStore(new InMemoryEngineStore()),
+                    "127.0.0.1",
+                    0,
+                    TopologyProfile.STANDALONE,
+                    "jongodb-rs0",
+                    TcpServerOptions.defaults().withCore(core));
+                    Socket socket = new Socket()) {
+                server.start();
+                socket.connect(new InetSocketAddress(server.host(), server.port()));
+                socket.setSoTimeout(5_000);
+                final BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+
+                // Unacknowledged inserts and a find, written in one go before reading anything.
+                final ByteArrayOutputStream pipelined = new ByteArrayOutputStream();
+                for (int id = 1; id <= 5; id++) {
+                    pipelined.write(codec.encode(new OpMsg(
+                            id,
+                            0,
+                            OpMsg.MORE_TO_COME,
+                            BsonDocument.parse("{\"insert\": \"events\", \"documents\": [{\"_id\": " + id
+                                    + "}], \"writeConcern\": {\"w\": 0}, \"$db\": \"app\"}"))));
+                }
+                pipelined.write(codec.encode(new OpMsg(
+                        6,
+                        0,
+                        0,
+                        BsonDocument.parse("{\"find\": \"events\", \"sort\": {\"_id\": 1}, \"batchSize\": 1,"
+                                + " \"$db\": \"app\"}"))));
+                pipelined.write(codec.encode(new OpMsg(
+                        7, 0, 0, BsonDocument.parse("{\"ping\": 1, \"$db\": \"admin\"}"))));
+                socket.getOutputStream().write(pipelined.toByteArray());
+
+                final OpMsg findReply = codec.decode(readMessage(input));
+                assertEquals(6, findReply.responseTo(), core.name());
+                assertFalse(findReply.moreToCome(), core.name());
+                final BsonDocument cursor = findReply.body().getDocument("cursor");
+                assertEquals(1, cursor.getArray("firstBatch").size(), core.name());
+                final OpMsg pingReply = codec.decode(readMessage(input));
+                assertEquals(7, pingReply.responseTo(), core.name());
+
+                socket.getOutputStream().write(codec.encode(new OpMsg(
+                        8,
+                        0,
+                        OpMsg.EXHAUST_ALLOWED,
+                        new BsonDocument("getMore", cursor.get("id"))
+                                .append("collection", new BsonString("events"))
+                                .append("batchSize", new BsonInt32(1))
+                                .append("$db", new BsonString("app")))));
+
+                final List<Integer> streamedIds = new ArrayList<>();
+                int expectedResponseTo = 8;
+                while (true) {
+                    final OpMsg batch = codec.decode(readMessage(input));
+                    assertEquals(expectedResponseTo, batch.responseTo(), core.name());
+                    for (final BsonValue document : batch.body().getDocument("cursor").getArray("nextBatch")) {
+                        streamedIds.add(document.asDocument().getInt32("_id").getValue());
+                    }
+                    if (!batch.moreToCome()) {
+                        assertEquals(0L, batch.body().getDocument("cursor").getNumber("id").longValue(), core.name());
+                        break;
+                    }
+                    expectedResponseTo = batch.requestId();
+                }
+                assertEquals(List.of(2, 3, 4, 5), streamedIds, core.name());
+            }
+        }
+    }
+
+    @Test
+    void exhaustStreamToASlowReaderKeepsQueuedResponsesBounded() throws Exception {
+        final OpMsgCodec codec = new OpMsgCodec();
+        final int documentCount = 6_000;
+        final String payload = "x".repeat(4_000);
+        try (TcpMongoServer server = new TcpMongoServer(
+                new EngineBackedCommandStore(new InMemoryEngineStore()),
+                "127.0.0.1",
+                0,
+                TopologyProfile.STANDALONE,
+                "jongodb-rs0",
+                TcpServerOptions.defaults().withCore(TcpServerOptions.Core.NIO));
+                Socket socket = new Socket()) {
+            server.start();
+            socket.setReceiveBufferSize(16 * 1024);
+            socket.connect(new InetSocketAddress(server.host(), server.port()));
+            socket.setSoTimeout(10_000);
+            final BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+
+            final BsonArray documents = new BsonArray();
+            for (int id = 0; id < documentCount; id++) {
+                documents.add(new BsonDocument("_id", new BsonInt32(id)).append("payload", new BsonString(payload)));
+            }
+            final BsonDocument insert = new BsonDocument("insert", new BsonString("events"))
+                    .append("documents", documents)
+                    .append("$db", new BsonString("app"));
+            socket.getOutputStream().write(codec.encode(new OpMsg(1, 0, 0, insert)));
+            assertEquals(documentCount, codec.decode(readMessage(input)).body().getInt32("n").getValue());
+
+            socket.getOutputStream().write(codec.encode(new OpMsg(
+                    2, 0, 0, BsonDocument.parse("{\"find\": \"events\", \"batchSize\": 0, \"$db\": \"app\"}"))));
+            final BsonValue cursorId = codec.decode(readMessage(input)).body().getDocument("cursor").get("id");
+            socket.getOutputStream().write(codec.encode(new OpMsg(
+                    3,
+                    0,
+                    OpMsg.EXHAUST_ALLOWED,
+                    new BsonDocument("getMore", cursorId)
+                            .append("collection", new BsonString("events"))
+                            .append("batchSize", new BsonInt32(250))
+                            .append("$db", new BsonString("app")))));
+
+            // About 1 MB per batch and 24 MB in all, far more than the socket buffers hold while nothing is read.
+            long maxPending = 0L;
+            final long deadline = System.nanoTime() + 1_500_000_000L;
+            while (System.nanoTime() < deadline) {
+                maxPending = Math.max(maxPending, server.maxPendingResponseBytes());
+                Thread.sleep(10L);
+            }
+            assertTrue(maxPending > 0L);
+            assertTrue(
+                    maxPending <= NioServerCore.MAX_PENDING_WRITE_BYTES + 2L * 1024 * 1024,
+                    "queued response bytes: " + maxPending);
+
+            int streamed = 0;
+            while (true) {
+                final OpMsg batch = codec.decode(readMessage(input));
+                streamed += batch.body().getDocument("cursor").getArray("nextBatch").size();
+                if (!batch.moreToCome()) {
+                    break;
+                }
+            }
+            assertEquals(documentCount, streamed);
+        }
+    }
+
+    @Test
+    void exhaustStreamToASlowReaderDoesNotHoldTheOnlyWorker() throws Exception {
+        final OpMsgCodec codec = new OpMsgCodec();
+        final int documentCount = 3_000;
+        final String payload = "x".repeat(4_000);
+        try (TcpMongoServer server = new TcpMongoServer(
+                new EngineBackedCommandStore(new InMemoryEngineStore()),
+                "127.0.0.1",
+                0,
+                TopologyProfile.STANDALONE,
+                "jongodb-rs0",
+                TcpServerOptions.defaults().withCore(TcpServerOptions.Core.NIO).withWorkerThreads(1));
+                Socket slow = new Socket();
+                Socket other = new Socket()) {
+            server.start();
+            slow.setReceiveBufferSize(16 * 1024);
+            slow.connect(new InetSocketAddress(server.host(), server.port()));
+            slow.setSoTimeout(10_000);
+            final BufferedInputStream slowInput = new BufferedInputStream(slow.getInputStream());
+
+            final BsonArray documents = new BsonArray();
+            for (int id = 0; id < documentCount; id++) {
+                documents.add(new BsonDocument("_id", new BsonInt32(id)).append("payload", new BsonString(payload)));
+            }
+            final BsonDocument insert = new BsonDocument("insert", new BsonString("events"))
+                    .append("documents", documents)
+                    .append("$db", new BsonString("app"));
+            slow.getOutputStream().write(codec.encode(new OpMsg(1, 0, 0, insert)));
+            assertEquals(documentCount, codec.decode(readMessage(slowInput)).body().getInt32("n").getValue());
+            slow.getOutputStream().write(codec.encode(new OpMsg(
+                    2, 0, 0, BsonDocument.parse("{\"find\": \"events\", \"batchSize\": 0, \"$db\": \"app\"}"))));
+            final BsonValue cursorId = codec.decode(readMessage(slowInput)).body().getDocument("cursor").get("id");
+            slow.getOutputStream().write(codec.encode(new OpMsg(
+                    3,
+                    0,
+                    OpMsg.EXHAUST_ALLOWED,
+                    new BsonDocument("getMore", cursorId)
+                            .append("collection", new BsonString("events"))
+                            .append("batchSize", new BsonInt32(250))
+                            .append("$db", new BsonString("app")))));
+            final long deadline = System.nanoTime() + 5_000_000_000L;
+            while (server.maxPendingResponseBytes() < NioServerCore.MAX_PENDING_WRITE_BYTES
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10L);
+            }
+
+            other.connect(new InetSocketAddress(server.host(), server.port()));
+            other.setSoTimeout(5_000);
+            other.getOutputStream().write(codec.encode(new OpMsg(
+                    4, 0, 0, BsonDocument.parse("{\"ping\": 1, \"$db\": \"admin\"}"))));
+            final OpMsg pong = codec.decode(readMessage(new BufferedInputStream(other.getInputStream())));
+            assertEquals(4, pong.responseTo());
+            assertEquals(1.0, pong.body().getNumber("ok").doubleValue());
+
+            int streamed = 0;
+            while (true) {
+                final OpMsg batch = codec.decode(readMessage(slowInput));
+                streamed += batch.body().getDocument("cursor").getArray("nextBatch").size();
+                if (!batch.moreToCome()) {
+                    break;
+                }
+            }
+            assertEquals(documentCount, streamed);
+        }
+    }
+
+    @Test
+    void exhaustStreamOfManySmallBatchesDrainsInOrder() throws Exception {
+        final OpMsgCodec codec = new OpMsgCodec();
+        final int documentCount = 500;
+        try (TcpMongoServer server = new TcpMongoServer(
+                new EngineBackedCommandStore(new InMemoryEngineStore()),
+                "127.0.0.1",
+                0,
+                TopologyProfile.STANDALONE,
+                "jongodb-rs0",
+                TcpServerOptions.defaults().withCore(TcpServerOptions.Core.NIO));
+                Socket socket = new Socket()) {
+            server.start();
+            socket.connect(new InetSocketAddress(server.host(), server.port()));
+            socket.setSoTimeout(10_000);
+            final BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+
+            final BsonArray documents = new BsonArray();
+            for (int id = 0; id < documentCount; id++) {
+                documents.add(new BsonDocument("_id", new BsonInt32(id)));
+            }
+            final BsonDocument insert = new BsonDocument("insert", new BsonString("events"))
+                    .append("documents", documents)
+                    .append("$db", new BsonString("app"));
+            socket.getOutputStream().write(codec.encode(new OpMsg(1, 0, 0, insert)));
+            assertEquals(documentCount, codec.decode(readMessage(input)).body().getInt32("n").getValue());
+
+            socket.getOutputStream().write(codec.encode(new OpMsg(
+                    2, 0, 0, BsonDocument.parse("{\"find\": \"events\", \"batchSize\": 0, \"$db\": \"app\"}"))));
+            final BsonValue cursorId = codec.decode(readMessage(input)).body().getDocument("cursor").get("id");
+            socket.getOutputStream().write(codec.encode(new OpMsg(
+                    3,
+                    0,
+                    OpMsg.EXHAUST_ALLOWED,
+                    new BsonDocument("getMore", cursorId)
+                            .append("collection", new BsonString("events"))
+                            .append("batchSize", new BsonInt32(1))
+                            .append("$db", new BsonString("app")))));
+
+            // Hundreds of one-document replies queue up before anything is read, more than one gathering write takes.
+            Thread.sleep(300L);
+            final List<Integer> streamedIds = new ArrayList<>();
+            while (true) {
+                final OpMsg batch = codec.decode(readMessage(input));
+                for (final BsonValue document : batch.body().getDocument("cursor").getArray("nextBatch")) {
+                    streamedIds.add(document.asDocument().getInt32("_id").getValue());
+                }
+                if (!batch.moreToCome()) {
+                    break;
+                }
+            }
+            assertEquals(documentCount, streamedIds.size());
+            for (int index = 0; index < documentCount; index++) {
+                assertEquals(index, streamedIds.get(index));
+            }
+        }
+    }
+
+    @Test
+    void negotiatesZlibAndAnswersCompressedRequestsCompressed() throws IOException {
+        try (TcpMongoServer server = TcpMongoServer.inMemory()) {
+            server.start();
+
+            try (MongoClient client = MongoClients.create(server.connectionString("app") + "?compressors=zlib")) {
+                final MongoCollection<org.bson.Document> users = client.getDatabase("app").getCollection("users");
+                final String payload = "compressible ".repeat(50_000);
+                users.insertOne(new org.bson.Document("_id", 1).append("payload", payload));
+                final org.bson.Document found = users.find().first();
+                assertNotNull(found);
+                assertEquals(payload, found.getString("payload"));
+            }
+
+            final OpMsgCodec opMsgCodec = new OpMsgCodec();
+            final OpCompressedCodec compressedCodec = new OpCompressedCodec();
+            try (Socket socket = new Socket(server.host(), server.port())) {
+                socket.setSoTimeout(5_000);
+                final BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+
+                socket.getOutputStream().write(opMsgCodec.encode(new OpMsg(
+                        1,
+                        0,
+                        0,
+                        BsonDocument.parse("{\"hello\": 1, \"compression\": [\"zstd\", \"snappy\", \"zlib\"],"
+                                + " \"$db\": \"admin\"}"))));
+                final OpMsg hello = opMsgCodec.decode(readMessage(input));
+                assertEquals(List.of(new BsonString("zlib")), hello.body().getArray("compression").getValues());
+
+                final byte[] ping = opMsgCodec.encode(
+                        new OpMsg(2, 0, 0, BsonDocument.parse("{\"ping\": 1, \"$db\": \"admin\"}")));
+                socket.getOutputStream().write(compressedCodec.compress(ping, MessageCompressor.ZLIB));
+                final byte[] reply = readMessage(input);
+                assertEquals(OpCompressedCodec.OP_CODE, readIntLE(reply, 12));
+                assertEquals(MessageCompressor.ZLIB, compressedCodec.compressor(reply));
+                final OpMsg pingReply = opMsgCodec.decode(compressedCodec.decompress(reply));
+                assertEquals(2, pingReply.responseTo());
+                assertEquals(1.0, pingReply.body().getNumber("ok").doubleValue(), 0.0);
+            }
+        }
+    }
+
     private static byte[] encodeOpQueryCommand(final int requestId, final String namespace, final BsonDocument command) {
         final byte[] namespaceBytes = namespace.getBytes(StandardCharsets.UTF_8);
         final byte[] commandBytes = encodeBson(command);
@@ -0,0 +1,85 @@
+package org.jongodb.txn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import org.jongodb.command.CommandStore;
+import org.jongodb.command.EngineBackedCommandStore;
+import org.jongodb.engine.InMemoryEngineStore;
+import org.junit.jupiter.api.Test;
+
+class SessionTransactionPoolTest {
+    @Test
+    void heldTransactionsAreNotReapedAndTheirStoreIsReleasedOnceAfterTheLastUse() {
+        final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+        final List<CommandStore> released = new ArrayList<>();
+        final SessionTransactionPool pool = new SessionTransactionPool(clock, Duration.ofSeconds(60), released::add);
+        final CommandStore store = new EngineBackedCommandStore(new InMemoryEngineStore());
+        assertTrue(pool.startTransaction("session", 1, store));
+
+        final SessionTransactionPool.ActiveTransaction held = pool.acquireTransaction("session", 1);
+        assertNotNull(held);
+        clock.setInstant(clock.instant().plusSeconds(61));
+        assertEquals(0, pool.reapExpiredTransactionsIfDue());
+        assertTrue(pool.hasActiveTransaction("session", 1));
+
+        assertTrue(pool.completeTransaction("session", 1, SessionTransactionPool.TerminalState.COMMITTED));
+        assertTrue(released.isEmpty());
+        assertNull(pool.acquireTransaction("session", 1));
+        pool.releaseTransaction(held);
+        assertEquals(List.of(store), released);
+        assertEquals(SessionTransactionPool.TerminalState.COMMITTED, pool.terminalState("session", 1));
+    }
+
+    @Test
+    void expiredTransactionsAreReapedOnceNoCommandHoldsThem() {
+        final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+        final List<CommandStore> released = new ArrayList<>();
+        final SessionTransactionPool pool = new SessionTransactionPool(clock, Duration.ofSeconds(60), released::add);
+        final CommandStore store = new EngineBackedCommandStore(new InMemoryEngineStore());
+        assertTrue(pool.startTransaction("session", 1, store));
+        pool.releaseTransaction(pool.acquireTransaction("session", 1));
+
+        clock.setInstant(clock.instant().plusSeconds(61));
+        assertEquals(1, pool.reapExpiredTransactionsIfDue());
+        assertEquals(0, pool.reapExpiredTransactions());
+        assertEquals(List.of(store), released);
+        assertEquals(SessionTransactionPool.TerminalState.ABORTED, pool.terminalState("session", 1));
+        assertNull(pool.acquireTransaction("session", 1));
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        private MutableClock(final Instant instant) {
+            this.instant = instant;
+        }
+
+        private void setInstant(final Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
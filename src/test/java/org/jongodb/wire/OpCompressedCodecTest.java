@@ -0,0 +1,62 @@
+package org.jongodb.wire;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+
+class OpCompressedCodecTest {
+    private final OpMsgCodec opMsgCodec = new OpMsgCodec();
+    private final OpCompressedCodec codec = new OpCompressedCodec();
+
+    @Test
+    void roundTripsOpMsgThroughEachCompressor() {
+        final BsonDocument body = new BsonDocument("insert", new BsonString("events"))
+                .append("payload", new BsonString("x".repeat(10_000)))
+                .append("$db", new BsonString("app"));
+        final byte[] original = opMsgCodec.encode(new OpMsg(11, 3, 0, body));
+
+        for (final MessageCompressor compressor : MessageCompressor.values()) {
+            final byte[] compressed = codec.compress(original, compressor);
+            final ByteBuffer header = ByteBuffer.wrap(compressed).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(compressed.length, header.getInt(0));
+            assertEquals(11, header.getInt(4));
+            assertEquals(3, header.getInt(8));
+            assertEquals(OpCompressedCodec.OP_CODE, header.getInt(12));
+            assertEquals(OpMsg.OP_CODE, header.getInt(16));
+            assertEquals(original.length - 16, header.getInt(20));
+            assertEquals(compressor, codec.compressor(compressed));
+
+            assertArrayEquals(original, codec.decompress(compressed), compressor.name());
+        }
+        assertTrue(codec.compress(original, MessageCompressor.ZLIB).length < original.length / 10);
+    }
+
+    @Test
+    void advertisesOnlyImplementedCompressors() {
+        assertEquals(List.of("zlib"), MessageCompressor.negotiableNames());
+    }
+
+    @Test
+    void rejectsUnsupportedCompressorAndCorruptPayload() {
+        final byte[] original = opMsgCodec.encode(new OpMsg(1, 0, 0, BsonDocument.parse("{\"ping\": 1}")));
+
+        final byte[] snappy = codec.compress(original, MessageCompressor.ZLIB);
+        snappy[24] = 1;
+        assertThrows(IllegalArgumentException.class, () -> codec.decompress(snappy));
+
+        final byte[] corrupt = codec.compress(original, MessageCompressor.ZLIB);
+        corrupt[corrupt.length - 3] ^= 0x5A;
+        assertThrows(IllegalArgumentException.class, () -> codec.decompress(corrupt));
+
+        final byte[] nested = codec.compress(original, MessageCompressor.NOOP);
+        assertThrows(IllegalArgumentException.class, () -> codec.compress(nested, MessageCompressor.ZLIB));
+    }
+}
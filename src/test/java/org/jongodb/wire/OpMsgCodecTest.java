@@ -1,13 +1,19 @@
 package org.jongodb.wire;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 import org.bson.BsonBinaryWriter;
 import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
 import org.bson.codecs.BsonDocumentCodec;
 import org.bson.codecs.EncoderContext;
 import org.bson.io.BasicOutputBuffer;
@@ -31,6 +37,57 @@ class OpMsgCodecTest {
         assertEquals(0, decoded.sections().size());
     }
 
+    @Test
+    void roundTripsFlagBitsAndDocumentSequenceSections() {
+        final BsonDocument body = BsonDocument.parse("{\"insert\": \"events\", \"$db\": \"app\"}");
+        final BsonDocument first = BsonDocument.parse("{\"_id\": 1}");
+        final BsonDocument second = BsonDocument.parse("{\"_id\": 2}");
+        final OpMsg original = new OpMsg(
+                5,
+                0,
+                OpMsg.MORE_TO_COME | OpMsg.CHECKSUM_PRESENT,
+                body,
+                List.of(new OpMsgDocumentSequenceSection("documents", List.of(first, second))));
+
+        final OpMsg decoded = codec.decode(codec.encode(original));
+
+        assertEquals(OpMsg.MORE_TO_COME, decoded.flagBits());
+        assertTrue(decoded.moreToCome());
+        assertFalse(decoded.exhaustAllowed());
+        assertEquals(1, decoded.sections().size());
+        final OpMsgDocumentSequenceSection sequence = (OpMsgDocumentSequenceSection) decoded.sections().get(0);
+        assertEquals("documents", sequence.identifier());
+        assertEquals(List.of(first, second), sequence.documents());
+        assertEquals(2, decoded.body().getArray("documents").size());
+    }
+
+    @Test
+    void encodesInPlaceAfterExistingOutputAndPatchesLengths() {
+        final BsonDocument body = BsonDocument.parse("{\"cursor\": {\"id\": 0, \"firstBatch\": []}, \"ok\": 1.0}");
+        final OpMsg message = new OpMsg(
+                3,
+                9,
+                OpMsg.MORE_TO_COME,
+                body,
+                List.of(new OpMsgDocumentSequenceSection(
+                        "documents",
+                        List.of(BsonDocument.parse("{\"_id\": 1}"), BsonDocument.parse("{\"_id\": 2}")))));
+        final byte[] standalone = codec.encode(message);
+
+        final BasicOutputBuffer output = new BasicOutputBuffer();
+        output.writeBytes(new byte[] {1, 2, 3});
+        codec.encode(message, output);
+        codec.encode(message, output);
+
+        final byte[] written = output.toByteArray();
+        assertEquals(3 + 2 * standalone.length, written.length);
+        assertArrayEquals(standalone, Arrays.copyOfRange(written, 3, 3 + standalone.length));
+        assertArrayEquals(standalone, Arrays.copyOfRange(written, 3 + standalone.length, written.length));
+        final OpMsg decoded = codec.decode(standalone);
+        assertEquals(body.getDocument("cursor"), decoded.body().getDocument("cursor"));
+        assertEquals(2, decoded.body().getArray("documents").size());
+    }
+
     @Test
     void rejectsUnsupportedSectionKind() {
         final BsonDocument body = BsonDocument.parse("{\"ping\": 1, \"$db\": \"admin\"}");
@@ -59,6 +116,28 @@ class OpMsgCodecTest {
         assertEquals(OpMsgDocumentSequenceSection.KIND, decoded.sections().get(0).kind());
     }
 
+    @Test
+    void lazyDecodeKeepsBodyRawAndSequencesAsViewsOfTheMessage() {
+        final BsonDocument body = BsonDocument.parse("{\"insert\": \"tokens\", \"$db\": \"account\"}");
+        final BsonDocument first = BsonDocument.parse("{\"_id\": 1, \"value\": \"a\"}");
+        final BsonDocument second = BsonDocument.parse("{\"_id\": 2, \"value\": \"b\"}");
+        final byte[] message = encodeOpMsgWithDocumentSequence(99, 0, body, "documents", first, second);
+
+        final OpMsg decoded = codec.decodeLazy(message);
+
+        assertTrue(decoded.body() instanceof RawBsonDocument);
+        assertEquals(body, decoded.body());
+        final List<BsonDocument> documents = decoded.documentSequences().get("documents");
+        assertEquals(List.of(first, second), documents);
+        assertTrue(documents.get(0) instanceof RawBsonDocument);
+
+        // The documents are read from the message bytes on access, not copied at decode time.
+        final int firstLength = encodeDocument(first).length;
+        final int firstOffset = message.length - firstLength - encodeDocument(second).length;
+        message[firstOffset + firstLength - 3] = 'z'; // "a", then its terminator and the document's
+        assertEquals("z", decoded.documentSequences().get("documents").get(0).getString("value").getValue());
+    }
+
     @Test
     void decodesChecksumWhenFlagIsPresent() {
         final BsonDocument body = BsonDocument.parse("{\"ping\": 1, \"$db\": \"admin\"}");